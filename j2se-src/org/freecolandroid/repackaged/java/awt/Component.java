@@ -31,6 +31,27 @@ import android.R.dimen;
 
 
 public class Component {
+
+	/**
+	 * Receives the repaint requests of all components, so that the
+	 * surface showing them can be redrawn on demand.
+	 */
+	public interface RepaintListener {
+
+		/**
+		 * A component asks for a region of it to be repainted.
+		 * 
+		 * @param component The <code>Component</code> to repaint.
+		 * @param x The left of the region, relative to the component.
+		 * @param y The top of the region, relative to the component.
+		 * @param width The width of the region.
+		 * @param height The height of the region.
+		 */
+		void repaintRequested(Component component, int x, int y, int width,
+				int height);
+	}
+
+	private static volatile RepaintListener repaintListener = null;
 	
 	private Color background = Color.WHITE;
 	
@@ -181,12 +202,24 @@ public class Component {
 		mouseMotionListeners.remove(l);
 	}
 
+	/**
+	 * Sets the listener told of all repaint requests.
+	 * 
+	 * @param listener The <code>RepaintListener</code>, or null for none.
+	 */
+	public static void setRepaintListener(RepaintListener listener) {
+		repaintListener = listener;
+	}
+
 	public void repaint() {
-		// Does nothing
+		repaint(0, 0, getWidth(), getHeight());
 	}
 
 	public void repaint(int x, int y, int width, int height) {
-		// Does nothing
+		RepaintListener listener = repaintListener;
+		if (listener != null) {
+			listener.repaintRequested(this, x, y, width, height);
+		}
 	}
 
 	public void requestFocus() {
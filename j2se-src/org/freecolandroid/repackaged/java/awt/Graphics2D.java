@@ -25,6 +25,7 @@ import org.freecolandroid.repackaged.java.awt.image.BufferedImage;
 import org.freecolandroid.repackaged.java.awt.image.RescaleOp;
 
 import android.graphics.Canvas;
+import android.graphics.Rect;
 
 
 public class Graphics2D extends Graphics {
@@ -36,7 +37,10 @@ public class Graphics2D extends Graphics {
 	
 	public Graphics2D(Canvas canvas) {
 		this.canvas = canvas;
-		clipBounds = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+		// A canvas locked for a dirty region is clipped to it
+		Rect clip = canvas.getClipBounds();
+		clipBounds = new Rectangle(clip.left, clip.top, clip.width(),
+				clip.height());
 	}
 
 	public Graphics2D() {
@@ -63,6 +63,20 @@ public class BufferedImage extends Image {
 	public void setRGB(int biX, int biY, int color) {
 		bitmap.setPixel(biX, biY, color);
 	}
+
+	public int[] getRGB(int startX, int startY, int w, int h,
+			int[] rgbArray, int offset, int scansize) {
+		if (rgbArray == null) {
+			rgbArray = new int[offset + h * scansize];
+		}
+		bitmap.getPixels(rgbArray, offset, scansize, startX, startY, w, h);
+		return rgbArray;
+	}
+
+	public void setRGB(int startX, int startY, int w, int h,
+			int[] rgbArray, int offset, int scansize) {
+		bitmap.setPixels(rgbArray, offset, scansize, startX, startY, w, h);
+	}
 	
 	@Override
 	public int getWidth() {
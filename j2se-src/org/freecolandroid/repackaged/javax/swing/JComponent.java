@@ -153,12 +153,13 @@ public class JComponent extends Container {
             int y,
             int w,
             int h) {
-		// Does nothing
+		// Drawn by the next frame of the surface
+		repaint(x, y, w, h);
 	}
   
 	
 	public void paintImmediately(Rectangle r) {
-		// Does nothing
+		repaint(r);
 	}
 
 	public void registerKeyboardAction(ActionListener anAction,
@@ -172,11 +173,11 @@ public class JComponent extends Container {
 	}
 	
 	public void repaint(long tm, int x, int y, int width, int height) {
-		// Does nothing
+		repaint(x, y, width, height);
 	}
 
 	public void repaint(Rectangle r) {
-		// Does nothing
+		repaint(r.x, r.y, r.width, r.height);
 	}
 	
 	public boolean requestFocusInWindow() {
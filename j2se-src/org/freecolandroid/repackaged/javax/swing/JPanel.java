@@ -60,10 +60,6 @@ public class JPanel extends JComponent {
 		// Does nothing
 	}
 	
-	public void repaint() {
-		// Does nothing
-	}
-	
 	public void revalidate() {
 		// Does nothing
 	}
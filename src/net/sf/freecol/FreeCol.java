@@ -31,6 +31,7 @@ import java.util.jar.Manifest;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 import net.sf.freecol.client.FreeColClient;
 import net.sf.freecol.client.gui.i18n.Messages;
@@ -138,6 +139,43 @@ public final class FreeCol {
 
     private static int freeColTimeout = -1;
 
+    /** The number of threads the AI may use for planning. */
+    private static int aiThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The number of threads shared by the network message handlers. */
+    private static int messageHandlerThreads
+        = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /** The most messages a connection may have waiting to be handled. */
+    private static int messageQueueDepth = 256;
+
+    /** The most messages a connection may have waiting to be sent. */
+    private static int outboundQueueDepth = 64;
+
+    /** Disconnect connections with too many messages waiting? */
+    private static boolean evictSlowConsumers = false;
+
+    /** Offer or accept the binary message encoding at login? */
+    private static boolean binaryProtocol = true;
+
+    /**
+     * The most autosaves between full snapshots when saving
+     * incrementally, or zero to always save in full.
+     */
+    private static int autosaveSnapshotTurns = 0;
+
+    /** The compression level of savegames, from 0 to 9, or -1 for the default. */
+    private static int saveCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /** The most bytes of images to keep loaded. */
+    private static long imageCacheBudget = 32L * 1024 * 1024;
+
+    /**
+     * The longest time the map goes without being redrawn, in ms, or
+     * zero to only redraw it when asked.
+     */
+    private static long idleRefreshInterval = 30000L;
+
 
     private FreeCol() {
         // Hide constructor
@@ -924,6 +962,206 @@ public final class FreeCol {
         return freeColSeed;
     }
 
+    /**
+     * Gets the number of threads the AI may use for planning.
+     *
+     * @return The number of AI planning threads.
+     */
+    public static int getAIThreads() {
+        return aiThreads;
+    }
+
+    /**
+     * Sets the number of threads the AI may use for planning.
+     * One or fewer plans on the calling thread.
+     *
+     * @param threads The new number of AI planning threads.
+     */
+    public static void setAIThreads(int threads) {
+        aiThreads = threads;
+    }
+
+    /**
+     * Gets the number of threads shared by the network message handlers.
+     *
+     * @return The number of message handler threads.
+     */
+    public static int getMessageHandlerThreads() {
+        return messageHandlerThreads;
+    }
+
+    /**
+     * Sets the number of threads shared by the network message handlers.
+     * Only effective before the first message is handled.
+     *
+     * @param threads The new number of message handler threads.
+     */
+    public static void setMessageHandlerThreads(int threads) {
+        messageHandlerThreads = threads;
+    }
+
+    /**
+     * Gets the most messages a connection may have waiting to be handled.
+     *
+     * @return The message queue depth.
+     */
+    public static int getMessageQueueDepth() {
+        return messageQueueDepth;
+    }
+
+    /**
+     * Sets the most messages a connection may have waiting to be handled.
+     *
+     * @param depth The new message queue depth.
+     */
+    public static void setMessageQueueDepth(int depth) {
+        messageQueueDepth = depth;
+    }
+
+    /**
+     * Gets the most messages a connection may have waiting to be sent
+     * before the other side is disconnected as too slow, if slow
+     * consumers are evicted.
+     *
+     * @return The outbound queue depth.
+     */
+    public static int getOutboundQueueDepth() {
+        return outboundQueueDepth;
+    }
+
+    /**
+     * Sets the most messages a connection may have waiting to be sent.
+     *
+     * @param depth The new outbound queue depth.
+     */
+    public static void setOutboundQueueDepth(int depth) {
+        outboundQueueDepth = depth;
+    }
+
+    /**
+     * Are connections disconnected by default when more than
+     * {@link #getOutboundQueueDepth} messages are waiting to be sent?
+     *
+     * @return True if slow consumers are evicted.
+     */
+    public static boolean getEvictSlowConsumers() {
+        return evictSlowConsumers;
+    }
+
+    /**
+     * Sets whether slow consumers are evicted by default.  This is off
+     * by default, as a player connection should not be dropped for
+     * falling behind.
+     *
+     * @param evict True to evict slow consumers.
+     */
+    public static void setEvictSlowConsumers(boolean evict) {
+        evictSlowConsumers = evict;
+    }
+
+    /**
+     * Should the binary message encoding be offered (by a client) or
+     * accepted (by a server) at login?
+     *
+     * @return True if the binary message encoding may be used.
+     */
+    public static boolean getBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    /**
+     * Sets whether the binary message encoding may be used.  Only
+     * effective for connections made later.
+     *
+     * @param binary True if the binary message encoding may be used.
+     */
+    public static void setBinaryProtocol(boolean binary) {
+        binaryProtocol = binary;
+    }
+
+    /**
+     * Gets the most autosaves between full snapshots.  Autosaves in
+     * between only record the changes since the previous one.
+     *
+     * @return The number of autosaves per snapshot, or zero if
+     *     autosaves are always full.
+     */
+    public static int getAutosaveSnapshotTurns() {
+        return autosaveSnapshotTurns;
+    }
+
+    /**
+     * Sets the most autosaves between full snapshots.
+     *
+     * @param turns The number of autosaves per snapshot, or zero to
+     *     always save in full.
+     */
+    public static void setAutosaveSnapshotTurns(int turns) {
+        autosaveSnapshotTurns = turns;
+    }
+
+    /**
+     * Gets the compression level of savegames.
+     *
+     * @return The compression level, from 0 (none) to 9 (best), or -1
+     *     for the default level.
+     */
+    public static int getSaveCompressionLevel() {
+        return saveCompressionLevel;
+    }
+
+    /**
+     * Sets the compression level of savegames.  Lower levels save
+     * faster but make larger files.
+     *
+     * @param level The compression level, from 0 (none) to 9 (best),
+     *     or -1 for the default level.
+     */
+    public static void setSaveCompressionLevel(int level) {
+        saveCompressionLevel = level;
+    }
+
+    /**
+     * Gets the most bytes of images to keep loaded.
+     *
+     * @return The image cache budget in bytes.
+     */
+    public static long getImageCacheBudget() {
+        return imageCacheBudget;
+    }
+
+    /**
+     * Sets the most bytes of images to keep loaded.  The least
+     * recently used images beyond this are dropped, and loaded
+     * again when needed.
+     *
+     * @param budget The image cache budget in bytes.
+     */
+    public static void setImageCacheBudget(long budget) {
+        imageCacheBudget = budget;
+    }
+
+    /**
+     * Gets the longest time the map goes without being redrawn.
+     *
+     * @return The idle refresh interval in ms, or zero if none.
+     */
+    public static long getIdleRefreshInterval() {
+        return idleRefreshInterval;
+    }
+
+    /**
+     * Sets the longest time the map goes without being redrawn.  The
+     * map is normally redrawn when the client asks for it, this only
+     * catches changes that are not followed by such a request.
+     *
+     * @param interval The idle refresh interval in ms, or zero to
+     *     only redraw the map when asked.
+     */
+    public static void setIdleRefreshInterval(long interval) {
+        idleRefreshInterval = interval;
+    }
+
     /**
      * Increments the seed for the PRNG.
      */
@@ -21,6 +21,8 @@
 package net.sf.freecol.client.control;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -30,6 +32,9 @@ import java.io.StringWriter;
 import java.net.ConnectException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Logger;
 
 
@@ -60,8 +65,10 @@ import net.sf.freecol.common.networking.DOMMessage;
 import net.sf.freecol.common.networking.NoRouteToServerException;
 import net.sf.freecol.common.option.OptionGroup;
 import net.sf.freecol.common.resources.ResourceManager;
+import net.sf.freecol.common.resources.ResourceMapping;
 import net.sf.freecol.common.util.XMLStream;
 import net.sf.freecol.server.FreeColServer;
+import net.sf.freecol.server.SavegameWriter;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -261,6 +268,9 @@ public final class ConnectController {
             out.writeStartElement("login");
             out.writeAttribute("username", username);
             out.writeAttribute("freeColVersion", FreeCol.getVersion());
+            if (FreeCol.getBinaryProtocol()) {
+                out.writeAttribute("protocol", "binary");
+            }
             out.writeEndElement();
             in = c.getReply();
             System.out.println("Got reply=" + in.getLocalName());
@@ -270,6 +280,7 @@ public final class ConnectController {
                 boolean singleplayer = Boolean.valueOf(in.getAttributeValue(null, "singleplayer")).booleanValue();
                 boolean isCurrentPlayer = Boolean.valueOf(in.getAttributeValue(null, "isCurrentPlayer")).booleanValue();
                 String activeUnitId = in.getAttributeValue(null, "activeUnit");
+                c.setBinaryProtocol("binary".equals(in.getAttributeValue(null, "protocol")));
 
                 in.nextTag();
                 Game game = new Game(in, username);
@@ -355,6 +366,74 @@ public final class ConnectController {
     }
 
 
+    /**
+     * Starts a task on a new thread.
+     *
+     * @param task The <code>FutureTask</code> to run.
+     * @param name The name of the thread.
+     */
+    private static void startTask(FutureTask<?> task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts reading a file from a savegame on a new thread.
+     *
+     * @param fis The <code>FreeColSavegameFile</code> to read from.
+     * @param filename The name of the file within the savegame.
+     * @return A <code>FutureTask</code> giving the contents of the
+     *     file, or null if there is no such file.
+     */
+    private static FutureTask<byte[]> startReading(final FreeColSavegameFile fis,
+                                                   final String filename) {
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+                public byte[] call() throws IOException {
+                    InputStream in;
+                    try {
+                        in = fis.getInputStream(filename);
+                    } catch (FileNotFoundException e) {
+                        return null;
+                    }
+                    try {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[8192];
+                        int n;
+                        while ((n = in.read(buffer)) >= 0) {
+                            out.write(buffer, 0, n);
+                        }
+                        return out.toByteArray();
+                    } finally {
+                        in.close();
+                    }
+                }
+            });
+        startTask(task, "SavegameReader");
+        return task;
+    }
+
+    /**
+     * Waits for the result of a task.
+     *
+     * @param task The <code>FutureTask</code> to wait for.
+     * @return The result of the task.
+     * @exception IOException if the task failed.
+     */
+    private static <T> T getResult(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(String.valueOf(cause));
+        }
+    }
+
     /**
     * Opens a dialog where the user should specify the filename
     * and loads the game.
@@ -393,8 +472,13 @@ public final class ConnectController {
         final int port;
         XMLStream xs = null;
         try {
+            // Let any autosave still being written finish first.
+            SavegameWriter.awaitIdle();
+
             // Get suggestions for "singleplayer" and "public game" settings from the file:
             final FreeColSavegameFile fis = new FreeColSavegameFile(theFile);
+            final FutureTask<byte[]> clientOptions
+                = startReading(fis, FreeColSavegameFile.CLIENT_OPTIONS);
             xs = new XMLStream(fis.getSavegameInputStream());
             final XMLStreamReader in = xs.getXMLStreamReader();
             in.nextTag();
@@ -409,13 +493,12 @@ public final class ConnectController {
             xs.close();
 
             // Reload the client options saved with this game.
-            try {
+            byte[] clientOptionsData = getResult(clientOptions);
+            if (clientOptionsData != null) {
                 ClientOptions options = freeColClient.getClientOptions();
-                options.updateOptions(fis.getInputStream(FreeColSavegameFile.CLIENT_OPTIONS));
+                options.updateOptions(new ByteArrayInputStream(clientOptionsData));
                 options.fixClientOptions();
-            } catch (FileNotFoundException e) {
-                // no client options, we don't care
-            }
+            } // else no client options, we don't care
             final int sgo = freeColClient.getClientOptions().getInteger(ClientOptions.SHOW_SAVEGAME_SETTINGS);
             if (sgo == ClientOptions.SHOW_SAVEGAME_SETTINGS_ALWAYS
                     || !defaultSingleplayer && sgo == ClientOptions.SHOW_SAVEGAME_SETTINGS_MULTIPLAYER) {
@@ -468,14 +551,24 @@ public final class ConnectController {
                 FreeColServer freeColServer = null;
                 try {
                     final FreeColSavegameFile savegame = new FreeColSavegameFile(theFile);
+                    // Read the scenario resources while the server
+                    // parses the game.
+                    final FutureTask<ResourceMapping> resources
+                        = new FutureTask<ResourceMapping>(new Callable<ResourceMapping>() {
+                                public ResourceMapping call() {
+                                    return savegame.getResourceMapping();
+                                }
+                            });
+                    startTask(resources, "ResourceReader");
                     freeColServer = new FreeColServer(savegame, port, name);
+                    final ResourceMapping mapping = getResult(resources);
                     freeColClient.setFreeColServer(freeColServer);
                     final String username = freeColServer.getOwner();
                     freeColClient.setSingleplayer(singleplayer);
                     freeColClient.getInGameController().setGameConnected();
                     SwingUtilities.invokeLater( new Runnable() {
                         public void run() {
-                            ResourceManager.setScenarioMapping(savegame.getResourceMapping());
+                            ResourceManager.setScenarioMapping(mapping);
                             login(username, "127.0.0.1", FreeCol.getDefaultPort());
                             gui.closeStatusPanel();
                         }
@@ -38,6 +38,7 @@ import net.sf.freecol.client.FreeColClient;
 import net.sf.freecol.client.gui.GUI;
 import net.sf.freecol.client.gui.i18n.Messages;
 import net.sf.freecol.client.gui.panel.ChoiceItem;
+import net.sf.freecol.common.io.FreeColSavegameFile;
 import net.sf.freecol.common.model.Ability;
 import net.sf.freecol.common.model.AbstractGoods;
 import net.sf.freecol.common.model.AbstractUnit;
@@ -94,6 +95,7 @@ import net.sf.freecol.common.networking.NetworkConstants;
 import net.sf.freecol.common.networking.ServerAPI;
 import net.sf.freecol.common.option.BooleanOption;
 import net.sf.freecol.server.FreeColServer;
+import net.sf.freecol.server.SavegameWriter;
 
 import org.freecolandroid.debug.FCLog;
 import org.freecolandroid.repackaged.javax.swing.ImageIcon;
@@ -919,12 +921,25 @@ public final class InGameController implements NetworkConstants {
         File saveGameFile = new File(autosaveDir, filename);
         File beforeSaveFile = new File(autosaveDir, beforeFilename);
 
-        // if "last-turn" file exists, shift it to "before-last-turn" file
-        if (saveGameFile.exists()) {
-           beforeSaveFile.delete();
-           saveGameFile.renameTo(beforeSaveFile);
-        }
-        saveGame(saveGameFile);
+        if (FreeCol.getAutosaveSnapshotTurns() <= 0) {
+            // if "last-turn" file exists, shift it to "before-last-turn"
+            // file, after any save to it still being written
+            final File lastFile = saveGameFile;
+            final File beforeFile = beforeSaveFile;
+            SavegameWriter.submit(new Runnable() {
+                    public void run() {
+                        if (!lastFile.exists()) return;
+                        File deltaFile = FreeColSavegameFile.getDeltaFile(lastFile);
+                        File beforeDeltaFile
+                            = FreeColSavegameFile.getDeltaFile(beforeFile);
+                        beforeFile.delete();
+                        beforeDeltaFile.delete();
+                        lastFile.renameTo(beforeFile);
+                        deltaFile.renameTo(beforeDeltaFile);
+                    }
+                });
+        } // else incremental saves keep adding to the "last-turn" file
+        autosaveGame(saveGameFile, true);
 
         // conditional save after user-set period
         ClientOptions options = freeColClient.getClientOptions();
@@ -940,7 +955,7 @@ public final class InGameController implements NetworkConstants {
                 + '-' + gid  + "_" + playerNation
                 + "_" + getSaveGameString(game.getTurn()) + ".fsg";
             saveGameFile = new File(autosaveDir, filename);
-            saveGame(saveGameFile);
+            autosaveGame(saveGameFile, false);
         }
     }
 
@@ -1099,6 +1114,52 @@ public final class InGameController implements NetworkConstants {
         return result;
     }
 
+    /**
+     * Saves the game to the given autosave file on a background
+     * thread, so that play can continue while it is written.
+     *
+     * @param file The <code>File</code>.
+     * @param lastTurn True for the "last-turn" autosave, which may be
+     *     saved incrementally (see {@link FreeColServer#autosaveGame}).
+     * @return True if the game was copied for saving.
+     */
+    private boolean autosaveGame(final File file, boolean lastTurn) {
+        FreeColServer server = freeColClient.getFreeColServer();
+        final String username = freeColClient.getMyPlayer().getName();
+        final ClientOptions options = freeColClient.getClientOptions();
+        SavegameWriter.Listener listener = new SavegameWriter.Listener() {
+                public void saveProgress(File f, long written, long total) {}
+
+                public void saveDone(File f, IOException error) {
+                    if (error == null) {
+                        FCLog.log("Autosave done");
+                        return;
+                    }
+                    FCLog.log("Failed to autosave game", error);
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                gui.errorMessage("couldNotSaveGame");
+                            }
+                        });
+                }
+            };
+        try {
+            server.setActiveUnit(gui.getActiveUnit());
+            if (lastTurn) {
+                server.autosaveGame(file, username, options, listener);
+            } else {
+                server.saveGameInBackground(file, username, options, null,
+                                            listener);
+            }
+            lastSaveGameFile = file;
+            return true;
+        } catch (IOException e) {
+            FCLog.log("Failed to autosave game", e);
+            gui.errorMessage("couldNotSaveGame");
+            return false;
+        }
+    }
+
     /**
      * Saves the game to a fix-named file in the autosave directory, which may
      * be used for quick-reload.
@@ -963,6 +963,7 @@ public final class InGameInputHandler extends InputHandler {
                 logger.warning("Object is not a unit: " + ((fcgo == null) ? "null" : fcgo.getId()));
             }
         }
+        new RefreshCanvasSwingTask().invokeLater();
         return null;
     }
 
@@ -22,7 +22,9 @@ package net.sf.freecol.client.gui;
 
 import android.util.Log;
 
+import java.util.HashSet;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.freecolandroid.repackaged.java.awt.Color;
@@ -131,6 +133,18 @@ public final class ImageLibrary {
      */
     private final float scalingFactor;
 
+    /**
+     * The keys of the map images used in the view being drawn, or
+     * null if no view is being drawn.
+     */
+    private Set<String> viewKeys = null;
+
+    /** The thread drawing the view. */
+    private Thread viewThread = null;
+
+    /** The keys of the map images pinned for the last view drawn. */
+    private Set<String> pinnedKeys = new HashSet<String>();
+
     /**
      * The constructor to use.
      *
@@ -144,6 +158,66 @@ public final class ImageLibrary {
         this.scalingFactor = scalingFactor;
     }
 
+    /**
+     * Starts drawing a view of the map.  The tile and unit images
+     * used until {@link #endView} are pinned in the image cache, so
+     * that they are not evicted while they are on screen.
+     */
+    public void beginView() {
+        viewKeys = new HashSet<String>();
+        viewThread = Thread.currentThread();
+    }
+
+    /**
+     * Ends drawing a view of the map, and unpins the images of the
+     * previous view that were not used in this one, as they have left
+     * the view.
+     */
+    public void endView() {
+        final Set<String> keys = viewKeys;
+        viewKeys = null;
+        viewThread = null;
+        if (keys == null) return;
+        for (String key : pinnedKeys) {
+            if (!keys.contains(key)) ResourceManager.unpinImage(key);
+        }
+        pinnedKeys = keys;
+    }
+
+    /**
+     * Unpins all the images of the last view drawn, as the map is no
+     * longer shown.
+     */
+    public void clearView() {
+        beginView();
+        endView();
+    }
+
+    /**
+     * Notes that a map image is used in the view being drawn, and
+     * pins it if it was not in the last view.
+     *
+     * @param key The name of the image resource.
+     */
+    private void useInView(String key) {
+        if (viewKeys != null && viewThread == Thread.currentThread()
+            && viewKeys.add(key) && !pinnedKeys.contains(key)) {
+            ResourceManager.pinImage(key);
+        }
+    }
+
+    /**
+     * Gets a map image, pinning it if it is used in the view.
+     *
+     * @param key The name of the image resource.
+     * @param scale The scale of the image.
+     * @return The <code>Image</code>, or null if not found.
+     */
+    private Image getViewImage(String key, double scale) {
+        useInView(key);
+        return ResourceManager.getImage(key, scale);
+    }
+
     /**
      * Returns the alarm chip with the given color.
      *
@@ -170,8 +244,8 @@ public final class ImageLibrary {
      * @return The image at the given index.
      */
     public Image getBeachCornerImage(int index, int x, int y) {
-        return ResourceManager.getImage("model.tile.beach.corner" + index
-                                        + (isEven(x, y) ? "_even" : "_odd"), scalingFactor);
+        return getViewImage("model.tile.beach.corner" + index
+                            + (isEven(x, y) ? "_even" : "_odd"), scalingFactor);
     }
 
     /**
@@ -183,8 +257,8 @@ public final class ImageLibrary {
      * @return The image at the given index.
      */
     public Image getBeachEdgeImage(int index, int x, int y) {
-        return ResourceManager.getImage("model.tile.beach.edge" + index
-                                        + (isEven(x, y) ? "_even" : "_odd"), scalingFactor);
+        return getViewImage("model.tile.beach.edge" + index
+                            + (isEven(x, y) ? "_even" : "_odd"), scalingFactor);
     }
 
     public Image getBonusImage(ResourceType type) {
@@ -192,7 +266,7 @@ public final class ImageLibrary {
     }
 
     public Image getBonusImage(ResourceType type, double scale) {
-        return ResourceManager.getImage(type.getId() + ".image", scale);
+        return getViewImage(type.getId() + ".image", scale);
     }
 
     /**
@@ -232,9 +306,9 @@ public final class ImageLibrary {
      */
     public Image getBorderImage(TileType type, Direction direction, int x, int y) {
         String key = (type == null) ? "model.tile.unexplored" : type.getId();
-        return ResourceManager.getImage(key + ".border_" + direction
-                                        + (isEven(x, y) ?  "_even" : "_odd")
-                                        + ".image", scalingFactor);
+        return getViewImage(key + ".border_" + direction
+                            + (isEven(x, y) ?  "_even" : "_odd")
+                            + ".image", scalingFactor);
     }
 
 
@@ -248,7 +322,7 @@ public final class ImageLibrary {
      * @param y an <code>int</code> value
      * @return a <code>boolean</code> value
      */
-    private boolean isEven(int x, int y) {
+    boolean isEven(int x, int y) {
         return ((y % 8 <= 2) || ((x + y) % 2 == 0 ));
     }
 
@@ -387,7 +461,7 @@ public final class ImageLibrary {
     }
 
     public Image getForestImage(TileType type, double scale) {
-        return ResourceManager.getImage(type.getId() + ".forest", scale);
+        return getViewImage(type.getId() + ".forest", scale);
     }
 
     /**
@@ -499,7 +573,7 @@ public final class ImageLibrary {
     }
 
     public Image getMiscImage(String id, double scale) {
-        return ResourceManager.getImage(id, scale);
+        return getViewImage(id, scale);
     }
 
     /**
@@ -568,7 +642,7 @@ public final class ImageLibrary {
     public Image getOverlayImage(TileType type, int x, int y, double scale) {
         String key = type.getId() + ".overlay" + ((x + y) % 2) + ".image";
         if (ResourceManager.hasResource(key)) {
-            return ResourceManager.getImage(key, scale);
+            return getViewImage(key, scale);
         } else {
             return null;
         }
@@ -613,7 +687,7 @@ public final class ImageLibrary {
     }
 
     public Image getRiverImage(int index, double scale) {
-        return ResourceManager.getImage("model.tile.river" + index, scale);
+        return getViewImage("model.tile.river" + index, scale);
     }
 
     /**
@@ -629,7 +703,7 @@ public final class ImageLibrary {
      */
     public Image getRiverMouthImage(Direction direction, int magnitude, int x, int y) {
         String key = "model.tile.delta_" + direction + (magnitude == 1 ? "_small" : "_large");
-        return ResourceManager.getImage(key, scalingFactor);
+        return getViewImage(key, scalingFactor);
     }
 
     public ImageIcon getScaledBonusImageIcon(ResourceType type, float scale) {
@@ -685,7 +759,7 @@ public final class ImageLibrary {
      * @return The graphics that will represent the given settlement.
      */
     public Image getSettlementImage(Settlement settlement, double scale) {
-        return ResourceManager.getImage(settlement.getImageKey(), scale);
+        return getViewImage(settlement.getImageKey(), scale);
     }
 
     /**
@@ -699,7 +773,7 @@ public final class ImageLibrary {
     }
 
     public Image getSettlementImage(SettlementType settlementType, double scale) {
-        return ResourceManager.getImage(settlementType.getId() + ".image", scale);
+        return getViewImage(settlementType.getId() + ".image", scale);
     }
 
     /**
@@ -718,7 +792,7 @@ public final class ImageLibrary {
 
     public Image getTerrainImage(TileType type, int x, int y, double scale) {
         String key = (type == null) ? "model.tile.unexplored" : type.getId();
-        Image img = ResourceManager.getImage(key + ".center" + (isEven(x, y) ? "0" : "1")
+        Image img = getViewImage(key + ".center" + (isEven(x, y) ? "0" : "1")
                 + ".image", scale);
         if(img==null){
             Log.d("err",key + ".center" + (isEven(x, y) ? "0" : "1") + ".image not exist!");
@@ -826,6 +900,7 @@ public final class ImageLibrary {
             + (nativeEthnicity ? ".native" : "")
             + ".image";
         Image image = null;
+        useInView(key);
         if (grayscale) {
             image = ResourceManager.getGrayscaleImage(key, scale);
         } else {
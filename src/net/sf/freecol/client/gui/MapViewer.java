@@ -134,6 +134,13 @@ public final class MapViewer {
      */
     private ImageLibrary lib;
 
+    /** The composited base layers of the tiles. */
+    private final TileImageCache baseTileCache = new TileImageCache();
+
+    /** The signature of the tile being drawn, reused for each tile. */
+    private final int[] baseTileSignature
+        = new int[TileImageCache.SIGNATURE_LENGTH];
+
     private TerrainCursor cursor;
     private ViewMode viewMode;
     private final Vector<GUIMessage> messages;
@@ -854,8 +861,15 @@ public final class MapViewer {
                 && (focus != null)
                 && freeColClient.isInGame()) {
             removeOldMessages();
-            displayMap(g);
+            // Keep the images on screen in the image cache.
+            lib.beginView();
+            try {
+                displayMap(g);
+            } finally {
+                lib.endView();
+            }
         } else {
+            lib.clearView();
             if (freeColClient.isMapEditor()) {
                 g.setColor(Color.black);
                 g.fillRect(0, 0, size.width, size.height);
@@ -1323,6 +1337,13 @@ public final class MapViewer {
             activeUnit = null;
         }
 
+        // Clear the cursor from the tile of the unit deselected.
+        Unit oldActiveUnit = this.activeUnit;
+        if (oldActiveUnit != null && oldActiveUnit != activeUnit
+            && oldActiveUnit.getTile() != null) {
+            gui.refreshTile(oldActiveUnit.getTile());
+        }
+
         this.activeUnit = activeUnit;
 
         if (activeUnit != null) {
@@ -1579,6 +1600,10 @@ public final class MapViewer {
      */
     public void stopBlinking() {
         blinkingMarqueeEnabled = false;
+        // The cursor may have been left drawn.
+        if (activeUnit != null && activeUnit.getTile() != null) {
+            gui.refreshTile(activeUnit.getTile());
+        }
     }
 
 
@@ -1597,6 +1622,7 @@ public final class MapViewer {
     * Sets the path of the active unit to display it.
     */
     public void updateGotoPathForActiveUnit() {
+        final PathNode oldPath = currentPath;
         currentPath = (activeUnit == null
                        || activeUnit.getDestination() == null)
             ? null
@@ -1605,6 +1631,9 @@ public final class MapViewer {
             : (activeUnit.getDestination().getTile() == activeUnit.getTile())
             ? null // Do nothing, unit has arrived
             : activeUnit.findPath(activeUnit.getDestination().getTile());
+        if (oldPath != null || currentPath != null) {
+            gui.getCanvas().repaint(0, 0, getWidth(), getHeight());
+        }
     }
 
 
@@ -1833,6 +1862,84 @@ public final class MapViewer {
      *        unexplored terrain.
      */
     private void displayBaseTile(Graphics2D g, Tile tile, boolean drawUnexploredBorders) {
+        if (tile == null) return;
+        baseTileCache.validate(lib);
+        getBaseTileSignature(tile, drawUnexploredBorders, baseTileSignature);
+        Image image = baseTileCache.get(baseTileSignature);
+        if (image == null) {
+            Image terrain = lib.getTerrainImage(tile.getType(), tile.getX(), tile.getY());
+            if (terrain == null) return;
+            BufferedImage composite = new BufferedImage(terrain.getWidth(null),
+                terrain.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D cg = composite.createGraphics();
+            paintBaseTile(cg, tile, drawUnexploredBorders);
+            cg.dispose();
+            baseTileCache.put(baseTileSignature.clone(), composite);
+            image = composite;
+        }
+        g.drawImage(image, 0, 0, null);
+    }
+
+    /**
+     * Gets the signature of the base layers of a tile, which decides
+     * what {@link #paintBaseTile} draws.  This must follow the same
+     * rules as <code>paintBaseTile</code>.
+     *
+     * @param tile The <code>Tile</code> to get the signature of.
+     * @param drawUnexploredBorders If true; draws border between explored and
+     *        unexplored terrain.
+     * @param signature An array of
+     *        <code>TileImageCache.SIGNATURE_LENGTH</code> values to fill.
+     */
+    private void getBaseTileSignature(Tile tile, boolean drawUnexploredBorders,
+                                      int[] signature) {
+        final TileType type = tile.getType();
+        final boolean explored = tile.isExplored();
+        Arrays.fill(signature, 0);
+        signature[0] = (type == null) ? -1 : type.getIndex();
+        signature[1] = (lib.isEven(tile.getX(), tile.getY()) ? 1 : 0)
+            | ((explored) ? 2 : 0);
+        if (!explored) return;
+        if (!tile.isLand()) signature[2] = tile.getStyle();
+        for (Direction direction : Direction.values()) {
+            Tile borderingTile = tile.getAdjacentTile(direction);
+            if (borderingTile == null
+                || (!drawUnexploredBorders && !borderingTile.isExplored()
+                    && (direction == Direction.SE || direction == Direction.S
+                        || direction == Direction.SW))
+                || type == borderingTile.getType()
+                || (tile.isLand() && !borderingTile.isLand())
+                || !borderingTile.isExplored()) {
+                continue;
+            }
+            int border = (borderingTile.getType().getIndex() + 1) << 2;
+            if (!tile.isLand() && borderingTile.isLand()) {
+                TileImprovement river = borderingTile.getRiver();
+                if (river != null && (direction == Direction.SE || direction == Direction.SW ||
+                                      direction == Direction.NE || direction == Direction.NW)) {
+                    int[] branches = river.getStyleBreakdown(Direction.longSides, 3);
+                    if (branches[direction.getReverseDirection().ordinal()] > 0) {
+                        border |= (river.getMagnitude() == 1) ? 1 : 2;
+                    }
+                }
+            } else if (baseTileCache.isSameTerrainImage(type, borderingTile.getType())
+                       || borderingTile.getType().getIndex() >= type.getIndex()) {
+                continue;
+            }
+            signature[3 + direction.ordinal()] = border;
+        }
+    }
+
+    /**
+     * Draws the base layers of a tile: the terrain, beaches and
+     * borders.
+     *
+     * @param g The Graphics2D object on which to draw the Tile.
+     * @param tile The Tile to draw.
+     * @param drawUnexploredBorders If true; draws border between explored and
+     *        unexplored terrain.
+     */
+    private void paintBaseTile(Graphics2D g, Tile tile, boolean drawUnexploredBorders) {
         if (tile != null) {
             int x = tile.getX();
             int y = tile.getY();
@@ -3269,6 +3376,7 @@ public final class MapViewer {
      * @param lib an <code>ImageLibrary</code> value
      */
     private void setImageLibrary(ImageLibrary lib) {
+        if (this.lib != null && this.lib != lib) this.lib.clearView();
         this.lib = lib;
         cursorImage = lib.getMiscImage(ImageLibrary.UNIT_SELECT);
         // ATTENTION: we assume that all base tiles have the same size
@@ -0,0 +1,167 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.client.gui;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import org.freecolandroid.repackaged.java.awt.Image;
+
+import net.sf.freecol.common.model.TileType;
+import net.sf.freecol.common.resources.ResourceManager;
+
+
+/**
+ * The composited base images of map tiles.
+ *
+ * The terrain, beach and border layers of a tile are drawn once into
+ * a single image, kept under a signature of everything that decides
+ * which layers are drawn: the tile type and style, its parity, and
+ * the border and river mouth drawn on each side.  Tiles with the same
+ * signature share one image.  As the signature is taken from the
+ * current state of a tile, a tile that changes simply maps to another
+ * image, and the images only go stale when the image library or the
+ * resource mappings change, which clears the cache.
+ *
+ * The cache holds a bounded number of images, least recently used
+ * out first.  It is only used from the painting thread.
+ */
+final class TileImageCache {
+
+    /** The most images kept. */
+    private static final int MAX_IMAGES = 256;
+
+    /** The number of values in a signature. */
+    static final int SIGNATURE_LENGTH = 11;
+
+    /** A tile signature, usable as a hash key. */
+    private static final class Signature {
+
+        private final int[] values;
+
+        private final int hash;
+
+        Signature(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature
+                && Arrays.equals(values, ((Signature) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** The images, least recently used first. */
+    private final LinkedHashMap<Signature, Image> images
+        = new LinkedHashMap<Signature, Image>(MAX_IMAGES, 0.75f, true) {
+            protected boolean removeEldestEntry(java.util.Map.Entry<Signature, Image> eldest) {
+                return size() > MAX_IMAGES;
+            }
+        };
+
+    /**
+     * Do two tile types share a terrain image, by type index?  Zero
+     * if not yet known, one if they do, two if not.
+     */
+    private byte[][] sameTerrain = new byte[0][];
+
+    /** The image library the images were drawn with. */
+    private ImageLibrary lib = null;
+
+    /** The resource mapping version the images were drawn with. */
+    private int version = -1;
+
+
+    /**
+     * Checks that the images were drawn with the current image
+     * library and resource mappings, and drops them if not.
+     *
+     * @param lib The current <code>ImageLibrary</code>.
+     */
+    void validate(ImageLibrary lib) {
+        int v = ResourceManager.getVersion();
+        if (this.lib != lib || version != v) {
+            images.clear();
+            sameTerrain = new byte[0][];
+            this.lib = lib;
+            version = v;
+        }
+    }
+
+    /**
+     * Gets the image for a signature.
+     *
+     * @param signature The signature values of a tile.
+     * @return The composited <code>Image</code>, or null if none.
+     */
+    Image get(int[] signature) {
+        return images.get(new Signature(signature));
+    }
+
+    /**
+     * Adds the image for a signature.
+     *
+     * @param signature The signature values of a tile, which must not
+     *     be changed afterwards.
+     * @param image The composited <code>Image</code>.
+     */
+    void put(int[] signature, Image image) {
+        images.put(new Signature(signature), image);
+    }
+
+    /**
+     * Do two tile types share a terrain image?  Ocean and great
+     * river do, for example, and need no border between them.
+     *
+     * @param type1 The first <code>TileType</code>.
+     * @param type2 The second <code>TileType</code>.
+     * @return True if the terrain images are the same.
+     */
+    boolean isSameTerrainImage(TileType type1, TileType type2) {
+        final int i1 = type1.getIndex(), i2 = type2.getIndex();
+        final int n = Math.max(i1, i2) + 1;
+        if (n > sameTerrain.length) {
+            byte[][] grown = new byte[n][];
+            for (int i = 0; i < n; i++) {
+                grown[i] = new byte[n];
+                if (i < sameTerrain.length) {
+                    System.arraycopy(sameTerrain[i], 0, grown[i], 0,
+                                     sameTerrain.length);
+                }
+            }
+            sameTerrain = grown;
+        }
+        if (sameTerrain[i1][i2] == 0) {
+            Image image1 = lib.getTerrainImage(type1, 0, 0);
+            Image image2 = lib.getTerrainImage(type2, 0, 0);
+            byte same = (image1 != null && image1.equals(image2))
+                ? (byte) 1 : (byte) 2;
+            sameTerrain[i1][i2] = sameTerrain[i2][i1] = same;
+        }
+        return sameTerrain[i1][i2] == 1;
+    }
+}
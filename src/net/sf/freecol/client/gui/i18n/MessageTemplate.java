@@ -0,0 +1,503 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.client.gui.i18n;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import net.sf.freecol.common.model.StringTemplate;
+import net.sf.freecol.common.model.StringTemplate.TemplateType;
+
+
+/**
+ * A message parsed into literal text, variables and choice formats,
+ * so that it can be rendered in a single pass.
+ *
+ * A choice format is enclosed in double brackets and consists of a
+ * tag, followed by a colon, followed by an optional selector,
+ * followed by a pipe character, followed by one or several choices
+ * separated by pipe characters.  If there is only one choice, it must
+ * be a message id or a variable.  Otherwise, each choice consists of
+ * a key and a value separated by an assignment character, and the
+ * value may itself contain variables and choice formats.  Example:
+ * "{{tag:selector|key1=val1|key2=val2}}".
+ *
+ * A variable is a name of letters, digits, dots, dashes and
+ * underscores delimited by percent characters.  It is replaced by
+ * the localized replacement the template gives for it, and is left
+ * as it is if there is none.
+ *
+ * @see Messages
+ */
+final class MessageTemplate {
+
+    private static final Logger logger = Logger.getLogger(MessageTemplate.class.getName());
+
+    private static final Node[] NO_NODES = new Node[0];
+
+    /** A part of a message. */
+    private static abstract class Node {
+
+        /**
+         * Renders this part.
+         *
+         * @param sb The <code>StringBuilder</code> to append to.
+         * @param template The <code>StringTemplate</code> being
+         *     rendered, or null if none.
+         * @param values The localized replacements by key, or null if
+         *     there is no template.
+         */
+        abstract void render(StringBuilder sb, StringTemplate template,
+                             Map<String, String> values);
+    }
+
+    /** Literal text. */
+    private static final class Text extends Node {
+
+        private final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        void render(StringBuilder sb, StringTemplate template,
+                    Map<String, String> values) {
+            sb.append(text);
+        }
+    }
+
+    /** A variable, such as "%nation%". */
+    private static final class Variable extends Node {
+
+        private final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        void render(StringBuilder sb, StringTemplate template,
+                    Map<String, String> values) {
+            String value = (values == null) ? null : values.get(name);
+            sb.append((value == null) ? name : value);
+        }
+    }
+
+    /** A choice format. */
+    private static final class Choice extends Node {
+
+        /** The whole message, for error reporting. */
+        private final String source;
+
+        /** The tag, in lower case. */
+        private final String tag;
+
+        /** The selector, possibly empty or a variable. */
+        private final String selector;
+
+        /** The text after the selector, if no choice matches. */
+        private final String body;
+
+        /** The values of the choices by key. */
+        private final Map<String, Node[]> choices;
+
+        Choice(String source, String tag, String selector, String body,
+               Map<String, Node[]> choices) {
+            this.source = source;
+            this.tag = tag;
+            this.selector = selector;
+            this.body = body;
+            this.choices = choices;
+        }
+
+        void render(StringBuilder sb, StringTemplate template,
+                    Map<String, String> values) {
+            String key;
+            if ("".equals(selector)) {
+                key = "default";
+            } else if (isVariable(selector)) {
+                if (template == null) {
+                    key = "default";
+                } else {
+                    key = values.get(selector);
+                    if (key == null) {
+                        logger.warning("Failed to find replacement for " + selector);
+                        return;
+                    }
+                    key = select(key);
+                }
+            } else {
+                key = select(selector);
+            }
+            Node[] choice = choices.get(key);
+            if (choice != null) {
+                renderNodes(choice, sb, template, values);
+            } else if (isVariable(body) && template != null) {
+                // The choice might be a message with choices itself
+                StringTemplate replacement = template.getReplacement(body);
+                if (replacement == null) {
+                    logger.warning("Failed to find replacement for " + body);
+                } else if (replacement.getTemplateType() == TemplateType.KEY) {
+                    String other = Messages.getMessageText(replacement.getId());
+                    if (other == null) {
+                        logger.warning("Unknown key " + replacement.getId());
+                    } else if (other.indexOf("{{") < 0) {
+                        renderText(other, sb, template, values);
+                    } else {
+                        String value = getChoice(other.substring(other.indexOf("{{")), key);
+                        if (value == null) {
+                            logger.warning("Failed to find key " + key
+                                           + " in replacement "
+                                           + replacement.getId());
+                        } else {
+                            renderText(value, sb, template, values);
+                        }
+                    }
+                } else {
+                    logger.warning("Choice substitution attempted, but template type was "
+                                   + replacement.getTemplateType());
+                }
+            } else if (Messages.containsKey(body)) {
+                String value = getChoice(Messages.getMessageText(body), key);
+                if (value != null) renderText(value, sb, template, values);
+            } else {
+                logger.warning("Unknown key or untagged choice: '" + body
+                               + "', selector was '" + key
+                               + "', trying 'default' instead");
+                choice = choices.get("default");
+                if (choice == null) {
+                    logger.warning("No default choice found.");
+                } else {
+                    renderNodes(choice, sb, template, values);
+                }
+            }
+        }
+
+        /**
+         * Transforms a selector value into a choice key with the
+         * selector of the tag, if there is one.
+         *
+         * @param value The selector value.
+         * @return The choice key.
+         */
+        private String select(String value) {
+            Selector taggedSelector = Messages.getSelector(tag);
+            return (taggedSelector == null) ? value
+                : taggedSelector.getKey(value, source);
+        }
+    }
+
+
+    /** The parts of this message. */
+    private final Node[] nodes;
+
+
+    private MessageTemplate(Node[] nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Parses a message.
+     *
+     * @param input The message text.
+     * @return A new <code>MessageTemplate</code>.
+     */
+    static MessageTemplate compile(String input) {
+        return new MessageTemplate(parse(input, 0, input.length()));
+    }
+
+    /**
+     * Renders this message.
+     *
+     * @param template The <code>StringTemplate</code> giving the
+     *     replacements of the variables, or null if none.
+     * @return The rendered message.
+     */
+    String render(StringTemplate template) {
+        Map<String, String> values = null;
+        List<String> otherKeys = null;
+        if (template != null) {
+            values = new HashMap<String, String>();
+            List<String> keys = template.getKeys();
+            for (int index = 0; index < keys.size(); index++) {
+                String key = keys.get(index);
+                if (values.containsKey(key)) continue;
+                values.put(key, Messages.message(template.getReplacements()
+                                                 .get(index)));
+                if (!isVariable(key)) {
+                    if (otherKeys == null) otherKeys = new ArrayList<String>();
+                    otherKeys.add(key);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        renderNodes(nodes, sb, template, values);
+        String result = sb.toString();
+        if (otherKeys != null) {
+            // Keys that can not be parsed as variables
+            for (String key : otherKeys) {
+                result = result.replace(key, values.get(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Renders a list of nodes.
+     *
+     * @param nodes The <code>Node</code>s to render.
+     * @param sb The <code>StringBuilder</code> to append to.
+     * @param template The <code>StringTemplate</code>, or null if none.
+     * @param values The replacements by key, or null if none.
+     */
+    private static void renderNodes(Node[] nodes, StringBuilder sb,
+                                    StringTemplate template,
+                                    Map<String, String> values) {
+        for (Node node : nodes) {
+            node.render(sb, template, values);
+        }
+    }
+
+    /**
+     * Renders a text taken from another message, replacing its
+     * variables.
+     *
+     * @param text The text to render.
+     * @param sb The <code>StringBuilder</code> to append to.
+     * @param template The <code>StringTemplate</code>, or null if none.
+     * @param values The replacements by key, or null if none.
+     */
+    private static void renderText(String text, StringBuilder sb,
+                                   StringTemplate template,
+                                   Map<String, String> values) {
+        List<Node> list = new ArrayList<Node>();
+        addText(list, text, 0, text.length());
+        renderNodes(list.toArray(NO_NODES), sb, template, values);
+    }
+
+    /**
+     * Parses part of a message.
+     *
+     * @param input The message text.
+     * @param start The index to start at.
+     * @param end The index to stop at.
+     * @return The <code>Node</code>s of the part.
+     */
+    private static Node[] parse(String input, int start, int end) {
+        List<Node> list = new ArrayList<Node>();
+        int highWaterMark = start;
+        int openChoice;
+        while ((openChoice = input.indexOf("{{", highWaterMark)) >= 0
+               && openChoice < end) {
+            addText(list, input, highWaterMark, openChoice);
+            int closeChoice = findMatchingBracket(input, openChoice + 2);
+            if (closeChoice < 0 || closeChoice >= end) {
+                logger.warning("Mismatched brackets: " + input);
+                return list.toArray(NO_NODES);
+            }
+            highWaterMark = closeChoice + 2;
+            Node choice = parseChoice(input, openChoice + 2, closeChoice);
+            if (choice != null) list.add(choice);
+        }
+        addText(list, input, highWaterMark, end);
+        return list.toArray(NO_NODES);
+    }
+
+    /**
+     * Parses a choice format.
+     *
+     * @param input The message text.
+     * @param start The index after the opening brackets.
+     * @param closeChoice The index of the closing brackets.
+     * @return The <code>Choice</code>, or null if it is malformed.
+     */
+    private static Node parseChoice(String input, int start, int closeChoice) {
+        int colonIndex = input.indexOf(":", start);
+        if (colonIndex < 0 || colonIndex > closeChoice) {
+            logger.warning("No tag found: " + input);
+            return null;
+        }
+        int pipeIndex = input.indexOf("|", colonIndex + 1);
+        if (pipeIndex < 0 || pipeIndex > closeChoice) {
+            logger.warning("No choices found: " + input);
+            return null;
+        }
+        Map<String, Node[]> choices = new LinkedHashMap<String, Node[]>();
+        int choiceStart = pipeIndex + 1;
+        int index = choiceStart;
+        while (index <= closeChoice) {
+            if (index < closeChoice && input.startsWith("{{", index)) {
+                // Skip nested choice formats
+                int nestedClose = findMatchingBracket(input, index + 2);
+                if (nestedClose < 0) break;
+                index = nestedClose + 2;
+                continue;
+            }
+            if (index == closeChoice || input.charAt(index) == '|') {
+                int assign = input.indexOf('=', choiceStart);
+                int nested = input.indexOf("{{", choiceStart);
+                if (assign >= 0 && assign < index
+                    && (nested < 0 || nested > assign)) {
+                    String key = input.substring(choiceStart, assign).trim();
+                    if (!choices.containsKey(key)) {
+                        choices.put(key, parse(input, assign + 1, index));
+                    }
+                }
+                choiceStart = index + 1;
+            }
+            index++;
+        }
+        return new Choice(input,
+                          input.substring(start, colonIndex).toLowerCase(Locale.US),
+                          input.substring(colonIndex + 1, pipeIndex),
+                          input.substring(pipeIndex + 1, closeChoice),
+                          choices);
+    }
+
+    /**
+     * Adds the text and variable nodes of a part of a message that
+     * contains no choice formats.
+     *
+     * @param list The list of <code>Node</code>s to add to.
+     * @param input The message text.
+     * @param start The index to start at.
+     * @param end The index to stop at.
+     */
+    private static void addText(List<Node> list, String input,
+                                int start, int end) {
+        int textStart = start;
+        int index = start;
+        while ((index = input.indexOf('%', index)) >= 0 && index < end) {
+            int close = index + 1;
+            while (close < end && isNameChar(input.charAt(close))) close++;
+            if (close > index + 1 && close < end
+                && input.charAt(close) == '%') {
+                if (index > textStart) {
+                    list.add(new Text(input.substring(textStart, index)));
+                }
+                list.add(new Variable(input.substring(index, close + 1)));
+                textStart = index = close + 1;
+            } else {
+                index++;
+            }
+        }
+        if (end > textStart) {
+            list.add(new Text(input.substring(textStart, end)));
+        }
+    }
+
+    /**
+     * Can a character be part of a variable name?
+     *
+     * @param c The character to check.
+     * @return True if it can.
+     */
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c)
+            || c == '_' || c == '.' || c == '-';
+    }
+
+    /**
+     * Is a string a variable, such as "%nation%"?
+     *
+     * @param s The string to check.
+     * @return True if it is a variable.
+     */
+    private static boolean isVariable(String s) {
+        int n = s.length();
+        if (n < 3 || s.charAt(0) != '%' || s.charAt(n - 1) != '%') {
+            return false;
+        }
+        for (int index = 1; index < n - 1; index++) {
+            if (!isNameChar(s.charAt(index))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return the choice tagged with the given key, or null, if the
+     * given input string does not contain the key.
+     *
+     * @param input a <code>String</code> value
+     * @param key a <code>String</code> value
+     * @return a <code>String</code> value
+     */
+    private static String getChoice(String input, String key) {
+        int keyIndex = input.indexOf(key);
+        if (keyIndex < 0) {
+            return null;
+        } else {
+            int start = keyIndex + key.length() + 1;
+            int end = input.indexOf("|", start);
+            if (end < 0) {
+                end = input.indexOf("}}", start);
+                if (end < 0) {
+                    logger.warning("Failed to find end of choice for key " + key
+                                   + " in input " + input);
+                    return null;
+                }
+            }
+            return input.substring(start, end);
+        }
+    }
+
+    /**
+     * Return the index of the matching pair of brackets, or -1 if
+     * none is found.
+     *
+     * @param input a <code>String</code> value
+     * @param start an <code>int</code> value
+     * @return an <code>int</code> value
+     */
+    private static int findMatchingBracket(String input, int start) {
+        char last = 0;
+        int level = 0;
+        for (int index = start; index < input.length(); index++) {
+            switch(input.charAt(index)) {
+            case '{':
+                if (last == '{') {
+                    last = 0;
+                    level++;
+                } else {
+                    last = '{';
+                }
+                break;
+            case '}':
+                if (last == '}') {
+                    if (level == 0) {
+                        return index - 1;
+                    } else {
+                        last = 0;
+                        level--;
+                    }
+                } else {
+                    last = '}';
+                }
+                break;
+            }
+        }
+        // found no matching bracket
+        return -1;
+    }
+}
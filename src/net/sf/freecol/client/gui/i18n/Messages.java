@@ -27,6 +27,7 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.List;
 import java.util.Map;
@@ -40,7 +41,6 @@ import net.sf.freecol.common.model.FreeColObject;
 import net.sf.freecol.common.model.Player;
 import net.sf.freecol.common.model.Region.RegionType;
 import net.sf.freecol.common.model.StringTemplate;
-import net.sf.freecol.common.model.StringTemplate.TemplateType;
 import net.sf.freecol.common.model.Unit;
 import net.sf.freecol.common.model.UnitType;
 import net.sf.freecol.common.option.Option;
@@ -79,6 +79,10 @@ import net.sf.freecol.common.option.Option;
  *   key3={{tag:|acc=viljaa|default={{plural:%amount%|one=ruoka|other=ruokaa|default=Ruoka}}}}
  * </pre>
  *
+ * <p>Each message is parsed into a {@link MessageTemplate} when it is
+ * loaded, and the rendered text of the messages that need no
+ * replacements is kept in a small cache.</p>
+ *
  * <p>This class is NOT thread-safe. (CO: I cannot find any place that
  * really has a problem)</p>
  *
@@ -101,6 +105,24 @@ public class Messages {
     private static Map<String, String> messageBundle =
         new HashMap<String, String>();
 
+    /** The messages of the bundle, parsed. */
+    private static Map<String, MessageTemplate> compiledBundle =
+        new HashMap<String, MessageTemplate>();
+
+    /** The most rendered messages kept in the result cache. */
+    private static final int RESULT_CACHE_SIZE = 1024;
+
+    /**
+     * The rendered messages that need no replacements, by key, least
+     * recently used first.
+     */
+    private static final Map<String, String> resultCache =
+        new LinkedHashMap<String, String>(RESULT_CACHE_SIZE, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > RESULT_CACHE_SIZE;
+            }
+        };
+
     /**
      * A map with Selector values and the tag keys used in choice
      * formats.
@@ -116,7 +138,7 @@ public class Messages {
      * @param tag a <code>String</code> value
      * @return a <code>Selector</code> value
      */
-    private static Selector getSelector(String tag) {
+    static Selector getSelector(String tag) {
         return tagMap.get(tag.toLowerCase(Locale.US));
     }
 
@@ -127,6 +149,7 @@ public class Messages {
      */
     public static void setGrammaticalNumber(Number number) {
         tagMap.put("plural", number);
+        clearResultCache();
     }
 
     /**
@@ -155,6 +178,8 @@ public class Messages {
     private static void setMessageBundle(String language, String country, String variant) {
 
         messageBundle = new HashMap<String, String>();
+        compiledBundle = new HashMap<String, MessageTemplate>();
+        clearResultCache();
         List<String> filenames = FreeColModFile.getFileNames(FILE_PREFIX, FILE_SUFFIX, language, country, variant);
 
         if (!NumberRules.isInitialized()) {
@@ -233,224 +258,51 @@ public class Messages {
         }
 
         // return key as value if there is no mapping found
-        String message = messageBundle.get(messageId);
-        if (message == null) {
-            return messageId;
-        }
-        // otherwise replace variables in the text
-        message = replaceChoices(message, null);
-        return message.trim();
+        String message = render(messageId);
+        return (message == null) ? messageId : message.trim();
     }
 
-
     /**
-     * Replace all choice formats in the given string, using keys and
-     * replacement values from the given template, which may be null.
-     *
-     * A choice format is enclosed in double brackets and consists of
-     * a tag, followed by a colon, followed by an optional selector,
-     * followed by a pipe character, followed by one or several
-     * choices separated by pipe characters. If there is only one
-     * choice, it must be a message id or a variable. Otherwise, each
-     * choice consists of a key and a value separated by an assignment
-     * character. Example: "{{tag:selector|key1=val1|key2=val2}}".
+     * Renders a message that needs no replacements, using the result
+     * cache.
      *
-     * @param input a <code>String</code> value
-     * @param template a <code>StringTemplate</code> value
-     * @return a <code>String</code> value
+     * @param messageId The key of the message.
+     * @return The rendered message, or null if there is no mapping.
      */
-    private static String replaceChoices(String input, StringTemplate template) {
-        int openChoice = 0;
-        int closeChoice = 0;
-        int highWaterMark = 0;
-        StringBuilder result = new StringBuilder();
-        while ((openChoice = input.indexOf("{{", highWaterMark)) >= 0) {
-            result.append(input.substring(highWaterMark, openChoice));
-            closeChoice = findMatchingBracket(input, openChoice + 2);
-            if (closeChoice < 0) {
-                // no closing brackets found
-                logger.warning("Mismatched brackets: " + input);
-                return result.toString();
-            }
-            highWaterMark = closeChoice + 2;
-            int colonIndex = input.indexOf(":", openChoice + 2);
-            if (colonIndex < 0 || colonIndex > closeChoice) {
-                logger.warning("No tag found: " + input);
-                continue;
-            }
-            String tag = input.substring(openChoice + 2, colonIndex);
-            int pipeIndex = input.indexOf("|", colonIndex + 1);
-            if (pipeIndex < 0 || pipeIndex > closeChoice) {
-                logger.warning("No choices found: " + input);
-                continue;
-            }
-            String selector = input.substring(colonIndex + 1, pipeIndex);
-            if ("".equals(selector)) {
-                selector = "default";
-            } else if (selector.startsWith("%") && selector.endsWith("%")) {
-                if (template == null) {
-                    selector = "default";
-                } else {
-                    StringTemplate replacement = template.getReplacement(selector);
-                    if (replacement == null) {
-                        logger.warning("Failed to find replacement for " + selector);
-                        continue;
-                    } else {
-                        selector = message(replacement);
-                        Selector taggedSelector = getSelector(tag);
-                        if (taggedSelector != null) {
-                            selector = taggedSelector.getKey(selector, input);
-                        }
-                    }
-                }
-            } else {
-                Selector taggedSelector = getSelector(tag);
-                if (taggedSelector != null) {
-                    selector = taggedSelector.getKey(selector, input);
-                }
-            }
-            int keyIndex = input.indexOf(selector, pipeIndex + 1);
-            if (keyIndex < 0 || keyIndex > closeChoice) {
-                // key not found, choice might be a key itself
-                String otherKey = input.substring(pipeIndex + 1, closeChoice);
-                if (otherKey.startsWith("%") && otherKey.endsWith("%")
-                    && template != null) {
-                    StringTemplate replacement = template.getReplacement(otherKey);
-                    if (replacement == null) {
-                        logger.warning("Failed to find replacement for " + otherKey);
-                        continue;
-                    } else if (replacement.getTemplateType() == TemplateType.KEY) {
-                        otherKey = messageBundle.get(replacement.getId());
-                        keyIndex = otherKey.indexOf("{{");
-                        if (keyIndex < 0) {
-                            // not a choice format
-                            result.append(otherKey);
-                        } else {
-                            keyIndex = otherKey.indexOf(selector, keyIndex);
-                            if (keyIndex < 0) {
-                                logger.warning("Failed to find key " + selector + " in replacement "
-                                               + replacement.getId());
-                                continue;
-                            } else {
-                                result.append(getChoice(otherKey, selector));
-                            }
-                        }
-                    } else {
-                        logger.warning("Choice substitution attempted, but template type was "
-                                       + replacement.getTemplateType());
-                        continue;
-                    }
-                } else if (containsKey(otherKey)) {
-                    otherKey = getChoice(messageBundle.get(otherKey), selector);
-                    result.append(otherKey);
-                } else {
-                    logger.warning("Unknown key or untagged choice: '" + otherKey
-                                   + "', selector was '" + selector
-                                   + "', trying 'default' instead");
-                    int defaultStart = otherKey.indexOf("default=");
-                    if (defaultStart >= 0) {
-                        defaultStart += 8;
-                        int defaultEnd = otherKey.indexOf('|', defaultStart);
-                        String defaultChoice;
-                        if (defaultEnd < 0) {
-                            defaultChoice = otherKey.substring(defaultStart);
-                        } else {
-                            defaultChoice = otherKey.substring(defaultStart, defaultEnd);
-                        }
-                        result.append(defaultChoice);
-                    } else {
-                        logger.warning("No default choice found.");
-                        continue;
-                    }
-                }
-            } else {
-                int start = keyIndex + selector.length() + 1;
-                int replacementIndex = input.indexOf("|", start);
-                int nextOpenIndex = input.indexOf("{{", start);
-                if (nextOpenIndex >= 0 && nextOpenIndex < replacementIndex) {
-                    replacementIndex = input.indexOf("|", findMatchingBracket(input, nextOpenIndex + 2) + 2);
-                }
-                int end = (replacementIndex < 0 || replacementIndex > closeChoice)
-                    ? closeChoice : replacementIndex;
-                String replacement = input.substring(start, end);
-                if (replacement.indexOf("{{") < 0) {
-                    result.append(replacement);
-                } else {
-                    result.append(replaceChoices(replacement, template));
-                }
-            }
+    private static String render(String messageId) {
+        synchronized (resultCache) {
+            String result = resultCache.get(messageId);
+            if (result != null) return result;
+        }
+        MessageTemplate compiled = compiledBundle.get(messageId);
+        if (compiled == null) return null;
+        String result = compiled.render(null);
+        synchronized (resultCache) {
+            resultCache.put(messageId, result);
         }
-        result.append(input.substring(highWaterMark));
-        return result.toString();
+        return result;
     }
 
     /**
-     * Return the choice tagged with the given key, or null, if the
-     * given input string does not contain the key.
-     *
-     * @param input a <code>String</code> value
-     * @param key a <code>String</code> value
-     * @return a <code>String</code> value
+     * Drops all the rendered messages.
      */
-    private static String getChoice(String input, String key) {
-        int keyIndex = input.indexOf(key);
-        if (keyIndex < 0) {
-            return null;
-        } else {
-            int start = keyIndex + key.length() + 1;
-            int end = input.indexOf("|", start);
-            if (end < 0) {
-                end = input.indexOf("}}", start);
-                if (end < 0) {
-                    logger.warning("Failed to find end of choice for key " + key
-                                   + " in input " + input);
-                    return null;
-                }
-            }
-            return input.substring(start, end);
+    private static void clearResultCache() {
+        synchronized (resultCache) {
+            resultCache.clear();
         }
     }
 
-
     /**
-     * Return the index of the matching pair of brackets, or -1 if
-     * none is found.
+     * Gets the unparsed text of a message.
      *
-     * @param input a <code>String</code> value
-     * @param start an <code>int</code> value
-     * @return an <code>int</code> value
+     * @param messageId The key of the message.
+     * @return The text of the message, or null if there is no mapping.
      */
-    private static int findMatchingBracket(String input, int start) {
-        char last = 0;
-        int level = 0;
-        for (int index = start; index < input.length(); index++) {
-            switch(input.charAt(index)) {
-            case '{':
-                if (last == '{') {
-                    last = 0;
-                    level++;
-                } else {
-                    last = '{';
-                }
-                break;
-            case '}':
-                if (last == '}') {
-                    if (level == 0) {
-                        return index - 1;
-                    } else {
-                        last = 0;
-                        level--;
-                    }
-                } else {
-                    last = '}';
-                }
-                break;
-            }
-        }
-        // found no matching bracket
-        return -1;
+    static String getMessageText(String messageId) {
+        return messageBundle.get(messageId);
     }
 
+
     /**
      * Localizes a StringTemplate.
      *
@@ -476,24 +328,14 @@ public class Messages {
                 }
             }
         case TEMPLATE:
-            if (containsKey(template.getId())) {
-                result = messageBundle.get(template.getId());
-            } else if (template.getDefaultId() != null) {
-                result = messageBundle.get(template.getDefaultId());
+            MessageTemplate compiled = compiledBundle.get(template.getId());
+            if (compiled == null && template.getDefaultId() != null) {
+                compiled = compiledBundle.get(template.getDefaultId());
             }
-            result = replaceChoices(result, template);
-	    for (int index = 0; index < template.getKeys().size(); index++) {
-                result = result.replace(template.getKeys().get(index),
-                                        message(template.getReplacements().get(index)));
-	    }
-	    return result;
+            return (compiled == null) ? result : compiled.render(template);
         case KEY:
-            String key = messageBundle.get(template.getId());
-            if (key == null) {
-                return template.getId();
-            } else {
-                return replaceChoices(key, null);
-            }
+            String key = render(template.getId());
+            return (key == null) ? template.getId() : key;
         case NAME:
         default:
             return template.getId();
@@ -794,8 +636,10 @@ public class Messages {
                     String value = line.substring(index + 1).trim()
                         .replace("\\n", "\n").replace("\\t", "\t");
                     messageBundle.put(key, value);
+                    compiledBundle.put(key, MessageTemplate.compile(value));
                 }
             }
+            clearResultCache();
         } catch (Exception e) {
             logger.warning("Unable to load resources from input stream.");
         }
@@ -0,0 +1,450 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * A read only index of a zip archive, with the archive mapped into
+ * memory.
+ *
+ * <br><br>
+ *
+ * Opening an entry through a <code>jar:</code> URL opens the archive
+ * and scans its central directory each time.  An index does this
+ * once, and then reads entries straight from the mapped file, so no
+ * file descriptor is kept open.  Indexes are shared, see {@link
+ * #get}, and are rebuilt if the file changes.
+ *
+ * <br><br>
+ *
+ * Only plain archives are handled: stored and deflated entries, no
+ * encryption, and no ZIP64 extensions.  {@link #get} fails for other
+ * archives, and callers should then fall back to the URL based
+ * access.
+ */
+public final class ArchiveIndex {
+
+    /** Signatures of the zip records used. */
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+
+    /** Sizes of the fixed parts of the zip records used. */
+    private static final int LOCAL_SIZE = 30;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int END_SIZE = 22;
+
+    /** Compression methods. */
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /** The shared indexes, by absolute file name. */
+    private static final Map<String, ArchiveIndex> indexes
+        = new HashMap<String, ArchiveIndex>();
+
+    /** An entry of the archive. */
+    private static class Entry {
+        public final int method;
+        public final int compressedSize;
+        public final int size;
+        public final int headerOffset;
+
+        public Entry(int method, int compressedSize, int size,
+                     int headerOffset) {
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+    }
+
+    /** The archive file. */
+    private final File file;
+
+    /** The time the file was last modified when it was indexed. */
+    private final long lastModified;
+
+    /** The mapped archive. */
+    private final ByteBuffer buffer;
+
+    /** The entry names, in the order of the central directory. */
+    private final List<String> names = new ArrayList<String>();
+
+    /** The entries, by name. */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+
+    /**
+     * Creates a new <code>ArchiveIndex</code>.
+     *
+     * @param file The archive file.
+     * @exception IOException if the file can not be read or is not a
+     *     plain zip archive.
+     */
+    private ArchiveIndex(File file) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Archive too large: " + file);
+            }
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                 channel.size());
+        } finally {
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        readCentralDirectory();
+    }
+
+    /**
+     * Gets the shared index of an archive, creating it if needed.
+     *
+     * @param file The archive file.
+     * @return The <code>ArchiveIndex</code>.
+     * @exception IOException if the file can not be read or is not a
+     *     plain zip archive.
+     */
+    public static ArchiveIndex get(File file) throws IOException {
+        final String key = file.getAbsolutePath();
+        synchronized (indexes) {
+            ArchiveIndex index = indexes.get(key);
+            if (index != null && index.isCurrent()) return index;
+            indexes.remove(key);
+            index = new ArchiveIndex(file);
+            indexes.put(key, index);
+            return index;
+        }
+    }
+
+    /**
+     * Gets the shared index of the archive a <code>jar:file:</code>
+     * URI refers to, if it has already been created.
+     *
+     * @param uri The <code>URI</code> to check.
+     * @return The <code>ArchiveIndex</code>, or null if none.
+     */
+    private static ArchiveIndex find(URI uri) {
+        final String path = getArchivePath(uri);
+        if (path == null) return null;
+        synchronized (indexes) {
+            ArchiveIndex index = indexes.get(new File(path).getAbsolutePath());
+            return (index != null && index.isCurrent()) ? index : null;
+        }
+    }
+
+    /**
+     * Gets the archive path of a <code>jar:file:</code> URI.
+     *
+     * @param uri The <code>URI</code> to check.
+     * @return The path of the archive, or null if not a
+     *     <code>jar:file:</code> URI.
+     */
+    private static String getArchivePath(URI uri) {
+        if (!"jar".equals(uri.getScheme())) return null;
+        final String ssp = uri.getSchemeSpecificPart();
+        final int index = ssp.indexOf("!/");
+        if (!ssp.startsWith("file:") || index < 0) return null;
+        return ssp.substring("file:".length(), index);
+    }
+
+    /**
+     * Gets the entry name of a <code>jar:</code> URI.
+     *
+     * @param uri The <code>URI</code> to check.
+     * @return The entry name.
+     */
+    private static String getEntryName(URI uri) {
+        final String ssp = uri.getSchemeSpecificPart();
+        return ssp.substring(ssp.indexOf("!/") + 2);
+    }
+
+    /**
+     * Is a resource in an archive with a shared index?
+     *
+     * @param uri The <code>URI</code> of the resource.
+     * @return True if {@link #openStream} reads the resource from an
+     *     index.
+     */
+    public static boolean isIndexed(URI uri) {
+        return find(uri) != null;
+    }
+
+    /**
+     * Opens a stream to a resource, reading it from a shared index if
+     * it is in an indexed archive.
+     *
+     * @param uri The <code>URI</code> of the resource.
+     * @return An <code>InputStream</code> to the resource.
+     * @exception IOException if the resource can not be opened.
+     */
+    public static InputStream openStream(URI uri) throws IOException {
+        final ArchiveIndex index = find(uri);
+        return (index == null) ? uri.toURL().openStream()
+            : index.getInputStream(getEntryName(uri));
+    }
+
+    /**
+     * Is this index still valid for its file?
+     *
+     * @return True if the file has not changed since it was indexed.
+     */
+    private boolean isCurrent() {
+        return file.lastModified() == lastModified
+            && file.length() == buffer.capacity();
+    }
+
+    /**
+     * Reads the central directory of the archive.
+     *
+     * @exception IOException if the archive is not a plain zip archive.
+     */
+    private void readCentralDirectory() throws IOException {
+        // The end record is followed by a comment of up to 64k.
+        final int limit = Math.max(0, buffer.capacity() - END_SIZE - 0xFFFF);
+        int end = buffer.capacity() - END_SIZE;
+        while (end >= limit && buffer.getInt(end) != END_HEADER) end--;
+        if (end < limit) throw new IOException("Not a zip archive: " + file);
+        final int count = getShort(end + 10);
+        int position = buffer.getInt(end + 16);
+        if (position < 0 || position >= end) {
+            throw new IOException("Unsupported zip archive: " + file);
+        }
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException("Corrupt zip archive: " + file);
+            }
+            final int flags = getShort(position + 8);
+            final int method = getShort(position + 10);
+            final int compressedSize = buffer.getInt(position + 20);
+            final int size = buffer.getInt(position + 24);
+            final int nameLength = getShort(position + 28);
+            final int extraLength = getShort(position + 30);
+            final int commentLength = getShort(position + 32);
+            final int headerOffset = buffer.getInt(position + 42);
+            if ((flags & 1) != 0 || compressedSize < 0 || size < 0
+                || headerOffset < 0) {
+                throw new IOException("Unsupported zip archive: " + file);
+            }
+            final String name = getString(position + CENTRAL_SIZE, nameLength);
+            names.add(name);
+            entries.put(name, new Entry(method, compressedSize, size,
+                                        headerOffset));
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Gets an unsigned two byte value.
+     *
+     * @param position The position of the value.
+     * @return The value.
+     */
+    private int getShort(int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    /**
+     * Gets a UTF-8 string.
+     *
+     * @param position The position of the string.
+     * @param length The length of the string in bytes.
+     * @return The string.
+     */
+    private String getString(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer b = buffer.duplicate();
+        b.position(position);
+        b.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the file this is an index of.
+     *
+     * @return The archive <code>File</code>.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the names of the entries of the archive.
+     *
+     * @return The entry names, in the order of the central directory.
+     */
+    public List<String> getEntryNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Does the archive contain an entry?
+     *
+     * @param name The name of the entry.
+     * @return True if the entry exists.
+     */
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Gets the data of an entry, as stored in the archive.
+     *
+     * @param entry The <code>Entry</code> to get.
+     * @return A read only <code>ByteBuffer</code> of the data.
+     * @exception IOException if the entry is corrupt.
+     */
+    private ByteBuffer getData(Entry entry) throws IOException {
+        final int header = entry.headerOffset;
+        if (buffer.getInt(header) != LOCAL_HEADER) {
+            throw new IOException("Corrupt zip archive: " + file);
+        }
+        final int start = header + LOCAL_SIZE + getShort(header + 26)
+            + getShort(header + 28);
+        if (start + entry.compressedSize > buffer.capacity()) {
+            throw new IOException("Corrupt zip archive: " + file);
+        }
+        ByteBuffer b = buffer.duplicate();
+        b.position(start);
+        b.limit(start + entry.compressedSize);
+        return b.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the contents of an uncompressed entry without copying them.
+     *
+     * @param name The name of the entry.
+     * @return A read only <code>ByteBuffer</code> of the contents, or
+     *     null if the entry is compressed.
+     * @exception FileNotFoundException if there is no such entry.
+     * @exception IOException if the entry is corrupt.
+     */
+    public ByteBuffer getStoredEntry(String name) throws IOException {
+        final Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new FileNotFoundException(name + " in " + file);
+        }
+        return (entry.method == STORED) ? getData(entry) : null;
+    }
+
+    /**
+     * Opens a stream to the contents of an entry.
+     *
+     * @param name The name of the entry.
+     * @return An <code>InputStream</code> to the contents.
+     * @exception FileNotFoundException if there is no such entry.
+     * @exception IOException if the entry is corrupt or compressed in
+     *     an unsupported way.
+     */
+    public InputStream getInputStream(String name) throws IOException {
+        final Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new FileNotFoundException(name + " in " + file);
+        }
+        final InputStream in = new ByteBufferInputStream(getData(entry));
+        switch (entry.method) {
+        case STORED:
+            return in;
+        case DEFLATED:
+            // A raw inflater may need one byte more than the data.
+            return new InflaterInputStream(new SequenceInputStream(in,
+                    new ByteArrayInputStream(new byte[1])),
+                new Inflater(true), Math.max(512, Math.min(entry.size, 8192))) {
+                private boolean closed = false;
+
+                @Override
+                public void close() throws IOException {
+                    if (closed) return;
+                    closed = true;
+                    inf.end();
+                    super.close();
+                }
+            };
+        default:
+            throw new IOException("Unsupported compression of " + name
+                + " in " + file);
+        }
+    }
+
+    /**
+     * An <code>InputStream</code> reading a <code>ByteBuffer</code>.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return (buffer.hasRemaining()) ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + k);
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
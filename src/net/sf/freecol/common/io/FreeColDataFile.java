@@ -69,6 +69,12 @@ public class FreeColDataFile {
      */
     private final String jarDirectory;
 
+    /**
+     * The index of the ZIP-file, or null if {@link #file} is a
+     * directory or could not be indexed.
+     */
+    private final ArchiveIndex index;
+
 
     /**
      * Opens the given file for reading.
@@ -89,12 +95,65 @@ public class FreeColDataFile {
         this.file = file;
 
         if (file.isDirectory()) {
+            this.index = null;
             this.jarDirectory = null;
         } else {
-            this.jarDirectory = findJarDirectory(file.getName().substring(0, file.getName().lastIndexOf('.')), file);
+            this.index = (isIndexed()) ? createIndex(file) : null;
+            this.jarDirectory = (index != null) ? findJarDirectory(index)
+                : findJarDirectory(file.getName().substring(0, file.getName().lastIndexOf('.')), file);
         }
     }
 
+    /**
+     * Gets the file this object represents.
+     *
+     * @return The <code>File</code>.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Should a ZIP-file of this type be read through a shared {@link
+     * ArchiveIndex}?  Files that are rewritten while in use should not
+     * be, as a mapped file can not be replaced on some platforms.
+     *
+     * @return True if the file should be indexed.
+     */
+    protected boolean isIndexed() {
+        return true;
+    }
+
+    /**
+     * Gets the shared index of a zip-file.
+     *
+     * @param file The zip-file.
+     * @return The <code>ArchiveIndex</code>, or null if the file could
+     *     not be indexed.
+     */
+    private static ArchiveIndex createIndex(File file) {
+        try {
+            return ArchiveIndex.get(file);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Not indexing data file " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Finds the directory within an indexed zip-file.
+     *
+     * @param index The <code>ArchiveIndex</code> of the zip-file.
+     * @return The name of the base directory in the zip-file.
+     */
+    private static String findJarDirectory(ArchiveIndex index) {
+        final List<String> names = index.getEntryNames();
+        if (names.isEmpty()) return "";
+        final String en = names.get(0);
+        final int i = en.lastIndexOf('/');
+        return (i > 0) ? en.substring(0, i + 1) : "";
+    }
+
     /**
      * Finds the directory within the zip-file in case the data file
      * has been renamed.
@@ -173,6 +232,10 @@ public class FreeColDataFile {
      * @exception IOException if an error occurs
      */
     public BufferedInputStream getInputStream(String filename) throws IOException {
+        if (index != null && !filename.startsWith("urn:")) {
+            return new BufferedInputStream(index.getInputStream(jarDirectory
+                    + filename));
+        }
         final URLConnection connection = getURI(filename).toURL().openConnection();
         connection.setDefaultUseCaches(false);
         return new BufferedInputStream(connection.getInputStream());
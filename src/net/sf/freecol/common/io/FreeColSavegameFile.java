@@ -22,6 +22,8 @@ package net.sf.freecol.common.io;
 import java.io.File;
 import java.io.IOException;
 import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.Properties;
 import java.util.logging.Logger;
 
 /**
@@ -61,6 +63,19 @@ public class FreeColSavegameFile extends FreeColDataFile {
      */
     public static final String THUMBNAIL_FILE = "thumbnail.png";
 
+    /**
+     * The property in {@link #SAVEGAME_PROPERTIES} identifying a
+     * snapshot for incremental saves.  The changes since the snapshot
+     * are kept in a separate file, see {@link #getDeltaFile}.
+     */
+    public static final String SNAPSHOT_PROPERTY = "savegame.snapshot";
+
+    /**
+     * The ending added to the name of a savegame to get the name of
+     * its file of changes.
+     */
+    public static final String DELTA_ENDING = ".delta";
+
 
 
     public FreeColSavegameFile(File file) throws IOException {
@@ -79,6 +94,50 @@ public class FreeColSavegameFile extends FreeColDataFile {
         return getInputStream(SAVEGAME_FILE);
     }
 
+    /**
+     * Gets the file of changes made since this savegame was saved, if
+     * it is a snapshot for incremental saves.
+     *
+     * @param file The savegame file.
+     * @return The <code>File</code> of changes, which may not exist.
+     */
+    public static File getDeltaFile(File file) {
+        return new File(file.getPath() + DELTA_ENDING);
+    }
+
+    /**
+     * Gets the snapshot identifier of this savegame.
+     *
+     * @return The identifier, or null if this is not a snapshot for
+     *     incremental saves.
+     */
+    public String getSnapshotId() {
+        InputStream in = null;
+        try {
+            in = getInputStream(SAVEGAME_PROPERTIES);
+            Properties properties = new Properties();
+            properties.load(in);
+            return properties.getProperty(SNAPSHOT_PROPERTY);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    /**
+     * Savegames are not indexed, as they are rewritten while the game
+     * is played.
+     *
+     * @return False.
+     */
+    @Override
+    protected boolean isIndexed() {
+        return false;
+    }
+
     /**
      * File endings that are supported for this type of data file.
      * @return An array of: ".fsg" and ".zip".
@@ -302,7 +302,7 @@ public class Building extends WorkLocation implements Named, Comparable<Building
             unit.setState(Unit.UnitState.IN_COLONY);
             unit.setWorkType(getGoodsOutputType());
 
-            getColony().invalidateCache();
+            getColony().invalidateCache(this);
             return true;
         }
         return false;
@@ -324,7 +324,7 @@ public class Building extends WorkLocation implements Named, Comparable<Building
             unit.setState(Unit.UnitState.ACTIVE);
             unit.setMovesLeft(0);
 
-            getColony().invalidateCache();
+            getColony().invalidateCache(this);
             return true;
         }
         return false;
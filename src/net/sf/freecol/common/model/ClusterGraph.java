@@ -0,0 +1,382 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import net.sf.freecol.common.model.Map.Direction;
+import net.sf.freecol.common.model.Map.Position;
+
+
+/**
+ * An abstract graph over a map for hierarchical path finding.
+ *
+ * The map is cut into square clusters.  Within each cluster the land
+ * and the non-land tiles are split into connected components, and
+ * these components are the nodes of the graph.  Two components are
+ * linked when a tile of one is adjacent to a tile of the other across
+ * a cluster border (the entrances).  Only terrain is considered, so a
+ * route in the graph is a necessary but not sufficient condition for
+ * a unit path.
+ *
+ * A long search first finds the shortest route of components between
+ * the start and the end, measured between the centres of the
+ * components, and the tile level search is then limited to the
+ * clusters crossed ({@link #getCorridor}).  A cluster is relabelled
+ * when one of its tiles changes between land and water.
+ */
+final class ClusterGraph {
+
+    /** The width and height of a cluster in tiles. */
+    public static final int CLUSTER_SIZE = 16;
+
+    /** The most components a cluster can have. */
+    private static final int MAX_COMPONENTS = CLUSTER_SIZE * CLUSTER_SIZE;
+
+    /** The map the graph covers. */
+    private final Map map;
+
+    /** Number of cluster columns and rows. */
+    private final int columns, rows;
+
+    /** Is each tile land? */
+    private final boolean[] land;
+
+    /** The component of each tile. */
+    private final int[] components;
+
+    /**
+     * The links leaving each cluster, as pairs of component
+     * identifiers (inside, outside).
+     */
+    private final int[][] links;
+
+    /**
+     * The centre of each component of each cluster, as pairs of
+     * coordinates (x, y).
+     */
+    private final int[][] centres;
+
+    /** Does each cluster need to be relabelled? */
+    private final boolean[] dirty;
+
+    /** Is any cluster dirty? */
+    private boolean anyDirty = true;
+
+
+    /**
+     * Creates a new graph for a map.  It is built on first use.
+     *
+     * @param map The <code>Map</code> to cover.
+     */
+    ClusterGraph(Map map) {
+        this.map = map;
+        columns = (map.getWidth() + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        rows = (map.getHeight() + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        land = new boolean[map.getSize()];
+        components = new int[map.getSize()];
+        links = new int[columns * rows][];
+        centres = new int[columns * rows][];
+        dirty = new boolean[columns * rows];
+        Arrays.fill(dirty, true);
+    }
+
+    /**
+     * Gets the number of clusters.
+     *
+     * @return The number of clusters.
+     */
+    int getClusterCount() {
+        return columns * rows;
+    }
+
+    /**
+     * Gets the cluster a tile is in.
+     *
+     * @param tile The <code>Tile</code> to check.
+     * @return The cluster index.
+     */
+    int getCluster(Tile tile) {
+        return (tile.getY() / CLUSTER_SIZE) * columns
+            + tile.getX() / CLUSTER_SIZE;
+    }
+
+    /**
+     * Notes a tile change, marking its cluster for relabelling if the
+     * tile changed between land and water.
+     *
+     * @param tile The <code>Tile</code> that changed.
+     */
+    synchronized void tileChanged(Tile tile) {
+        final int index = map.getIndex(tile);
+        final int cluster = getCluster(tile);
+        if (!dirty[cluster] && land[index] != tile.isLand()) {
+            dirty[cluster] = true;
+            anyDirty = true;
+        }
+    }
+
+    /**
+     * Finds the clusters a path between two tiles may need to cross.
+     *
+     * @param start The start <code>Tile</code>.
+     * @param end The end <code>Tile</code>.
+     * @param naval True for a path over water, false for over land.
+     * @return An array marking the clusters of the shortest route
+     *     between the tiles in the graph, or null if there is none.
+     */
+    synchronized boolean[] getCorridor(Tile start, Tile end, boolean naval) {
+        if (anyDirty) update();
+        final List<Integer> sources = getNodes(start, naval);
+        final List<Integer> targets = getNodes(end, naval);
+        if (sources.isEmpty() || targets.isEmpty()) return null;
+
+        // Dijkstra search of the components, with each step costing
+        // the distance between the component centres.  The queue
+        // holds the cost in the high half and the node in the low.
+        final HashMap<Integer, Integer> parents
+            = new HashMap<Integer, Integer>();
+        final HashMap<Integer, Integer> costs
+            = new HashMap<Integer, Integer>();
+        final PriorityQueue<Long> queue = new PriorityQueue<Long>();
+        final Position startPosition = start.getPosition();
+        for (Integer s : sources) {
+            int cost = startPosition.getDistance(getCentre(s));
+            parents.put(s, s);
+            costs.put(s, cost);
+            queue.add(((long)cost << 32) | s);
+        }
+        // Reaching a target still leaves the way from its centre to
+        // the end, so the targets lead on to a final sink node.
+        final Integer sink = -1;
+        final Position endPosition = end.getPosition();
+        while (!queue.isEmpty()) {
+            final long head = queue.poll();
+            final Integer node = (int)head;
+            final int cost = (int)(head >> 32);
+            if (node.equals(sink)) break;
+            if (cost > costs.get(node)) continue; // Stale entry
+            final Position centre = getCentre(node);
+            if (targets.contains(node)) {
+                relax(node, sink, cost + centre.getDistance(endPosition),
+                      parents, costs, queue);
+            }
+            final int[] out = links[node / MAX_COMPONENTS];
+            for (int i = 0; i < out.length; i += 2) {
+                if (out[i] != node) continue;
+                relax(node, out[i + 1],
+                      cost + centre.getDistance(getCentre(out[i + 1])),
+                      parents, costs, queue);
+            }
+        }
+        final Integer found = parents.get(sink);
+        if (found == null) return null;
+
+        final boolean[] corridor = new boolean[getClusterCount()];
+        corridor[getCluster(start)] = true;
+        corridor[getCluster(end)] = true;
+        for (Integer node = found;; node = parents.get(node)) {
+            corridor[node / MAX_COMPONENTS] = true;
+            if (parents.get(node).equals(node)) break;
+        }
+        return corridor;
+    }
+
+    /**
+     * Records a step of the corridor search if it is the cheapest way
+     * to its node so far.
+     *
+     * @param from The component stepped from.
+     * @param to The component stepped to.
+     * @param cost The cost of reaching <code>to</code> by this step.
+     * @param parents The best step to each component.
+     * @param costs The best cost of each component.
+     * @param queue The search queue.
+     */
+    private static void relax(Integer from, Integer to, int cost,
+                              HashMap<Integer, Integer> parents,
+                              HashMap<Integer, Integer> costs,
+                              PriorityQueue<Long> queue) {
+        Integer old = costs.get(to);
+        if (old != null && old <= cost) return;
+        parents.put(to, from);
+        costs.put(to, cost);
+        queue.add(((long)cost << 32) | (to & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Gets the centre of a component.
+     *
+     * @param node The component identifier.
+     * @return The <code>Position</code> of the centre.
+     */
+    private Position getCentre(int node) {
+        final int[] c = centres[node / MAX_COMPONENTS];
+        final int n = node % MAX_COMPONENTS;
+        return new Position(c[2 * n], c[2 * n + 1]);
+    }
+
+    /**
+     * Gets the graph nodes a tile belongs to, which for a tile of the
+     * other kind are those of its neighbours.
+     *
+     * @param tile The <code>Tile</code> to check.
+     * @param naval True for water nodes, false for land.
+     * @return A list of component identifiers.
+     */
+    private List<Integer> getNodes(Tile tile, boolean naval) {
+        final List<Integer> result = new ArrayList<Integer>();
+        if (tile.isLand() != naval) {
+            result.add(components[map.getIndex(tile)]);
+        } else {
+            for (Direction d : Direction.values()) {
+                Tile t = tile.getNeighbourOrNull(d);
+                if (t == null || t.isLand() == naval) continue;
+                Integer c = components[map.getIndex(t)];
+                if (!result.contains(c)) result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Relabels the dirty clusters and relinks them and their
+     * neighbours.
+     */
+    private void update() {
+        final boolean[] relink = new boolean[getClusterCount()];
+        for (int c = 0; c < dirty.length; c++) {
+            if (!dirty[c]) continue;
+            label(c);
+            dirty[c] = false;
+            final int cx = c % columns, cy = c / columns;
+            for (int y = Math.max(0, cy - 1);
+                 y <= Math.min(rows - 1, cy + 1); y++) {
+                for (int x = Math.max(0, cx - 1);
+                     x <= Math.min(columns - 1, cx + 1); x++) {
+                    relink[y * columns + x] = true;
+                }
+            }
+        }
+        for (int c = 0; c < relink.length; c++) {
+            if (relink[c]) link(c);
+        }
+        anyDirty = false;
+    }
+
+    /**
+     * Splits a cluster into connected land and water components, and
+     * finds their centres.
+     *
+     * @param cluster The cluster index.
+     */
+    private void label(int cluster) {
+        final int x0 = (cluster % columns) * CLUSTER_SIZE;
+        final int y0 = (cluster / columns) * CLUSTER_SIZE;
+        final int x1 = Math.min(x0 + CLUSTER_SIZE, map.getWidth());
+        final int y1 = Math.min(y0 + CLUSTER_SIZE, map.getHeight());
+        final int base = cluster * MAX_COMPONENTS;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                Tile t = map.getTile(x, y);
+                int index = map.getIndex(t);
+                land[index] = t.isLand();
+                components[index] = -1;
+            }
+        }
+        int next = 0;
+        final int[] sums = new int[3 * MAX_COMPONENTS];
+        final LinkedList<Tile> queue = new LinkedList<Tile>();
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                Tile seed = map.getTile(x, y);
+                if (components[map.getIndex(seed)] >= 0) continue;
+                final int id = base + next++;
+                final boolean kind = seed.isLand();
+                components[map.getIndex(seed)] = id;
+                queue.add(seed);
+                while (!queue.isEmpty()) {
+                    Tile t = queue.removeFirst();
+                    sums[3 * (id - base)] += t.getX();
+                    sums[3 * (id - base) + 1] += t.getY();
+                    sums[3 * (id - base) + 2]++;
+                    for (Direction d : Direction.values()) {
+                        Tile n = t.getNeighbourOrNull(d);
+                        if (n == null || getCluster(n) != cluster
+                            || n.isLand() != kind) continue;
+                        int i = map.getIndex(n);
+                        if (components[i] >= 0) continue;
+                        components[i] = id;
+                        queue.add(n);
+                    }
+                }
+            }
+        }
+        final int[] c = new int[2 * next];
+        for (int n = 0; n < next; n++) {
+            c[2 * n] = sums[3 * n] / sums[3 * n + 2];
+            c[2 * n + 1] = sums[3 * n + 1] / sums[3 * n + 2];
+        }
+        centres[cluster] = c;
+    }
+
+    /**
+     * Finds the links leaving a cluster.
+     *
+     * @param cluster The cluster index.
+     */
+    private void link(int cluster) {
+        final int x0 = (cluster % columns) * CLUSTER_SIZE;
+        final int y0 = (cluster / columns) * CLUSTER_SIZE;
+        final int x1 = Math.min(x0 + CLUSTER_SIZE, map.getWidth());
+        final int y1 = Math.min(y0 + CLUSTER_SIZE, map.getHeight());
+        final List<Long> pairs = new ArrayList<Long>();
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                // Only the outer two rows and columns can have
+                // neighbours in another cluster.
+                if (x > x0 + 1 && x < x1 - 2 && y > y0 + 1 && y < y1 - 2) {
+                    continue;
+                }
+                Tile t = map.getTile(x, y);
+                int from = components[map.getIndex(t)];
+                for (Direction d : Direction.values()) {
+                    Tile n = t.getNeighbourOrNull(d);
+                    if (n == null || getCluster(n) == cluster
+                        || n.isLand() != t.isLand()) continue;
+                    Long pair = ((long)from << 32)
+                        | components[map.getIndex(n)];
+                    if (!pairs.contains(pair)) pairs.add(pair);
+                }
+            }
+        }
+        final int[] out = new int[2 * pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            out[2 * i] = (int)(pairs.get(i) >> 32);
+            out[2 * i + 1] = (int)(long)pairs.get(i);
+        }
+        links[cluster] = out;
+    }
+}
@@ -272,6 +272,7 @@ public class Colony extends Settlement implements Nameable {
         populationQueue = null;
         for (ColonyTile ct : colonyTiles) {
             ct.getWorkTile().disposeScratchTile();
+            ct.fundamentalDispose();
         }
         colonyTiles.clear();
         dispose();
@@ -2483,6 +2484,16 @@ public class Colony extends Settlement implements Nameable {
         productionCache.invalidate();
     }
 
+    /**
+     * Invalidates the production of a single work location, when the
+     * units working there have changed.
+     *
+     * @param workLocation The <code>WorkLocation</code> that changed.
+     */
+    public void invalidateCache(WorkLocation workLocation) {
+        productionCache.invalidate(workLocation);
+    }
+
     /**
      * Gets a copy of the current production map.
      * Useful in the server at the point net production is applied to a colony.
@@ -253,7 +253,7 @@ public class ColonyTile extends WorkLocation implements Ownable {
                 if (goods != null) unit.setWorkType(goods.getType());
             }
 
-            getColony().invalidateCache();
+            getColony().invalidateCache(this);
             return true;
         }
         return false;
@@ -275,7 +275,7 @@ public class ColonyTile extends WorkLocation implements Ownable {
             unit.setState(Unit.UnitState.ACTIVE);
             unit.setMovesLeft(0);
 
-            getColony().invalidateCache();
+            getColony().invalidateCache(this);
             return true;
         }
         return false;
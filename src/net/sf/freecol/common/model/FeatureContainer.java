@@ -19,36 +19,106 @@
 
 package net.sf.freecol.common.model;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Logger;
 
+/**
+ * The abilities and modifiers of an object.
+ *
+ * Changes must be made by one thread at a time, but any number of
+ * threads may read a container that is not being changed, as the AI
+ * planning tasks do.  So the identifier maps are replaced rather than
+ * changed in place, and the cached snapshots are published together
+ * with their versions.
+ */
 public class FeatureContainer {
 
     private static final Logger logger = Logger.getLogger(FeatureContainer.class.getName());
 
-    private Map<String, Set<Ability>> abilities = new HashMap<String, Set<Ability>>();
-    private Map<String, Set<Modifier>> modifiers = new HashMap<String, Set<Modifier>>();
+    /** The abilities, by interned identifier (see {@link FeatureIds}). */
+    private final FeatureMap<Ability> abilities = new FeatureMap<Ability>();
+
+    /** The modifiers, by interned identifier. */
+    private final FeatureMap<Modifier> modifiers = new FeatureMap<Modifier>();
+
+    /**
+     * Counts the changes to this container, so that users can tell
+     * whether results they have cached are still valid.
+     */
+    private volatile int version = 0;
+
+    /** Snapshots of all the abilities and modifiers. */
+    private volatile Snapshot<Ability> allAbilities = null;
+    private volatile Snapshot<Modifier> allModifiers = null;
+
+    /**
+     * An unmodifiable set of all the features of one kind, with the
+     * version of the container it was taken from.
+     */
+    private static final class Snapshot<T extends Feature> {
 
+        public final Set<T> features;
 
+        public final int version;
+
+
+        public Snapshot(FeatureMap<T> map, int version) {
+            Set<T> result = new HashSet<T>();
+            final FeatureMap.Table table = map.getTable();
+            for (int i = 0; i < table.keys.length; i++) {
+                result.addAll(FeatureMap.<T>valueOf(table, i));
+            }
+            this.features = Collections.unmodifiableSet(result);
+            this.version = version;
+        }
+    }
+
+
+    /**
+     * Gets the version of this container, which changes whenever an
+     * ability or modifier is added or removed.  The version changes
+     * after the features do, so a result computed from the features
+     * seen with a version is never newer than that version claims.
+     *
+     * @return The version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Gets all the abilities of this container.
+     *
+     * @return An unmodifiable set of <code>Ability</code>s, which does
+     *     not change if the container does.
+     */
     public Set<Ability> getAbilities() {
-        Set<Ability> result = new HashSet<Ability>();
-        for (Set<Ability> abilitySet : abilities.values()) {
-            result.addAll(abilitySet);
+        final int v = version;
+        Snapshot<Ability> snapshot = allAbilities;
+        if (snapshot == null || snapshot.version != v) {
+            allAbilities = snapshot = new Snapshot<Ability>(abilities, v);
         }
-        return result;
+        return snapshot.features;
     }
 
+    /**
+     * Gets all the modifiers of this container.
+     *
+     * @return An unmodifiable set of <code>Modifier</code>s, which does
+     *     not change if the container does.
+     */
     public Set<Modifier> getModifiers() {
-        Set<Modifier> result = new HashSet<Modifier>();
-        for (Set<Modifier> modifierSet : modifiers.values()) {
-            result.addAll(modifierSet);
+        final int v = version;
+        Snapshot<Modifier> snapshot = allModifiers;
+        if (snapshot == null || snapshot.version != v) {
+            allModifiers = snapshot = new Snapshot<Modifier>(modifiers, v);
         }
-        return result;
+        return snapshot.features;
     }
 
     /**
@@ -83,6 +153,19 @@ public class FeatureContainer {
      * @return a <code>Set<Feature></code> value
      */
     public Set<Ability> getAbilitySet(String id, FreeColGameObjectType objectType, Turn turn) {
+        return getAbilitySet(FeatureIds.lookup(id), objectType, turn);
+    }
+
+    /**
+     * Returns a Set of Abilities with the given interned ID which
+     * apply to the given FreeColGameObjectType and Turn.
+     *
+     * @param id The number of the ability ID (see {@link FeatureIds}).
+     * @param objectType a <code>FreeColGameObjectType</code> value
+     * @param turn a <code>Turn</code> value
+     * @return a <code>Set<Feature></code> value
+     */
+    public Set<Ability> getAbilitySet(int id, FreeColGameObjectType objectType, Turn turn) {
         Set<Ability> abilitySet = abilities.get(id);
         if (abilitySet == null) {
             return new HashSet<Ability>();
@@ -127,6 +210,19 @@ public class FeatureContainer {
      * @return a <code>boolean</code> value
      */
     public boolean hasAbility(String id, FreeColGameObjectType objectType, Turn turn) {
+        return hasAbility(FeatureIds.lookup(id), objectType, turn);
+    }
+
+    /**
+     * Returns true if this container has the ability with the given
+     * interned ID.
+     *
+     * @param id The number of the ability ID (see {@link FeatureIds}).
+     * @param objectType a <code>FreeColGameObjectType</code> value
+     * @param turn a <code>Turn</code> value
+     * @return a <code>boolean</code> value
+     */
+    public boolean hasAbility(int id, FreeColGameObjectType objectType, Turn turn) {
         Set<Ability> abilitySet = abilities.get(id);
         if (abilitySet == null) {
             return false;
@@ -196,6 +292,19 @@ public class FeatureContainer {
      * @return a <code>Set<Feature></code> value
      */
     public Set<Modifier> getModifierSet(String id, FreeColGameObjectType objectType, Turn turn) {
+        return getModifierSet(FeatureIds.lookup(id), objectType, turn);
+    }
+
+    /**
+     * Returns a Set of Modifiers with the given interned ID which
+     * apply to the given FreeColGameObjectType and Turn.
+     *
+     * @param id The number of the modifier ID (see {@link FeatureIds}).
+     * @param objectType a <code>FreeColGameObjectType</code> value
+     * @param turn a <code>Turn</code> value
+     * @return a <code>Set<Feature></code> value
+     */
+    public Set<Modifier> getModifierSet(int id, FreeColGameObjectType objectType, Turn turn) {
         HashSet<Modifier> result = new HashSet<Modifier>();
 
         Set<Modifier> modifierSet = modifiers.get(id);
@@ -357,12 +466,15 @@ public class FeatureContainer {
         if (ability == null) {
             return false;
         }
-        Set<Ability> abilitySet = abilities.get(ability.getId());
+        final int id = FeatureIds.intern(ability.getId());
+        Set<Ability> abilitySet = abilities.get(id);
         if (abilitySet == null) {
             abilitySet = new HashSet<Ability>();
-            abilities.put(ability.getId(), abilitySet);
+            abilities.put(id, abilitySet);
         }
-        return abilitySet.add(ability);
+        final boolean added = abilitySet.add(ability);
+        version++;
+        return added;
     }
 
     /**
@@ -377,12 +489,15 @@ public class FeatureContainer {
         if (modifier == null) {
             return false;
         }
-        Set<Modifier> modifierSet = modifiers.get(modifier.getId());
+        final int id = FeatureIds.intern(modifier.getId());
+        Set<Modifier> modifierSet = modifiers.get(id);
         if (modifierSet == null) {
             modifierSet = new HashSet<Modifier>();
-            modifiers.put(modifier.getId(), modifierSet);
+            modifiers.put(id, modifierSet);
         }
-        return modifierSet.add(modifier);
+        final boolean added = modifierSet.add(modifier);
+        version++;
+        return added;
     }
 
     /**
@@ -395,10 +510,11 @@ public class FeatureContainer {
         if (oldAbility == null) {
             return null;
         } else {
-            Set<Ability> abilitySet = abilities.get(oldAbility.getId());
+            Set<Ability> abilitySet = abilities.get(FeatureIds.lookup(oldAbility.getId()));
             if (abilitySet == null) {
                 return null;
             } else if (abilitySet.remove(oldAbility)) {
+                version++;
                 return oldAbility;
             } else {
                 return null;
@@ -412,7 +528,8 @@ public class FeatureContainer {
      * @param id a <code>String</code> value
      */
     public void removeAbilities(String id) {
-        abilities.remove(id);
+        abilities.remove(FeatureIds.lookup(id));
+        version++;
     }
 
     /**
@@ -425,10 +542,11 @@ public class FeatureContainer {
         if (oldModifier == null) {
             return null;
         } else {
-            Set<Modifier> modifierSet = modifiers.get(oldModifier.getId());
+            Set<Modifier> modifierSet = modifiers.get(FeatureIds.lookup(oldModifier.getId()));
             if (modifierSet == null) {
                 return null;
             } else if (modifierSet.remove(oldModifier)) {
+                version++;
                 return oldModifier;
             } else {
                 return null;
@@ -442,7 +560,8 @@ public class FeatureContainer {
      * @param id a <code>String</code> value
      */
     public void removeModifiers(String id) {
-        modifiers.remove(id);
+        modifiers.remove(FeatureIds.lookup(id));
+        version++;
     }
 
     /**
@@ -451,22 +570,33 @@ public class FeatureContainer {
      * @param featureContainer a <code>FeatureContainer</code> value
      */
     public void add(FeatureContainer featureContainer) {
-        for (Entry<String, Set<Ability>> entry : featureContainer.abilities.entrySet()) {
-            Set<Ability> abilitySet = abilities.get(entry.getKey());
+        final FeatureMap.Table otherAbilities
+            = featureContainer.abilities.getTable();
+        for (int i = 0; i < otherAbilities.keys.length; i++) {
+            final int id = otherAbilities.keys[i];
+            final Set<Ability> other
+                = FeatureMap.<Ability>valueOf(otherAbilities, i);
+            Set<Ability> abilitySet = abilities.get(id);
             if (abilitySet == null) {
-                abilities.put(entry.getKey(), new HashSet<Ability>(entry.getValue()));
+                abilities.put(id, new HashSet<Ability>(other));
             } else {
-                abilitySet.addAll(entry.getValue());
+                abilitySet.addAll(other);
             }
         }
-        for (Entry<String, Set<Modifier>> entry : featureContainer.modifiers.entrySet()) {
-            Set<Modifier> modifierSet = modifiers.get(entry.getKey());
+        final FeatureMap.Table otherModifiers
+            = featureContainer.modifiers.getTable();
+        for (int i = 0; i < otherModifiers.keys.length; i++) {
+            final int id = otherModifiers.keys[i];
+            final Set<Modifier> other
+                = FeatureMap.<Modifier>valueOf(otherModifiers, i);
+            Set<Modifier> modifierSet = modifiers.get(id);
             if (modifierSet == null) {
-                modifiers.put(entry.getKey(), new HashSet<Modifier>(entry.getValue()));
+                modifiers.put(id, new HashSet<Modifier>(other));
             } else {
-                modifierSet.addAll(entry.getValue());
+                modifierSet.addAll(other);
             }
         }
+        version++;
     }
 
     /**
@@ -475,26 +605,31 @@ public class FeatureContainer {
      * @param featureContainer a <code>FeatureContainer</code> value
      */
     public void remove(FeatureContainer featureContainer) {
-        for (Entry<String, Set<Ability>> entry : featureContainer.abilities.entrySet()) {
-            Set<Ability> abilitySet = abilities.get(entry.getKey());
+        final FeatureMap.Table otherAbilities
+            = featureContainer.abilities.getTable();
+        for (int i = 0; i < otherAbilities.keys.length; i++) {
+            Set<Ability> abilitySet = abilities.get(otherAbilities.keys[i]);
             if (abilitySet != null) {
-                abilitySet.removeAll(entry.getValue());
+                abilitySet.removeAll(FeatureMap.<Ability>valueOf(otherAbilities, i));
             }
         }
-        for (Entry<String, Set<Modifier>> entry : featureContainer.modifiers.entrySet()) {
-            Set<Modifier> modifierSet = modifiers.get(entry.getKey());
+        final FeatureMap.Table otherModifiers
+            = featureContainer.modifiers.getTable();
+        for (int i = 0; i < otherModifiers.keys.length; i++) {
+            Set<Modifier> modifierSet = modifiers.get(otherModifiers.keys[i]);
             if (modifierSet != null) {
-                modifierSet.removeAll(entry.getValue());
+                modifierSet.removeAll(FeatureMap.<Modifier>valueOf(otherModifiers, i));
             }
         }
+        version++;
     }
 
     public boolean containsAbilityKey(String key) {
-        return abilities.containsKey(key);
+        return abilities.get(FeatureIds.lookup(key)) != null;
     }
 
     public boolean containsModifierKey(String key) {
-        return modifiers.containsKey(key);
+        return modifiers.get(FeatureIds.lookup(key)) != null;
     }
 
     /**
@@ -539,4 +674,114 @@ public class FeatureContainer {
         result.append("]]");
         return result.toString();
     }
+
+    /**
+     * A small map from interned feature identifiers to sets of
+     * features, kept as sorted arrays.  Containers hold few
+     * identifiers, so a binary search is quick and the arrays are
+     * compact.  The arrays are never changed once published, a change
+     * replaces the whole table, so readers always see a matching pair.
+     */
+    private static final class FeatureMap<T extends Feature> {
+
+        /** The identifiers and their feature sets. */
+        public static final class Table {
+
+            public final int[] keys;
+
+            public final Object[] values;
+
+
+            public Table(int[] keys, Object[] values) {
+                this.keys = keys;
+                this.values = values;
+            }
+        }
+
+        private static final Table EMPTY
+            = new Table(new int[0], new Object[0]);
+
+        private volatile Table table = EMPTY;
+
+        /**
+         * Gets the current table, for iterating over.
+         *
+         * @return The <code>Table</code>.
+         */
+        public Table getTable() {
+            return table;
+        }
+
+        /**
+         * Gets the features at an index of a table.
+         *
+         * @param table The <code>Table</code> to read.
+         * @param index The index, from 0 to the number of keys - 1.
+         * @return The set of features.
+         */
+        @SuppressWarnings("unchecked")
+        public static <U extends Feature> Set<U> valueOf(Table table,
+                                                         int index) {
+            return (Set<U>) table.values[index];
+        }
+
+        /**
+         * Gets the features with an identifier.
+         *
+         * @param key The identifier.
+         * @return The set of features, or null if none.
+         */
+        public Set<T> get(int key) {
+            final Table t = table;
+            int index = Arrays.binarySearch(t.keys, key);
+            return (index < 0) ? null : FeatureMap.<T>valueOf(t, index);
+        }
+
+        /**
+         * Sets the features with an identifier.
+         *
+         * @param key The identifier.
+         * @param value The set of features.
+         */
+        public void put(int key, Set<T> value) {
+            final int[] keys = table.keys;
+            final Object[] values = table.values;
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                Object[] newValues = values.clone();
+                newValues[index] = value;
+                table = new Table(keys, newValues);
+                return;
+            }
+            index = -index - 1;
+            int[] newKeys = new int[keys.length + 1];
+            Object[] newValues = new Object[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(values, 0, newValues, 0, index);
+            newKeys[index] = key;
+            newValues[index] = value;
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(values, index, newValues, index + 1, keys.length - index);
+            table = new Table(newKeys, newValues);
+        }
+
+        /**
+         * Removes the features with an identifier.
+         *
+         * @param key The identifier.
+         */
+        public void remove(int key) {
+            final int[] keys = table.keys;
+            final Object[] values = table.values;
+            int index = Arrays.binarySearch(keys, key);
+            if (index < 0) return;
+            int[] newKeys = new int[keys.length - 1];
+            Object[] newValues = new Object[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(values, 0, newValues, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, newKeys.length - index);
+            System.arraycopy(values, index + 1, newValues, index, newKeys.length - index);
+            table = new Table(newKeys, newValues);
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Interns the identifiers of abilities and modifiers as small
+ * integers, which {@link FeatureContainer} uses as keys.
+ *
+ * <br><br>
+ *
+ * The identifiers defined by a ruleset are interned when it is loaded
+ * (see {@link Specification#getFeatureId}), and any others when a
+ * feature with them is first added to a container.  Feature containers
+ * do not know their specification, so the table is shared by all
+ * specifications.  Identifiers are never removed, which is fine as
+ * there are only a few hundred of them.
+ */
+public final class FeatureIds {
+
+    /** The number returned for identifiers that are not interned. */
+    public static final int NONE = -1;
+
+    /** The key standing for a null identifier. */
+    private static final String NULL_KEY = "<null>";
+
+    /** The number of each interned identifier. */
+    private static final ConcurrentHashMap<String, Integer> numbers
+        = new ConcurrentHashMap<String, Integer>();
+
+    /** The identifier of each number. */
+    private static String[] names = new String[256];
+
+    /** The number of interned identifiers. */
+    private static int count = 0;
+
+
+    private FeatureIds() {
+        // Hide constructor
+    }
+
+    /**
+     * Gets the number of an identifier, interning it if needed.
+     *
+     * @param id The feature identifier.
+     * @return The number of the identifier.
+     */
+    public static int intern(String id) {
+        final String key = (id == null) ? NULL_KEY : id;
+        Integer number = numbers.get(key);
+        if (number != null) return number.intValue();
+        synchronized (FeatureIds.class) {
+            number = numbers.get(key);
+            if (number != null) return number.intValue();
+            if (count == names.length) {
+                names = Arrays.copyOf(names, 2 * names.length);
+            }
+            names[count] = id;
+            numbers.put(key, Integer.valueOf(count));
+            return count++;
+        }
+    }
+
+    /**
+     * Gets the number of an identifier, without interning it.
+     *
+     * @param id The feature identifier.
+     * @return The number of the identifier, or {@link #NONE} if it
+     *     has not been interned, in which case no container has a
+     *     feature with this identifier.
+     */
+    public static int lookup(String id) {
+        Integer number = numbers.get((id == null) ? NULL_KEY : id);
+        return (number == null) ? NONE : number.intValue();
+    }
+
+    /**
+     * Gets the identifier of a number.
+     *
+     * @param number The number of the identifier.
+     * @return The feature identifier.
+     */
+    public static synchronized String getName(int number) {
+        return names[number];
+    }
+}
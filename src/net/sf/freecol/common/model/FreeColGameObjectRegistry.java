@@ -0,0 +1,309 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * The objects registered with a {@link Game}, by identifier.
+ *
+ * Identifiers normally have the form <code>type:number</code>, with the
+ * number allocated by the server.  These are stored in an open
+ * addressed table keyed on the number, so a lookup parses the digits
+ * rather than hashing the whole string, and compares the identifier
+ * only against the entries with the same number.  Any other
+ * identifiers are kept in a plain map.
+ *
+ * Objects are held weakly, as before the table was introduced.  They
+ * are removed when disposed (see
+ * {@link FreeColGameObject#fundamentalDispose}), and an object that is
+ * dropped without being disposed is removed once it is collected, by
+ * {@link #expunge}.
+ */
+final class FreeColGameObjectRegistry {
+
+    /** The initial table capacity, a power of two. */
+    private static final int INITIAL_CAPACITY = 16384;
+
+    /** The number of each table slot. */
+    private int[] numbers = new int[INITIAL_CAPACITY];
+
+    /** The identifier in each table slot, null if the slot is empty. */
+    private String[] ids = new String[INITIAL_CAPACITY];
+
+    /** The reference to the object in each table slot. */
+    private Ref[] objects = new Ref[INITIAL_CAPACITY];
+
+    /** The number of used table slots. */
+    private int used = 0;
+
+    /** The objects with identifiers not ending in a number. */
+    private final HashMap<String, Ref> others = new HashMap<String, Ref>();
+
+    /** The references to objects that have been collected. */
+    private final ReferenceQueue<FreeColGameObject> collected
+        = new ReferenceQueue<FreeColGameObject>();
+
+
+    /**
+     * A weak reference to a registered object, that knows the
+     * identifier it was registered under.
+     */
+    private static final class Ref extends WeakReference<FreeColGameObject> {
+
+        private final String id;
+
+        public Ref(String id, FreeColGameObject object,
+                   ReferenceQueue<FreeColGameObject> queue) {
+            super(object, queue);
+            this.id = id;
+        }
+    }
+
+    /**
+     * Gets the number at the end of an identifier.
+     *
+     * @param id The identifier to check.
+     * @return The number following the last colon in the identifier,
+     *     or -1 if there is none.
+     */
+    private static int getNumber(String id) {
+        final int length = id.length();
+        int start = id.lastIndexOf(':') + 1;
+        if (start == 0 || start == length || length - start > 9) return -1;
+        int n = 0;
+        for (int i = start; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            n = 10 * n + (c - '0');
+        }
+        return n;
+    }
+
+    /**
+     * Gets the first slot to probe for a number.
+     *
+     * @param number The number to look for.
+     * @return The slot index.
+     */
+    private int getSlot(int number) {
+        int h = number * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (ids.length - 1);
+    }
+
+    /**
+     * Finds the table slot holding an identifier.
+     *
+     * @param id The identifier to look for.
+     * @param number The number of the identifier.
+     * @return The slot index, or -1 if not present.
+     */
+    private int find(String id, int number) {
+        final int mask = ids.length - 1;
+        for (int i = getSlot(number); ids[i] != null; i = (i + 1) & mask) {
+            if (numbers[i] == number && ids[i].equals(id)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets an object.
+     *
+     * @param id The identifier of the object.
+     * @return The <code>FreeColGameObject</code>, or null if none.
+     */
+    FreeColGameObject get(String id) {
+        return deref(getRef(id));
+    }
+
+    /**
+     * Gets the reference to an object.
+     *
+     * @param id The identifier of the object.
+     * @return The <code>Ref</code>, or null if none.
+     */
+    private Ref getRef(String id) {
+        final int number = getNumber(id);
+        if (number < 0) return others.get(id);
+        final int slot = find(id, number);
+        return (slot < 0) ? null : objects[slot];
+    }
+
+    /**
+     * Gets the object of a reference.
+     *
+     * @param ref The <code>Ref</code> to follow, may be null.
+     * @return The <code>FreeColGameObject</code>, or null if none or
+     *     collected.
+     */
+    private static FreeColGameObject deref(Ref ref) {
+        return (ref == null) ? null : ref.get();
+    }
+
+    /**
+     * Adds or replaces an object.
+     *
+     * @param id The identifier of the object.
+     * @param object The <code>FreeColGameObject</code> to add.
+     */
+    void put(String id, FreeColGameObject object) {
+        final Ref ref = new Ref(id, object, collected);
+        final int number = getNumber(id);
+        if (number < 0) {
+            others.put(id, ref);
+            return;
+        }
+        int slot = find(id, number);
+        if (slot < 0) {
+            if (2 * (used + 1) > ids.length) resize(2 * ids.length);
+            final int mask = ids.length - 1;
+            for (slot = getSlot(number); ids[slot] != null;
+                 slot = (slot + 1) & mask);
+            numbers[slot] = number;
+            ids[slot] = id;
+            used++;
+        }
+        objects[slot] = ref;
+    }
+
+    /**
+     * Removes an object.
+     *
+     * @param id The identifier of the object.
+     * @return The <code>FreeColGameObject</code> removed, or null
+     *     if none.
+     */
+    FreeColGameObject remove(String id) {
+        final int number = getNumber(id);
+        if (number < 0) return deref(others.remove(id));
+        int slot = find(id, number);
+        if (slot < 0) return null;
+        final FreeColGameObject result = deref(objects[slot]);
+        removeSlot(slot);
+        return result;
+    }
+
+    /**
+     * Empties a table slot.
+     *
+     * @param slot The index of the slot.
+     */
+    private void removeSlot(int slot) {
+        // Shift back later entries of the probe run into the gap,
+        // so that no tombstones are needed.
+        final int mask = ids.length - 1;
+        int gap = slot;
+        for (int i = (gap + 1) & mask; ids[i] != null; i = (i + 1) & mask) {
+            int home = getSlot(numbers[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                numbers[gap] = numbers[i];
+                ids[gap] = ids[i];
+                objects[gap] = objects[i];
+                gap = i;
+            }
+        }
+        ids[gap] = null;
+        objects[gap] = null;
+        used--;
+    }
+
+    /**
+     * Removes the entries of objects that have been collected.
+     *
+     * @return The identifiers of the entries removed.
+     */
+    List<String> expunge() {
+        List<String> result = null;
+        for (Ref ref; (ref = (Ref) collected.poll()) != null;) {
+            // The entry may since have been replaced or removed.
+            final int number = getNumber(ref.id);
+            if (number < 0) {
+                if (others.get(ref.id) != ref) continue;
+                others.remove(ref.id);
+            } else {
+                final int slot = find(ref.id, number);
+                if (slot < 0 || objects[slot] != ref) continue;
+                removeSlot(slot);
+            }
+            if (result == null) result = new ArrayList<String>();
+            result.add(ref.id);
+        }
+        return (result == null) ? Collections.<String>emptyList() : result;
+    }
+
+    /**
+     * Gets a snapshot of all the registered objects.
+     *
+     * @return A list of the <code>FreeColGameObject</code>s.
+     */
+    List<FreeColGameObject> getObjects() {
+        List<FreeColGameObject> result
+            = new ArrayList<FreeColGameObject>(used + others.size());
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == null) continue;
+            FreeColGameObject o = objects[i].get();
+            if (o != null) result.add(o);
+        }
+        for (Ref ref : others.values()) {
+            FreeColGameObject o = ref.get();
+            if (o != null) result.add(o);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of registered objects, including any collected
+     * but not yet expunged.
+     *
+     * @return The number of objects.
+     */
+    int size() {
+        return used + others.size();
+    }
+
+    /**
+     * Moves the table entries to a table of a new size.
+     *
+     * @param capacity The new capacity, a power of two.
+     */
+    private void resize(int capacity) {
+        final int[] oldNumbers = numbers;
+        final String[] oldIds = ids;
+        final Ref[] oldObjects = objects;
+        numbers = new int[capacity];
+        ids = new String[capacity];
+        objects = new Ref[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] == null) continue;
+            int slot = getSlot(oldNumbers[i]);
+            while (ids[slot] != null) slot = (slot + 1) & mask;
+            numbers[slot] = oldNumbers[i];
+            ids[slot] = oldIds[i];
+            objects[slot] = oldObjects[i];
+        }
+    }
+}
@@ -25,7 +25,6 @@ import java.beans.PropertyChangeSupport;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
@@ -37,9 +36,6 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -54,9 +50,8 @@ import org.freecolandroid.xml.stream.XMLStreamException;
 import org.freecolandroid.xml.stream.XMLStreamReader;
 import org.freecolandroid.xml.stream.XMLStreamWriter;
 import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Element;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 
 public abstract class FreeColObject {
@@ -290,39 +285,17 @@ public abstract class FreeColObject {
                                 boolean showAll, boolean toSavedGame,
                                 String[] fields) {
         try {
-            StringWriter sw = new StringWriter();
-            XMLOutputFactory xif = XMLOutputFactory.newInstance();
-            XMLStreamWriter xsw = xif.createXMLStreamWriter(sw);
+            // Build the nodes directly in the target document.
+            DocumentFragment fragment = document.createDocumentFragment();
+            XMLOutputFactory xof = XMLOutputFactory.newInstance();
+            XMLStreamWriter xsw = xof.createXMLStreamWriter(fragment);
             if (fields == null) {
                 toXML(xsw, player, showAll, toSavedGame);
             } else {
                 toXMLPartialImpl(xsw, fields);
             }
             xsw.close();
-
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            Document tempDocument = null;
-            try {
-                DocumentBuilder builder = factory.newDocumentBuilder();
-                tempDocument = builder.parse(new InputSource(new StringReader(sw.toString())));
-                return (Element) document.importNode(tempDocument.getDocumentElement(), true);
-            } catch (ParserConfigurationException pce) {
-                // Parser with specified options can't be built
-                StringWriter swe = new StringWriter();
-                pce.printStackTrace(new PrintWriter(swe));
-                logger.warning(swe.toString());
-                throw new IllegalStateException("ParserConfigurationException: " + pce.getMessage());
-            } catch (SAXException se) {
-                StringWriter swe = new StringWriter();
-                se.printStackTrace(new PrintWriter(swe));
-                logger.warning(swe.toString());
-                throw new IllegalStateException("SAXException: " + se.getMessage());
-            } catch (IOException ie) {
-                StringWriter swe = new StringWriter();
-                ie.printStackTrace(new PrintWriter(swe));
-                logger.warning(swe.toString());
-                throw new IllegalStateException("IOException: " + ie.getMessage());
-            }
+            return (Element) fragment.removeChild(fragment.getFirstChild());
         } catch (XMLStreamException e) {
             logger.warning(e.toString());
             throw new IllegalStateException("XMLStreamException: " + e.getMessage());
@@ -19,7 +19,6 @@
 
 package net.sf.freecol.common.model;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -82,8 +81,8 @@ public class Game extends FreeColGameObject {
     protected Player viewOwner = null;
 
     /** Contains references to all objects created in this game. */
-    protected HashMap<String, WeakReference<FreeColGameObject>> freeColGameObjects =
-              new HashMap<String, WeakReference<FreeColGameObject>>(10000);
+    private final FreeColGameObjectRegistry freeColGameObjects
+        = new FreeColGameObjectRegistry();
 
     /**
      * The next available ID, that can be given to a new
@@ -353,6 +352,7 @@ public class Game extends FreeColGameObject {
 
     /**
      * Registers a new <code>FreeColGameObject</code> with the specified ID.
+     * An object already registered with the ID is replaced.
      *
      * @param id The unique ID of the <code>FreeColGameObject</code>.
      * @param freeColGameObject The <code>FreeColGameObject</code> that shall
@@ -368,20 +368,33 @@ public class Game extends FreeColGameObject {
             throw new IllegalArgumentException("Parameter 'freeColGameObject' must not be 'null'.");
         }
 
-        final WeakReference<FreeColGameObject> wr = new WeakReference<FreeColGameObject>(freeColGameObject);
+        expungeFreeColGameObjects();
         final FreeColGameObject old = getFreeColGameObjectSafely(id);
+        if (old == freeColGameObject) return;
         if (old != null) {
-            throw new IllegalArgumentException("Replacing FreeColGameObject "
-                + id + ": " + old.getClass()
+            logger.warning("Replacing FreeColGameObject " + id
+                + ": " + old.getClass()
                 + " with " + freeColGameObject.getClass());
         }
-        freeColGameObjects.put(id, wr);
+        freeColGameObjects.put(id, freeColGameObject);
 
         if (freeColGameObjectListener != null) {
             freeColGameObjectListener.setFreeColGameObject(id, freeColGameObject);
         }
     }
 
+    /**
+     * Drops the registrations of objects that were collected without
+     * being disposed, and tells the listener.
+     */
+    private void expungeFreeColGameObjects() {
+        for (String id : freeColGameObjects.expunge()) {
+            if (freeColGameObjectListener != null) {
+                freeColGameObjectListener.removeFreeColGameObject(id);
+            }
+        }
+    }
+
     public void setFreeColGameObjectListener(FreeColGameObjectListener freeColGameObjectListener) {
         this.freeColGameObjectListener = freeColGameObjectListener;
     }
@@ -415,16 +428,7 @@ public class Game extends FreeColGameObject {
         if (id == null || id.length() == 0) {
             return null;
         }
-        final WeakReference<FreeColGameObject> ro = freeColGameObjects.get(id);
-        if (ro != null) {
-            final FreeColGameObject o = ro.get();
-            if (o != null) {
-                return o;
-            } else {
-                freeColGameObjects.remove(id);
-            }
-        }
-        return null;
+        return freeColGameObjects.get(id);
     }
 
     /**
@@ -616,54 +620,27 @@ public class Game extends FreeColGameObject {
 
     /**
      * Gets an <code>Iterator</code> of every registered
-     * <code>FreeColGameObject</code>.
-     *
-     * This <code>Iterator</code> should be iterated at least once
-     * in a while since it cleans the <code>FreeColGameObject</code>
-     * cache.
+     * <code>FreeColGameObject</code>.  The iterator is over a snapshot,
+     * so objects may be added or removed while it is in use.
      *
      * @return an <code>Iterator</code> containing every registered
      *         <code>FreeColGameObject</code>.
      * @see #setFreeColGameObject
      */
     public Iterator<FreeColGameObject> getFreeColGameObjectIterator() {
-        return new Iterator<FreeColGameObject>() {
-            final Iterator<Entry<String, WeakReference<FreeColGameObject>>> it = freeColGameObjects.entrySet().iterator();
-            FreeColGameObject nextValue = null;
-
-            public boolean hasNext() {
-                while (nextValue == null) {
-                    if (!it.hasNext()) {
-                        return false;
-                    }
-                    final Entry<String, WeakReference<FreeColGameObject>> entry = it.next();
-                    final WeakReference<FreeColGameObject> wr = entry.getValue();
-                    final FreeColGameObject o = wr.get();
-                    if (o == null) {
-                        final String id = entry.getKey();
-                        if (freeColGameObjectListener != null) {
-                            freeColGameObjectListener.removeFreeColGameObject(id);
-                        }
-                        it.remove();
-                    } else {
-                        nextValue = o;
-                    }
-                }
-
-                return nextValue != null;
-            }
-
-            public FreeColGameObject next() {
-                hasNext();
-                final FreeColGameObject o = nextValue;
-                nextValue = null;
-                return o;
-            }
+        expungeFreeColGameObjects();
+        return Collections.unmodifiableList(freeColGameObjects.getObjects())
+            .iterator();
+    }
 
-            public void remove() {
-                throw new UnsupportedOperationException();
-            }
-        };
+    /**
+     * Gets the number of registered <code>FreeColGameObject</code>s.
+     *
+     * @return The number of objects.
+     */
+    public int getFreeColGameObjectCount() {
+        expungeFreeColGameObjects();
+        return freeColGameObjects.size();
     }
 
     /**
@@ -987,12 +964,51 @@ public class Game extends FreeColGameObject {
     protected void toXMLImpl(XMLStreamWriter out, Player player,
                              boolean showAll, boolean toSavedGame)
         throws XMLStreamException {
-        // Start element:
-        out.writeStartElement(getXMLElementTagName());
-
         if (toSavedGame && !showAll) {
             throw new IllegalArgumentException("showAll must be set to true when toSavedGame is true.");
         }
+        toXMLImpl(out, player, showAll, toSavedGame, null, null);
+    }
+
+    /**
+     * Writes the saved game form of the parts of this game that may
+     * change during play, for an incremental save.  The specification
+     * is left out, and only the given players and tiles are written.
+     * Reading the result into this game with <code>readFromXML</code>
+     * updates those players and tiles.
+     *
+     * @param out The target stream.
+     * @param players The <code>Player</code>s to write.
+     * @param tiles The <code>Tile</code>s to write.
+     * @throws XMLStreamException if there are any problems writing to the
+     *             stream.
+     */
+    public void toXMLPartial(XMLStreamWriter out, List<Player> players,
+                             List<Tile> tiles)
+        throws XMLStreamException {
+        toXMLImpl(out, null, true, true, players, tiles);
+    }
+
+    /**
+     * Writes this game, in full or only the parts that may change.
+     *
+     * @param out The target stream.
+     * @param player The <code>Player</code> to write for.
+     * @param showAll Write all the information.
+     * @param toSavedGame Write the information only needed in saved games.
+     * @param players The <code>Player</code>s to write for a partial
+     *            game, or null to write the whole game.
+     * @param tiles The <code>Tile</code>s to write for a partial game,
+     *            or null to write the whole game.
+     * @throws XMLStreamException if there are any problems writing to the
+     *             stream.
+     */
+    private void toXMLImpl(XMLStreamWriter out, Player player,
+                           boolean showAll, boolean toSavedGame,
+                           List<Player> players, List<Tile> tiles)
+        throws XMLStreamException {
+        // Start element:
+        out.writeStartElement(getXMLElementTagName());
 
         out.writeAttribute(ID_ATTRIBUTE, getId());
         out.writeAttribute("UUID", getUUID().toString());
@@ -1005,7 +1021,7 @@ public class Game extends FreeColGameObject {
             out.writeAttribute("nextID", Integer.toString(nextId));
         }
 
-        specification.toXMLImpl(out);
+        if (tiles == null) specification.toXMLImpl(out);
 
         if (citiesOfCibola == null) initializeCitiesOfCibola();
         for (String cityName : citiesOfCibola) {
@@ -1016,16 +1032,26 @@ public class Game extends FreeColGameObject {
         nationOptions.toXML(out);
 
         // serialize players
-        Iterator<Player> playerIterator = getPlayerIterator();
-        while (playerIterator.hasNext()) {
-            Player p = playerIterator.next();
-            p.toXML(out, player, showAll, toSavedGame);
+        if (players != null) {
+            for (Player p : players) p.toXML(out, player, showAll, toSavedGame);
+        } else {
+            Iterator<Player> playerIterator = getPlayerIterator();
+            while (playerIterator.hasNext()) {
+                Player p = playerIterator.next();
+                p.toXML(out, player, showAll, toSavedGame);
+            }
+            Player enemy = getUnknownEnemy();
+            if (enemy != null) enemy.toXML(out, player, showAll, toSavedGame);
         }
-        Player enemy = getUnknownEnemy();
-        if (enemy != null) enemy.toXML(out, player, showAll, toSavedGame);
 
         // serialize map
-        if (map != null) map.toXML(out, player, showAll, toSavedGame);
+        if (map != null) {
+            if (tiles == null) {
+                map.toXML(out, player, showAll, toSavedGame);
+            } else {
+                map.toXMLPartial(out, tiles);
+            }
+        }
 
         /* Moved to within player.  Last used in 0.9.x.
         // serialize messages
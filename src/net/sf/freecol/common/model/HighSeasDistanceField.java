@@ -0,0 +1,227 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import java.util.Arrays;
+
+import net.sf.freecol.common.model.Map.Direction;
+
+
+/**
+ * The distance, in moves over non-land tiles, from each tile of a map
+ * to the nearest tile from which a unit can move to Europe.
+ *
+ * The field is built with one multi-source breadth first search from
+ * all the high seas tiles.  Tile changes that can only shorten
+ * distances (a tile becoming water or high seas) are propagated
+ * outwards from the changed tile.  Changes that can lengthen them
+ * mark the field for a rebuild on the next query.
+ */
+final class HighSeasDistanceField {
+
+    /** Tile kinds. */
+    private static final byte BLOCKED = 0, WATER = 1, SOURCE = 2;
+
+    /** The map the field covers. */
+    private final Map map;
+
+    /** The kind of each tile when last seen. */
+    private final byte[] kinds;
+
+    /** The distance from each tile to the high seas, or -1 if none. */
+    private final int[] distances;
+
+    /** Work queue of tile indices for the searches. */
+    private final int[] queue;
+
+    /** Does the field need to be rebuilt? */
+    private boolean dirty = true;
+
+
+    /**
+     * Creates a new field for a map.  It is built on first use.
+     *
+     * @param map The <code>Map</code> to cover.
+     */
+    HighSeasDistanceField(Map map) {
+        this.map = map;
+        int size = map.getSize();
+        kinds = new byte[size];
+        distances = new int[size];
+        queue = new int[size];
+    }
+
+    /**
+     * Gets the number of moves from a tile to the nearest high seas.
+     * For a land tile this is the distance from it to the high seas
+     * through an adjacent non-land tile.
+     *
+     * @param tile The <code>Tile</code> to check.
+     * @return The number of moves, zero if units can move to Europe
+     *     from the tile, or -1 if the high seas can not be reached.
+     */
+    synchronized int getDistance(Tile tile) {
+        if (dirty) build();
+        if (tile.canMoveToEurope()) return 0;
+        int index = map.getIndex(tile);
+        if (kinds[index] != BLOCKED) return distances[index];
+        int best = getNearestNeighbourDistance(tile);
+        return (best < 0) ? -1 : best + 1;
+    }
+
+    /**
+     * Finds the best path from a tile to the high seas by following
+     * the field downhill.  The nodes match those of a search with a
+     * cost of one per non-land move.
+     *
+     * @param start The <code>Tile</code> to start from.
+     * @return The path, or null if the start tile is already on
+     *     the high seas or they can not be reached.
+     */
+    synchronized PathNode getPath(Tile start) {
+        if (start.canMoveToEurope()) return null;
+        int distance = getDistance(start);
+        if (distance < 0) return null;
+
+        final PathNode root = new PathNode(start, 0, 0, Direction.N, -1, 0);
+        PathNode node = root;
+        Tile tile = start;
+        for (int cost = 1; cost <= distance; cost++) {
+            final int want = distance - cost;
+            Tile next = null;
+            Direction step = null;
+            for (Direction d : Direction.values()) {
+                Tile t = tile.getNeighbourOrNull(d);
+                if (t == null) continue;
+                int index = map.getIndex(t);
+                if (kinds[index] != BLOCKED && distances[index] == want) {
+                    next = t;
+                    step = d;
+                    break;
+                }
+            }
+            if (next == null) { // Can not happen in a consistent field
+                dirty = true;
+                return null;
+            }
+            PathNode n = new PathNode(next, cost, cost, step, 0, 0);
+            n.previous = node;
+            node.next = n;
+            node = n;
+            tile = next;
+        }
+        return root.next;
+    }
+
+    /**
+     * Updates the field for a tile that may have changed.
+     *
+     * @param tile The <code>Tile</code> that changed.
+     */
+    synchronized void tileChanged(Tile tile) {
+        if (dirty) return;
+        final int index = map.getIndex(tile);
+        final byte kind = getKind(tile);
+        final byte old = kinds[index];
+        if (kind == old) return;
+        if (kind < old) { // Distances may grow, start again.
+            dirty = true;
+            return;
+        }
+        kinds[index] = kind;
+        int d = (kind == SOURCE) ? 0 : getNearestNeighbourDistance(tile);
+        if (d < 0) return;
+        if (kind != SOURCE) d++;
+        if (distances[index] >= 0 && distances[index] <= d) return;
+        distances[index] = d;
+        queue[0] = index;
+        propagate(1);
+    }
+
+    /**
+     * Rebuilds the whole field.
+     */
+    private void build() {
+        Arrays.fill(distances, -1);
+        int tail = 0;
+        for (Tile t : map.getAllTiles()) {
+            int index = map.getIndex(t);
+            kinds[index] = getKind(t);
+            if (kinds[index] == SOURCE) {
+                distances[index] = 0;
+                queue[tail++] = index;
+            }
+        }
+        propagate(tail % queue.length);
+        dirty = false;
+    }
+
+    /**
+     * Breadth first relaxation from the queued tiles.
+     *
+     * @param tail The number of tiles initially queued.
+     */
+    private void propagate(int tail) {
+        final int width = map.getWidth();
+        int head = 0;
+        while (head != tail) {
+            final int index = queue[head];
+            head = (head + 1) % queue.length;
+            final int next = distances[index] + 1;
+            final Tile tile = map.getTile(index % width, index / width);
+            for (Direction d : Direction.values()) {
+                Tile t = tile.getNeighbourOrNull(d);
+                if (t == null) continue;
+                int i = map.getIndex(t);
+                if (kinds[i] == BLOCKED) continue;
+                if (distances[i] >= 0 && distances[i] <= next) continue;
+                distances[i] = next;
+                queue[tail] = i;
+                tail = (tail + 1) % queue.length;
+            }
+        }
+    }
+
+    /**
+     * Gets the lowest distance of the non-land neighbours of a tile.
+     *
+     * @param tile The <code>Tile</code> to check.
+     * @return The lowest distance, or -1 if none reach the high seas.
+     */
+    private int getNearestNeighbourDistance(Tile tile) {
+        int best = -1;
+        for (Direction d : Direction.values()) {
+            Tile t = tile.getNeighbourOrNull(d);
+            if (t == null) continue;
+            int i = map.getIndex(t);
+            if (kinds[i] != BLOCKED && distances[i] >= 0
+                && (best < 0 || distances[i] < best)) {
+                best = distances[i];
+            }
+        }
+        return best;
+    }
+
+    private static byte getKind(Tile tile) {
+        return (tile.isLand()) ? BLOCKED
+            : (tile.canMoveToEurope()) ? SOURCE
+            : WATER;
+    }
+}
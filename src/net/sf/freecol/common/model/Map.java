@@ -20,14 +20,13 @@
 package net.sf.freecol.common.model;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -265,6 +264,40 @@ public class Map extends FreeColGameObject implements Location {
 
     private final java.util.Map<String, Region> regions = new HashMap<String, Region>();
 
+    /**
+     * The cache of paths found with the default cost deciders, or
+     * null if path caching is disabled.
+     */
+    private PathCache pathCache = null;
+
+    /** The thread that enabled the path cache. */
+    private Thread pathCacheOwner = null;
+
+    /** The counts of the path caches already disabled. */
+    private PathCache.Statistics pathCacheTotals = PathCache.Statistics.NONE;
+
+    /**
+     * The distances to the high seas, created on first use.
+     */
+    private HighSeasDistanceField highSeasDistances = null;
+
+    /**
+     * The graph for hierarchical path finding, created on first use.
+     */
+    private ClusterGraph clusterGraph = null;
+
+    /**
+     * Incremented whenever a tile changes between land and water, or
+     * whether units can move to Europe from it.
+     */
+    private volatile int coastlineVersion = 0;
+
+    /**
+     * The indices of the tiles whose saved form has changed since
+     * they were last taken with {@link #takeChangedTiles}.
+     */
+    private final BitSet changedTiles = new BitSet();
+
     /**
      * Create a new <code>Map</code> from a collection of tiles.
      *
@@ -495,18 +528,135 @@ public class Map extends FreeColGameObject implements Location {
         return tiles;
     }
 
+    /**
+     * Gets the path cache of this map.
+     *
+     * @return The <code>PathCache</code>, or null if disabled.
+     */
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    /**
+     * Enables or disables caching of paths found with the default
+     * cost deciders, for searches made by the calling thread.  Only
+     * safe where all tile changes go through the <code>Tile</code>
+     * mutators, that is, on the server.
+     *
+     * A changed tile only drops the cached paths through it, so a
+     * cached path may become longer than a new search would find.
+     * The cache should therefore be enabled only for a short phase
+     * that repeats searches, such as an AI player planning its turn,
+     * and disabled again at its end.  Enabling it starts with an
+     * empty cache.
+     *
+     * @param enabled True to enable the cache.
+     */
+    public synchronized void setPathCacheEnabled(boolean enabled) {
+        if (pathCache != null) {
+            pathCacheTotals = pathCacheTotals.add(pathCache.getStatistics());
+        }
+        if (enabled) {
+            pathCache = new PathCache(this);
+            pathCacheOwner = Thread.currentThread();
+        } else {
+            pathCache = null;
+            pathCacheOwner = null;
+        }
+    }
+
+    /**
+     * Gets the counts of the lookups and invalidations of all the
+     * path caches of this map, including the current one.
+     *
+     * @return The <code>PathCache.Statistics</code> of this map.
+     */
+    public synchronized PathCache.Statistics getPathCacheStatistics() {
+        return (pathCache == null) ? pathCacheTotals
+            : pathCacheTotals.add(pathCache.getStatistics());
+    }
+
+    /**
+     * Gets the path cache the calling thread may use.
+     *
+     * @return The <code>PathCache</code>, or null if disabled or
+     *     enabled by another thread.
+     */
+    private synchronized PathCache getUsablePathCache() {
+        return (pathCacheOwner == Thread.currentThread()) ? pathCache
+            : null;
+    }
+
+    /**
+     * Gets the coastline version of this map, which changes whenever
+     * a tile changes between land and water, or whether units can
+     * move to <code>Europe</code> from it.
+     *
+     * @return The coastline version.
+     */
+    public int getCoastlineVersion() {
+        return coastlineVersion;
+    }
+
+    /**
+     * Notes that the coastline or the high seas have changed.
+     */
+    void coastlineChanged() {
+        coastlineVersion++;
+    }
+
+    /**
+     * Notes that the saved form of a tile has changed.
+     *
+     * @param tile The <code>Tile</code> that changed.
+     */
+    void tileChanged(Tile tile) {
+        synchronized (changedTiles) {
+            changedTiles.set(getIndex(tile));
+        }
+    }
+
+    /**
+     * Gets the tiles whose saved form has changed since the last call,
+     * and starts tracking changes afresh.  Changes to the units and
+     * settlements on a tile are not tracked.
+     *
+     * @return The indices (see {@link #getIndex}) of the changed tiles.
+     */
+    public BitSet takeChangedTiles() {
+        synchronized (changedTiles) {
+            BitSet result = (BitSet) changedTiles.clone();
+            changedTiles.clear();
+            return result;
+        }
+    }
+
+    /**
+     * Drops any cached paths invalidated by a change to a tile, and
+     * updates the distances to the high seas and the cluster graph.
+     *
+     * @param tile The <code>Tile</code> that changed.
+     */
+    public void invalidatePaths(Tile tile) {
+        final PathCache cache = pathCache;
+        if (cache != null) cache.invalidate(tile);
+        final HighSeasDistanceField field = highSeasDistances;
+        if (field != null) field.tileChanged(tile);
+        final ClusterGraph graph = clusterGraph;
+        if (graph != null) graph.tileChanged(tile);
+    }
+
     /**
      * Finds a shortest path between the given tiles.  The tile at the
      * end will not be checked for validity.
      *
      * Using A* with the Manhatten distance as the heuristics.
      *
-     * The data structure for the open list is a combined structure: using a
-     * HashMap for membership tests and a PriorityQueue for getting the node
-     * with the minimal f (cost+heuristics). This gives O(1) on membership
-     * test and O(log N) for remove-best and insertions.
-     *
-     * The data structure for the closed list is simply a HashMap.
+     * The open and closed lists live in a per-thread
+     * <code>PathSearchBuffer</code> indexed by tile position, with an
+     * indexed heap ordering the open list by f (cost+heuristics).
+     * This gives O(1) on membership tests and O(log N) for
+     * remove-best, insertions and improvements.
      *
      * @param unit The <code>Unit</code> to find the path for.
      * @param start The <code>Tile</code> in which the path starts from.
@@ -537,7 +687,25 @@ public class Map extends FreeColGameObject implements Location {
         if (start == end) {
             throw new IllegalArgumentException("start == end");
         }
+        return findPath(unit, start, end, carrier, costDecider, null);
+    }
 
+    /**
+     * Finds a path between the given tiles, optionally restricted to
+     * a set of clusters of the <code>ClusterGraph</code>.
+     *
+     * @param unit The <code>Unit</code> to find the path for.
+     * @param start The <code>Tile</code> in which the path starts from.
+     * @param end The <code>Tile</code> at the end of the path.
+     * @param carrier An optional carrier <code>Unit</code>.
+     * @param costDecider An optional <code>CostDecider</code>.
+     * @param corridor The clusters the path may use, or null for all.
+     * @return A <code>PathNode</code> for the first tile in the
+     *        path, or null if none found.
+     */
+    private PathNode findPath(final Unit unit, final Tile start,
+                              final Tile end, final Unit carrier,
+                              CostDecider costDecider, boolean[] corridor) {
         // What unit starts the path?
         Unit currentUnit = (carrier != null) ? carrier : unit;
 
@@ -551,27 +719,110 @@ public class Map extends FreeColGameObject implements Location {
                 Direction.N, -1, -1);
         }
 
-        final HashMap<String, PathNode> openList
-            = new HashMap<String, PathNode>();
-        final HashMap<String, PathNode> closedList
-            = new HashMap<String, PathNode>();
-        final PriorityQueue<PathNode> openListQueue
-            = new PriorityQueue<PathNode>(1024,
-                new Comparator<PathNode>() {
-                    public int compare(PathNode o, PathNode p) {
-                        return o.getF() - p.getF();
-                    }
-                });
+        // A restricted search may miss the best path, so it neither
+        // comes from nor goes into the cache.
+        final PathCache cache = (costDecider == null && corridor == null)
+            ? getUsablePathCache() : null;
+        PathNode path;
+        if (cache != null
+            && (path = cache.get(unit, carrier, start, getIndex(end))) != null) {
+            return (path == PathCache.NO_PATH) ? null : path;
+        }
+
+        final PathSearchBuffer buffer = PathSearchBuffer.acquire(getSize());
+        try {
+            path = findPath(buffer, unit, start, end, carrier, costDecider,
+                            firstNode, corridor);
+        } finally {
+            buffer.release();
+        }
+        if (cache != null) {
+            cache.put(unit, carrier, start, getIndex(end), path);
+        }
+        return path;
+    }
+
+    /**
+     * Finds a path between the given tiles as {@link #findPath(Unit,
+     * Tile, Tile, Unit, CostDecider)} does, but plans long paths
+     * hierarchically.
+     *
+     * For tiles more than two clusters apart, the route is first found
+     * in a <code>ClusterGraph</code> of the connected land and water
+     * areas, and the tile level search is then restricted to the
+     * clusters along that route.  If there is no route, or the
+     * restricted search fails (for example because units block it),
+     * this falls back to the full search, so a path is found whenever
+     * <code>findPath</code> finds one, though it may be slightly
+     * longer.  Restricted searches are not cached.
+     *
+     * This is for AI planning, where many long searches are made and
+     * the best path is not essential.  Paths shown to or followed for
+     * a player should come from <code>findPath</code>.
+     *
+     * @param unit The <code>Unit</code> to find the path for.
+     * @param start The <code>Tile</code> in which the path starts from.
+     * @param end The <code>Tile</code> at the end of the path.
+     * @param carrier An optional carrier <code>Unit</code> that
+     *        currently holds the <code>unit</code>.  Paths with a
+     *        carrier are not planned hierarchically.
+     * @param costDecider An optional <code>CostDecider</code> for
+     *        determining the movement costs.
+     * @return A <code>PathNode</code> for the first tile in the
+     *        path, or null if none found.
+     */
+    public PathNode findPathHierarchical(final Unit unit, final Tile start,
+                                         final Tile end, final Unit carrier,
+                                         CostDecider costDecider) {
+        if (unit == null || start == null || end == null || carrier != null
+            || start.getDistanceTo(end) <= 2 * ClusterGraph.CLUSTER_SIZE) {
+            return findPath(unit, start, end, carrier, costDecider);
+        }
+        final boolean[] corridor = getClusterGraph()
+            .getCorridor(start, end, unit.isNaval());
+        PathNode path = (corridor == null) ? null
+            : findPath(unit, start, end, null, costDecider, corridor);
+        return (path != null) ? path
+            : findPath(unit, start, end, null, costDecider);
+    }
 
-        openList.put(firstNode.getTile().getId(), firstNode);
-        openListQueue.offer(firstNode);
+    /**
+     * Gets the cluster graph for this map, creating it if needed.
+     *
+     * @return The <code>ClusterGraph</code>.
+     */
+    private synchronized ClusterGraph getClusterGraph() {
+        if (clusterGraph == null) clusterGraph = new ClusterGraph(this);
+        return clusterGraph;
+    }
 
-        while (!openList.isEmpty()) {
+    /**
+     * Runs the A* search for {@link #findPath(Unit, Tile, Tile, Unit,
+     * CostDecider)} in a given buffer.
+     *
+     * @param buffer The <code>PathSearchBuffer</code> to search with.
+     * @param unit The <code>Unit</code> to find the path for.
+     * @param start The <code>Tile</code> in which the path starts from.
+     * @param end The <code>Tile</code> at the end of the path.
+     * @param carrier An optional carrier <code>Unit</code>.
+     * @param costDecider An optional <code>CostDecider</code>.
+     * @param firstNode The <code>PathNode</code> for the start tile.
+     * @param corridor The clusters the path may use, or null for all.
+     * @return A <code>PathNode</code> for the first tile in the
+     *        path, or null if none found.
+     */
+    private PathNode findPath(final PathSearchBuffer buffer, final Unit unit,
+                              final Tile start, final Tile end,
+                              final Unit carrier, CostDecider costDecider,
+                              final PathNode firstNode,
+                              final boolean[] corridor) {
+        Unit currentUnit;
+        buffer.open(getIndex(start), firstNode, firstNode.getF());
+
+        while (!buffer.isEmpty()) {
             // Choose the node with the lowest f.
-            PathNode currentNode = openListQueue.poll();
+            PathNode currentNode = buffer.poll();
             final Tile currentTile = currentNode.getTile();
-            openList.remove(currentTile.getId());
-            closedList.put(currentTile.getId(), currentNode);
 
             // Found the goal?
             if (currentTile == end) {
@@ -615,7 +866,12 @@ public class Map extends FreeColGameObject implements Location {
                     && currentNode.previous.getTile() == moveTile) {
                     continue;
                 }
-                if (closedList.containsKey(moveTile.getId())) {
+                final int moveIndex = getIndex(moveTile);
+                if (buffer.isClosed(moveIndex)) {
+                    continue;
+                }
+                if (corridor != null
+                    && !corridor[clusterGraph.getCluster(moveTile)]) {
                     continue;
                 }
 
@@ -658,15 +914,13 @@ public class Map extends FreeColGameObject implements Location {
                 }
 
                 // Is this an improvement?  If not, ignore.
-                PathNode successor = openList.get(moveTile.getId());
+                PathNode successor = buffer.getOpen(moveIndex);
                 if (successor != null) {
                     if (successor.getTurns() < moveTurns
                         || (successor.getTurns() == moveTurns
                             && successor.getCost() <= moveCost)) {
                         continue;
                     }
-                    openList.remove(successor.getTile().getId());
-                    openListQueue.remove(successor);
                 }
 
                 // Queue new node with updated parameters.
@@ -676,8 +930,7 @@ public class Map extends FreeColGameObject implements Location {
                                          moveMoves, moveTurns);
                 successor.previous = currentNode;
                 successor.setOnCarrier(carrier != null && moveUnit == carrier);
-                openList.put(moveTile.getId(), successor);
-                openListQueue.offer(successor);
+                buffer.open(moveIndex, successor, f);
             }
         }
 
@@ -716,7 +969,16 @@ public class Map extends FreeColGameObject implements Location {
                 return false;
             }
         };
-        return search(unit, start, gd, costDecider, INFINITY, null);
+        final PathCache cache = (costDecider == null && unit != null)
+            ? getUsablePathCache() : null;
+        PathNode path;
+        if (cache != null
+            && (path = cache.get(unit, null, start, PathCache.EUROPE)) != null) {
+            return (path == PathCache.NO_PATH) ? null : path;
+        }
+        path = search(unit, start, gd, costDecider, INFINITY, null);
+        if (cache != null) cache.put(unit, null, start, PathCache.EUROPE, path);
+        return path;
     }
 
     /**
@@ -724,49 +986,43 @@ public class Map extends FreeColGameObject implements Location {
      * unit.  This method is meant to be executed by the server/AI
      * code, with complete knowledge of the map
      *
+     * The path is found by following a distance field maintained as
+     * tiles change, so this costs O(path length) rather than a search.
+     *
      * @param start The starting <code>Tile</code>.
      * @return The path to the target or <code>null</code> if no target can be
      *         found.
      * @see Europe
      */
     public PathNode findPathToEurope(Tile start) {
-        final GoalDecider gd = new GoalDecider() {
-            private PathNode goal = null;
-
-            public PathNode getGoal() {
-                return goal;
-            }
+        return getHighSeasDistanceField().getPath(start);
+    }
 
-            public boolean hasSubGoals() {
-                return false;
-            }
+    /**
+     * Gets the number of non-land moves from a tile to the nearest
+     * tile from which units can move to <code>Europe</code>.  This is
+     * the length of the path {@link #findPathToEurope(Tile)} would
+     * return, but does not construct it.
+     *
+     * @param tile The <code>Tile</code> to start from.
+     * @return The number of moves, zero if the tile is itself on the
+     *     high seas, or negative if the high seas can not be reached.
+     */
+    public int getHighSeasDistance(Tile tile) {
+        return getHighSeasDistanceField().getDistance(tile);
+    }
 
-            public boolean check(Unit u, PathNode pathNode) {
-                Tile t = pathNode.getTile();
-                if (t.canMoveToEurope()) {
-                    goal = pathNode;
-                    return true;
-                }
-                return false;
-            }
-        };
-        final CostDecider cd = new CostDecider() {
-            public int getCost(Unit unit, Tile oldTile, Tile newTile,
-                               int movesLeft) {
-                if (newTile.isLand()) {
-                    return ILLEGAL_MOVE;
-                } else {
-                    return 1;
-                }
-            }
-            public int getMovesLeft() {
-                return 0;
-            }
-            public boolean isNewTurn() {
-                return false;
-            }
-        };
-        return search(null, start, gd, cd, INFINITY, null);
+    /**
+     * Gets the high seas distance field for this map, creating it
+     * if needed.
+     *
+     * @return The <code>HighSeasDistanceField</code>.
+     */
+    private synchronized HighSeasDistanceField getHighSeasDistanceField() {
+        if (highSeasDistances == null) {
+            highSeasDistances = new HighSeasDistanceField(this);
+        }
+        return highSeasDistances;
     }
 
     /**
@@ -775,12 +1031,10 @@ public class Map extends FreeColGameObject implements Location {
      * A <code>GoalDecider</code> is typically defined inline to serve a
      * specific need.
      *
-     * Using Dijkstra's algorithm with a closedList for marking the
-     * visited nodes and using a PriorityQueue for getting the next
-     * edge with the least cost. This implementation could be improved
-     * by having the visited attribute stored on each Tile in order to
-     * avoid both of the HashMaps currently being used to serve this
-     * purpose.
+     * Using Dijkstra's algorithm, with the visited and open nodes
+     * held in a per-thread <code>PathSearchBuffer</code> indexed by
+     * tile position and an indexed heap for getting the next edge
+     * with the least cost.
      *
      * @param unit The <code>Unit</code> to find a path for.
      * @param startTile The <code>Tile</code> to start the search from.
@@ -808,30 +1062,53 @@ public class Map extends FreeColGameObject implements Location {
         // What unit starts the path?
         Unit currentUnit = (carrier != null) ? carrier : unit;
 
-        final HashMap<String, PathNode> openList
-            = new HashMap<String, PathNode>();
-        final HashMap<String, PathNode> closedList
-            = new HashMap<String, PathNode>();
-        final PriorityQueue<PathNode> openListQueue
-            = new PriorityQueue<PathNode>(1024,
-                new Comparator<PathNode>() {
-                    public int compare(PathNode o, PathNode p) {
-                        return o.getCost() - p.getCost();
-                    }
-                });
         final PathNode firstNode
             = new PathNode(startTile, 0, 0, Direction.N,
                 (currentUnit != null) ? currentUnit.getMovesLeft() : -1, 0);
         firstNode.setOnCarrier(carrier != null);
-        openList.put(startTile.getId(), firstNode);
-        openListQueue.offer(firstNode);
+        final PathSearchBuffer buffer = PathSearchBuffer.acquire(getSize());
+        try {
+            search(buffer, unit, gd, costDecider, maxTurns, carrier,
+                   firstNode);
+        } finally {
+            buffer.release();
+        }
+
+        PathNode bestTarget = gd.getGoal();
+        if (bestTarget != null) {
+            while (bestTarget.previous != null) {
+                bestTarget.previous.next = bestTarget;
+                bestTarget = bestTarget.previous;
+            }
+            return bestTarget.next;
+        }
+        return null;
+    }
 
-        while (!openList.isEmpty()) {
+    /**
+     * Runs the search for {@link #search(Unit, Tile, GoalDecider,
+     * CostDecider, int, Unit)} in a given buffer, leaving the result
+     * in the <code>GoalDecider</code>.
+     *
+     * @param buffer The <code>PathSearchBuffer</code> to search with.
+     * @param unit The <code>Unit</code> to find a path for.
+     * @param gd The <code>GoalDecider</code> to check nodes with.
+     * @param costDecider An optional <code>CostDecider</code>.
+     * @param maxTurns The maximum number of turns to search.
+     * @param carrier An optional carrier <code>Unit</code>.
+     * @param firstNode The <code>PathNode</code> for the start tile.
+     */
+    private void search(final PathSearchBuffer buffer, final Unit unit,
+                        final GoalDecider gd, final CostDecider costDecider,
+                        final int maxTurns, final Unit carrier,
+                        final PathNode firstNode) {
+        Unit currentUnit;
+        buffer.open(getIndex(firstNode.getTile()), firstNode, 0);
+
+        while (!buffer.isEmpty()) {
             // Choose the node with the lowest cost.
-            final PathNode currentNode = openListQueue.poll();
+            final PathNode currentNode = buffer.poll();
             final Tile currentTile = currentNode.getTile();
-            openList.remove(currentTile.getId());
-            closedList.put(currentTile.getId(), currentNode);
 
             // Reset current unit to that of this node.
             currentUnit = (currentNode.isOnCarrier()) ? carrier : unit;
@@ -877,7 +1154,8 @@ public class Map extends FreeColGameObject implements Location {
                     && currentNode.previous.getTile() == moveTile) {
                     continue;
                 }
-                if (closedList.containsKey(moveTile.getId())) {
+                final int moveIndex = getIndex(moveTile);
+                if (buffer.isClosed(moveIndex)) {
                     continue;
                 }
 
@@ -907,15 +1185,13 @@ public class Map extends FreeColGameObject implements Location {
                 if (moveDecider.isNewTurn()) moveTurns++;
 
                 // Is this an improvement?  If not, ignore.
-                PathNode successor = openList.get(moveTile.getId());
+                PathNode successor = buffer.getOpen(moveIndex);
                 if (successor != null) {
                     if (successor.getTurns() < moveTurns
                         || (successor.getTurns() == moveTurns
                             && successor.getCost() <= moveCost)) {
                         continue;
                     }
-                    openList.remove(successor.getTile().getId());
-                    openListQueue.remove(successor);
                 }
 
                 // Queue new node with updated parameters.
@@ -924,20 +1200,9 @@ public class Map extends FreeColGameObject implements Location {
                                          moveMoves, moveTurns);
                 successor.previous = currentNode;
                 successor.setOnCarrier(carrier != null && moveUnit == carrier);
-                openList.put(moveTile.getId(), successor);
-                openListQueue.offer(successor);
-            }
-        }
-
-        PathNode bestTarget = gd.getGoal();
-        if (bestTarget != null) {
-            while (bestTarget.previous != null) {
-                bestTarget.previous.next = bestTarget;
-                bestTarget = bestTarget.previous;
+                buffer.open(moveIndex, successor, moveCost);
             }
-            return bestTarget.next;
         }
-        return null;
     }
 
     /**
@@ -1035,6 +1300,26 @@ public class Map extends FreeColGameObject implements Location {
         }
     }
 
+    /**
+     * Gets the number of tiles on this map.
+     *
+     * @return The width times the height of this map.
+     */
+    public int getSize() {
+        return getWidth() * getHeight();
+    }
+
+    /**
+     * Gets the index of a tile on this map, suitable for use with
+     * arrays of {@link #getSize} entries.
+     *
+     * @param tile The <code>Tile</code> to get the index of.
+     * @return The index <code>y * width + x</code>.
+     */
+    public int getIndex(Tile tile) {
+        return tile.getY() * getWidth() + tile.getX();
+    }
+
     /**
      * Returns the direction a unit needs to move in
      * order to get from <code>t1</code> to <code>t2</code>
@@ -1825,6 +2110,28 @@ public class Map extends FreeColGameObject implements Location {
     }
 
 
+    /**
+     * Writes the saved game form of this map with only some of its
+     * tiles.  Reading the result into this map updates those tiles.
+     *
+     * @param out The target stream.
+     * @param tiles The <code>Tile</code>s to write.
+     * @throws XMLStreamException if there are any problems writing
+     *             to the stream.
+     */
+    void toXMLPartial(XMLStreamWriter out, List<Tile> tiles)
+        throws XMLStreamException {
+        out.writeStartElement(getXMLElementTagName());
+        writeAttributes(out, null, true, true);
+        for (Region region : regions.values()) {
+            region.toXML(out);
+        }
+        for (Tile tile : tiles) {
+            tile.toXML(out, null, true, true);
+        }
+        out.writeEndElement();
+    }
+
     protected void writeAttributes(XMLStreamWriter out, Player player,
                                    boolean showAll, boolean toSavedGame)
         throws XMLStreamException {
@@ -0,0 +1,354 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+/**
+ * A cache of the paths found by {@link Map#findPath} and
+ * {@link Map#findPathToEurope} with the default cost deciders.
+ *
+ * Paths are keyed by the properties of the moving unit (and carrier)
+ * that the default cost deciders depend on, the start tile, and the
+ * goal tile or Europe.  An entry is dropped when a tile on its route
+ * changes (type, ownership, settlement or unit occupancy).  Failed
+ * searches are also cached, and dropped on any tile change as the
+ * change may have opened a route.
+ *
+ * A cache lives for one planning phase, between two calls to
+ * {@link Map#setPathCacheEnabled}, as an AI player takes its turn.
+ * Callers are handed a copy of the cached path, so they may modify it
+ * freely.  The hits, misses and invalidations of each cache are
+ * counted, and the map keeps the totals of all its caches (see
+ * {@link Map#getPathCacheStatistics}).
+ */
+public class PathCache {
+
+    /** Goal index standing in for Europe. */
+    public static final int EUROPE = -1;
+
+    /** Returned by {@link #get} for a cached failed search. */
+    static final PathNode NO_PATH = new PathNode(null, 0, 0, null, 0, 0);
+
+    /** The counts of the lookups and invalidations of a cache. */
+    public static final class Statistics {
+
+        /** The counts of a cache that was never used. */
+        public static final Statistics NONE = new Statistics(0, 0, 0);
+
+        /** The number of lookups that found a cached result. */
+        public final long hits;
+
+        /** The number of lookups that found nothing cached. */
+        public final long misses;
+
+        /** The number of entries dropped due to tile changes. */
+        public final long invalidations;
+
+        public Statistics(long hits, long misses, long invalidations) {
+            this.hits = hits;
+            this.misses = misses;
+            this.invalidations = invalidations;
+        }
+
+        /**
+         * Adds these counts to others.
+         *
+         * @param other The other <code>Statistics</code>.
+         * @return The sums of the counts.
+         */
+        public Statistics add(Statistics other) {
+            return new Statistics(hits + other.hits, misses + other.misses,
+                                  invalidations + other.invalidations);
+        }
+
+        /**
+         * Gets the share of the lookups that found a cached result.
+         *
+         * @return The hit rate, between 0 and 1.
+         */
+        public double getHitRate() {
+            final long lookups = hits + misses;
+            return (lookups == 0) ? 0.0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses
+                + " invalidations=" + invalidations
+                + " hitRate=" + Math.round(100 * getHitRate()) + "%";
+        }
+    }
+
+    /** A cached search result. */
+    private static class Entry {
+
+        /** The key the entry is stored under. */
+        public final Key key;
+
+        /** The start node of the path, or null if no path was found. */
+        public final PathNode root;
+
+        /** Is this entry still in the cache? */
+        public boolean valid = true;
+
+        public Entry(Key key, PathNode root) {
+            this.key = key;
+            this.root = root;
+        }
+    }
+
+    /** The search parameters a cached path depends on. */
+    private static class Key {
+
+        private final UnitType unitType;
+        private final Player owner;
+        private final Unit.Role role;
+        private final int movesLeft;
+        private final int initialMoves;
+        private final int flags;
+        private final UnitType carrierType;
+        private final int carrierMovesLeft;
+        private final int carrierInitialMoves;
+        private final int start;
+        private final int goal;
+        private final int hash;
+
+        public Key(Unit unit, Unit carrier, int start, int goal) {
+            if (unit == null) {
+                unitType = null;
+                owner = null;
+                role = null;
+                movesLeft = initialMoves = flags = 0;
+            } else {
+                unitType = unit.getType();
+                owner = unit.getOwner();
+                role = unit.getRole();
+                movesLeft = unit.getMovesLeft();
+                initialMoves = unit.getInitialMovesLeft();
+                flags = ((unit.getLocation() instanceof Unit) ? 1 : 0)
+                    | ((unit.getTradeRoute() != null) ? 2 : 0)
+                    | ((unit.isOffensiveUnit()) ? 4 : 0);
+            }
+            if (carrier == null) {
+                carrierType = null;
+                carrierMovesLeft = carrierInitialMoves = 0;
+            } else {
+                carrierType = carrier.getType();
+                carrierMovesLeft = carrier.getMovesLeft();
+                carrierInitialMoves = carrier.getInitialMovesLeft();
+            }
+            this.start = start;
+            this.goal = goal;
+
+            int h = 31 * start + goal;
+            h = 31 * h + movesLeft;
+            h = 31 * h + flags;
+            h = 31 * h + carrierMovesLeft;
+            h = 31 * h + ((unitType == null) ? 0 : unitType.hashCode());
+            h = 31 * h + ((owner == null) ? 0 : owner.hashCode());
+            h = 31 * h + ((carrierType == null) ? 0 : carrierType.hashCode());
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key)o;
+            return hash == k.hash
+                && start == k.start
+                && goal == k.goal
+                && movesLeft == k.movesLeft
+                && initialMoves == k.initialMoves
+                && flags == k.flags
+                && carrierMovesLeft == k.carrierMovesLeft
+                && carrierInitialMoves == k.carrierInitialMoves
+                && unitType == k.unitType
+                && owner == k.owner
+                && role == k.role
+                && carrierType == k.carrierType;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** The cached entries. */
+    private final HashMap<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    /** The entries whose route passes through each tile. */
+    private final List<Entry>[] routes;
+
+    /** The entries recording failed searches. */
+    private final List<Entry> failures = new ArrayList<Entry>();
+
+    /** The map this cache belongs to. */
+    private final Map map;
+
+    /** Statistics. */
+    private long hits = 0, misses = 0, invalidations = 0;
+
+
+    /**
+     * Creates a new <code>PathCache</code>.
+     *
+     * @param map The <code>Map</code> to cache paths on.
+     */
+    @SuppressWarnings("unchecked")
+    public PathCache(Map map) {
+        this.map = map;
+        this.routes = new List[map.getSize()];
+    }
+
+    /**
+     * Looks up a path.
+     *
+     * @param unit The <code>Unit</code> to find a path for, or null
+     *     for a unit independent search.
+     * @param carrier An optional carrier <code>Unit</code>.
+     * @param start The <code>Tile</code> to start at.
+     * @param goal The index of the goal tile, or {@link #EUROPE}.
+     * @return A copy of the cached path, {@link #NO_PATH} if the
+     *     search is known to fail, or null if nothing is cached.
+     */
+    synchronized PathNode get(Unit unit, Unit carrier, Tile start, int goal) {
+        Entry e = entries.get(new Key(unit, carrier, map.getIndex(start),
+                                      goal));
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return (e.root == null) ? NO_PATH : copy(e.root).next;
+    }
+
+    /**
+     * Adds a search result to the cache.
+     *
+     * @param unit The <code>Unit</code> the path was found for.
+     * @param carrier The optional carrier <code>Unit</code>.
+     * @param start The start <code>Tile</code>.
+     * @param goal The index of the goal tile, or {@link #EUROPE}.
+     * @param path The path found (the node after the start), or null
+     *     if the search failed.
+     */
+    synchronized void put(Unit unit, Unit carrier, Tile start,
+                      int goal, PathNode path) {
+        Key key = new Key(unit, carrier, map.getIndex(start), goal);
+        Entry e = new Entry(key, (path == null) ? null : copy(path.previous));
+        Entry old = entries.put(key, e);
+        if (old != null) old.valid = false;
+        if (path == null) {
+            failures.add(e);
+        } else {
+            for (PathNode p = e.root; p != null; p = p.next) {
+                int index = map.getIndex(p.getTile());
+                if (routes[index] == null) routes[index] = new ArrayList<Entry>();
+                routes[index].add(e);
+            }
+        }
+    }
+
+    /**
+     * Drops the paths through a tile that has changed, and all failed
+     * searches.
+     *
+     * @param tile The <code>Tile</code> that changed.
+     */
+    synchronized void invalidate(Tile tile) {
+        List<Entry> route = routes[map.getIndex(tile)];
+        if (route != null) {
+            for (Entry e : route) drop(e);
+            route.clear();
+        }
+        for (Entry e : failures) drop(e);
+        failures.clear();
+    }
+
+    /**
+     * Drops all cached paths.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        failures.clear();
+        for (int i = 0; i < routes.length; i++) routes[i] = null;
+    }
+
+    /**
+     * Gets all the counts of this cache.
+     *
+     * @return The <code>Statistics</code> of this cache.
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hits, misses, invalidations);
+    }
+
+    /**
+     * Gets the number of cached results.
+     *
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void drop(Entry e) {
+        if (e.valid) {
+            e.valid = false;
+            entries.remove(e.key);
+            invalidations++;
+        }
+    }
+
+    /**
+     * Copies a path.
+     *
+     * @param root The first <code>PathNode</code> to copy.
+     * @return The copy of the first node.
+     */
+    private static PathNode copy(PathNode root) {
+        PathNode first = null, prev = null;
+        for (PathNode p = root; p != null; p = p.next) {
+            PathNode n = new PathNode(p.getTile(), p.getCost(), p.getF(),
+                p.getDirection(), p.getMovesLeft(), p.getTurns());
+            n.setOnCarrier(p.isOnCarrier());
+            if (prev == null) {
+                first = n;
+            } else {
+                prev.next = n;
+                n.previous = prev;
+            }
+            prev = n;
+        }
+        return first;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PathCache[size=" + entries.size()
+            + " " + getStatistics() + "]";
+    }
+}
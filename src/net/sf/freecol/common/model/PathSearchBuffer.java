@@ -0,0 +1,238 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import java.util.Arrays;
+
+
+/**
+ * Scratch state for the path searches in {@link Map}.
+ *
+ * Tiles are addressed by their index <code>y * width + x</code>.  The
+ * open and closed lists are plain arrays whose entries are only valid
+ * when their stamp matches the current search generation, so starting
+ * a new search is O(1) rather than a clear of the whole map.  The open
+ * list is ordered by an indexed binary heap supporting in-place key
+ * updates, replacing the O(n) <code>PriorityQueue.remove</code>.
+ *
+ * One buffer is kept per thread and reused between searches.  A
+ * search started from within another search on the same thread (for
+ * example by a <code>GoalDecider</code>) gets a private buffer.
+ */
+final class PathSearchBuffer {
+
+    /** Node states, valid only when the stamp is current. */
+    private static final byte OPEN = 1, CLOSED = 2;
+
+    /** The buffer reused by the searches on each thread. */
+    private static final ThreadLocal<PathSearchBuffer> buffers
+        = new ThreadLocal<PathSearchBuffer>() {
+            @Override
+            protected PathSearchBuffer initialValue() {
+                return new PathSearchBuffer();
+            }
+        };
+
+    /** The current search generation. */
+    private int generation = 0;
+
+    /** Is this buffer in use by a search? */
+    private boolean busy = false;
+
+    /** Generation in which each tile entry was last touched. */
+    private int[] stamps = new int[0];
+
+    /** The state of each tile entry. */
+    private byte[] states = new byte[0];
+
+    /** The best known node for each open tile. */
+    private PathNode[] nodes = new PathNode[0];
+
+    /** The sort key of each open tile. */
+    private int[] keys = new int[0];
+
+    /** The position of each open tile in the heap. */
+    private int[] heapIndex = new int[0];
+
+    /** The heap of open tile indices. */
+    private int[] heap = new int[0];
+
+    /** The number of entries in the heap. */
+    private int heapSize = 0;
+
+
+    private PathSearchBuffer() {}
+
+    /**
+     * Gets a buffer ready for a new search over a map.
+     * The caller must {@link #release} it when finished.
+     *
+     * @param size The number of tiles on the map.
+     * @return A cleared <code>PathSearchBuffer</code>.
+     */
+    static PathSearchBuffer acquire(int size) {
+        PathSearchBuffer buffer = buffers.get();
+        if (buffer.busy) buffer = new PathSearchBuffer();
+        buffer.busy = true;
+        buffer.begin(size);
+        return buffer;
+    }
+
+    /**
+     * Finishes with this buffer.  Drops the node references so that
+     * the paths found do not outlive their callers.
+     */
+    void release() {
+        for (int i = 0; i < heapSize; i++) nodes[heap[i]] = null;
+        heapSize = 0;
+        busy = false;
+    }
+
+    /**
+     * Starts a new search generation, growing the arrays if needed.
+     *
+     * @param size The number of tiles on the map.
+     */
+    private void begin(int size) {
+        if (stamps.length < size) {
+            stamps = new int[size];
+            states = new byte[size];
+            nodes = new PathNode[size];
+            keys = new int[size];
+            heapIndex = new int[size];
+            heap = new int[size];
+            generation = 0;
+        }
+        heapSize = 0;
+        if (++generation == 0) { // Wrapped, stale stamps could match.
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Is the open list empty?
+     *
+     * @return True if there are no open tiles.
+     */
+    boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /**
+     * Is a tile on the closed list?
+     *
+     * @param index The tile index.
+     * @return True if the tile has been closed in this search.
+     */
+    boolean isClosed(int index) {
+        return stamps[index] == generation && states[index] == CLOSED;
+    }
+
+    /**
+     * Gets the open node for a tile.
+     *
+     * @param index The tile index.
+     * @return The open <code>PathNode</code> for the tile, or null if
+     *     the tile is not open.
+     */
+    PathNode getOpen(int index) {
+        return (stamps[index] == generation && states[index] == OPEN)
+            ? nodes[index]
+            : null;
+    }
+
+    /**
+     * Puts a node on the open list, replacing any existing open
+     * node for the same tile.
+     *
+     * @param index The tile index.
+     * @param node The <code>PathNode</code> to open.
+     * @param key The sort key, lowest is polled first.
+     */
+    void open(int index, PathNode node, int key) {
+        nodes[index] = node;
+        keys[index] = key;
+        if (stamps[index] == generation && states[index] == OPEN) {
+            int pos = heapIndex[index];
+            siftUp(pos);
+            siftDown(heapIndex[index]);
+        } else {
+            stamps[index] = generation;
+            states[index] = OPEN;
+            heap[heapSize] = index;
+            heapIndex[index] = heapSize;
+            siftUp(heapSize++);
+        }
+    }
+
+    /**
+     * Removes the open node with the lowest key and closes its tile.
+     *
+     * @return The <code>PathNode</code> removed.
+     */
+    PathNode poll() {
+        int index = heap[0];
+        if (--heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            siftDown(0);
+        }
+        states[index] = CLOSED;
+        PathNode node = nodes[index];
+        nodes[index] = null;
+        return node;
+    }
+
+    private void siftUp(int pos) {
+        final int index = heap[pos];
+        final int key = keys[index];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int p = heap[parent];
+            if (keys[p] <= key) break;
+            heap[pos] = p;
+            heapIndex[p] = pos;
+            pos = parent;
+        }
+        heap[pos] = index;
+        heapIndex[index] = pos;
+    }
+
+    private void siftDown(int pos) {
+        final int index = heap[pos];
+        final int key = keys[index];
+        final int half = heapSize >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int c = heap[child];
+            int right = child + 1;
+            if (right < heapSize && keys[heap[right]] < keys[c]) {
+                c = heap[child = right];
+            }
+            if (key <= keys[c]) break;
+            heap[pos] = c;
+            heapIndex[c] = pos;
+            pos = child;
+        }
+        heap[pos] = index;
+        heapIndex[index] = pos;
+    }
+}
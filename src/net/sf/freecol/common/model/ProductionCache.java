@@ -20,6 +20,7 @@
 package net.sf.freecol.common.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -33,6 +34,18 @@ import java.util.Set;
  * buildings, as well as the consumption of all units, buildings and
  * build queues.
  *
+ * The cache is updated incrementally.  The consumers are applied in
+ * priority order, and each only sees the goods produced before it, so
+ * the goods types read by each building are recorded.  When a work
+ * location or the stored amount of a goods type changes, only the
+ * colony tiles and buildings that changed, or that read a goods type
+ * whose production changed earlier in the chain, are recomputed.  The
+ * other entries keep their <code>ProductionInfo</code>.  Units and
+ * build queues are cheap and are always recomputed, as is everything
+ * after {@link #invalidate()} or when the set of consumers changes.
+ *
+ * Goods types are tracked by the index of the type they are stored
+ * as, in arrays indexed by {@link FreeColGameObjectType#getIndex}.
  */
 public class ProductionCache {
 
@@ -43,13 +56,42 @@ public class ProductionCache {
      */
     private Colony colony;
 
-    private TypeCountMap<GoodsType> netProduction =
-        new TypeCountMap<GoodsType>();
+    /** The goods types of the specification, by index. */
+    private GoodsType[] goodsTypes = null;
+
+    /** The net production of each goods type, by index. */
+    private int[] netProduction = new int[0];
+
+    /** Is the stored amount of each goods type read by a consumer? */
+    private boolean[] goodsUsed = new boolean[0];
+
+    /** Has the production of each goods type changed, by index? */
+    private boolean[] goodsChanged = new boolean[0];
 
+    /**
+     * The production of each colony tile and consumer.  Colony tiles
+     * that produce nothing are mapped to null.
+     */
     private Map<Object, ProductionInfo> productionAndConsumption =
         new HashMap<Object, ProductionInfo>();
 
-    private Set<GoodsType> goodsUsed = new HashSet<GoodsType>();
+    /** The goods type indexes each building read when last computed. */
+    private final Map<Object, int[]> inputs = new HashMap<Object, int[]>();
+
+    /** The work locations that changed since the last update. */
+    private final Set<Object> changed = new HashSet<Object>();
+
+    /** The colony tiles of the last update. */
+    private List<ColonyTile> colonyTiles = null;
+
+    /** The consumers of the last update, in order. */
+    private List<Consumer> consumers = null;
+
+    /** The production state, reused by each update. */
+    private final ProductionMap production = new ProductionMap();
+
+    /** Must all entries be recomputed? */
+    private boolean rebuild = true;
 
     private boolean upToDate = false;
 
@@ -70,79 +112,270 @@ public class ProductionCache {
      */
     private synchronized void update() {
         if (upToDate) return; // nothing to do
-        productionAndConsumption.clear();
-        netProduction.clear();
-        goodsUsed.clear();
-        ProductionMap production = new ProductionMap();
-        for (ColonyTile colonyTile : colony.getColonyTiles()) {
-            List<AbstractGoods> p = colonyTile.getProduction();
-            if (!p.isEmpty()) {
-                production.add(p);
-                ProductionInfo info = new ProductionInfo();
-                info.addProduction(p);
-                productionAndConsumption.put(colonyTile, info);
-                for (AbstractGoods goods : p) {
-                    goodsUsed.add(goods.getType());
-                    netProduction.incrementCount(goods.getType().getStoredAs(), goods.getAmount());
-                }
-            }
+        final Specification spec = colony.getSpecification();
+        if (goodsTypes == null) initGoodsTypes(spec);
+        List<ColonyTile> tiles = colony.getColonyTiles();
+        List<Consumer> consumerList = colony.getConsumers();
+        if (!sameEntries(tiles, colonyTiles)
+            || !sameEntries(consumerList, consumers)) {
+            rebuild = true;
+        }
+        if (rebuild) {
+            productionAndConsumption.clear();
+            inputs.clear();
+            Arrays.fill(goodsUsed, false);
         }
+        production.clear();
+        Arrays.fill(netProduction, 0);
 
-        GoodsType bells = colony.getSpecification().getGoodsType("model.goods.bells");
-        int unitsThatUseNoBells = colony.getSpecification().getInteger("model.option.unitsThatUseNoBells");
-        int amount = Math.min(unitsThatUseNoBells, colony.getUnitCount());
-        ProductionInfo bellsInfo = new ProductionInfo();
-        bellsInfo.addProduction(new AbstractGoods(bells, amount));
-        productionAndConsumption.put(this, bellsInfo);
-        netProduction.incrementCount(bells, amount);
-
-        for (Consumer consumer : colony.getConsumers()) {
-            Set<Modifier> modifier = consumer.getModifierSet("model.modifier.consumeOnlySurplusProduction");
-            List<AbstractGoods> goods = new ArrayList<AbstractGoods>();
-            for (AbstractGoods g : consumer.getConsumedGoods()) {
-                goodsUsed.add(g.getType());
-                AbstractGoods surplus = new AbstractGoods(production.get(g.getType()));
-                if (modifier.isEmpty()) {
-                    surplus.setAmount(surplus.getAmount() + getGoodsCount(g.getType()));
-                } else {
-                    surplus.setAmount((int) FeatureContainer.applyModifierSet(surplus.getAmount(),
-                                                                              null, modifier));
+        for (ColonyTile colonyTile : tiles) {
+            ProductionInfo info = productionAndConsumption.get(colonyTile);
+            if (rebuild || changed.contains(colonyTile)
+                || !productionAndConsumption.containsKey(colonyTile)) {
+                ProductionInfo old = info;
+                List<AbstractGoods> p = colonyTile.getProduction();
+                info = null;
+                if (!p.isEmpty()) {
+                    info = new ProductionInfo();
+                    info.addProduction(p);
                 }
-                goods.add(surplus);
-            }
-            ProductionInfo info = null;
-            if (consumer instanceof Building) {
-                Building building = (Building) consumer;
-                AbstractGoods output = null;
-                GoodsType outputType = building.getGoodsOutputType();
-                if (outputType != null) {
-                    goodsUsed.add(outputType);
-                    output = new AbstractGoods(production.get(outputType));
-                    output.setAmount(output.getAmount() + getGoodsCount(outputType));
+                if (!sameProduction(old, info)) {
+                    setChanged(old);
+                    setChanged(info);
                 }
-                info = building.getProductionInfo(output, goods);
-            } else if (consumer instanceof Unit) {
-                info = ((Unit) consumer).getProductionInfo(goods);
-            } else if (consumer instanceof BuildQueue) {
-                info = ((BuildQueue<?>) consumer).getProductionInfo(goods);
+                productionAndConsumption.put(colonyTile, info);
             }
             if (info != null) {
                 production.add(info.getProduction());
-                production.remove(info.getConsumption());
-                for (AbstractGoods g : info.getProduction()) {
-                    netProduction.incrementCount(g.getType().getStoredAs(), g.getAmount());
-                }
-                for (AbstractGoods g : info.getConsumption()) {
-                    netProduction.incrementCount(g.getType().getStoredAs(), -g.getAmount());
+                addNet(info);
+            }
+        }
+
+        GoodsType bells = spec.getGoodsType("model.goods.bells");
+        int unitsThatUseNoBells = spec.getInteger("model.option.unitsThatUseNoBells");
+        int amount = Math.min(unitsThatUseNoBells, colony.getUnitCount());
+        ProductionInfo bellsInfo = productionAndConsumption.get(this);
+        if (bellsInfo == null
+            || bellsInfo.getProduction().get(0).getAmount() != amount) {
+            bellsInfo = new ProductionInfo();
+            bellsInfo.addProduction(new AbstractGoods(bells, amount));
+            productionAndConsumption.put(this, bellsInfo);
+        }
+        addNet(bellsInfo);
+
+        for (Consumer consumer : consumerList) {
+            ProductionInfo info = productionAndConsumption.get(consumer);
+            if (rebuild || info == null || !(consumer instanceof Building)
+                || changed.contains(consumer)
+                || isChanged(inputs.get(consumer))) {
+                ProductionInfo old = info;
+                info = computeProductionInfo(consumer);
+                if (info == null) continue;
+                if (old != null && !sameProduction(old, info)) {
+                    setChanged(old);
+                    setChanged(info);
                 }
                 productionAndConsumption.put(consumer, info);
             }
+            production.add(info.getProduction());
+            production.remove(info.getConsumption());
+            addNet(info);
         }
-        this.productionAndConsumption = productionAndConsumption;
-        this.netProduction = netProduction;
+        if (rebuild) colonyTiles = new ArrayList<ColonyTile>(tiles);
+        consumers = consumerList;
+        changed.clear();
+        Arrays.fill(goodsChanged, false);
+        rebuild = false;
         upToDate = true;
     }
 
+    /**
+     * Computes the production of a consumer given the current
+     * production state, and records the goods types it reads.
+     *
+     * @param consumer The <code>Consumer</code> to compute.
+     * @return The <code>ProductionInfo</code> of the consumer, or
+     *     null if it is of an unknown kind.
+     */
+    private ProductionInfo computeProductionInfo(Consumer consumer) {
+        Set<Modifier> modifier = consumer.getModifierSet("model.modifier.consumeOnlySurplusProduction");
+        List<AbstractGoods> consumed = consumer.getConsumedGoods();
+        List<AbstractGoods> goods = new ArrayList<AbstractGoods>(consumed.size());
+        int[] read = new int[consumed.size() + 1];
+        int count = 0;
+        for (AbstractGoods g : consumed) {
+            read[count++] = setUsed(g.getType());
+            AbstractGoods surplus = new AbstractGoods(production.get(g.getType()));
+            if (modifier.isEmpty()) {
+                surplus.setAmount(surplus.getAmount() + getGoodsCount(g.getType()));
+            } else {
+                surplus.setAmount((int) FeatureContainer.applyModifierSet(surplus.getAmount(),
+                                                                          null, modifier));
+            }
+            goods.add(surplus);
+        }
+        ProductionInfo info = null;
+        if (consumer instanceof Building) {
+            Building building = (Building) consumer;
+            AbstractGoods output = null;
+            GoodsType outputType = building.getGoodsOutputType();
+            if (outputType != null) {
+                read[count++] = setUsed(outputType);
+                output = new AbstractGoods(production.get(outputType));
+                output.setAmount(output.getAmount() + getGoodsCount(outputType));
+            }
+            info = building.getProductionInfo(output, goods);
+            inputs.put(consumer, (count == read.length) ? read
+                       : Arrays.copyOf(read, count));
+        } else if (consumer instanceof Unit) {
+            info = ((Unit) consumer).getProductionInfo(goods);
+        } else if (consumer instanceof BuildQueue) {
+            info = ((BuildQueue<?>) consumer).getProductionInfo(goods);
+        }
+        return info;
+    }
+
+    /**
+     * Sets up the goods type arrays for a specification.
+     *
+     * @param spec The <code>Specification</code> to use.
+     */
+    private void initGoodsTypes(Specification spec) {
+        int size = 0;
+        for (GoodsType type : spec.getGoodsTypeList()) {
+            size = Math.max(size, type.getIndex() + 1);
+        }
+        goodsTypes = new GoodsType[size];
+        for (GoodsType type : spec.getGoodsTypeList()) {
+            if (type.getIndex() >= 0) goodsTypes[type.getIndex()] = type;
+        }
+        netProduction = new int[size];
+        goodsUsed = new boolean[size];
+        goodsChanged = new boolean[size];
+    }
+
+    /**
+     * Gets the array index of the type a goods type is stored as.
+     *
+     * @param type The <code>GoodsType</code> to look up.
+     * @return The index, or -1 if the type is not known.
+     */
+    private int getIndex(GoodsType type) {
+        int index = type.getStoredAs().getIndex();
+        return (index >= 0 && index < netProduction.length
+                && goodsTypes[index] == type.getStoredAs()) ? index : -1;
+    }
+
+    /**
+     * Adds the production and consumption of an entry to the net
+     * production.
+     *
+     * @param info The <code>ProductionInfo</code> to add.
+     */
+    private void addNet(ProductionInfo info) {
+        for (AbstractGoods g : info.getProduction()) {
+            int index = getIndex(g.getType());
+            if (index >= 0) netProduction[index] += g.getAmount();
+        }
+        for (AbstractGoods g : info.getConsumption()) {
+            int index = getIndex(g.getType());
+            if (index >= 0) netProduction[index] -= g.getAmount();
+        }
+    }
+
+    /**
+     * Marks a goods type as read by a consumer.
+     *
+     * @param type The <code>GoodsType</code> read.
+     * @return The index of the type.
+     */
+    private int setUsed(GoodsType type) {
+        int index = getIndex(type);
+        if (index >= 0) goodsUsed[index] = true;
+        return index;
+    }
+
+    /**
+     * Marks the goods types produced or consumed by an entry as
+     * changed.
+     *
+     * @param info The <code>ProductionInfo</code> of the entry, may
+     *     be null.
+     */
+    private void setChanged(ProductionInfo info) {
+        if (info == null) return;
+        for (AbstractGoods g : info.getProduction()) {
+            int index = getIndex(g.getType());
+            if (index >= 0) goodsChanged[index] = true;
+        }
+        for (AbstractGoods g : info.getConsumption()) {
+            int index = getIndex(g.getType());
+            if (index >= 0) goodsChanged[index] = true;
+        }
+    }
+
+    /**
+     * Checks whether any of a list of goods types has changed.
+     *
+     * @param indexes The goods type indexes to check, may be null.
+     * @return True if a type has changed or is unknown.
+     */
+    private boolean isChanged(int[] indexes) {
+        if (indexes == null) return true;
+        for (int index : indexes) {
+            if (index < 0 || goodsChanged[index]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether two lists hold the same objects in the same order.
+     *
+     * @param list1 The first list.
+     * @param list2 The second list, may be null.
+     * @return True if the lists hold identical objects.
+     */
+    private static boolean sameEntries(List<?> list1, List<?> list2) {
+        if (list2 == null || list1.size() != list2.size()) return false;
+        for (int index = 0; index < list1.size(); index++) {
+            if (list1.get(index) != list2.get(index)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether two entries produce and consume the same goods.
+     *
+     * @param info1 The first <code>ProductionInfo</code>, may be null.
+     * @param info2 The second <code>ProductionInfo</code>, may be null.
+     * @return True if the production and consumption are the same.
+     */
+    private static boolean sameProduction(ProductionInfo info1,
+                                          ProductionInfo info2) {
+        if (info1 == null || info2 == null) return info1 == info2;
+        return sameGoods(info1.getProduction(), info2.getProduction())
+            && sameGoods(info1.getConsumption(), info2.getConsumption());
+    }
+
+    /**
+     * Checks whether two lists hold the same amounts of goods.
+     *
+     * @param goods1 The first list of <code>AbstractGoods</code>.
+     * @param goods2 The second list of <code>AbstractGoods</code>.
+     * @return True if the lists are the same.
+     */
+    private static boolean sameGoods(List<AbstractGoods> goods1,
+                                     List<AbstractGoods> goods2) {
+        if (goods1.size() != goods2.size()) return false;
+        for (int index = 0; index < goods1.size(); index++) {
+            AbstractGoods g1 = goods1.get(index);
+            AbstractGoods g2 = goods2.get(index);
+            if (g1.getType() != g2.getType()
+                || g1.getAmount() != g2.getAmount()) return false;
+        }
+        return true;
+    }
+
 
     /**
      * Returns the number of goods of the given type stored in the
@@ -164,6 +397,20 @@ public class ProductionCache {
      *
      */
     public synchronized void invalidate() {
+        rebuild = true;
+        upToDate = false;
+    }
+
+
+    /**
+     * Invalidates the production of a single work location.  This
+     * method needs to be called when units are added to or removed
+     * from a colony tile or building, but nothing else changed.
+     *
+     * @param workLocation The <code>WorkLocation</code> that changed.
+     */
+    public synchronized void invalidate(WorkLocation workLocation) {
+        changed.add(workLocation);
         upToDate = false;
     }
 
@@ -176,7 +423,13 @@ public class ProductionCache {
      * @param goodsType a <code>GoodsType</code> value
      */
     public synchronized void invalidate(GoodsType goodsType) {
-        if (goodsUsed.contains(goodsType)) {
+        if (goodsTypes == null) return;
+        int index = getIndex(goodsType);
+        if (index < 0) {
+            rebuild = true;
+            upToDate = false;
+        } else if (goodsUsed[index]) {
+            goodsChanged[index] = true;
             upToDate = false;
         }
     }
@@ -189,9 +442,11 @@ public class ProductionCache {
      * @param type a <code>GoodsType</code> value
      * @return an <code>int</code> value
      */
-    public int getNetProductionOf(GoodsType type) {
+    public synchronized int getNetProductionOf(GoodsType type) {
         update();
-        return netProduction.getCount(type);
+        int index = type.getIndex();
+        return (index >= 0 && index < netProduction.length
+                && goodsTypes[index] == type) ? netProduction[index] : 0;
     }
 
     /**
@@ -201,7 +456,7 @@ public class ProductionCache {
      * @param object an <code>Object</code> value
      * @return a <code>ProductionInfo</code> value
      */
-    public ProductionInfo getProductionInfo(Object object) {
+    public synchronized ProductionInfo getProductionInfo(Object object) {
         update();
         return productionAndConsumption.get(object);
     }
@@ -212,10 +467,14 @@ public class ProductionCache {
      *
      * @return A copy of the current production state.
      */
-    public TypeCountMap<GoodsType> getProductionMap() {
+    public synchronized TypeCountMap<GoodsType> getProductionMap() {
         update();
         TypeCountMap<GoodsType> result = new TypeCountMap<GoodsType>();
-        result.putAll(netProduction);
+        for (int index = 0; index < netProduction.length; index++) {
+            if (netProduction[index] != 0) {
+                result.incrementCount(goodsTypes[index], netProduction[index]);
+            }
+        }
         return result;
     }
 }
@@ -208,6 +208,13 @@ public class ProductionMap {
     }
 
 
+    /**
+     * Removes all the production from this map.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
     public void add(List<AbstractGoods> goods) {
         for (AbstractGoods g : goods) {
             add(g);
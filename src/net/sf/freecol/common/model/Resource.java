@@ -114,6 +114,7 @@ public class Resource extends TileItem {
      */
     public void setQuantity(int newQuantity) {
         quantity = newQuantity;
+        if (tile != null) tile.changed();
     }
 
     /**
@@ -176,6 +177,7 @@ public class Resource extends TileItem {
             logger.severe("Insufficient quantity in " + this);
             quantity = 0;
         }
+        if (tile != null) tile.changed();
         return quantity;
     }
 
@@ -431,9 +431,23 @@ public final class Specification {
     public void addAbility(String id) {
         if (!allAbilities.containsKey(id)) {
             allAbilities.put(id, new ArrayList<Ability>());
+            FeatureIds.intern(id);
         }
     }
 
+    /**
+     * Gets the interned number of an ability or modifier ID, for the
+     * integer keyed queries of <code>FeatureContainer</code>.  The
+     * IDs defined by this specification are interned as it is read.
+     *
+     * @param id The ability or modifier ID.
+     * @return The number of the ID.
+     * @see FeatureIds
+     */
+    public int getFeatureId(String id) {
+        return FeatureIds.intern(id);
+    }
+
     /**
      * Return a list of all Abilities with the given id.
      *
@@ -469,6 +483,7 @@ public final class Specification {
         String id = modifier.getId();
         if (!allModifiers.containsKey(id)) {
             allModifiers.put(id, new ArrayList<Modifier>());
+            FeatureIds.intern(id);
         }
         allModifiers.get(id).add(modifier);
     }
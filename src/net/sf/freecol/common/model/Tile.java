@@ -236,6 +236,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
      */
     public void setRegion(final Region newRegion) {
         this.region = newRegion;
+        changed();
     }
 
     /**
@@ -369,6 +370,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
      */
     public void setStyle(final int newStyle) {
         this.style = newStyle;
+        changed();
     }
 
     /**
@@ -421,6 +423,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
      */
     public void setTileItemContainer(TileItemContainer newTileItemContainer) {
         tileItemContainer = newTileItemContainer;
+        changed();
     }
 
     /**
@@ -610,6 +613,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
      */
     public void setConnected(final boolean newConnected) {
         this.connected = newConnected;
+        changed();
     }
 
     /**
@@ -628,6 +632,9 @@ public final class Tile extends UnitLocation implements Named, Ownable {
      */
     public void setMoveToEurope(Boolean moveToEurope) {
         this.moveToEurope = moveToEurope;
+        Map map = getMapOfTile();
+        if (map != null) map.coastlineChanged();
+        invalidatePaths();
     }
 
     /**
@@ -757,6 +764,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
      */
     public void setOwner(Player owner) {
         this.owner = owner;
+        changed();
     }
 
     /**
@@ -772,6 +780,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
     public void setSettlement(Settlement s) {
         settlement = s;
         changeOwningSettlement(s);
+        invalidatePaths();
     }
 
     /**
@@ -835,6 +844,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
      */
     public void setOwningSettlement(Settlement owner) {
         this.owningSettlement = owner;
+        changed();
     }
 
     /**
@@ -864,6 +874,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
         setOwner(player);
         changeOwningSettlement(settlement);
         updatePlayerExploredTiles(old);
+        invalidatePaths();
     }
 
     /**
@@ -1015,6 +1026,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
         if (t == null) {
             throw new IllegalArgumentException("Tile type must not be null");
         }
+        final boolean wasLand = isLand();
         type = t;
         if (tileItemContainer != null) {
             tileItemContainer.removeIncompatibleImprovements();
@@ -1022,8 +1034,45 @@ public final class Tile extends UnitLocation implements Named, Ownable {
         if (!isLand()) {
             settlement = null;
         }
+        if (wasLand != isLand()) {
+            Map map = getMapOfTile();
+            if (map != null) map.coastlineChanged();
+        }
 
         updatePlayerExploredTiles();
+        invalidatePaths();
+    }
+
+    /**
+     * Tells the map that this tile has changed, so that any cached
+     * paths through it are dropped.
+     */
+    private void invalidatePaths() {
+        Map map = getMapOfTile();
+        if (map != null) {
+            map.tileChanged(this);
+            map.invalidatePaths(this);
+        }
+    }
+
+    /**
+     * Tells the map that the saved form of this tile has changed.
+     */
+    void changed() {
+        Map map = getMapOfTile();
+        if (map != null) map.tileChanged(this);
+    }
+
+    /**
+     * Gets the map this tile is part of.  Scratch tiles (see {@link
+     * #getScratchTile}) are not part of the map, and their changes
+     * must not be reported to it.
+     *
+     * @return The <code>Map</code> holding this tile, or null if none.
+     */
+    private Map getMapOfTile() {
+        Map map = getMap();
+        return (map != null && map.getTile(x, y) == this) ? map : null;
     }
 
      /**
@@ -1136,6 +1185,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
         } else if (locatable instanceof Unit) {
             if (super.add(locatable)) {
                 ((Unit)locatable).setState(Unit.UnitState.ACTIVE);
+                invalidatePaths();
                 return true;
             }
             return false;
@@ -1156,6 +1206,12 @@ public final class Tile extends UnitLocation implements Named, Ownable {
             tileItemContainer.addTileItem((TileItem) locatable);
             updatePlayerExploredTiles(old);
             return true;
+        } else if (locatable instanceof Unit) {
+            if (super.remove(locatable)) {
+                invalidatePaths();
+                return true;
+            }
+            return false;
         } else {
             return super.remove(locatable);
         }
@@ -1487,6 +1543,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
             playerExploredTiles.put(player, pet);
         }
         pet.update(full);
+        changed();
     }
 
     /**
@@ -1518,8 +1575,9 @@ public final class Tile extends UnitLocation implements Named, Ownable {
         if (explored) {
             updatePlayerExploredTile(player, false);
         } else {
-            if (playerExploredTiles != null) {
-                playerExploredTiles.remove(player);
+            if (playerExploredTiles != null
+                && playerExploredTiles.remove(player) != null) {
+                changed();
             }
         }
     }
@@ -1956,6 +2014,7 @@ public final class Tile extends UnitLocation implements Named, Ownable {
         if (getColony() != null && getColony().isTileInUse(this)) {
             getColony().invalidateCache();
         }
+        invalidatePaths();
     }
 
     /**
@@ -120,6 +120,7 @@ public class TileImprovement extends TileItem implements Named {
 
     public void setMagnitude(int magnitude) {
         this.magnitude = magnitude;
+        if (tile != null) tile.changed();
     }
 
     /**
@@ -190,6 +191,7 @@ public class TileImprovement extends TileItem implements Named {
      */
     public void setTurnsToComplete(int turns) {
         turnsToComplete = turns;
+        if (tile != null) tile.changed();
     }
 
     /**
@@ -287,6 +289,7 @@ public class TileImprovement extends TileItem implements Named {
      */
     public void setStyle(int style) {
         this.style = style;
+        if (tile != null) tile.changed();
     }
 
     /**
@@ -109,9 +109,11 @@ public class TileItemContainer extends FreeColGameObject {
 
     /**
      * Invalidate the production cache of the owning colony, if there
-     * is one, but only if the tile is actually being used.
+     * is one, but only if the tile is actually being used.  Also
+     * notes that the saved form of the tile has changed.
      */
     private void invalidateCache() {
+        tile.changed();
         Colony colony = tile.getColony();
         if (colony != null && colony.isTileInUse(tile)) {
             colony.invalidateCache();
@@ -414,6 +416,7 @@ public class TileItemContainer extends FreeColGameObject {
         while (iterator.hasNext()) {
             if (c.isInstance(iterator.next())) {
                 iterator.remove();
+                tile.changed();
             }
         }
     }
@@ -428,6 +431,7 @@ public class TileItemContainer extends FreeColGameObject {
 
     public void copyFrom(TileItemContainer tic, boolean importResources, boolean copyOnlyNatural) {
         tileItems.clear();
+        tile.changed();
         for (TileItem item : tic.getTileItems()) {
             if (item instanceof Resource) {
                 if (importResources) {
@@ -328,6 +328,9 @@ public class Unit extends FreeColGameObject
      */
     protected int visibleGoodsCount;
 
+    /** The abilities and modifiers of this unit, as last computed. */
+    private final FeatureCache featureCache = new FeatureCache();
+
     /** The student of this Unit, if it has one. */
     protected Unit student;
 
@@ -834,23 +837,151 @@ public class Unit extends FreeColGameObject
         this.attrition = attrition;
     }
 
+    /**
+     * The abilities and modifiers of a unit, cached by identifier.
+     * They depend on the feature containers of the unit type, the
+     * owner, and the colony or Europe the unit is in, on the types of
+     * equipment the unit has, and on the turn, which are recorded so
+     * that the cache can be cleared when any of them changes.
+     */
+    private static final class FeatureCache {
+        public FeatureContainer typeContainer = null;
+        public int typeVersion;
+        public FeatureContainer ownerContainer = null;
+        public int ownerVersion;
+        public FeatureContainer locationContainer = null;
+        public int locationVersion;
+        public EquipmentType[] equipment = null;
+        public int turn;
+        public HashMap<String, Boolean> abilities = null;
+        public HashMap<String, Set<Modifier>> modifiers = null;
+    }
+
+    /**
+     * Gets the feature container of the location this unit takes
+     * abilities from.
+     *
+     * @return The <code>FeatureContainer</code> of the colony or
+     *     Europe the unit is in, or null if none.
+     */
+    private FeatureContainer getLocationFeatureContainer() {
+        if (getColony() != null) {
+            return getColony().getFeatureContainer();
+        } else if (isInEurope() && getOwner().getEurope() != null) {
+            return getOwner().getEurope().getFeatureContainer();
+        }
+        return null;
+    }
+
+    /**
+     * Clears the feature cache if anything it depends on has changed.
+     * Must be called while synchronized on the cache.
+     */
+    private void validateFeatureCache() {
+        final FeatureCache cache = featureCache;
+        final FeatureContainer typeContainer = unitType.getFeatureContainer();
+        final FeatureContainer ownerContainer = getOwner().getFeatureContainer();
+        final FeatureContainer locationContainer = getLocationFeatureContainer();
+        final Turn turn = getGame().getTurn();
+        final int turnNumber = (turn == null) ? -1 : turn.getNumber();
+        boolean valid = cache.equipment != null
+            && cache.typeContainer == typeContainer
+            && cache.typeVersion == typeContainer.getVersion()
+            && cache.ownerContainer == ownerContainer
+            && cache.ownerVersion == ownerContainer.getVersion()
+            && cache.locationContainer == locationContainer
+            && (locationContainer == null
+                || cache.locationVersion == locationContainer.getVersion())
+            && cache.turn == turnNumber
+            && cache.equipment.length == equipment.size();
+        if (valid) {
+            for (EquipmentType et : cache.equipment) {
+                if (!equipment.containsKey(et)) {
+                    valid = false;
+                    break;
+                }
+            }
+        }
+        if (valid) return;
+
+        cache.typeContainer = typeContainer;
+        cache.typeVersion = typeContainer.getVersion();
+        cache.ownerContainer = ownerContainer;
+        cache.ownerVersion = ownerContainer.getVersion();
+        cache.locationContainer = locationContainer;
+        cache.locationVersion = (locationContainer == null) ? 0
+            : locationContainer.getVersion();
+        cache.turn = turnNumber;
+        cache.equipment = equipment.keySet()
+            .toArray(new EquipmentType[equipment.size()]);
+        if (cache.abilities != null) cache.abilities.clear();
+        if (cache.modifiers != null) cache.modifiers.clear();
+    }
+
     /**
      * Returns true if the Unit, or its owner has the ability
-     * identified by <code>id</code>.
+     * identified by <code>id</code>.  The result is cached, and once
+     * cached this does not allocate.
      *
      * @param id a <code>String</code> value
      * @return a <code>boolean</code> value
      */
     public boolean hasAbility(String id) {
+        synchronized (featureCache) {
+            validateFeatureCache();
+            if (featureCache.abilities == null) {
+                featureCache.abilities = new HashMap<String, Boolean>();
+            }
+            Boolean result = featureCache.abilities.get(id);
+            if (result == null) {
+                result = Boolean.valueOf(computeAbility(id));
+                featureCache.abilities.put(id, result);
+            }
+            return result.booleanValue();
+        }
+    }
+
+    /**
+     * Get a modifier that applies to this Unit.
+     *
+     * @param id a <code>String</code> value
+     * @return a <code>Modifier</code> value
+     */
+    public Set<Modifier> getModifierSet(String id) {
+        synchronized (featureCache) {
+            validateFeatureCache();
+            if (featureCache.modifiers == null) {
+                featureCache.modifiers = new HashMap<String, Set<Modifier>>();
+            }
+            Set<Modifier> result = featureCache.modifiers.get(id);
+            if (result == null) {
+                result = computeModifierSet(id);
+                featureCache.modifiers.put(id, result);
+            }
+            // Callers may change the set they are given.
+            return new HashSet<Modifier>(result);
+        }
+    }
+
+    /**
+     * Works out whether the Unit, or its owner has the ability
+     * identified by <code>id</code>.
+     *
+     * @param abilityId a <code>String</code> value
+     * @return a <code>boolean</code> value
+     */
+    private boolean computeAbility(String abilityId) {
+        final int id = FeatureIds.lookup(abilityId);
+        if (id == FeatureIds.NONE) return false;
         Set<Ability> result = new HashSet<Ability>();
         // UnitType abilities always apply
-        result.addAll(unitType.getFeatureContainer().getAbilitySet(id));
+        result.addAll(unitType.getFeatureContainer().getAbilitySet(id, null, null));
         // the player's abilities may not apply
         result.addAll(getOwner().getFeatureContainer()
                       .getAbilitySet(id, unitType, getGame().getTurn()));
         // EquipmentType abilities always apply
         for (EquipmentType equipmentType : equipment.keySet()) {
-            result.addAll(equipmentType.getFeatureContainer().getAbilitySet(id));
+            result.addAll(equipmentType.getFeatureContainer().getAbilitySet(id, null, null));
             // player abilities may also apply to equipment (missionary)
             result.addAll(getOwner().getFeatureContainer()
                           .getAbilitySet(id, equipmentType, getGame().getTurn()));
@@ -877,21 +1008,23 @@ public class Unit extends FreeColGameObject
 
 
     /**
-     * Get a modifier that applies to this Unit.
+     * Works out the modifiers that apply to this Unit.
      *
-     * @param id a <code>String</code> value
+     * @param modifierId a <code>String</code> value
      * @return a <code>Modifier</code> value
      */
-    public Set<Modifier> getModifierSet(String id) {
+    private Set<Modifier> computeModifierSet(String modifierId) {
+        final int id = FeatureIds.lookup(modifierId);
         Set<Modifier> result = new HashSet<Modifier>();
+        if (id == FeatureIds.NONE) return result;
         // UnitType modifiers always apply
-        result.addAll(unitType.getModifierSet(id));
+        result.addAll(unitType.getFeatureContainer().getModifierSet(id, null, null));
         // the player's modifiers may not apply
         result.addAll(getOwner().getFeatureContainer()
                       .getModifierSet(id, unitType, getGame().getTurn()));
         // EquipmentType modifiers always apply
         for (EquipmentType equipmentType : equipment.keySet()) {
-            result.addAll(equipmentType.getFeatureContainer().getModifierSet(id));
+            result.addAll(equipmentType.getFeatureContainer().getModifierSet(id, null, null));
             // player modifiers may also apply to equipment (unused)
             result.addAll(getOwner().getFeatureContainer()
                           .getModifierSet(id, equipmentType, getGame().getTurn()));
@@ -1211,6 +1344,28 @@ public class Unit extends FreeColGameObject
         return path;
     }
 
+    /**
+     * Finds a path from the current <code>Tile</code> to the one
+     * specified, planning long paths hierarchically.  This is faster
+     * than {@link #findPath(Tile)} for distant tiles but the path may
+     * be slightly longer, so it is meant for AI planning and not for
+     * paths a player sees.
+     *
+     * @param end The <code>Tile</code> in which the path ends.
+     * @return A <code>PathNode</code> for the first tile in the path,
+     *     or null if none found.
+     * @exception IllegalArgumentException if <code>end == null</code>
+     * @see Map#findPathHierarchical
+     */
+    public PathNode findPathHierarchical(Tile end) {
+        Location dest = getDestination();
+        setDestination(end);
+        PathNode path = getGame().getMap()
+            .findPathHierarchical(this, getTile(), end, null, null);
+        setDestination(dest);
+        return path;
+    }
+
     /**
      * Convenience wrapper to find a path to Europe for this unit.
      *
@@ -0,0 +1,324 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.networking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+
+/**
+ * A compact binary encoding of DOM messages, used instead of XML text
+ * once both ends of a connection have agreed to it at login.
+ *
+ * <br><br>
+ *
+ * Numbers are written as unsigned varints.  Tag names, attribute
+ * names and short attribute values (such as object identifiers) are
+ * entered in a string table the first time they are sent, and are
+ * then sent as their index in the table.  Each end of a connection
+ * keeps one table for what it sends and one for what it receives, so
+ * messages must be decoded in the order they were encoded.  The
+ * entries of a message written are only staged, and must be
+ * committed with {@link #commit} once the whole message has been
+ * sent, or dropped with {@link #rollback} if it could not be, so that
+ * the table of the sender never holds entries the receiver has not
+ * seen.
+ *
+ * <br><br>
+ *
+ * A binary message starts with {@link #MARKER}, which can not start
+ * an XML message, and like an XML message it ends with the end of
+ * message token.  The token and the escape byte are escaped within
+ * the message, so the framing of the connection is unchanged.
+ */
+public final class BinaryMessageCodec {
+
+    /** The first byte of a binary message. */
+    public static final byte MARKER = 0x00;
+
+    /** The end of message token. */
+    private static final int END_OF_MESSAGE = '\n';
+
+    /** The escape byte, followed by ESCAPED_ESCAPE or ESCAPED_END. */
+    private static final int ESCAPE = 0x01;
+    private static final int ESCAPED_ESCAPE = 0x01;
+    private static final int ESCAPED_END = 0x02;
+
+    /** Node kinds. */
+    private static final int END = 0;
+    private static final int ELEMENT = 1;
+    private static final int TEXT = 2;
+
+    /** String kinds, any larger value is a string table index + 2. */
+    private static final int LITERAL = 0;
+    private static final int NEW_ENTRY = 1;
+
+    /** The largest string table. */
+    private static final int MAXIMUM_ENTRIES = 8192;
+
+    /** The longest string entered in the string table. */
+    private static final int MAXIMUM_ENTRY_LENGTH = 64;
+
+    /** The string table of the messages sent. */
+    private final HashMap<String, Integer> sent
+        = new HashMap<String, Integer>();
+
+    /** The entries of the message being written, not yet committed. */
+    private final HashMap<String, Integer> staged
+        = new HashMap<String, Integer>();
+
+    /** The string table of the messages received. */
+    private final List<String> received = new ArrayList<String>();
+
+    /** Buffer for the encoded message, before escaping. */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * Builds the documents of the messages received.  Kept, as finding
+     * a factory for every message costs more than the decoding.
+     */
+    private DocumentBuilder builder = null;
+
+
+    /**
+     * Checks if a message is binary.
+     *
+     * @param data The message, without the end of message token.
+     * @return True if the message is binary.
+     */
+    public static boolean isBinary(byte[] data) {
+        return data.length > 0 && data[0] == MARKER;
+    }
+
+    /**
+     * Writes an element as a binary message, without the end of
+     * message token.  The string table entries of the message are
+     * staged until {@link #commit} or {@link #rollback} is called.
+     *
+     * @param out The <code>OutputStream</code> to write to.
+     * @param element The <code>Element</code> to write.
+     * @throws IOException if the stream fails.
+     */
+    public synchronized void write(OutputStream out, Element element)
+        throws IOException {
+        buffer.reset();
+        staged.clear();
+        writeElement(element);
+        final byte[] data = buffer.toByteArray();
+        out.write(MARKER);
+        int start = 0;
+        for (int i = 0; i < data.length; i++) {
+            int b = data[i];
+            if (b != ESCAPE && b != END_OF_MESSAGE) continue;
+            out.write(data, start, i - start);
+            out.write(ESCAPE);
+            out.write((b == ESCAPE) ? ESCAPED_ESCAPE : ESCAPED_END);
+            start = i + 1;
+        }
+        out.write(data, start, data.length - start);
+    }
+
+    /**
+     * Adds the string table entries of the last message written to
+     * the table, as the message has been sent.
+     */
+    public synchronized void commit() {
+        sent.putAll(staged);
+        staged.clear();
+    }
+
+    /**
+     * Drops the string table entries of the last message written, as
+     * the message could not be sent.
+     */
+    public synchronized void rollback() {
+        staged.clear();
+    }
+
+    /**
+     * Reads a binary message.
+     *
+     * @param data The message, starting with {@link #MARKER} and
+     *     without the end of message token.
+     * @return The root <code>Element</code> of the message, in a new
+     *     document.
+     * @throws IOException if the message is malformed.
+     */
+    public synchronized Element read(byte[] data) throws IOException {
+        if (!isBinary(data)) throw new IOException("Not a binary message.");
+        // Unescape in place, the data is not used again.
+        int n = 0;
+        for (int i = 1; i < data.length; i++) {
+            if (data[i] != ESCAPE) {
+                data[n++] = data[i];
+            } else if (++i < data.length) {
+                data[n++] = (byte) ((data[i] == ESCAPED_ESCAPE) ? ESCAPE
+                                    : END_OF_MESSAGE);
+            } else {
+                throw new IOException("Truncated escape.");
+            }
+        }
+        if (builder == null) {
+            try {
+                builder = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IOException("Can not build documents: "
+                    + e.getMessage());
+            }
+        }
+        final Document doc = builder.newDocument();
+        final int[] pos = new int[] { 0 };
+        if (readVarint(data, n, pos) != ELEMENT) {
+            throw new IOException("Message does not start with an element.");
+        }
+        Element root = readElement(doc, data, n, pos);
+        doc.appendChild(root);
+        return root;
+    }
+
+    private void writeElement(Element element) throws IOException {
+        writeVarint(ELEMENT);
+        writeString(element.getTagName(), true);
+        NamedNodeMap attributes = element.getAttributes();
+        writeVarint(attributes.getLength());
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node a = attributes.item(i);
+            writeString(a.getNodeName(), true);
+            writeString(a.getNodeValue(), false);
+        }
+        for (Node n = element.getFirstChild(); n != null;
+             n = n.getNextSibling()) {
+            switch (n.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                writeElement((Element) n);
+                break;
+            case Node.TEXT_NODE: case Node.CDATA_SECTION_NODE:
+                writeVarint(TEXT);
+                writeString(n.getNodeValue(), false);
+                break;
+            default:
+                break;
+            }
+        }
+        writeVarint(END);
+    }
+
+    private Element readElement(Document doc, byte[] data, int length,
+                                int[] pos) throws IOException {
+        Element element = doc.createElement(readString(data, length, pos));
+        for (int count = readVarint(data, length, pos); count > 0; count--) {
+            String name = readString(data, length, pos);
+            element.setAttribute(name, readString(data, length, pos));
+        }
+        for (;;) {
+            switch (readVarint(data, length, pos)) {
+            case END:
+                return element;
+            case ELEMENT:
+                element.appendChild(readElement(doc, data, length, pos));
+                break;
+            case TEXT:
+                element.appendChild(doc.createTextNode(readString(data,
+                            length, pos)));
+                break;
+            default:
+                throw new IOException("Bad node kind.");
+            }
+        }
+    }
+
+    /**
+     * Writes a string, using the string table if possible.
+     *
+     * @param s The string to write.
+     * @param always If true, always try to enter the string in the
+     *     table, otherwise only if it is short.
+     */
+    private void writeString(String s, boolean always) throws IOException {
+        Integer index = sent.get(s);
+        if (index == null) index = staged.get(s);
+        if (index != null) {
+            writeVarint(index.intValue() + 2);
+            return;
+        }
+        byte[] utf8 = s.getBytes("UTF-8");
+        final int size = sent.size() + staged.size();
+        if (size < MAXIMUM_ENTRIES
+            && (always || utf8.length <= MAXIMUM_ENTRY_LENGTH)) {
+            staged.put(s, size);
+            writeVarint(NEW_ENTRY);
+        } else {
+            writeVarint(LITERAL);
+        }
+        writeVarint(utf8.length);
+        buffer.write(utf8, 0, utf8.length);
+    }
+
+    private String readString(byte[] data, int length, int[] pos)
+        throws IOException {
+        final int kind = readVarint(data, length, pos);
+        if (kind >= 2) {
+            if (kind - 2 >= received.size()) {
+                throw new IOException("Bad string index.");
+            }
+            return received.get(kind - 2);
+        }
+        final int n = readVarint(data, length, pos);
+        if (n > length - pos[0]) throw new IOException("Truncated string.");
+        String s = new String(data, pos[0], n, "UTF-8");
+        pos[0] += n;
+        if (kind == NEW_ENTRY) received.add(s);
+        return s;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.write(value);
+    }
+
+    private static int readVarint(byte[] data, int length, int[] pos)
+        throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos[0] >= length) throw new IOException("Truncated number.");
+            int b = data[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Bad number.");
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.networking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+
+/**
+ * A buffered output stream writing to a non-blocking socket channel.
+ * Writes block the calling thread until the channel has accepted all
+ * the data, waiting on a private selector when the channel is full,
+ * so that the channel can still be read by a shared selector.
+ */
+final class ChannelOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** How long to wait for the channel to accept data, in ms. */
+    private static final long WRITE_TIMEOUT = 30000L;
+
+    private final SocketChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Selector used to wait for the channel, created when needed. */
+    private Selector selector = null;
+
+
+    /**
+     * Creates a new <code>ChannelOutputStream</code>.
+     *
+     * @param channel The <code>SocketChannel</code> to write to.
+     */
+    ChannelOutputStream(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) drain();
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+        throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) drain();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (channel.isOpen()) drain();
+        } finally {
+            if (selector != null) selector.close();
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes all the buffered data to the channel.
+     *
+     * @throws IOException if the channel fails or does not accept
+     *     data in time.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) > 0) continue;
+                if (selector == null) {
+                    selector = Selector.open();
+                    channel.register(selector, SelectionKey.OP_WRITE);
+                }
+                if (selector.select(WRITE_TIMEOUT) == 0) {
+                    throw new IOException("Timed out writing to " + channel);
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            buffer.compact();
+        }
+    }
+}
@@ -20,12 +20,15 @@
 package net.sf.freecol.common.networking;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -72,14 +75,29 @@ public class Connection {
 
     private final ReceivingThread thread;
 
+    /** Runs the handlers of the DOM messages received, in order. */
+    private final MessageDispatcher dispatcher;
+
     private final XMLOutputFactory xof = XMLOutputFactory.newInstance();
 
+    /** Encodes and decodes the binary DOM messages. */
+    private final BinaryMessageCodec codec = new BinaryMessageCodec();
+
+    /** Are DOM messages sent in binary rather than as XML? */
+    private volatile boolean binaryProtocol = false;
+
+    /** The messages posted to be sent, created on first use. */
+    private OutboundQueue outboundQueue = null;
+
     private MessageHandler messageHandler;
 
     private XMLStreamWriter xmlOut = null;
 
     private int currentQuestionID = -1;
 
+    /** The thread holding the current question id, if any. */
+    private volatile Thread questionOwner = null;
+
     private String name = null;
 
 
@@ -91,6 +109,7 @@ public class Connection {
         in = null;
         socket = null;
         thread = null;
+        dispatcher = null;
         xmlTransformer = null;
         this.name = name;
     }
@@ -124,25 +143,55 @@ public class Connection {
         this.messageHandler = messageHandler;
         this.socket = socket;
         this.name = name;
+        this.dispatcher = new MessageDispatcher(name);
 
         out = socket.getOutputStream();
         in = socket.getInputStream();
+        xmlTransformer = createTransformer();
+
+        thread = new ReceivingThread(this, in, name);
+        thread.start();
+    }
+
+    /**
+     * Creates a new <code>Connection</code> over a non-blocking socket
+     * channel.  No thread is started to read from the channel, instead
+     * the caller reads the messages (usually with a selector) and
+     * passes them to {@link #receive}.
+     *
+     * @param channel The non-blocking <code>SocketChannel</code> to
+     *            the client.
+     * @param messageHandler The MessageHandler to call for each message
+     *            received.
+     * @param name The name of the connection.
+     * @throws IOException
+     */
+    public Connection(SocketChannel channel, MessageHandler messageHandler,
+                      String name) throws IOException {
+        this.messageHandler = messageHandler;
+        this.socket = channel.socket();
+        this.name = name;
+        this.dispatcher = new MessageDispatcher(name);
 
-        Transformer myTransformer;
+        out = new ChannelOutputStream(channel);
+        in = null;
+        xmlTransformer = createTransformer();
+
+        thread = new ReceivingThread(this, name);
+    }
+
+    private static Transformer createTransformer() {
         try {
             TransformerFactory factory = TransformerFactory.newInstance();
-            myTransformer = factory.newTransformer();
-            myTransformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            Transformer transformer = factory.newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            return transformer;
         } catch (TransformerException e) {
         	System.err.println("Error: " + e.getMessage());
             e.printStackTrace();
             logger.log(Level.WARNING, "Failed to install transformer!", e);
-            myTransformer = null;
+            return null;
         }
-        xmlTransformer = myTransformer;
-
-        thread = new ReceivingThread(this, in, name);
-        thread.start();
     }
 
     private static Socket createSocket(String host, int port) throws IOException {
@@ -194,6 +243,16 @@ public class Connection {
             thread.askToStop();
         }
 
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+
+        synchronized (this) {
+            if (outboundQueue != null) {
+                outboundQueue.shutdown();
+            }
+        }
+
         if (out != null) {
             out.close();
         }
@@ -221,6 +280,7 @@ public class Connection {
     public void send(Element element) throws IOException {
     	System.out.println("Connection.send()");
     	Log.d("Connection", "Sending " + element.getTagName());
+        if (!element.getTagName().equals("reply")) awaitOutboundQueue();
         // Note - waits for question but does not install a new value.
         // Must hold out for entire call.
         synchronized (out) {
@@ -236,6 +296,24 @@ public class Connection {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("Sending element " + element.getTagName() + "...");
             }
+            if (binaryProtocol) {
+                // The string table entries of the message only count
+                // once the whole message is out.
+                boolean sent = false;
+                try {
+                    codec.write(out, element);
+                    out.write('\n');
+                    out.flush();
+                    sent = true;
+                } catch (RuntimeException e) {
+                    // Nothing is written if the encoding fails.
+                    logger.log(Level.WARNING, "Failed to encode and send element!", e);
+                } finally {
+                    if (sent) codec.commit(); else codec.rollback();
+                    out.notifyAll();
+                }
+                return;
+            }
             try {
                 xmlTransformer.transform(new DOMSource(element), new StreamResult(out));
             } catch (Exception e) {
@@ -252,6 +330,72 @@ public class Connection {
         }
     }
 
+    /**
+     * Serializes a message, for posting to one or more outbound
+     * queues.
+     *
+     * @param element The element (root element in a DOM-parsed XML tree)
+     *            that holds all the information.
+     * @return The message as UTF-8 encoded XML.
+     * @throws IOException If the element can not be serialized.
+     * @see OutboundQueue#post
+     */
+    public static byte[] serialize(Element element) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            createTransformer().transform(new DOMSource(element),
+                                          new StreamResult(bytes));
+        } catch (TransformerException e) {
+            throw new IOException(e.toString());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the queue of the messages posted to be sent.
+     *
+     * @return The <code>OutboundQueue</code> of this connection.
+     */
+    public synchronized OutboundQueue getOutboundQueue() {
+        if (outboundQueue == null) {
+            outboundQueue = new OutboundQueue(this);
+        }
+        return outboundQueue;
+    }
+
+    /**
+     * Waits until the messages posted to the outbound queue have been
+     * sent, so that a message sent directly does not overtake them.
+     */
+    private void awaitOutboundQueue() {
+        OutboundQueue queue;
+        synchronized (this) {
+            queue = outboundQueue;
+        }
+        if (queue != null) queue.awaitEmpty();
+    }
+
+    /**
+     * Sends a serialized message, without waiting for a reply.
+     *
+     * @param message The message, serialized with {@link #serialize}.
+     * @throws IOException If an error occur while sending the message.
+     */
+    void sendSerialized(byte[] message) throws IOException {
+        synchronized (out) {
+            while (currentQuestionID != -1) {
+                try {
+                    out.wait();
+                } catch (InterruptedException e) {
+                }
+            }
+            out.write(message);
+            out.write('\n');
+            out.flush();
+            out.notifyAll();
+        }
+    }
+
     /**
      * Sends a message to the other peer and returns the reply.
      *
@@ -274,8 +418,16 @@ public class Connection {
             throw new IOException("Attempt to 'wait()' the ReceivingThread.");
         } else {
             NetworkReplyObject nro = thread.waitForNetworkReply(networkReplyId);
-            send(questionElement);
-            DOMMessage response = (DOMMessage) nro.getResponse();
+            final boolean nested = dispatcher != null
+                && dispatcher.isHandlerThread();
+            DOMMessage response;
+            if (nested) dispatcher.beginWait();
+            try {
+                send(questionElement);
+                response = (DOMMessage) nro.getResponse();
+            } finally {
+                if (nested) dispatcher.endWait();
+            }
             if (response == null) return null;
             Element rootElement = response.getDocument().getDocumentElement();
             return (Element) rootElement.getFirstChild();
@@ -310,6 +462,7 @@ public class Connection {
      */
     public XMLStreamWriter ask() throws IOException {
     	System.out.println("Connection.ask()");
+        awaitOutboundQueue();
         waitForAndSetNewQuestionId();
         try {
 //            xmlOut = xof.createXMLStreamWriter(out);
@@ -333,10 +486,13 @@ public class Connection {
     private void releaseQuestionId() {
     	System.out.println("Connection.releaseQuestionId()");
         synchronized (out) {
+            // Already released by getReply()?
+            if (questionOwner != Thread.currentThread()) return;
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(toString() + " released question id " + currentQuestionID);
             }
             currentQuestionID = -1;
+            questionOwner = null;
             out.notifyAll();
         }
     }
@@ -359,6 +515,7 @@ public class Connection {
                 }
             }
             currentQuestionID = thread.getNextNetworkReplyId();
+            questionOwner = Thread.currentThread();
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(toString() + " installed new question id " + currentQuestionID);
             }
@@ -407,7 +564,10 @@ public class Connection {
     }
 
     /**
-     * Gets the reply being received after sending a question.
+     * Gets the reply being received after sending a question.  The
+     * question id is released as soon as the question has been
+     * written, so other messages, and in particular replies, can be
+     * sent while this waits.
      *
      * @return An <code>XMLStreamReader</code> for reading the incoming data.
      * @throws IOException if thrown by the underlying network stream.
@@ -415,6 +575,9 @@ public class Connection {
      */
     public XMLStreamReader getReply() throws IOException {
     	System.out.println("Connection.getReply()");
+        final boolean nested = dispatcher != null
+            && dispatcher.isHandlerThread();
+        if (nested) dispatcher.beginWait();
         try {
             NetworkReplyObject nro = thread.waitForStreamedNetworkReply(currentQuestionID);
             xmlOut.writeEndElement();
@@ -422,6 +585,7 @@ public class Connection {
             xmlOut.flush();
             xmlOut.close();
             xmlOut = null;
+            releaseQuestionId();
 
             XMLStreamReader in = (XMLStreamReader) nro.getResponse();
             in.nextTag();
@@ -433,6 +597,8 @@ public class Connection {
         	System.out.println("Failed to get reply");
             logger.log(Level.WARNING, toString() + " failed to get reply (" + currentQuestionID + ")", e);
             throw new IOException(e.toString());
+        } finally {
+            if (nested) dispatcher.endWait();
         }
     }
 
@@ -452,7 +618,7 @@ public class Connection {
                 }
                 thread.unlock();
                 in.close();
-            } else {
+            } else if (questionOwner == Thread.currentThread()) {
                 xmlOut.writeCharacters("\n");
                 xmlOut.flush();
                 xmlOut.close();
@@ -504,13 +670,152 @@ public class Connection {
         return messageHandler;
     }
 
+    /**
+     * Sets whether DOM messages are sent in the binary encoding.  This
+     * must only be set once the other side is known to understand it.
+     * Streamed messages are always sent as XML, and both encodings
+     * are always accepted.
+     *
+     * @param binaryProtocol True to send DOM messages in binary.
+     * @see BinaryMessageCodec
+     */
+    public void setBinaryProtocol(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
+
+    /**
+     * Are DOM messages sent in the binary encoding?
+     *
+     * @return True if DOM messages are sent in binary.
+     */
+    public boolean isBinaryProtocol() {
+        return binaryProtocol;
+    }
+
+    /**
+     * Decodes a binary message received on this connection.  Binary
+     * messages must be decoded in the order they were received.
+     *
+     * @param data The message, without the end of message token.
+     * @return The root <code>Element</code> of the message.
+     * @throws IOException if the message is malformed.
+     */
+    Element readBinary(byte[] data) throws IOException {
+        return codec.read(data);
+    }
+
+    /**
+     * Gets the dispatcher running the message handlers.
+     *
+     * @return The <code>MessageDispatcher</code>, or null for a
+     *     connection without a socket.
+     */
+    public MessageDispatcher getMessageDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Receives a complete message read from the channel of this
+     * connection, without the end of message token.
+     *
+     * @param data The message.
+     * @see #Connection(SocketChannel, MessageHandler, String)
+     */
+    public void receive(byte[] data) {
+        try {
+            thread.receive(data);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, toString() + " failed to receive message", e);
+        }
+    }
+
+    /**
+     * Notes that the channel of this connection has been closed by
+     * the other side or has failed.
+     *
+     * @see #Connection(SocketChannel, MessageHandler, String)
+     */
+    public void receiveEnd() {
+        thread.receiveEnd();
+    }
+
+    /**
+     * Queues a received message to be handled in order.
+     *
+     * @param data The message.
+     * @param networkReplyId The reply identifier if the message is a
+     *     question, otherwise null.
+     */
+    void dispatchMessage(final byte[] data, String networkReplyId) {
+        Runnable task = new Runnable() {
+                public void run() {
+                    handle(new BufferedInputStream(new ByteArrayInputStream(data)),
+                           false);
+                }
+            };
+        if (!dispatcher.dispatch(task, networkReplyId != null)
+            && networkReplyId != null) {
+            rejectQuestion(networkReplyId);
+        }
+    }
+
+    /**
+     * Queues a received message that has already been parsed to be
+     * handled in order.
+     *
+     * @param element The root <code>Element</code> of the message.
+     */
+    void dispatchElement(Element element) {
+        final boolean question = element.getTagName().equals("question");
+        final String networkReplyId = (question)
+            ? element.getAttribute("networkReplyId")
+            : null;
+        if (!dispatcher.dispatch(createHandler(element, question,
+                                               networkReplyId), question)
+            && question) {
+            rejectQuestion(networkReplyId);
+        }
+    }
+
+    /**
+     * Replies to a question that can not be handled, so that the
+     * other side is not left waiting.
+     *
+     * @param networkReplyId The identifier of the question.
+     */
+    private void rejectQuestion(String networkReplyId) {
+        Element reply = DOMMessage.createNewRootElement("reply");
+        reply.setAttribute("networkReplyId", networkReplyId);
+        reply.appendChild(reply.getOwnerDocument()
+            .importNode(DOMMessage.createError("server.reject",
+                    "Too many messages waiting."), true));
+        try {
+            send(reply);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not reject question", e);
+        }
+    }
+
     /**
      * Handles a message using the registered <code>MessageHandler</code>.
+     * DOM messages are handled on the shared message handler pool, in
+     * the order they were received.
      *
      * @param in The stream containing the message.
      */
     public void handleAndSendReply(final BufferedInputStream in) {
     	System.out.println("Connection.handleAndSendReply()");
+        handle(in, true);
+    }
+
+    /**
+     * Handles a message using the registered <code>MessageHandler</code>.
+     *
+     * @param in The stream containing the message.
+     * @param dispatch If true, DOM messages are queued on the message
+     *     dispatcher, otherwise they are handled on this thread.
+     */
+    private void handle(final BufferedInputStream in, boolean dispatch) {
         try {
             in.mark(200);
             final XMLInputFactory xif = XMLInputFactory.newInstance();
@@ -547,45 +852,14 @@ public class Connection {
                 in.reset();
                 final DOMMessage msg = new DOMMessage(in);
 
-                final Connection connection = this;
-                Thread t = new Thread(msg.getType()) {
-                    @Override
-                    public void run() {
-                        try {
-                            Element element = msg.getDocument().getDocumentElement();
-
-                            if (question) {
-                                Element reply = messageHandler.handle(connection, (Element) element.getFirstChild());
-
-                                if (reply == null) {
-                                    reply = DOMMessage.createNewRootElement("reply");
-                                    reply.setAttribute("networkReplyId", networkReplyId);
-                                    logger.finest("reply == null");
-                                } else {
-                                    Element replyHeader = reply.getOwnerDocument().createElement("reply");
-                                    replyHeader.setAttribute("networkReplyId", networkReplyId);
-                                    replyHeader.appendChild(reply);
-                                    reply = replyHeader;
-                                }
-
-                                connection.send(reply);
-                            } else {
-                                Element reply = messageHandler.handle(connection, element);
-
-                                if (reply != null) {
-                                    connection.send(reply);
-                                }
-                            }
-                        } catch (Exception e) {
-                        	System.err.println("Error: " + e.getMessage());
-                            e.printStackTrace();
-                            logger.log(Level.WARNING, "Message handler failed!", e);
-                            logger.warning(msg.getDocument().getDocumentElement().toString());
-                        }
-                    }
-                };
-                t.setName(name + "MessageHandler:" + t.getName());
-                t.start();
+                Runnable handler = createHandler(msg.getDocument()
+                    .getDocumentElement(), question, networkReplyId);
+                if (!dispatch) {
+                    handler.run();
+                } else if (!dispatcher.dispatch(handler, question)
+                    && question) {
+                    rejectQuestion(networkReplyId);
+                }
             }
         } catch (Exception e) {
         	System.err.println("Error: " + e.getMessage());
@@ -594,6 +868,54 @@ public class Connection {
         }
     }
 
+    /**
+     * Creates a task that handles a DOM message with the registered
+     * <code>MessageHandler</code> and sends the reply.
+     *
+     * @param element The root <code>Element</code> of the message.
+     * @param question True if the message is a question.
+     * @param networkReplyId The identifier to reply to a question with.
+     * @return The handler task.
+     */
+    private Runnable createHandler(final Element element,
+                                   final boolean question,
+                                   final String networkReplyId) {
+        final Connection connection = this;
+        return new Runnable() {
+            public void run() {
+                try {
+                    if (question) {
+                        Element reply = messageHandler.handle(connection, (Element) element.getFirstChild());
+
+                        if (reply == null) {
+                            reply = DOMMessage.createNewRootElement("reply");
+                            reply.setAttribute("networkReplyId", networkReplyId);
+                            logger.finest("reply == null");
+                        } else {
+                            Element replyHeader = reply.getOwnerDocument().createElement("reply");
+                            replyHeader.setAttribute("networkReplyId", networkReplyId);
+                            replyHeader.appendChild(reply);
+                            reply = replyHeader;
+                        }
+
+                        connection.send(reply);
+                    } else {
+                        Element reply = messageHandler.handle(connection, element);
+
+                        if (reply != null) {
+                            connection.send(reply);
+                        }
+                    }
+                } catch (Exception e) {
+                	System.err.println("Error: " + e.getMessage());
+                    e.printStackTrace();
+                    logger.log(Level.WARNING, "Message handler failed!", e);
+                    logger.warning(element.toString());
+                }
+            }
+        };
+    }
+
     /**
      * Handles a message using the registered <code>MessageHandler</code>.
      *
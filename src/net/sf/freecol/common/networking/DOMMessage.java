@@ -47,6 +47,8 @@ import net.sf.freecol.FreeCol;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -405,6 +407,41 @@ public class DOMMessage {
         return null;
     }
 
+    /**
+     * Writes a DOM node and its descendants to a stream.
+     * Only elements, attributes, text and comments are written.
+     *
+     * @param out The <code>XMLStreamWriter</code> to write to.
+     * @param node The <code>Node</code> to write.
+     * @throws XMLStreamException if there is a problem writing.
+     */
+    public static void writeNode(XMLStreamWriter out, Node node)
+        throws XMLStreamException {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            out.writeStartElement(node.getNodeName());
+            NamedNodeMap nnm = node.getAttributes();
+            for (int i = 0; i < nnm.getLength(); i++) {
+                Node a = nnm.item(i);
+                out.writeAttribute(a.getNodeName(), a.getNodeValue());
+            }
+            for (Node n = node.getFirstChild(); n != null;
+                 n = n.getNextSibling()) {
+                writeNode(out, n);
+            }
+            out.writeEndElement();
+            break;
+        case Node.TEXT_NODE: case Node.CDATA_SECTION_NODE:
+            out.writeCharacters(node.getNodeValue());
+            break;
+        case Node.COMMENT_NODE:
+            out.writeComment(node.getNodeValue());
+            break;
+        default:
+            break;
+        }
+    }
+
     /**
      * Convert an element to a string.
      *
@@ -0,0 +1,322 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.networking;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.freecol.FreeCol;
+
+
+/**
+ * Runs the message handlers of a connection.
+ *
+ * The handlers of all connections share one bounded pool of worker
+ * threads, but the messages of each connection are queued and handled
+ * one at a time in the order they arrived.  A connection can have at
+ * most {@link FreeCol#getMessageQueueDepth} messages waiting; further
+ * messages are rejected and counted.
+ *
+ * <br><br>
+ *
+ * A handler may ask the other side a question on its own connection
+ * (with {@link Connection#ask}), and the other side may ask a nested
+ * question back before replying.  So that this does not deadlock,
+ * questions that arrive while a handler of the connection waits for
+ * a reply are not queued behind it, but handled at once on their own
+ * thread.  Replies never pass through the dispatcher.  Other messages
+ * keep their order, so a handler must never wait for a later plain
+ * message on its own connection.
+ */
+public class MessageDispatcher {
+
+    private static final Logger logger = Logger.getLogger(MessageDispatcher.class.getName());
+
+    /** The worker pool shared by all connections, created on first use. */
+    private static ExecutorService pool = null;
+
+    /** The number of messages rejected by all dispatchers. */
+    private static long totalRejected = 0;
+
+    /** The dispatcher whose handler the current thread is running. */
+    private static final ThreadLocal<MessageDispatcher> current
+        = new ThreadLocal<MessageDispatcher>();
+
+    /** The name of the connection, used in log messages. */
+    private final String name;
+
+    /** The messages waiting to be handled. */
+    private final LinkedList<Task> queue = new LinkedList<Task>();
+
+    /** Is a message of this connection being handled? */
+    private boolean running = false;
+
+    /** Has this dispatcher been shut down? */
+    private boolean shutdown = false;
+
+    /** The number of messages rejected by this dispatcher. */
+    private long rejected = 0;
+
+    /** The number of handlers waiting for a reply on this connection. */
+    private int waiting = 0;
+
+    /** A queued handler. */
+    private static class Task {
+
+        /** The handler to run. */
+        public final Runnable runnable;
+
+        /** Is the handler for a question? */
+        public final boolean question;
+
+
+        public Task(Runnable runnable, boolean question) {
+            this.runnable = runnable;
+            this.question = question;
+        }
+    }
+
+
+    /**
+     * Creates a new <code>MessageDispatcher</code>.
+     *
+     * @param name The name of the connection to dispatch for.
+     */
+    public MessageDispatcher(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Queues a message handler to run after those already queued.
+     *
+     * @param task The handler to run.
+     * @return True if the handler was queued, false if it was
+     *     rejected because the queue is full or the dispatcher has
+     *     been shut down.
+     */
+    public boolean dispatch(Runnable task) {
+        return dispatch(task, false);
+    }
+
+    /**
+     * Queues a message handler to run after those already queued, or
+     * runs it at once if it handles a question while another handler
+     * waits for a reply.
+     *
+     * @param task The handler to run.
+     * @param question True if the handler is for a question.
+     * @return True if the handler was queued, false if it was
+     *     rejected because the queue is full or the dispatcher has
+     *     been shut down.
+     */
+    public boolean dispatch(Runnable task, boolean question) {
+        synchronized (queue) {
+            if (shutdown || queue.size() >= FreeCol.getMessageQueueDepth()) {
+                rejected++;
+                synchronized (MessageDispatcher.class) {
+                    totalRejected++;
+                }
+                logger.warning(name + " rejected message, "
+                    + ((shutdown) ? "shut down" : "queue full")
+                    + " (" + rejected + " rejected)");
+                return false;
+            }
+            if (question && waiting > 0) {
+                runNested(task);
+                return true;
+            }
+            queue.add(new Task(task, question));
+            if (running) return true;
+            running = true;
+        }
+        getPool().execute(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            });
+        return true;
+    }
+
+    /**
+     * Is the current thread running a handler of this dispatcher?
+     *
+     * @return True if called from one of this dispatcher's handlers.
+     */
+    public boolean isHandlerThread() {
+        return current.get() == this;
+    }
+
+    /**
+     * Notes that a handler is about to wait for a reply on this
+     * connection.  Questions queued until now, and those arriving
+     * until {@link #endWait}, are handled at once, as the other side
+     * may need their replies before it can reply itself.
+     */
+    public void beginWait() {
+        synchronized (queue) {
+            waiting++;
+            Iterator<Task> it = queue.iterator();
+            while (it.hasNext()) {
+                Task t = it.next();
+                if (t.question) {
+                    it.remove();
+                    runNested(t.runnable);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notes that a handler has stopped waiting for a reply.
+     */
+    public void endWait() {
+        synchronized (queue) {
+            waiting--;
+        }
+    }
+
+    /**
+     * Runs a handler of a nested question on its own thread, outside
+     * the bounded pool, whose threads may all be waiting.
+     *
+     * @param task The handler to run.
+     */
+    private void runNested(final Runnable task) {
+        Thread t = new Thread(name + "NestedQuestion") {
+                public void run() {
+                    runTask(task);
+                }
+            };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Runs the queued handlers until the queue is empty.
+     */
+    private void drain() {
+        for (;;) {
+            Task task;
+            synchronized (queue) {
+                task = queue.poll();
+                if (task == null) {
+                    running = false;
+                    return;
+                }
+            }
+            runTask(task.runnable);
+        }
+    }
+
+    /**
+     * Runs one handler, noting that this thread runs it.
+     *
+     * @param task The handler to run.
+     */
+    private void runTask(Runnable task) {
+        current.set(this);
+        try {
+            task.run();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, name + " message handler failed", e);
+        } finally {
+            current.remove();
+        }
+    }
+
+    /**
+     * Shuts down this dispatcher, dropping any queued messages.  A
+     * handler that is already running is allowed to finish.
+     */
+    public void shutdown() {
+        synchronized (queue) {
+            shutdown = true;
+            if (!queue.isEmpty()) {
+                logger.info(name + " dropped " + queue.size()
+                    + " queued messages on shutdown");
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of messages waiting to be handled.
+     *
+     * @return The queue length.
+     */
+    public int getQueueLength() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Gets the number of messages rejected by this dispatcher.
+     *
+     * @return The number of rejected messages.
+     */
+    public long getRejected() {
+        synchronized (queue) {
+            return rejected;
+        }
+    }
+
+    /**
+     * Gets the number of messages rejected by all dispatchers.
+     *
+     * @return The total number of rejected messages.
+     */
+    public static synchronized long getTotalRejected() {
+        return totalRejected;
+    }
+
+    /**
+     * Gets the shared worker pool.
+     *
+     * @return The <code>ExecutorService</code> running the handlers.
+     */
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            final int threads = Math.max(1, FreeCol.getMessageHandlerThreads());
+            ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int count = 0;
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "MessageHandler-"
+                            + (++count));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            tpe.allowCoreThreadTimeOut(true);
+            pool = tpe;
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.networking;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.freecol.FreeCol;
+
+
+/**
+ * The messages waiting to be sent to the other side of a connection,
+ * with the thread that sends them.
+ *
+ * <br><br>
+ *
+ * Each message is sent as a plain message, as with
+ * {@link Connection#send}, so no reply is waited for and the poster
+ * does not wait either.  The messages are serialized before being
+ * posted, so that one message can be shared by all the queues it is
+ * posted to.
+ *
+ * <br><br>
+ *
+ * Other messages sent on the connection, apart from replies, wait
+ * until the queue is empty, so that the other side receives messages
+ * in the order they were sent or posted.
+ *
+ * <br><br>
+ *
+ * By default the queue grows as needed.  If slow consumers are
+ * evicted (see {@link FreeCol#getEvictSlowConsumers} and
+ * {@link #setEvictSlowConsumer}), the other side is disconnected
+ * once more than {@link FreeCol#getOutboundQueueDepth} messages are
+ * waiting.
+ */
+public final class OutboundQueue {
+
+    private static final Logger logger = Logger.getLogger(OutboundQueue.class.getName());
+
+    /** The connection to send with. */
+    private final Connection connection;
+
+    /** The serialized messages waiting to be sent. */
+    private final LinkedList<byte[]> queue = new LinkedList<byte[]>();
+
+    /** The thread sending the messages, started on first use. */
+    private Thread sender = null;
+
+    /** Is a message being written? */
+    private boolean inFlight = false;
+
+    /** Has this queue been shut down? */
+    private boolean shutdown = false;
+
+    /** Is the other side disconnected when too many messages wait? */
+    private boolean evictSlowConsumer = FreeCol.getEvictSlowConsumers();
+
+    /** Has the other side been found to be too slow? */
+    private boolean slow = false;
+
+    /** Statistics: messages sent, and the time taken to write them. */
+    private long sent = 0;
+    private long lastSendTime = 0;
+    private long maximumSendTime = 0;
+    private long totalSendTime = 0;
+
+
+    /**
+     * Creates a new <code>OutboundQueue</code>.
+     *
+     * @param connection The <code>Connection</code> to send with.
+     */
+    OutboundQueue(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Sets whether the other side is disconnected when more than
+     * {@link FreeCol#getOutboundQueueDepth} messages are waiting.
+     * The default is {@link FreeCol#getEvictSlowConsumers}.
+     *
+     * @param evict True to disconnect slow consumers.
+     */
+    public void setEvictSlowConsumer(boolean evict) {
+        synchronized (queue) {
+            evictSlowConsumer = evict;
+        }
+    }
+
+    /**
+     * Posts a message to be sent after those already queued.
+     *
+     * @param message The message, serialized with
+     *     {@link Connection#serialize}.
+     * @return True if the message was queued, false if the queue has
+     *     been shut down or the other side is too slow.
+     */
+    public boolean post(byte[] message) {
+        synchronized (queue) {
+            if (shutdown || slow) return false;
+            if (evictSlowConsumer
+                && queue.size() >= FreeCol.getOutboundQueueDepth()) {
+                logger.warning(connection + " has " + queue.size()
+                    + " messages waiting, disconnecting.");
+                slow = true;
+            } else {
+                queue.add(message);
+            }
+            if (sender == null) {
+                sender = new Thread(connection.getName() + "Sender - "
+                                    + connection) {
+                        public void run() {
+                            sendMessages();
+                        }
+                    };
+                sender.setDaemon(true);
+                sender.start();
+            }
+            queue.notifyAll();
+            return !slow;
+        }
+    }
+
+    /**
+     * Sends the queued messages until shut down.
+     */
+    private void sendMessages() {
+        for (;;) {
+            byte[] message;
+            synchronized (queue) {
+                while (queue.isEmpty() && !shutdown && !slow) {
+                    try {
+                        queue.wait();
+                    } catch (InterruptedException e) {}
+                }
+                if (shutdown) return;
+                if (slow) break;
+                message = queue.removeFirst();
+                inFlight = true;
+            }
+            final long start = System.currentTimeMillis();
+            try {
+                connection.sendSerialized(message);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not send to " + connection, e);
+                synchronized (queue) {
+                    inFlight = false;
+                    queue.notifyAll();
+                }
+                continue;
+            }
+            final long time = System.currentTimeMillis() - start;
+            synchronized (queue) {
+                inFlight = false;
+                queue.notifyAll();
+                sent++;
+                lastSendTime = time;
+                totalSendTime += time;
+                if (time > maximumSendTime) maximumSendTime = time;
+            }
+        }
+        shutdown();
+        connection.receiveEnd();
+    }
+
+    /**
+     * Waits until all the posted messages have been sent, or the
+     * queue is shut down.  Does not wait when called by
+     * the sending thread.
+     */
+    void awaitEmpty() {
+        synchronized (queue) {
+            if (Thread.currentThread() == sender) return;
+            while ((inFlight || !queue.isEmpty()) && !shutdown && !slow) {
+                try {
+                    queue.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Shuts down this queue, dropping any waiting messages.
+     */
+    public void shutdown() {
+        synchronized (queue) {
+            shutdown = true;
+            queue.clear();
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * Gets the number of messages waiting to be sent.
+     *
+     * @return The queue length.
+     */
+    public int getQueueLength() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Gets the number of messages sent.
+     *
+     * @return The number of messages sent.
+     */
+    public long getSent() {
+        synchronized (queue) {
+            return sent;
+        }
+    }
+
+    /**
+     * Gets the time taken to write the last message.
+     *
+     * @return The send time of the last message, in ms.
+     */
+    public long getLastSendTime() {
+        synchronized (queue) {
+            return lastSendTime;
+        }
+    }
+
+    /**
+     * Gets the longest time taken to write a message.
+     *
+     * @return The maximum send time, in ms.
+     */
+    public long getMaximumSendTime() {
+        synchronized (queue) {
+            return maximumSendTime;
+        }
+    }
+
+    /**
+     * Gets the average time taken to write a message.
+     *
+     * @return The average send time, in ms.
+     */
+    public long getAverageSendTime() {
+        synchronized (queue) {
+            return (sent == 0) ? 0 : totalSendTime / sent;
+        }
+    }
+}
@@ -20,6 +20,8 @@
 package net.sf.freecol.common.networking;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
@@ -64,6 +66,11 @@ final class ReceivingThread extends Thread {
 
     private boolean locked = false;
 
+    /** Guards <code>locked</code>, notified when it is cleared. */
+    private final Object lock = new Object();
+
+    private final XMLInputFactory xif = XMLInputFactory.newInstance();
+
 	private String threadName;
 
 
@@ -88,6 +95,28 @@ final class ReceivingThread extends Thread {
                 new HashMap<Integer, NetworkReplyObject>());
     }
 
+    /**
+     * Creates a receiver for a connection whose messages are read
+     * elsewhere (by a selector) and passed in with {@link #receive}.
+     * The thread is not started.
+     *
+     * @param connection The <code>Connection</code> this
+     *            <code>ReceivingThread</code> belongs to.
+     * @param threadName A prefix for the thread name.
+     */
+    ReceivingThread(Connection connection, String threadName) {
+        super(threadName + "Receiver - " + connection.toString());
+
+        this.threadName = threadName;
+        this.connection = connection;
+        this.in = null;
+
+        shouldRun = true;
+
+        threadsWaitingForNetworkReply = Collections.synchronizedMap(
+                new HashMap<Integer, NetworkReplyObject>());
+    }
+
     /**
      * Gets the next <code>networkReplyId</code> that will be used when
      * identifing a network message.
@@ -167,7 +196,105 @@ final class ReceivingThread extends Thread {
     }
 
     public void unlock() {
-        locked = false;
+        synchronized (lock) {
+            locked = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Handles one complete message read by a selector.  Replies are
+     * passed to the waiting threads, other messages to the connection
+     * message dispatcher, so this does not block.
+     *
+     * @param data The message, without the end of message token.
+     * @exception IOException if the message can not be read.
+     * @exception SAXException if the message can not be parsed.
+     * @exception XMLStreamException if the message can not be parsed.
+     */
+    void receive(byte[] data)
+        throws IOException, SAXException, XMLStreamException {
+        if (!shouldRun()) return;
+        if (BinaryMessageCodec.isBinary(data)) {
+            receiveBinary(data);
+            return;
+        }
+        XMLStreamReader xmlIn = xif.createXMLStreamReader(
+            new ByteArrayInputStream(data));
+        xmlIn.nextTag();
+        if (xmlIn.getLocalName().equals("reply")) {
+            String networkReplyID =
+                    xmlIn.getAttributeValue(null, "networkReplyId");
+            NetworkReplyObject nro = threadsWaitingForNetworkReply.remove(
+                    Integer.valueOf(networkReplyID));
+            if (nro == null) {
+                xmlIn.close();
+                logger.warning("Could not find networkReplyId="
+                        + networkReplyID);
+            } else if (nro.isStreamed()) {
+                // The reader is over a private copy of the message,
+                // so there is no need to lock out further messages.
+                nro.setResponse(xmlIn);
+            } else {
+                xmlIn.close();
+                nro.setResponse(new DOMMessage(new ByteArrayInputStream(data)));
+            }
+        } else {
+            boolean disconnectMessage = xmlIn.getLocalName().equals("disconnect");
+            String networkReplyId = (xmlIn.getLocalName().equals("question"))
+                ? xmlIn.getAttributeValue(null, "networkReplyId")
+                : null;
+            xmlIn.close();
+            connection.dispatchMessage(data, networkReplyId);
+            if (disconnectMessage) askToStop();
+        }
+    }
+
+    /**
+     * Handles one complete binary message.
+     *
+     * @param data The message, without the end of message token.
+     * @exception IOException if the message can not be read.
+     * @exception XMLStreamException if a streamed reply can not be
+     *     created.
+     */
+    private void receiveBinary(byte[] data)
+        throws IOException, XMLStreamException {
+        Element element = connection.readBinary(data);
+        if (element.getTagName().equals("reply")) {
+            String networkReplyID = element.getAttribute("networkReplyId");
+            NetworkReplyObject nro = threadsWaitingForNetworkReply.remove(
+                    Integer.valueOf(networkReplyID));
+            if (nro == null) {
+                logger.warning("Could not find networkReplyId="
+                        + networkReplyID);
+            } else if (nro.isStreamed()) {
+                // Rare, the streamed questions are usually answered
+                // in XML.  Hand over the reply as XML.
+                String xml = DOMMessage.elementToString(element);
+                XMLStreamReader xmlIn = xif.createXMLStreamReader(
+                    new ByteArrayInputStream(xml.getBytes("UTF-8")));
+                xmlIn.nextTag();
+                nro.setResponse(xmlIn);
+            } else {
+                nro.setResponse(new DOMMessage(element.getOwnerDocument()));
+            }
+        } else {
+            boolean disconnectMessage = element.getTagName().equals("disconnect");
+            connection.dispatchElement(element);
+            if (disconnectMessage) askToStop();
+        }
+    }
+
+    /**
+     * The connection has been closed by the other side or has
+     * failed, tell the message handler.
+     */
+    void receiveEnd() {
+        if (shouldRun()) {
+            askToStop();
+            disconnect();
+        }
     }
 
 
@@ -180,12 +307,13 @@ final class ReceivingThread extends Thread {
      * @exception XMLStreamException if a problem occured during parsing.
      */
     private void listen() throws IOException, SAXException, XMLStreamException {
-        while (locked) {
-            try {
-                // TODO: Fix this sleep(1) is not a solution
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                // Do nothing here.
+        synchronized (lock) {
+            while (locked && shouldRun()) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    // Do nothing here.
+                }
             }
         }
 
@@ -197,7 +325,17 @@ final class ReceivingThread extends Thread {
         bis.mark(LOOK_AHEAD);
         if (!shouldRun()) return;
 
-        XMLInputFactory xif = XMLInputFactory.newInstance();
+        if (bis.read() == BinaryMessageCodec.MARKER) {
+            bis.reset();
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = bis.read(buf)) > 0) message.write(buf, 0, n);
+            receive(message.toByteArray());
+            return;
+        }
+        bis.reset();
+
         xmlIn = xif.createXMLStreamReader(bis);
         xmlIn.nextTag();
 
@@ -213,7 +351,9 @@ final class ReceivingThread extends Thread {
 
             if (nro != null) {
                 if (nro.isStreamed()) {
-                    locked = true;
+                    synchronized (lock) {
+                        locked = true;
+                    }
                     nro.setResponse(xmlIn);
                 } else {
                     xmlIn.close();
@@ -255,10 +395,15 @@ final class ReceivingThread extends Thread {
     /**
      * Tells this thread that it doesn't need to do any more work.
      */
-    synchronized void askToStop() {
-        shouldRun = false;
-        for (NetworkReplyObject o : threadsWaitingForNetworkReply.values()) {
-            o.interrupt();
+    void askToStop() {
+        synchronized (this) {
+            shouldRun = false;
+            for (NetworkReplyObject o : threadsWaitingForNetworkReply.values()) {
+                o.interrupt();
+            }
+        }
+        synchronized (lock) {
+            lock.notifyAll();
         }
     }
 
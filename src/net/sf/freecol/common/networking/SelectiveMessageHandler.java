@@ -0,0 +1,38 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.networking;
+
+
+/**
+ * A message handler that declares which messages it does nothing
+ * with.  A sender in the same process can then avoid building those
+ * messages at all.
+ */
+public interface SelectiveMessageHandler extends MessageHandler {
+
+    /**
+     * Checks if the message handler ignores the given message.
+     *
+     * @param tagName The tag name of the message to check.
+     * @return True if a message with this tag name would be ignored.
+     */
+    public boolean ignores(String tagName);
+
+}
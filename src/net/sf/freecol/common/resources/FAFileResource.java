@@ -20,8 +20,8 @@
 package net.sf.freecol.common.resources;
 
 import java.net.URI;
-import java.net.URL;
 
+import net.sf.freecol.common.io.ArchiveIndex;
 
 
 /**
@@ -47,8 +47,7 @@ public class FAFileResource extends Resource {
      */
     FAFileResource(URI resourceLocator) throws Exception {
         super(resourceLocator);
-        URL url = resourceLocator.toURL();
-        FAFile = new FAFile(url.openStream());
+        FAFile = new FAFile(ArchiveIndex.openStream(resourceLocator));
     }
 
     /**
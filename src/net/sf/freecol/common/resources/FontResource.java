@@ -21,11 +21,12 @@ package net.sf.freecol.common.resources;
 
 import java.lang.reflect.Method;
 import java.net.URI;
-import java.net.URL;
 import java.util.logging.Logger;
 
 import org.freecolandroid.repackaged.java.awt.Font;
 
+import net.sf.freecol.common.io.ArchiveIndex;
+
 
 /**
  * A <code>Resource</code> wrapping a <code>Font</code>.
@@ -57,8 +58,8 @@ public class FontResource extends Resource {
         font = null;
         if (resourceLocator.getPath() != null
             && resourceLocator.getPath().endsWith(".ttf")) {
-            URL url = resourceLocator.toURL();
-            font = Font.createFont(Font.TRUETYPE_FONT, url.openStream());
+            font = Font.createFont(Font.TRUETYPE_FONT,
+                ArchiveIndex.openStream(resourceLocator));
         } else {
             String name = resourceLocator.getSchemeSpecificPart();
             font = Font.decode(name.substring(SCHEME.length()));
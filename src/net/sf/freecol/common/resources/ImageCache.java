@@ -0,0 +1,252 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.resources;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Logger;
+
+import org.freecolandroid.repackaged.java.awt.Image;
+
+import net.sf.freecol.FreeCol;
+
+
+/**
+ * The images loaded by all the {@link ImageResource}s.
+ *
+ * Each image is kept under a key naming its resource, its variant
+ * (the original, a scaled copy or a grayscale copy) and its size.
+ * The cache holds at most {@link FreeCol#getImageCacheBudget} bytes
+ * of pixels, counting four bytes a pixel, and evicts the least
+ * recently used images beyond that.  The images of a pinned resource
+ * are never evicted.  An evicted original is loaded again from the
+ * resource locator on the next use, and an evicted copy is derived
+ * again from the original.
+ *
+ * The statistics are public so that the client can report them.
+ */
+public final class ImageCache {
+
+    private static final Logger logger = Logger.getLogger(ImageCache.class.getName());
+
+    /** The variants of an image. */
+    static final int ORIGINAL = 0, SCALED = 1, GRAYSCALE = 2;
+
+    /** The key of a cached image. */
+    static final class Key {
+
+        private final ImageResource resource;
+
+        private final int variant, width, height;
+
+        Key(ImageResource resource, int variant, int width, int height) {
+            this.resource = resource;
+            this.variant = variant;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return resource == k.resource && variant == k.variant
+                && width == k.width && height == k.height;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = System.identityHashCode(resource);
+            h = 31 * h + variant;
+            h = 31 * h + width;
+            return 31 * h + height;
+        }
+    }
+
+    /** A cached image and its size in bytes. */
+    private static final class Entry {
+
+        private final Image image;
+
+        private final long bytes;
+
+        Entry(Image image, long bytes) {
+            this.image = image;
+            this.bytes = bytes;
+        }
+    }
+
+    /** The cached images, least recently used first. */
+    private static final LinkedHashMap<Key, Entry> entries
+        = new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+
+    /** The bytes held by the cached images. */
+    private static long residentBytes = 0L;
+
+    /** Statistics. */
+    private static long hits = 0L, misses = 0L, evictions = 0L;
+
+
+    private ImageCache() {
+        // Hide constructor
+    }
+
+    /**
+     * Gets a cached image.
+     *
+     * @param key The <code>Key</code> of the image.
+     * @return The <code>Image</code>, or null if not cached.
+     */
+    static synchronized Image get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.image;
+    }
+
+    /**
+     * Adds an image to the cache, evicting others if the budget is
+     * exceeded.
+     *
+     * @param key The <code>Key</code> of the image.
+     * @param image The <code>Image</code> to add.
+     */
+    static synchronized void put(Key key, Image image) {
+        Entry entry = new Entry(image, getBytes(image));
+        Entry old = entries.put(key, entry);
+        if (old != null) residentBytes -= old.bytes;
+        residentBytes += entry.bytes;
+        trim(FreeCol.getImageCacheBudget());
+    }
+
+    /**
+     * Is there room in the budget for more images?
+     *
+     * @return True if less than the budget is used.
+     */
+    static synchronized boolean hasRoom() {
+        return residentBytes < FreeCol.getImageCacheBudget();
+    }
+
+    /**
+     * Evicts the least recently used unpinned images until at most
+     * a given number of bytes is held.
+     *
+     * @param budget The number of bytes to keep at most.
+     */
+    static synchronized void trim(long budget) {
+        Iterator<java.util.Map.Entry<Key, Entry>> it
+            = entries.entrySet().iterator();
+        while (residentBytes > budget && it.hasNext()) {
+            java.util.Map.Entry<Key, Entry> e = it.next();
+            if (e.getKey().resource.isPinned()) continue;
+            it.remove();
+            residentBytes -= e.getValue().bytes;
+            evictions++;
+        }
+        if (residentBytes > budget) {
+            logger.finest("Image cache over budget with pinned images: "
+                + residentBytes + " bytes");
+        }
+    }
+
+    /**
+     * Counts the cached images of a resource.
+     *
+     * @param resource The <code>ImageResource</code> to count.
+     * @param variant The variant to count.
+     * @return The number of cached images.
+     */
+    static synchronized int count(ImageResource resource, int variant) {
+        int n = 0;
+        for (Key key : entries.keySet()) {
+            if (key.resource == resource && key.variant == variant) n++;
+        }
+        return n;
+    }
+
+    /**
+     * Gets the number of bytes an image takes.
+     *
+     * @param image The <code>Image</code> to check.
+     * @return The number of bytes of pixels in the image.
+     */
+    private static long getBytes(Image image) {
+        return 4L * image.getWidth(null) * image.getHeight(null);
+    }
+
+    /**
+     * Gets the number of bytes held by the cached images.
+     *
+     * @return The resident bytes.
+     */
+    public static synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Gets the number of cached images.
+     *
+     * @return The number of images.
+     */
+    public static synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of lookups that found an image.
+     *
+     * @return The number of hits.
+     */
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that did not find an image.
+     *
+     * @return The number of misses.
+     */
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the fraction of lookups that found an image.
+     *
+     * @return The hit rate, from 0 to 1.
+     */
+    public static synchronized double getHitRate() {
+        long total = hits + misses;
+        return (total == 0) ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * Gets the number of images evicted to stay within the budget.
+     *
+     * @return The number of evictions.
+     */
+    public static synchronized long getEvictions() {
+        return evictions;
+    }
+}
@@ -22,8 +22,6 @@ package net.sf.freecol.common.resources;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Logger;
 
 import org.freecolandroid.repackaged.java.awt.Component;
@@ -32,19 +30,35 @@ import org.freecolandroid.repackaged.java.awt.Image;
 import org.freecolandroid.repackaged.java.awt.MediaTracker;
 import org.freecolandroid.repackaged.java.awt.Toolkit;
 import org.freecolandroid.repackaged.java.awt.image.BufferedImage;
+import org.freecolandroid.repackaged.javax.imageio.ImageIO;
+
+import net.sf.freecol.common.io.ArchiveIndex;
 
 
 /**
  * A <code>Resource</code> wrapping an <code>Image</code>.
+ *
+ * The images loaded from a resource locator, and the scaled and
+ * grayscale copies of all images, are kept in the shared
+ * {@link ImageCache}, and are loaded or derived again if they have
+ * been evicted.  An image given to the constructor can not be
+ * loaded again, so it is kept by the resource.
+ *
  * @see Resource
  */
 public class ImageResource extends Resource {
 
     private static final Logger logger = Logger.getLogger(ImageResource.class.getName());
 
-    private Map<Dimension, Image> grayscaleImages = new HashMap<Dimension, Image>();
-    private Map<Dimension, Image> scaledImages = new HashMap<Dimension, Image>();
+    /** The image given to the constructor, if any. */
     private Image image = null;
+
+    /** The cache key of the original image. */
+    private final ImageCache.Key originalKey;
+
+    /** The number of times this resource has been pinned. */
+    private volatile int pins = 0;
+
     private final Object loadingLock = new Object();
     private static final Component _c = new Component() {};
     
@@ -56,45 +70,87 @@ public class ImageResource extends Resource {
      */
     ImageResource(URI resourceLocator) {
         super(resourceLocator);
+        originalKey = new ImageCache.Key(this, ImageCache.ORIGINAL, 0, 0);
     }
 
     public ImageResource(Image image) {
         this.image = image;
+        originalKey = null;
     }
     
+    /**
+     * Loads the image, as long as the image cache is not full.
+     */
     @Override
     public void preload() {
-    	// No enough memory to preload all images. Instead we load them when
-    	// they are needed.
+        if (image == null && ImageCache.hasRoom()) getImage();
+    }
+
+    /**
+     * Pins the images of this resource, so that they are not evicted
+     * from the cache until unpinned again.
+     */
+    public void pin() {
+        synchronized (loadingLock) {
+            pins++;
+        }
+    }
+
+    /**
+     * Unpins the images of this resource.
+     */
+    public void unpin() {
+        synchronized (loadingLock) {
+            if (pins > 0) pins--;
+        }
+    }
+
+    /**
+     * Are the images of this resource pinned?
+     *
+     * @return True if pinned.
+     */
+    public boolean isPinned() {
+        return pins > 0;
     }
     
     /**
      * Load the image.
+     *
+     * @return The loaded <code>Image</code>, or null if it could not
+     *     be loaded.
      */
-    public void load() {
-        synchronized (loadingLock) {
-            if (image == null) {
-                MediaTracker mt = new MediaTracker(_c);
-                Image im;
+    private Image load() {
+        Image im = null;
+        MediaTracker mt = new MediaTracker(_c);
+        try {
+            // Explicitly check that the URI is valid before
+            // letting createImage go off and look for it, as the
+            // error it throws is cryptic.
+            final URI uri = getResourceLocator();
+            if (ArchiveIndex.isIndexed(uri)) {
+                // Decode straight from the mapped archive.
+                InputStream is = ArchiveIndex.openStream(uri);
                 try {
-                    // Explicitly check that the URI is valid before
-                    // letting createImage go off and look for it, as the
-                    // error it throws is cryptic.
-                    URL url = getResourceLocator().toURL();
-                    InputStream is = url.openStream();
+                    im = ImageIO.read(is);
+                } finally {
                     is.close();
-                    im = Toolkit.getDefaultToolkit().createImage(url);
-                    mt.addImage(im, 0);
-                    mt.waitForID(0);
-                    if (mt.statusID(0, false) == MediaTracker.COMPLETE) {
-                        image = im;
-                    }
-                } catch (Throwable e) {
-                    logger.warning("Failed to load image from: " + getResourceLocator()
-                                   + "\r\nProblem: " + e );
                 }
+            } else {
+                URL url = uri.toURL();
+                InputStream is = url.openStream();
+                is.close();
+                im = Toolkit.getDefaultToolkit().createImage(url);
             }
+            mt.addImage(im, 0);
+            mt.waitForID(0);
+            if (mt.statusID(0, false) != MediaTracker.COMPLETE) im = null;
+        } catch (Throwable e) {
+            logger.warning("Failed to load image from: " + getResourceLocator()
+                           + "\r\nProblem: " + e );
+            im = null;
         }
+        return im;
     }
 
     /**
@@ -103,8 +159,16 @@ public class ImageResource extends Resource {
      * @return The image in it's original size.
      */
     public Image getImage() {
-        if (image == null) load();
-        return image;
+        if (image != null || originalKey == null) return image;
+        Image im = ImageCache.get(originalKey);
+        if (im != null) return im;
+        synchronized (loadingLock) {
+            im = ImageCache.get(originalKey);
+            if (im == null && (im = load()) != null) {
+                ImageCache.put(originalKey, im);
+            }
+        }
+        return im;
     }
     
     /**
@@ -134,10 +198,12 @@ public class ImageResource extends Resource {
             || ((im.getWidth(null)==d.width && im.getHeight(null)==d.height))) {
             return im;
         }
-        final Image cachedScaledImage = scaledImages.get(d);
+        final ImageCache.Key key
+            = new ImageCache.Key(this, ImageCache.SCALED, d.width, d.height);
+        final Image cachedScaledImage = ImageCache.get(key);
         if (cachedScaledImage != null) return cachedScaledImage;
         synchronized (loadingLock) {
-            final Image cached = scaledImages.get(d);
+            final Image cached = ImageCache.get(key);
             if (cached != null) return cached;
             MediaTracker mt = new MediaTracker(_c);
             try {
@@ -145,10 +211,13 @@ public class ImageResource extends Resource {
                 //TODO (perhaps): find better solution
                 Image scaledVersion = im.getScaledInstance(d.width, d.height,
                                                            Image.SCALE_REPLICATE);
+                // Scaling may be unsupported, do not count the
+                // original twice.
+                if (scaledVersion == im) return im;
                 mt.addImage(scaledVersion, 0, d.width, d.height);
                 mt.waitForID(0);
                 if (mt.statusID(0, false) == MediaTracker.COMPLETE) {
-                    scaledImages.put(d, scaledVersion);
+                    ImageCache.put(key, scaledVersion);
                     return scaledVersion;
                 }
             } catch (Exception e) {
@@ -167,22 +236,33 @@ public class ImageResource extends Resource {
      */
     public Image getGrayscaleImage(Dimension d) {
         final Image im = getImage(d);
-//        if (im == null) return null;
-//        final Image cachedGrayscaleImage = grayscaleImages.get(d);
-//        if (cachedGrayscaleImage != null) return cachedGrayscaleImage;
-//        synchronized (loadingLock) {
-//            final Image cached = grayscaleImages.get(d);
-//            if (cached != null) return cached;
-//            int width = im.getWidth(null);
-//            int height = im.getHeight(null);
-//            ColorConvertOp filter = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
-//            BufferedImage srcImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-//            srcImage.createGraphics().drawImage(im, 0, 0, null);
-//            final Image grayscaleImage = filter.filter(srcImage, null);
-//            grayscaleImages.put(d, grayscaleImage);
-//            return grayscaleImage;
-//        }
-        return im;
+        if (im == null) return null;
+        final ImageCache.Key key
+            = new ImageCache.Key(this, ImageCache.GRAYSCALE, d.width, d.height);
+        final Image cachedGrayscaleImage = ImageCache.get(key);
+        if (cachedGrayscaleImage != null) return cachedGrayscaleImage;
+        synchronized (loadingLock) {
+            final Image cached = ImageCache.get(key);
+            if (cached != null) return cached;
+            final BufferedImage grayscaleImage = new BufferedImage(im.getBitmap());
+            final int width = grayscaleImage.getWidth();
+            final int height = grayscaleImage.getHeight();
+            // Convert all the pixels in one array, rather than
+            // calling into the bitmap for each of them.
+            final int[] pixels = grayscaleImage.getRGB(0, 0, width, height,
+                                                       null, 0, width);
+            for (int i = 0; i < pixels.length; i++) {
+                int argb = pixels[i];
+                int gray = (77 * ((argb >> 16) & 0xff)
+                    + 150 * ((argb >> 8) & 0xff)
+                    + 29 * (argb & 0xff)) >> 8;
+                pixels[i] = (argb & 0xff000000)
+                    | (gray << 16) | (gray << 8) | gray;
+            }
+            grayscaleImage.setRGB(0, 0, width, height, pixels, 0, width);
+            ImageCache.put(key, grayscaleImage);
+            return grayscaleImage;
+        }
     }
     
     /**
@@ -200,7 +280,8 @@ public class ImageResource extends Resource {
     }
 
     public int getCount() {
-        return grayscaleImages.size() + scaledImages.size();
+        return ImageCache.count(this, ImageCache.GRAYSCALE)
+            + ImageCache.count(this, ImageCache.SCALED);
     }
     
 }
@@ -71,6 +71,9 @@ public class ResourceManager {
 
     private static volatile boolean dirty = false;
 
+    /** Incremented whenever the merged mappings are rebuilt. */
+    private static volatile int version = 0;
+
     private static Dimension lastWindowSize;
 
 
@@ -152,6 +155,20 @@ public class ResourceManager {
         mergedContainer.add(key, resource);
     }
 
+    /**
+     * Gets the version of the resource mappings, which changes
+     * whenever the mappings are rebuilt, so that a key may map to a
+     * different resource.  Single game mappings added with
+     * {@link #addGameMapping(String, Resource)} do not change it.
+     * Useful to know when images derived from resources are stale.
+     *
+     * @return The mapping version.
+     */
+    public static int getVersion() {
+        updateIfDirty();
+        return version;
+    }
+
     /**
      * Preload resources. This method is intended to
      * be called when starting the application, as
@@ -239,6 +256,7 @@ public class ResourceManager {
         }
         _mergedContainer.addAll(gameMapping);
         mergedContainer = _mergedContainer;
+        version++;
     }
 
     /**
@@ -318,6 +336,30 @@ public class ResourceManager {
         return (r != null) ? r.getSimpleZippedAnimation(scale) : null;
     }
 
+    /**
+     * Pins the images of the given name, so that they stay loaded
+     * while on screen.  Each call should be matched by a call to
+     * {@link #unpinImage}.
+     *
+     * @param resource The name of the image resource to pin.
+     */
+    public static void pinImage(final String resource) {
+        updateIfDirty();
+        final ImageResource r = getResource(resource, ImageResource.class);
+        if (r != null) r.pin();
+    }
+
+    /**
+     * Unpins the images of the given name.
+     *
+     * @param resource The name of the image resource to unpin.
+     */
+    public static void unpinImage(final String resource) {
+        updateIfDirty();
+        final ImageResource r = getResource(resource, ImageResource.class);
+        if (r != null) r.unpin();
+    }
+
     /**
      * Returns the image specified by the given name.
      *
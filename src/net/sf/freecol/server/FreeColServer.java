@@ -27,6 +27,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
@@ -39,8 +40,6 @@ import java.util.Properties;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -95,7 +94,6 @@ import net.sf.freecol.server.networking.DummyConnection;
 import net.sf.freecol.server.networking.Server;
 
 import org.freecolandroid.repackaged.java.awt.image.BufferedImage;
-import org.freecolandroid.repackaged.javax.imageio.ImageIO;
 import org.freecolandroid.xml.stream.XMLInputFactory;
 import org.freecolandroid.xml.stream.XMLOutputFactory;
 import org.freecolandroid.xml.stream.XMLStreamConstants;
@@ -177,6 +175,12 @@ public final class FreeColServer {
 
     private AIMain aiMain;
 
+    /** The incremental autosave of this server. */
+    private final IncrementalSave incrementalSave = new IncrementalSave(this);
+
+    /** Holds off changes to the game while it is saved. */
+    private final GameGate gameGate = new GameGate();
+
     private MapGenerator mapGenerator;
 
     private boolean singleplayer;
@@ -476,6 +480,16 @@ public final class FreeColServer {
         return aiMain;
     }
 
+    /**
+     * Gets the gate that code changing the game must enter, so that
+     * the game can be saved while it is not changing.
+     *
+     * @return The <code>GameGate</code> of this server.
+     */
+    public GameGate getGameGate() {
+        return gameGate;
+    }
+
     /**
      * Gets the current state of the game.
      *
@@ -796,35 +810,115 @@ public final class FreeColServer {
      */
     public void saveGame(File file, String username, OptionGroup options, BufferedImage image)
         throws IOException {
-        final ServerGame game = getGame();
-        XMLOutputFactory xof = XMLOutputFactory.newInstance();
-        JarOutputStream fos = null;
-        try {
-            XMLStreamWriter xsw;
-            fos = new JarOutputStream(new FileOutputStream(file));
+        saveGame(file, username, options, image, null);
+    }
 
-            if (image != null) {
-                fos.putNextEntry(new JarEntry(FreeColSavegameFile.THUMBNAIL_FILE));
-                ImageIO.write(image, "png", fos);
-                fos.closeEntry();
-            }
+    /**
+     * Saves a game.
+     *
+     * @param file The file where the data will be written.
+     * @param username The username of the player saving the game.
+     * @param image an <code>Image</code> value
+     * @param snapshotId An identifier for the changes saved later by
+     *     an <code>IncrementalSave</code>, or null if none.
+     * @exception IOException If a problem was encountered while trying to open,
+     *             write or close the file.
+     */
+    void saveGame(File file, String username, OptionGroup options,
+                  BufferedImage image, String snapshotId)
+        throws IOException {
+        createSavegameWriter(username, options, image, snapshotId).write(file);
+    }
 
-            if (options != null) {
-                fos.putNextEntry(new JarEntry(FreeColSavegameFile.CLIENT_OPTIONS));
-                options.save(fos);
-                fos.closeEntry();
-            }
+    /**
+     * Saves a game on a background thread, so play may continue while
+     * it is written.  The game is frozen while it is serialized.
+     *
+     * @param file The file where the data will be written.
+     * @param username The username of the player saving the game.
+     * @param options The client options to save.
+     * @param image an <code>Image</code> value
+     * @param listener A <code>SavegameWriter.Listener</code> to report
+     *     progress to, or null if none.
+     * @exception IOException If the save could not be prepared.
+     */
+    public void saveGameInBackground(File file, String username,
+                                     OptionGroup options, BufferedImage image,
+                                     SavegameWriter.Listener listener)
+        throws IOException {
+        SavegameWriter writer = createSavegameWriter(username, options, image,
+                                                     null);
+        writer.setListener(listener);
+        writer.writeInBackground(file);
+    }
 
-            Properties properties = new Properties();
-            properties.put("map.width", Integer.toString(game.getMap().getWidth()));
-            properties.put("map.height", Integer.toString(game.getMap().getHeight()));
-            fos.putNextEntry(new JarEntry(FreeColSavegameFile.SAVEGAME_PROPERTIES));
-            properties.store(fos, null);
-            fos.closeEntry();
+    /**
+     * Creates a writer for a savegame.  Only the values that must be
+     * taken now, and the small entries, are copied here; the game is
+     * serialized by the writer, straight into the savegame, while the
+     * game gate is frozen.
+     *
+     * @param username The username of the player saving the game.
+     * @param options The client options to save.
+     * @param image an <code>Image</code> value
+     * @param snapshotId An identifier for the changes saved later by
+     *     an <code>IncrementalSave</code>, or null if none.
+     * @return A <code>SavegameWriter</code> for the game.
+     * @exception IOException If the save could not be prepared.
+     */
+    SavegameWriter createSavegameWriter(final String username,
+                                        OptionGroup options,
+                                        BufferedImage image, String snapshotId)
+        throws IOException {
+        final ServerGame game = getGame();
+        final SavegameWriter writer = new SavegameWriter(gameGate, image);
+        ByteArrayOutputStream bytes;
+
+        if (options != null) {
+            bytes = new ByteArrayOutputStream();
+            options.save(bytes);
+            writer.addEntry(FreeColSavegameFile.CLIENT_OPTIONS,
+                            bytes.toByteArray());
+        }
 
-            // save the actual game data
-            fos.putNextEntry(new JarEntry(FreeColSavegameFile.SAVEGAME_FILE));
-            xsw = xof.createXMLStreamWriter(fos, "UTF-8");
+        Properties properties = new Properties();
+        properties.put("map.width", Integer.toString(game.getMap().getWidth()));
+        properties.put("map.height", Integer.toString(game.getMap().getHeight()));
+        if (snapshotId != null) {
+            properties.put(FreeColSavegameFile.SNAPSHOT_PROPERTY, snapshotId);
+        }
+        bytes = new ByteArrayOutputStream();
+        properties.store(bytes, null);
+        writer.addEntry(FreeColSavegameFile.SAVEGAME_PROPERTIES,
+                        bytes.toByteArray());
+
+        // The active unit is set by the caller just before saving.
+        final Unit activeUnit = getActiveUnit();
+        writer.addEntry(FreeColSavegameFile.SAVEGAME_FILE,
+            new SavegameWriter.Entry() {
+                public void write(OutputStream out) throws IOException {
+                    writeSavedGame(out, game, username, activeUnit);
+                }
+            });
+        return writer;
+    }
+
+    /**
+     * Writes the XML of a savegame.  The game must not change while
+     * it is written.
+     *
+     * @param out The <code>OutputStream</code> to write to.
+     * @param game The <code>ServerGame</code> to write.
+     * @param username The username of the player saving the game.
+     * @param activeUnit The active <code>Unit</code>, or null if none.
+     * @exception IOException If the game could not be written.
+     */
+    private void writeSavedGame(OutputStream out, ServerGame game,
+                                String username, Unit activeUnit)
+        throws IOException {
+        XMLOutputFactory xof = XMLOutputFactory.newInstance();
+        try {
+            XMLStreamWriter xsw = xof.createXMLStreamWriter(out, "UTF-8");
 
             xsw.writeStartDocument("UTF-8", "1.0");
             xsw.writeComment("Game version: "+FreeCol.getRevision());
@@ -836,8 +930,8 @@ public final class FreeColServer {
             xsw.writeAttribute("singleplayer", Boolean.toString(singleplayer));
             xsw.writeAttribute("version", Integer.toString(SAVEGAME_VERSION));
             xsw.writeAttribute("randomState", getRandomState(random));
-            if (getActiveUnit() != null) {
-                xsw.writeAttribute("activeUnit", getActiveUnit().getId());
+            if (activeUnit != null) {
+                xsw.writeAttribute("activeUnit", activeUnit.getId());
             }
             // Add server side model information:
             xsw.writeStartElement("serverObjects");
@@ -868,14 +962,30 @@ public final class FreeColServer {
             e.printStackTrace(new PrintWriter(sw));
             logger.warning(sw.toString());
             throw new IOException(e.toString());
-        } finally {
-            try {
-                if (fos != null) {
-                    fos.close();
-                }
-            } catch (IOException e) {
-                // do nothing
-            }
+        }
+    }
+
+    /**
+     * Saves an autosave on a background thread.  If {@link
+     * FreeCol#getAutosaveSnapshotTurns} is set, only the changes since
+     * the previous autosave to the same file are saved, with a full
+     * save every so often.
+     *
+     * @param file The file where the data will be written.
+     * @param username The username of the player saving the game.
+     * @param options The client options to save.
+     * @param listener A <code>SavegameWriter.Listener</code> to report
+     *     progress to, or null if none.
+     * @exception IOException If the game could not be copied.
+     */
+    public void autosaveGame(File file, String username, OptionGroup options,
+                             SavegameWriter.Listener listener)
+        throws IOException {
+        final int turns = FreeCol.getAutosaveSnapshotTurns();
+        if (turns <= 0) {
+            saveGameInBackground(file, username, options, null, listener);
+        } else {
+            incrementalSave.save(file, username, options, turns, listener);
         }
     }
 
@@ -1031,7 +1141,9 @@ public final class FreeColServer {
                          Specification specification)
         throws FreeColException, IOException {
 
+        SavegameWriter.awaitIdle();
         ServerGame game = readGame(fis, specification, this);
+        IncrementalSave.replay(this, fis);
         gameState = GameState.IN_GAME;
         integrity = game.checkIntegrity();
 
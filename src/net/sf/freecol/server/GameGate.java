@@ -0,0 +1,176 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.server;
+
+import java.util.logging.Logger;
+
+
+/**
+ * Holds off changes to the server game while it is being saved.
+ *
+ * <br><br>
+ *
+ * Code that changes the game (the message handlers and the AI
+ * players) runs between {@link #enter} and {@link #exit}.  A savegame
+ * writer calls {@link #freeze}, which waits until no such code is
+ * running and then keeps any more from starting until {@link #thaw}.
+ * Entries nest.  A thread inside that has to wait for a save, and
+ * does not change the game meanwhile, steps out with {@link #release}
+ * and back in with {@link #reacquire}.
+ *
+ * <br><br>
+ *
+ * A freeze that is waiting does not stop threads from entering, as
+ * they may be needed to answer a question another thread inside is
+ * waiting for.  It is granted as soon as the gate is empty.
+ */
+public final class GameGate {
+
+    private static final Logger logger = Logger.getLogger(GameGate.class.getName());
+
+    /** How many times the current thread has entered. */
+    private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /** The number of entries of all threads. */
+    private int entries = 0;
+
+    /** Is the gate frozen? */
+    private boolean frozen = false;
+
+
+    /**
+     * Enters the gate, waiting while it is frozen.
+     */
+    public void enter() {
+        final int[] d = depth.get();
+        if (d[0] == 0) {
+            await(1);
+        } else {
+            // Nested, the gate can not be frozen.
+            synchronized (this) {
+                entries++;
+            }
+        }
+        d[0]++;
+    }
+
+    /**
+     * Leaves the gate.
+     */
+    public void exit() {
+        final int[] d = depth.get();
+        if (d[0] <= 0) throw new IllegalStateException("Gate not entered");
+        d[0]--;
+        synchronized (this) {
+            entries--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Steps out of the gate, undoing all the entries of the calling
+     * thread.
+     *
+     * @return The number of entries undone, to pass to {@link
+     *     #reacquire}.
+     */
+    public int release() {
+        final int[] d = depth.get();
+        final int result = d[0];
+        if (result > 0) {
+            d[0] = 0;
+            synchronized (this) {
+                entries -= result;
+                notifyAll();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Steps back into the gate after {@link #release}, waiting while
+     * it is frozen.
+     *
+     * @param count The number of entries to redo.
+     */
+    public void reacquire(int count) {
+        if (count <= 0) return;
+        await(count);
+        depth.get()[0] = count;
+    }
+
+    /**
+     * Waits while the gate is frozen, then adds entries.
+     *
+     * @param count The number of entries to add.
+     */
+    private synchronized void await(int count) {
+        boolean interrupted = false;
+        while (frozen) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        entries += count;
+    }
+
+    /**
+     * Freezes the gate, once no thread is inside.
+     *
+     * @param timeout The longest time to wait, in milliseconds.
+     * @return True if the gate was frozen, false if the wait timed
+     *     out or was interrupted.
+     */
+    public synchronized boolean freeze(long timeout) {
+        final long end = System.currentTimeMillis() + timeout;
+        while (frozen || entries > 0) {
+            long left = end - System.currentTimeMillis();
+            if (left <= 0) {
+                logger.warning("Timed out waiting to freeze the game");
+                return false;
+            }
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        frozen = true;
+        return true;
+    }
+
+    /**
+     * Thaws the gate.
+     */
+    public synchronized void thaw() {
+        if (!frozen) throw new IllegalStateException("Gate not frozen");
+        frozen = false;
+        notifyAll();
+    }
+}
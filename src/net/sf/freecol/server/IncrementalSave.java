@@ -0,0 +1,579 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.sf.freecol.common.io.FreeColSavegameFile;
+import net.sf.freecol.common.model.FreeColGameObject;
+import net.sf.freecol.common.model.FreeColObject;
+import net.sf.freecol.common.model.Game;
+import net.sf.freecol.common.model.Map;
+import net.sf.freecol.common.model.Player;
+import net.sf.freecol.common.model.Tile;
+import net.sf.freecol.common.model.Unit;
+import net.sf.freecol.common.option.OptionGroup;
+import net.sf.freecol.server.ai.AIMain;
+import net.sf.freecol.server.model.ServerGame;
+import net.sf.freecol.server.model.ServerModelObject;
+
+import org.freecolandroid.xml.stream.XMLInputFactory;
+import org.freecolandroid.xml.stream.XMLOutputFactory;
+import org.freecolandroid.xml.stream.XMLStreamConstants;
+import org.freecolandroid.xml.stream.XMLStreamException;
+import org.freecolandroid.xml.stream.XMLStreamReader;
+import org.freecolandroid.xml.stream.XMLStreamWriter;
+
+
+/**
+ * Incremental saving of a game to one file, for autosaves.
+ *
+ * <br><br>
+ *
+ * The first save writes a full savegame, the snapshot, marked with a
+ * random identifier.  Each later save appends a record of the
+ * changes since the previous save to a file next to the snapshot
+ * (see {@link FreeColSavegameFile#getDeltaFile}).  A record holds:
+ * <ul>
+ * <li>the server objects created and the objects removed, found by
+ *     comparing the object identifiers with those of the previous
+ *     save,</li>
+ * <li>the game without its specification, with the players that are
+ *     alive or have died since the previous save, and with only the
+ *     tiles that changed (see {@link Map#takeChangedTiles}) or hold
+ *     units or a settlement.</li>
+ * </ul>
+ * A new snapshot is written every <code>snapshotTurns</code> saves,
+ * or when saving to another file or game.
+ *
+ * <br><br>
+ *
+ * {@link #replay} applies the records to a game loaded from the
+ * snapshot, in the same way the clients apply updates.  Records for
+ * another snapshot, and a record cut short by a crash, are ignored.
+ * The AI state is only saved in the snapshot, so once records have
+ * been applied the AI starts afresh from the game, as it does when
+ * the AI state of a savegame fails its integrity check.
+ */
+public final class IncrementalSave {
+
+    private static final Logger logger = Logger.getLogger(IncrementalSave.class.getName());
+
+    /** The first string in a file of changes. */
+    private static final String DELTA_HEADER = "FreeColDelta";
+
+    /** Tag names of a record. */
+    private static final String DELTA_TAG = "delta";
+    private static final String SERVER_OBJECTS_TAG = "serverObjects";
+    private static final String REMOVED_TAG = "removed";
+    private static final String OBJECT_TAG = "object";
+
+    /** The server to save. */
+    private final FreeColServer server;
+
+    /** The file saved to. */
+    private File file = null;
+
+    /** The game saved. */
+    private Game game = null;
+
+    /** The identifier of the current snapshot. */
+    private String snapshotId = null;
+
+    /** The number of records since the snapshot. */
+    private int records = 0;
+
+    /** The identifier of the last snapshot that failed. */
+    private String failedId = null;
+
+    /** The identifiers of the objects at the last save. */
+    private Set<String> ids = null;
+
+    /** The identifiers of the players saved as dead. */
+    private Set<String> deadPlayers = null;
+
+
+    /**
+     * Creates a new <code>IncrementalSave</code>.
+     *
+     * @param server The <code>FreeColServer</code> to save.
+     */
+    public IncrementalSave(FreeColServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Saves the game, appending the changes since the last save to
+     * the current snapshot if possible.  The game is saved on the
+     * {@link SavegameWriter} thread, while the game gate is frozen.
+     *
+     * @param file The file to save to.
+     * @param username The username of the player saving the game.
+     * @param options The client options to save with a snapshot.
+     * @param snapshotTurns The most saves between snapshots.
+     * @param listener A <code>SavegameWriter.Listener</code> to report
+     *     to, or null if none.
+     * @exception IOException If the save can not be prepared.
+     */
+    public synchronized void save(final File file, String username,
+                                  OptionGroup options, int snapshotTurns,
+                                  final SavegameWriter.Listener listener)
+        throws IOException {
+        final ServerGame serverGame = server.getGame();
+        if (snapshotId == null || !file.equals(this.file)
+            || serverGame != game || records + 1 >= snapshotTurns) {
+            saveSnapshot(file, username, options, listener);
+            return;
+        }
+        records++;
+        final String id = snapshotId;
+        final Unit activeUnit = server.getActiveUnit();
+        SavegameWriter.submit(new Runnable() {
+                public void run() {
+                    IOException error = null;
+                    try {
+                        if (isFailed(id)) {
+                            throw new IOException("Snapshot " + id
+                                + " failed, changes not saved");
+                        }
+                        appendRecord(file, id,
+                                     createRecord(serverGame, activeUnit));
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Incremental save failed",
+                                   e);
+                        invalidate(id);
+                        error = e;
+                    }
+                    if (listener != null) listener.saveDone(file, error);
+                }
+            });
+    }
+
+    /**
+     * Appends a record to a file of changes.
+     *
+     * @param file The savegame file.
+     * @param id The identifier of the snapshot the record follows.
+     * @param record The compressed record.
+     * @exception IOException if the record can not be appended.
+     */
+    private static void appendRecord(File file, String id, byte[] record)
+        throws IOException {
+        final File deltaFile = FreeColSavegameFile.getDeltaFile(file);
+        if (!file.exists() || !deltaFile.exists()) {
+            throw new IOException("Missing snapshot for " + deltaFile);
+        }
+        DataOutputStream out = new DataOutputStream(
+            new FileOutputStream(deltaFile, true));
+        try {
+            out.writeInt(record.length);
+            out.write(record);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Forgets a snapshot that could not be written or added to, so
+     * that the next save is a new snapshot.
+     *
+     * @param id The identifier of the snapshot.
+     */
+    private synchronized void invalidate(String id) {
+        if (id.equals(snapshotId)) snapshotId = null;
+        failedId = id;
+    }
+
+    /**
+     * Checks if a snapshot could not be written or added to.  The
+     * records for it still waiting to be written are then dropped, so
+     * that no later record follows a missing one.
+     *
+     * @param id The identifier of the snapshot.
+     * @return True if the snapshot has failed.
+     */
+    private synchronized boolean isFailed(String id) {
+        return id.equals(failedId);
+    }
+
+    /**
+     * Saves a snapshot, and starts a new file of changes.
+     *
+     * @param file The file to save to.
+     * @param username The username of the player saving the game.
+     * @param options The client options to save with the game.
+     * @param listener A <code>SavegameWriter.Listener</code> to report
+     *     to, or null if none.
+     * @exception IOException If the save can not be prepared.
+     */
+    private void saveSnapshot(final File file, String username,
+                              OptionGroup options,
+                              final SavegameWriter.Listener listener)
+        throws IOException {
+        final ServerGame serverGame = server.getGame();
+        final File deltaFile = FreeColSavegameFile.getDeltaFile(file);
+        final String id = Long.toHexString(new Random().nextLong());
+        snapshotId = null;
+
+        // Record the state of the snapshot as it is written, so that
+        // the first record holds the changes since then.
+        final SavegameWriter writer
+            = server.createSavegameWriter(username, options, null, id);
+        writer.setFrozenTask(new Runnable() {
+                public void run() {
+                    Set<String> dead = new HashSet<String>();
+                    for (Player player : serverGame.getPlayers()) {
+                        if (player.isDead()) dead.add(player.getId());
+                    }
+                    ids = getIds(serverGame);
+                    deadPlayers = dead;
+                    serverGame.getMap().takeChangedTiles();
+                }
+            });
+        writer.setListener(new SavegameWriter.Listener() {
+                public void saveProgress(File f, long written, long total) {
+                    if (listener != null) {
+                        listener.saveProgress(f, written, total);
+                    }
+                }
+
+                public void saveDone(File f, IOException error) {
+                    if (error == null) {
+                        try {
+                            DataOutputStream out = new DataOutputStream(
+                                new FileOutputStream(deltaFile));
+                            try {
+                                out.writeUTF(DELTA_HEADER);
+                                out.writeUTF(id);
+                            } finally {
+                                out.close();
+                            }
+                        } catch (IOException e) {
+                            error = e;
+                        }
+                    }
+                    if (error != null) invalidate(id);
+                    if (listener != null) listener.saveDone(f, error);
+                }
+            });
+
+        this.file = file;
+        this.game = serverGame;
+        this.snapshotId = id;
+        this.records = 0;
+
+        SavegameWriter.submit(new Runnable() {
+                public void run() {
+                    deltaFile.delete();
+                }
+            });
+        writer.writeInBackground(file);
+    }
+
+    /**
+     * Creates a record of the changes since the last save, while the
+     * game gate is frozen.
+     *
+     * @param serverGame The <code>ServerGame</code> to save.
+     * @param activeUnit The active <code>Unit</code>, or null if none.
+     * @return The compressed record.
+     * @exception IOException if the record can not be written.
+     */
+    private byte[] createRecord(ServerGame serverGame, Unit activeUnit)
+        throws IOException {
+        final GameGate gate = server.getGameGate();
+        if (!gate.freeze(SavegameWriter.FREEZE_TIMEOUT)) {
+            throw new IOException("The game is too busy to be saved.");
+        }
+        try {
+            return writeRecord(serverGame, activeUnit);
+        } catch (XMLStreamException e) {
+            throw new IOException(e.toString());
+        } catch (RuntimeException e) {
+            throw new IOException(e.toString());
+        } finally {
+            gate.thaw();
+        }
+    }
+
+    /**
+     * Writes a record of the changes since the last save, and
+     * remembers the state saved.  The game must not change meanwhile.
+     *
+     * @param serverGame The <code>ServerGame</code> to save.
+     * @param activeUnit The active <code>Unit</code>, or null if none.
+     * @return The compressed record.
+     * @exception IOException if the record can not be written.
+     * @exception XMLStreamException if the record can not be written.
+     */
+    private byte[] writeRecord(ServerGame serverGame, Unit activeUnit)
+        throws IOException, XMLStreamException {
+        final Set<String> newIds = getIds(serverGame);
+        final Set<String> newDeadPlayers = new HashSet<String>(deadPlayers);
+        final List<Player> players = getChangedPlayers(serverGame,
+                                                       newDeadPlayers);
+        final List<Tile> tiles = getChangedTiles(serverGame.getMap());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(bytes);
+        XMLStreamWriter xsw = XMLOutputFactory.newInstance()
+            .createXMLStreamWriter(deflater, "UTF-8");
+        xsw.writeStartDocument("UTF-8", "1.0");
+        xsw.writeStartElement(DELTA_TAG);
+        xsw.writeAttribute("randomState",
+            FreeColServer.getRandomState(server.getServerRandom()));
+        if (activeUnit != null) {
+            xsw.writeAttribute("activeUnit", activeUnit.getId());
+        }
+
+        xsw.writeStartElement(SERVER_OBJECTS_TAG);
+        Iterator<FreeColGameObject> it
+            = serverGame.getFreeColGameObjectIterator();
+        while (it.hasNext()) {
+            FreeColGameObject fcgo = it.next();
+            if (fcgo instanceof ServerModelObject
+                && !ids.contains(fcgo.getId())) {
+                xsw.writeStartElement(((ServerModelObject) fcgo)
+                    .getServerXMLElementTagName());
+                xsw.writeAttribute(FreeColObject.ID_ATTRIBUTE, fcgo.getId());
+                xsw.writeEndElement();
+            }
+        }
+        xsw.writeEndElement();
+
+        xsw.writeStartElement(REMOVED_TAG);
+        for (String id : ids) {
+            if (newIds.contains(id)) continue;
+            xsw.writeStartElement(OBJECT_TAG);
+            xsw.writeAttribute(FreeColObject.ID_ATTRIBUTE, id);
+            xsw.writeEndElement();
+        }
+        xsw.writeEndElement();
+
+        serverGame.toXMLPartial(xsw, players, tiles);
+        xsw.writeEndElement();
+        xsw.writeEndDocument();
+        xsw.close();
+        deflater.close();
+
+        ids = newIds;
+        deadPlayers = newDeadPlayers;
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the identifiers of all the objects in a game.
+     *
+     * @param game The <code>Game</code> to check.
+     * @return A set of object identifiers.
+     */
+    private static Set<String> getIds(Game game) {
+        Set<String> result
+            = new HashSet<String>(2 * game.getFreeColGameObjectCount());
+        Iterator<FreeColGameObject> it = game.getFreeColGameObjectIterator();
+        while (it.hasNext()) result.add(it.next().getId());
+        return result;
+    }
+
+    /**
+     * Finds the players to save: those alive, and those that died
+     * since they were last saved.
+     *
+     * @param game The <code>Game</code> to check.
+     * @param deadPlayers The identifiers of the players saved as dead,
+     *     updated with the players that died.
+     * @return A list of the <code>Player</code>s to save.
+     */
+    private static List<Player> getChangedPlayers(Game game,
+                                                  Set<String> deadPlayers) {
+        final List<Player> result = new ArrayList<Player>();
+        for (Player player : game.getPlayers()) {
+            if (!player.isDead() || deadPlayers.add(player.getId())) {
+                result.add(player);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the tiles to save: those whose saved form has changed,
+     * and those holding units or a settlement, as changes to these
+     * are not tracked by the map.
+     *
+     * @param map The <code>Map</code> to check.
+     * @return A list of the <code>Tile</code>s to save.
+     */
+    private static List<Tile> getChangedTiles(Map map) {
+        final BitSet changed = map.takeChangedTiles();
+        final List<Tile> result = new ArrayList<Tile>();
+        for (Tile tile : map.getAllTiles()) {
+            if (tile.getSettlement() != null || !tile.isEmpty()
+                || changed.get(map.getIndex(tile))) {
+                result.add(tile);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies the changes saved since a snapshot to the game loaded
+     * from it.
+     *
+     * @param server The <code>FreeColServer</code> the snapshot has
+     *     been loaded into.
+     * @param fis The snapshot.
+     * @return The number of records applied.
+     * @exception IOException if a record can not be read.
+     */
+    public static int replay(FreeColServer server, FreeColSavegameFile fis)
+        throws IOException {
+        return replay(server, server.getGame(), fis);
+    }
+
+    /**
+     * Applies the changes saved since a snapshot to a game loaded
+     * from it.
+     *
+     * @param server The <code>FreeColServer</code> the snapshot has
+     *     been loaded into, or null to only restore the game.
+     * @param game The <code>ServerGame</code> loaded from the snapshot.
+     * @param fis The snapshot.
+     * @return The number of records applied.
+     * @exception IOException if a record can not be read.
+     */
+    static int replay(FreeColServer server, ServerGame game,
+                      FreeColSavegameFile fis)
+        throws IOException {
+        final String id = fis.getSnapshotId();
+        if (id == null) return 0;
+        final File deltaFile = FreeColSavegameFile.getDeltaFile(fis.getFile());
+        if (!deltaFile.exists()) return 0;
+        DataInputStream in = new DataInputStream(new FileInputStream(deltaFile));
+        int count = 0;
+        try {
+            if (!DELTA_HEADER.equals(in.readUTF()) || !id.equals(in.readUTF())) {
+                logger.warning("Ignoring changes for another snapshot: "
+                               + deltaFile);
+                return 0;
+            }
+            for (;;) {
+                byte[] record;
+                try {
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break; // End of file, or an incomplete last record.
+                }
+                applyRecord(server, game, record);
+                count++;
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e.toString());
+        } finally {
+            in.close();
+        }
+        if (server != null && count > 0) {
+            server.setAIMain(new AIMain(server));
+            logger.info("Applied " + count + " incremental saves.");
+        }
+        return count;
+    }
+
+    /**
+     * Applies one record of changes.
+     *
+     * @param server The <code>FreeColServer</code> to apply to, or null
+     *     to only apply the changes to the game.
+     * @param game The <code>ServerGame</code> to apply to.
+     * @param record The compressed record.
+     * @exception IOException if the record can not be read.
+     * @exception XMLStreamException if the record can not be read.
+     */
+    private static void applyRecord(FreeColServer server, ServerGame game,
+                                    byte[] record)
+        throws IOException, XMLStreamException {
+        final XMLStreamReader xsr = XMLInputFactory.newInstance()
+            .createXMLStreamReader(new InflaterInputStream(
+                    new ByteArrayInputStream(record)));
+        List<String> removed = new ArrayList<String>();
+        String active = null;
+        try {
+            xsr.nextTag();
+            String randomState = xsr.getAttributeValue(null, "randomState");
+            if (server != null
+                && randomState != null && randomState.length() > 0) {
+                server.setServerRandom(FreeColServer
+                    .restoreRandomState(randomState));
+            }
+            active = xsr.getAttributeValue(null, "activeUnit");
+            while (xsr.nextTag() != XMLStreamConstants.END_ELEMENT) {
+                String tag = xsr.getLocalName();
+                if (tag.equals(SERVER_OBJECTS_TAG)) {
+                    List<String> serverStrings = new ArrayList<String>();
+                    while (xsr.nextTag() != XMLStreamConstants.END_ELEMENT) {
+                        serverStrings.add(xsr.getLocalName());
+                        serverStrings.add(xsr.getAttributeValue(null,
+                                FreeColObject.ID_ATTRIBUTE));
+                        xsr.nextTag();
+                    }
+                    game.createServerObjects(serverStrings);
+                } else if (tag.equals(REMOVED_TAG)) {
+                    while (xsr.nextTag() != XMLStreamConstants.END_ELEMENT) {
+                        removed.add(xsr.getAttributeValue(null,
+                                FreeColObject.ID_ATTRIBUTE));
+                        xsr.nextTag();
+                    }
+                } else if (tag.equals(Game.getXMLElementTagName())) {
+                    game.readFromXML(xsr);
+                } else {
+                    throw new XMLStreamException("Unknown tag: " + tag);
+                }
+            }
+        } finally {
+            xsr.close();
+        }
+        for (String id : removed) game.removeFreeColGameObject(id);
+        if (server == null) return;
+        server.setActiveUnit(null);
+        if (active != null) {
+            FreeColGameObject fcgo = game.getFreeColGameObjectSafely(active);
+            if (fcgo instanceof Unit) server.setActiveUnit((Unit) fcgo);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.freecol.FreeCol;
+import net.sf.freecol.common.io.FreeColSavegameFile;
+
+import org.freecolandroid.repackaged.java.awt.image.BufferedImage;
+import org.freecolandroid.repackaged.javax.imageio.ImageIO;
+
+
+/**
+ * Writes a savegame.
+ *
+ * <br><br>
+ *
+ * A writer is created from a snapshot of the few small values that
+ * must be taken when the save is requested (see {@link
+ * FreeColServer#createSavegameWriter}).  The game itself is written
+ * by {@link Entry}s when the file is written, serialized straight
+ * into the compressing stream, so no uncompressed copy of it is held
+ * in memory.  While the entries are written the {@link GameGate} of
+ * the server is frozen, so that the game does not change under them.
+ *
+ * <br><br>
+ *
+ * Writing can be left to a background thread with {@link
+ * #writeInBackground}, so that the caller does not wait for it.  All
+ * background writes are done by one thread, in the order they were
+ * requested.
+ *
+ * <br><br>
+ *
+ * Files are written under a temporary name and then renamed, so a
+ * failed or interrupted write leaves any previous savegame intact.
+ */
+public final class SavegameWriter {
+
+    private static final Logger logger = Logger.getLogger(SavegameWriter.class.getName());
+
+    /** The number of bytes written between progress reports. */
+    private static final int CHUNK_SIZE = 65536;
+
+    /** The ending of the temporary files written to. */
+    private static final String TEMPORARY_ENDING = ".tmp";
+
+    /** The longest time to wait for the game to be frozen, in ms. */
+    static final long FREEZE_TIMEOUT = 60000L;
+
+    /**
+     * The contents of an entry, written while the game is frozen.
+     */
+    interface Entry {
+
+        /**
+         * Writes the contents of the entry.
+         *
+         * @param out The <code>OutputStream</code> to write to, which
+         *     must not be closed.
+         * @exception IOException if the entry can not be written.
+         */
+        public void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Receives the progress of a savegame write.  The methods are
+     * called on the thread writing the savegame.
+     */
+    public interface Listener {
+
+        /**
+         * Called after each piece of the savegame is written.
+         *
+         * @param file The file being written.
+         * @param written The number of bytes of data written so far.
+         * @param total The total number of bytes of data to write,
+         *     or -1 if not known in advance.
+         */
+        public void saveProgress(File file, long written, long total);
+
+        /**
+         * Called when the savegame has been written or has failed.
+         *
+         * @param file The file written.
+         * @param error The <code>IOException</code> that stopped the
+         *     write, or null if it succeeded.
+         */
+        public void saveDone(File file, IOException error);
+    }
+
+    /** The background writing thread, created on first use. */
+    private static ExecutorService executor = null;
+
+    /** The names of the entries. */
+    private final List<String> names = new ArrayList<String>();
+
+    /** The contents of the entries, in the same order. */
+    private final List<Entry> contents = new ArrayList<Entry>();
+
+    /** The gate to freeze while writing the entries, or null if none. */
+    private final GameGate gate;
+
+    /** The thumbnail to add, or null if none. */
+    private final BufferedImage thumbnail;
+
+    /** A task to run after the entries, while still frozen. */
+    private Runnable frozenTask = null;
+
+    /** The listener to report to, or null if none. */
+    private Listener listener = null;
+
+
+    /**
+     * Creates a new <code>SavegameWriter</code>.
+     *
+     * @param gate The <code>GameGate</code> to freeze while writing
+     *     the entries, or null if none.
+     * @param thumbnail The thumbnail to add, or null if none.
+     */
+    SavegameWriter(GameGate gate, BufferedImage thumbnail) {
+        this.gate = gate;
+        this.thumbnail = thumbnail;
+    }
+
+    /**
+     * Adds an entry to write.
+     *
+     * @param name The name of the entry.
+     * @param entry The <code>Entry</code> writing the contents.
+     */
+    void addEntry(String name, Entry entry) {
+        names.add(name);
+        contents.add(entry);
+    }
+
+    /**
+     * Adds an entry with contents copied when it is added.
+     *
+     * @param name The name of the entry.
+     * @param data The uncompressed contents of the entry.
+     */
+    void addEntry(String name, final byte[] data) {
+        addEntry(name, new Entry() {
+                public void write(OutputStream out) throws IOException {
+                    out.write(data);
+                }
+            });
+    }
+
+    /**
+     * Sets a task to run after the entries are written, before the
+     * game is thawed.  It sees the game just as it was saved.
+     *
+     * @param task The task to run, or null if none.
+     */
+    void setFrozenTask(Runnable task) {
+        this.frozenTask = task;
+    }
+
+    /**
+     * Sets the listener to report the progress of writes to.
+     *
+     * @param listener The new <code>Listener</code>, or null for none.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Writes the savegame, and waits until it is written.  The write
+     * is done on the background thread, after any background writes
+     * already requested.  If the calling thread is inside the game
+     * gate it steps out while it waits, so that the game can be
+     * frozen.
+     *
+     * @param file The file to write to.
+     * @exception IOException if the savegame can not be written.
+     */
+    public void write(final File file) throws IOException {
+        final IOException[] error = new IOException[1];
+        Future<?> done = submit(new Runnable() {
+                public void run() {
+                    try {
+                        doWrite(file);
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                }
+            });
+        final int entries = (gate == null) ? 0 : gate.release();
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while saving " + file);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().toString());
+        } finally {
+            if (gate != null) gate.reacquire(entries);
+        }
+        if (error[0] != null) throw error[0];
+    }
+
+    /**
+     * Writes the savegame on the background thread.  The outcome is
+     * reported to the listener, if any.
+     *
+     * @param file The file to write to.
+     * @return A <code>Future</code> completing when the write is done.
+     */
+    public Future<?> writeInBackground(final File file) {
+        return submit(new Runnable() {
+                public void run() {
+                    try {
+                        doWrite(file);
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Failed to save: " + file, e);
+                    }
+                }
+            });
+    }
+
+    /**
+     * Writes the savegame and reports the outcome.
+     *
+     * @param file The file to write to.
+     * @exception IOException if the savegame can not be written.
+     */
+    private void doWrite(File file) throws IOException {
+        IOException error = null;
+        try {
+            writeFile(file);
+        } catch (IOException e) {
+            error = e;
+        }
+        if (listener != null) listener.saveDone(file, error);
+        if (error != null) throw error;
+    }
+
+    /**
+     * Writes and compresses the entries to a file.
+     *
+     * @param file The file to write to.
+     * @exception IOException if the file can not be written.
+     */
+    private void writeFile(final File file) throws IOException {
+        final File temporary = new File(file.getPath() + TEMPORARY_ENDING);
+        JarOutputStream out = null;
+        try {
+            out = new JarOutputStream(new FileOutputStream(temporary));
+            out.setLevel(FreeCol.getSaveCompressionLevel());
+            if (thumbnail != null) {
+                out.putNextEntry(new JarEntry(FreeColSavegameFile.THUMBNAIL_FILE));
+                ImageIO.write(thumbnail, "png", out);
+                out.closeEntry();
+            }
+            final OutputStream counter = new FilterOutputStream(out) {
+                    private long written = 0;
+                    private long reported = 0;
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        count(1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len)
+                        throws IOException {
+                        out.write(b, off, len);
+                        count(len);
+                    }
+
+                    @Override
+                    public void close() {
+                        // The entries must not close the savegame.
+                    }
+
+                    private void count(int len) {
+                        written += len;
+                        if (listener != null
+                            && written - reported >= CHUNK_SIZE) {
+                            reported = written;
+                            listener.saveProgress(file, written, -1);
+                        }
+                    }
+                };
+            if (gate != null && !gate.freeze(FREEZE_TIMEOUT)) {
+                throw new IOException("The game is too busy to be saved.");
+            }
+            try {
+                for (int i = 0; i < names.size(); i++) {
+                    out.putNextEntry(new JarEntry(names.get(i)));
+                    contents.get(i).write(counter);
+                    out.closeEntry();
+                }
+                if (frozenTask != null) frozenTask.run();
+            } finally {
+                if (gate != null) gate.thaw();
+            }
+            out.close();
+            out = null;
+            if (!temporary.renameTo(file)) {
+                file.delete();
+                if (!temporary.renameTo(file)) {
+                    throw new IOException("Failed to rename " + temporary
+                        + " to " + file);
+                }
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Runs a task on the background writing thread, after the writes
+     * and tasks already requested.  Used for other file work that must
+     * be ordered with the savegame writes.
+     *
+     * @param task The task to run.
+     * @return A <code>Future</code> completing when the task is done.
+     */
+    public static synchronized Future<?> submit(Runnable task) {
+        if (executor == null) {
+            // A non-daemon thread, so that pending writes finish before
+            // a normal exit.  It ends when idle.
+            ThreadPoolExecutor tpe = new ThreadPoolExecutor(1, 1,
+                5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "SavegameWriter");
+                    }
+                });
+            tpe.allowCoreThreadTimeOut(true);
+            executor = tpe;
+        }
+        return executor.submit(task);
+    }
+
+    /**
+     * Waits until all the background writes requested so far are done.
+     */
+    public static void awaitIdle() {
+        try {
+            submit(new Runnable() {
+                    public void run() {}
+                }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Can not happen, the task does nothing.
+        }
+    }
+}
@@ -248,6 +248,24 @@ public class AIColony extends AIObject implements PropertyChangeListener {
      * @return True if the workers were rearranged.
      */
     public boolean rearrangeWorkers() {
+        if (!prepareRearrange()) return false;
+        colonyPlan.update();
+        return completeRearrange();
+    }
+
+    /**
+     * Starts rearranging the workers within this colony.  Handles the
+     * actions that must happen before the {@link ColonyPlan} is
+     * updated, as they may change the tiles available to it.
+     *
+     * The plan update itself only reads the game, so callers
+     * rearranging several colonies whose areas do not overlap may
+     * update their plans in parallel before calling
+     * {@link #completeRearrange} in turn.
+     *
+     * @return True if the colony is due to be rearranged.
+     */
+    public boolean prepareRearrange() {
         if (colony.getUnitCount() <= 0) {
             throw new IllegalStateException("Empty colony found: "
                 + colony.getName());
@@ -262,14 +280,8 @@ public class AIColony extends AIObject implements PropertyChangeListener {
                 + "( > " + turn + ")");
         }
         if (rearrangeTurn.getNumber() > turn) return false;
-        final AIMain aiMain = getAIMain();
         final Tile tile = colony.getTile();
         final Player player = colony.getOwner();
-        final Specification spec = getSpecification();
-
-        // For now, cap the rearrangement horizon, because confidence
-        // that we are triggering on all relevant changes is low.
-        int nextRearrange = 15;
 
         // See if there are neighbouring LCRs to explore, or tiles
         // to steal, or just unclaimed tiles (a neighbouring settlement
@@ -283,9 +295,25 @@ public class AIColony extends AIObject implements PropertyChangeListener {
                 AIMessage.askClaimLand(getConnection(), t, colony, 0);
             }
         }
+        return true;
+    }
 
-        // Update the colony plan.
-        colonyPlan.update();
+    /**
+     * Completes rearranging the workers within this colony, once
+     * {@link #prepareRearrange} has succeeded and the colony plan has
+     * been updated.
+     *
+     * @return True if the workers were rearranged.
+     */
+    public boolean completeRearrange() {
+        final int turn = getGame().getTurn().getNumber();
+        final AIMain aiMain = getAIMain();
+        final Tile tile = colony.getTile();
+        final Specification spec = getSpecification();
+
+        // For now, cap the rearrangement horizon, because confidence
+        // that we are triggering on all relevant changes is low.
+        int nextRearrange = 15;
 
         // Now that we know what raw materials are available in the
         // colony plan, set the current buildable, first backing out
@@ -22,7 +22,9 @@ package net.sf.freecol.server.ai;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,6 +34,7 @@ import net.sf.freecol.common.model.DiplomaticTrade.TradeStatus;
 import net.sf.freecol.common.model.FoundingFather;
 import net.sf.freecol.common.model.Game;
 import net.sf.freecol.common.model.Goods;
+import net.sf.freecol.common.model.Map;
 import net.sf.freecol.common.model.Market;
 import net.sf.freecol.common.model.Monarch.MonarchAction;
 import net.sf.freecol.common.model.Player;
@@ -42,12 +45,13 @@ import net.sf.freecol.common.networking.DOMMessage;
 import net.sf.freecol.common.networking.DiplomacyMessage;
 import net.sf.freecol.common.networking.IndianDemandMessage;
 import net.sf.freecol.common.networking.LootCargoMessage;
-import net.sf.freecol.common.networking.MessageHandler;
 import net.sf.freecol.common.networking.MonarchActionMessage;
 import net.sf.freecol.common.networking.NewLandNameMessage;
 import net.sf.freecol.common.networking.NewRegionNameMessage;
+import net.sf.freecol.common.networking.SelectiveMessageHandler;
 import net.sf.freecol.common.networking.StreamedMessageHandler;
 import net.sf.freecol.server.FreeColServer;
+import net.sf.freecol.server.GameGate;
 import net.sf.freecol.server.model.ServerPlayer;
 import net.sf.freecol.server.networking.DummyConnection;
 
@@ -60,10 +64,26 @@ import org.w3c.dom.NodeList;
 /**
  * Handles the network messages that arrives while in the game.
  */
-public final class AIInGameInputHandler implements MessageHandler, StreamedMessageHandler {
+public final class AIInGameInputHandler
+    implements SelectiveMessageHandler, StreamedMessageHandler {
 
     private static final Logger logger = Logger.getLogger(AIInGameInputHandler.class.getName());
 
+    /**
+     * The messages that need no action.  Since we're the server, we
+     * can see everything, so most updates are useless to us.
+     */
+    private static final Set<String> ignoredMessages = new HashSet<String>();
+    static {
+        String[] ignored = {
+            "update", "remove", "startGame", "updateGame", "addPlayer",
+            "animateMove", "animateAttack", "newTurn", "setDead",
+            "gameEnded", "disconnect", "logout", "error", "setAI", "chat",
+            "setStance", "removeGoods", "addObject"
+        };
+        for (String tag : ignored) ignoredMessages.add(tag);
+    }
+
     /** The player for whom I work. */
     private final ServerPlayer serverPlayer;
 
@@ -115,38 +135,19 @@ public final class AIInGameInputHandler implements MessageHandler, StreamedMessa
             if (element != null) {
                 String type = element.getTagName();
 
-                // Since we're the server, we can see everything.
-                // Therefore most of these messages are useless.
-                if (type.equals("update")) {
-                } else if (type.equals("remove")) {
-                } else if (type.equals("startGame")) {
-                } else if (type.equals("updateGame")) {
-                } else if (type.equals("addPlayer")) {
-                } else if (type.equals("animateMove")) {
-                } else if (type.equals("animateAttack")) {
+                if (ignores(type)) {
                 } else if (type.equals("setCurrentPlayer")) {
                     reply = setCurrentPlayer((DummyConnection) connection, element);
-                } else if (type.equals("newTurn")) {
-                } else if (type.equals("setDead")) {
-                } else if (type.equals("gameEnded")) {
-                } else if (type.equals("disconnect")) {
-                } else if (type.equals("logout")) {
-                } else if (type.equals("error")) {
-                } else if (type.equals("setAI")) {
-                } else if (type.equals("chat")) {
                 } else if (type.equals("chooseFoundingFather")) {
                     reply = chooseFoundingFather((DummyConnection) connection, element);
                 } else if (type.equals("reconnect")) {
                     logger.warning("The server requests a reconnect. This means an illegal operation has been performed. Please refer to any previous error message.");
-                } else if (type.equals("setStance")) {
                 } else if (type.equals("monarchAction")) {
                     reply = monarchAction((DummyConnection) connection, element);
-                } else if (type.equals("removeGoods")) {
                 } else if (type.equals("indianDemand")) {
                     reply = indianDemand((DummyConnection) connection, element);
                 } else if (type.equals("diplomacy")) {
                     reply = diplomaticTrade((DummyConnection) connection, element);
-                } else if (type.equals("addObject")) {
                 } else if (type.equals("newLandName")) {
                     reply = newLandName((DummyConnection) connection, element);
                 } else if (type.equals("newRegionName")) {
@@ -168,6 +169,16 @@ public final class AIInGameInputHandler implements MessageHandler, StreamedMessa
         return reply;
     }
 
+    /**
+     * Checks if a message needs no action by the AI.
+     *
+     * @param tagName The tag name of the message to check.
+     * @return True if the message is ignored.
+     */
+    public boolean ignores(String tagName) {
+        return ignoredMessages.contains(tagName);
+    }
+
     /**
      * Gets the <code>AIPlayer</code> using this
      * <code>AIInGameInputHandler</code>.
@@ -226,10 +237,23 @@ public final class AIInGameInputHandler implements MessageHandler, StreamedMessa
             logger.finest("Starting new Thread for " + serverPlayer.getName());
             Thread t = new Thread(FreeCol.SERVER_THREAD+"AIPlayer (" + serverPlayer.getName() + ")") {
                 public void run() {
+                    // The AI shares the server map, where all tile
+                    // changes are seen, so it can reuse paths while
+                    // it plans this turn.
+                    final Map map = game.getMap();
+                    final GameGate gate = freeColServer.getGameGate();
+                    gate.enter();
+                    map.setPathCacheEnabled(true);
                     try {
                         getAIPlayer().startWorking();
                     } catch (Exception e) {
                         logger.log(Level.SEVERE, "AI player failed while working!", e);
+                    } finally {
+                        logger.fine(serverPlayer.getName() + " paths: "
+                            + map.getPathCache() + ", all turns: "
+                            + map.getPathCacheStatistics());
+                        map.setPathCacheEnabled(false);
+                        gate.exit();
                     }
                     AIMessage.askEndTurn(connection);
                 }
@@ -24,8 +24,18 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.sf.freecol.FreeCol;
+
 import net.sf.freecol.common.model.Colony;
 import net.sf.freecol.common.model.FreeColGameObject;
 import net.sf.freecol.common.model.FreeColGameObjectListener;
@@ -51,6 +61,9 @@ public class AIMain extends FreeColObject
     implements FreeColGameObjectListener {
     private static final Logger logger = Logger.getLogger(AIMain.class.getName());
 
+    /** The pool running AI planning tasks, created on first use. */
+    private static ExecutorService planner = null;
+
     private FreeColServer freeColServer;
     private int nextID = 1;
 
@@ -409,6 +422,72 @@ public class AIMain extends FreeColObject
         return stats;
     }
 
+    /**
+     * Runs a batch of AI planning tasks and waits for them all to
+     * finish.  The tasks are run in parallel when more than one AI
+     * thread is configured, so they must only read the game and write
+     * to state private to each task.  Failures are logged, and do not
+     * stop the other tasks.
+     *
+     * @param tasks The planning tasks to run.
+     */
+    public static void runPlanningTasks(List<Callable<Void>> tasks) {
+        ExecutorService pool = getPlanner();
+        if (pool == null || tasks.size() < 2) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "AI planning failed", e);
+                }
+            }
+            return;
+        }
+        List<Future<Void>> results;
+        try {
+            results = pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "AI planning interrupted", e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Future<Void> f : results) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "AI planning failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the pool for AI planning tasks.
+     *
+     * @return The planning <code>ExecutorService</code>, or null if
+     *     planning should run on the calling thread.
+     */
+    private static synchronized ExecutorService getPlanner() {
+        final int threads = FreeCol.getAIThreads();
+        if (threads <= 1) return null;
+        if (planner == null) {
+            planner = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    private int count = 0;
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, FreeCol.SERVER_THREAD
+                            + "AIPlanner-" + (++count));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return planner;
+    }
+
 
     /**
      * Writes all of the <code>AIObject</code>s and other AI-related
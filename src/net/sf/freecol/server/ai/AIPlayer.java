@@ -88,6 +88,9 @@ public abstract class AIPlayer extends AIObject {
      */
     private List<AIUnit> aiUnits = new ArrayList<AIUnit>();
 
+    /** The transit times of the carriers of this player, created on use. */
+    private TransitTimes transitTimes = null;
+
 
     public AIPlayer(AIMain aiMain, String id) {
         super(aiMain, id);
@@ -104,6 +107,16 @@ public abstract class AIPlayer extends AIObject {
         return player;
     }
 
+    /**
+     * Gets the transit times of the carriers of this player.
+     *
+     * @return The <code>TransitTimes</code> of this player.
+     */
+    public synchronized TransitTimes getTransitTimes() {
+        if (transitTimes == null) transitTimes = new TransitTimes(player);
+        return transitTimes;
+    }
+
     /**
      * Sets the ServerPlayer this AIPlayer is controlling.
      * Used by implementing subclasses.
@@ -25,6 +25,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import net.sf.freecol.common.model.Ability;
@@ -697,10 +698,67 @@ public class EuropeanAIPlayer extends AIPlayer {
     /**
      * Calls {@link AIColony#rearrangeWorkers} for every colony this player
      * owns.
+     *
+     * Rearranging a colony can change the tiles and units the plan of
+     * a later colony sees, so colonies are still rearranged in order.
+     * Only runs of consecutive colonies that are too far apart to
+     * affect each other are batched: each is prepared in turn, their
+     * plans are updated together, and they are then completed in
+     * turn, with the same result as rearranging them one by one.
      */
     private void rearrangeWorkersInColonies() {
         logger.finest("Entering method rearrangeWorkersInColonies");
-        for (AIColony aic : getAIColonies()) aic.rearrangeWorkers();
+        final List<AIColony> batch = new ArrayList<AIColony>();
+        for (AIColony aic : getAIColonies()) {
+            for (AIColony other : batch) {
+                if (!isIndependent(aic, other)) {
+                    rearrangeBatch(batch);
+                    batch.clear();
+                    break;
+                }
+            }
+            if (aic.prepareRearrange()) batch.add(aic);
+        }
+        rearrangeBatch(batch);
+    }
+
+    /**
+     * Updates the plans of a batch of prepared colonies in parallel,
+     * then completes their rearrangement in order.
+     *
+     * @param batch The <code>AIColony</code>s to rearrange.
+     */
+    private void rearrangeBatch(List<AIColony> batch) {
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (AIColony aic : batch) {
+            final ColonyPlan plan = aic.getColonyPlan();
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        plan.update();
+                        return null;
+                    }
+                });
+        }
+        AIMain.runPlanningTasks(tasks);
+        for (AIColony aic : batch) aic.completeRearrange();
+    }
+
+    /**
+     * Can two colonies be rearranged without either affecting the
+     * plan of the other?  Rearranging claims, steals and works tiles
+     * within the colony radius, explores adjacent tiles, and the plan
+     * reads the tiles within the radius, so this holds when the two
+     * areas do not overlap.
+     *
+     * @param a The first <code>AIColony</code>.
+     * @param b The second <code>AIColony</code>.
+     * @return True if the colonies are independent.
+     */
+    private static boolean isIndependent(AIColony a, AIColony b) {
+        final Colony ca = a.getColony(), cb = b.getColony();
+        final int reach = Math.max(1, ca.getRadius())
+            + Math.max(1, cb.getRadius());
+        return ca.getTile().getDistanceTo(cb.getTile()) > reach;
     }
 
     /**
@@ -959,6 +1017,8 @@ public class EuropeanAIPlayer extends AIPlayer {
             }
         }
 
+        final java.util.Map<AIUnit, HashMap<Location, Integer>> distances
+            = findWishDistances(workerWishes);
         final boolean fewColonies = hasFewColonies();
         boolean isPioneerReq = getPlayerPioneers().size() == 0;
         Iterator<AIUnit> aiUnitsIterator = getAIUnitIterator();
@@ -1030,7 +1090,8 @@ public class EuropeanAIPlayer extends AIPlayer {
             }
 
             if (unit.isColonist()) {
-                giveColonistMission(aiUnit, fewColonies, workerWishes);
+                giveColonistMission(aiUnit, fewColonies, workerWishes,
+                                    distances.get(aiUnit));
             }
 
             if (!aiUnit.hasMission()) {
@@ -1045,23 +1106,86 @@ public class EuropeanAIPlayer extends AIPlayer {
         }
     }
 
+    /**
+     * Finds the turns each colonist without a mission needs to reach
+     * the destination of each worker wish.  These path searches are
+     * most of the cost of giving missions, and only read the game, so
+     * they are run as parallel planning tasks.  Giving a mission does
+     * not move any unit, so the results are the same as searching
+     * when each mission is given.
+     *
+     * @param workerWishes The worker wishes by unit type.
+     * @return A map from each colonist to the turns to each wish
+     *     destination.
+     */
+    private java.util.Map<AIUnit, HashMap<Location, Integer>>
+        findWishDistances(java.util.Map<UnitType, ArrayList<Wish>> workerWishes) {
+        final List<Location> destinations = new ArrayList<Location>();
+        for (ArrayList<Wish> al : workerWishes.values()) {
+            for (Wish w : al) {
+                if (w.getDestination() != null
+                    && !destinations.contains(w.getDestination())) {
+                    destinations.add(w.getDestination());
+                }
+            }
+        }
+        final java.util.Map<AIUnit, HashMap<Location, Integer>> result
+            = new HashMap<AIUnit, HashMap<Location, Integer>>();
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (AIUnit aiUnit : getAIUnits()) {
+            final Unit unit = aiUnit.getUnit();
+            if (aiUnit.hasMission() || unit.isDisposed()
+                || unit.isUninitialized() || !unit.isColonist()) continue;
+            final HashMap<Location, Integer> distances
+                = new HashMap<Location, Integer>(121);
+            result.put(aiUnit, distances);
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        findWishDistances(unit, destinations, distances);
+                        return null;
+                    }
+                });
+        }
+        AIMain.runPlanningTasks(tasks);
+        return result;
+    }
+
+    /**
+     * Finds the turns a unit needs to reach some destinations.
+     *
+     * @param unit The <code>Unit</code> to check.
+     * @param destinations The destination <code>Location</code>s.
+     * @param distances A map to put the turns to each destination in.
+     */
+    private static void findWishDistances(Unit unit,
+                                          List<Location> destinations,
+                                          HashMap<Location, Integer> distances) {
+        for (Location loc : destinations) {
+            distances.put(loc, (loc == unit.getLocation()) ? 0
+                : unit.getTurnsToReach(loc));
+        }
+    }
+
     private void giveColonistMission(AIUnit aiUnit, boolean fewColonies,
-                                     java.util.Map<UnitType, ArrayList<Wish>> workerWishes) {
+                                     java.util.Map<UnitType, ArrayList<Wish>> workerWishes,
+                                     HashMap<Location, Integer> distances) {
         final Unit unit = aiUnit.getUnit();
         /*
          * Motivated by (speed) performance: This map stores the
          * distance between the unit and the destination of a Wish:
          */
-        HashMap<Location, Integer> distances = new HashMap<Location, Integer>(121);
-        for (ArrayList<Wish> al : workerWishes.values()) {
-            for (Wish w : al) {
-                if (w.getDestination() != null
-                    && !distances.containsKey(w.getDestination())) {
-                    distances.put(w.getDestination(), 
-                        ((w.getDestination() == unit.getLocation()) ? 0
-                            : unit.getTurnsToReach(w.getDestination())));
+        if (distances == null) {
+            distances = new HashMap<Location, Integer>(121);
+            List<Location> destinations = new ArrayList<Location>();
+            for (ArrayList<Wish> al : workerWishes.values()) {
+                for (Wish w : al) {
+                    if (w.getDestination() != null
+                        && !destinations.contains(w.getDestination())) {
+                        destinations.add(w.getDestination());
+                    }
                 }
             }
+            findWishDistances(unit, destinations, distances);
         }
 
         // Check if this unit is needed as an expert (using:
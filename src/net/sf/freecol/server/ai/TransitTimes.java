@@ -0,0 +1,241 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.server.ai;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.logging.Logger;
+
+import net.sf.freecol.common.model.Colony;
+import net.sf.freecol.common.model.Europe;
+import net.sf.freecol.common.model.Location;
+import net.sf.freecol.common.model.Map;
+import net.sf.freecol.common.model.Map.Direction;
+import net.sf.freecol.common.model.PathNode;
+import net.sf.freecol.common.model.Player;
+import net.sf.freecol.common.model.Tile;
+import net.sf.freecol.common.model.Unit;
+import net.sf.freecol.common.model.UnitType;
+import net.sf.freecol.common.model.pathfinding.GoalDecider;
+
+
+/**
+ * The number of turns the carriers of a player need to sail between
+ * locations.
+ *
+ * The table is kept per carrier type, with one row for each origin
+ * tile.  A row is filled on first use by a single search from the
+ * origin that records the turns to every tile the carrier can reach,
+ * and the turns to the nearest tile from which it can sail to
+ * <code>Europe</code>.  A land tile the carrier can not enter, such
+ * as a settlement landing, counts as reached when a neighbouring tile
+ * is.  The turns are those of a carrier with full moves, and do not
+ * allow for units blocking the way, so they are estimates for ranking
+ * destinations rather than exact path lengths.
+ *
+ * The table is dropped when the player founds or loses a colony, or
+ * when the coastline or high seas of the map change.
+ */
+public class TransitTimes {
+
+    private static final Logger logger = Logger.getLogger(TransitTimes.class.getName());
+
+    /** The most rows kept for each carrier type. */
+    private static final int MAX_ROWS = 64;
+
+    /** The player whose carriers are measured. */
+    private final Player player;
+
+    /** The rows, by carrier type and origin tile. */
+    private final HashMap<UnitType, LinkedHashMap<Tile, Row>> rows
+        = new HashMap<UnitType, LinkedHashMap<Tile, Row>>();
+
+    /** The map coastline version the rows were found with. */
+    private int coastlineVersion = -1;
+
+    /** The colony signature of the player the rows were found with. */
+    private long colonySignature = 0L;
+
+
+    /** The turns from one origin. */
+    private static class Row {
+
+        /** The turns to each tile by map index, -1 if unreachable. */
+        public final int[] turns;
+
+        /** The turns to the high seas, -1 if unreachable. */
+        public int europe = -1;
+
+        public Row(int size) {
+            turns = new int[size];
+            Arrays.fill(turns, -1);
+        }
+    }
+
+
+    /**
+     * Creates a new <code>TransitTimes</code> table.
+     *
+     * @param player The <code>Player</code> whose carriers to measure.
+     */
+    public TransitTimes(Player player) {
+        this.player = player;
+    }
+
+    /**
+     * Gets the number of turns a carrier needs to sail between two
+     * locations.
+     *
+     * @param carrier The carrier <code>Unit</code>.
+     * @param start The <code>Location</code> to start from.  The entry
+     *     location of the carrier is used if this is not on the map.
+     * @param end The <code>Location</code> to reach.
+     * @return The number of turns, or <code>Map.COST_INFINITY</code>
+     *     if the carrier can not reach the end.
+     */
+    public synchronized int getTurns(Unit carrier, Location start,
+                                     Location end) {
+        if (end == null) return Map.COST_INFINITY;
+        if (start == null || start.getTile() == null) {
+            start = carrier.getFullEntryLocation();
+            if (start == null) return Map.COST_INFINITY;
+        }
+        final Map map = carrier.getGame().getMap();
+        final Tile startTile = start.getTile();
+        final Tile endTile = end.getTile();
+        if (endTile == null && !(end instanceof Europe)) {
+            return Map.COST_INFINITY;
+        }
+        if (startTile == endTile) return 0;
+
+        final Row row = getRow(map, carrier, startTile);
+        int turns;
+        if (endTile == null) {
+            turns = row.europe;
+        } else {
+            turns = row.turns[map.getIndex(endTile)];
+            if (turns < 0 && endTile.isLand()) {
+                for (Direction d : Direction.values()) {
+                    Tile t = endTile.getNeighbourOrNull(d);
+                    if (t == null) continue;
+                    int n = row.turns[map.getIndex(t)];
+                    if (n >= 0 && (turns < 0 || n < turns)) turns = n;
+                }
+            }
+        }
+        return (turns < 0) ? Map.COST_INFINITY : turns;
+    }
+
+    /**
+     * Drops all the rows.
+     */
+    public synchronized void invalidate() {
+        rows.clear();
+    }
+
+    /**
+     * Gets the row for a carrier and an origin, filling it if needed.
+     *
+     * @param map The <code>Map</code> to search.
+     * @param carrier The carrier <code>Unit</code>.
+     * @param start The origin <code>Tile</code>.
+     * @return The <code>Row</code> of turns from the origin.
+     */
+    private Row getRow(Map map, Unit carrier, Tile start) {
+        long signature = getColonySignature(map);
+        if (coastlineVersion != map.getCoastlineVersion()
+            || colonySignature != signature) {
+            rows.clear();
+            coastlineVersion = map.getCoastlineVersion();
+            colonySignature = signature;
+        }
+        LinkedHashMap<Tile, Row> typeRows = rows.get(carrier.getType());
+        if (typeRows == null) {
+            typeRows = new LinkedHashMap<Tile, Row>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(java.util.Map.Entry<Tile, Row> eldest) {
+                    return size() > MAX_ROWS;
+                }
+            };
+            rows.put(carrier.getType(), typeRows);
+        }
+        Row row = typeRows.get(start);
+        if (row == null) {
+            row = fillRow(map, carrier, start);
+            typeRows.put(start, row);
+        }
+        return row;
+    }
+
+    /**
+     * Finds the turns from an origin to every tile a carrier can
+     * reach, with one search.
+     *
+     * @param map The <code>Map</code> to search.
+     * @param carrier The carrier <code>Unit</code>.
+     * @param start The origin <code>Tile</code>.
+     * @return A new <code>Row</code> of turns.
+     */
+    private Row fillRow(final Map map, Unit carrier, Tile start) {
+        final Row row = new Row(map.getSize());
+        final GoalDecider gd = new GoalDecider() {
+                public PathNode getGoal() {
+                    return null;
+                }
+
+                public boolean hasSubGoals() {
+                    return true;
+                }
+
+                public boolean check(Unit unit, PathNode pathNode) {
+                    final Tile tile = pathNode.getTile();
+                    final int index = map.getIndex(tile);
+                    if (row.turns[index] < 0) {
+                        row.turns[index] = pathNode.getTurns();
+                        if (row.europe < 0 && tile.canMoveToEurope()) {
+                            row.europe = pathNode.getTurns();
+                        }
+                    }
+                    return false;
+                }
+            };
+        map.search(carrier, start, gd, null, Integer.MAX_VALUE, null);
+        row.turns[map.getIndex(start)] = 0;
+        logger.finest("Filled transit times for " + carrier.getType()
+            + " from " + start);
+        return row;
+    }
+
+    /**
+     * Gets a value that changes when the player founds or loses a
+     * colony.
+     *
+     * @param map The <code>Map</code> the colonies are on.
+     * @return A signature of the colonies of the player.
+     */
+    private long getColonySignature(Map map) {
+        long count = 0, sum = 0;
+        for (Colony colony : player.getColonies()) {
+            count++;
+            sum += map.getIndex(colony.getTile()) + 1;
+        }
+        return (count << 32) ^ sum;
+    }
+}
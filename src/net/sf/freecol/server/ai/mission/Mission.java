@@ -154,7 +154,7 @@ public abstract class Mission extends AIObject {
      *     move can not be made.
      */
     protected Direction moveTowards(Tile tile) {
-        PathNode pathNode = getUnit().findPath(tile);
+        PathNode pathNode = getUnit().findPathHierarchical(tile);
         return (pathNode == null) ? null : moveTowards(pathNode);
     }
 
@@ -426,7 +426,7 @@ public abstract class Mission extends AIObject {
             && unit.getTile() != tile
             && (unit.isOnCarrier()
                 || unit.getTile() == null
-                || ((path = unit.findPath(tile)) == null
+                || ((path = unit.findPathHierarchical(tile)) == null
                     && !unit.getTile().isAdjacent(tile))
                 || (path != null && path.getTotalTurns() >= MAX_TURNS));
     }
@@ -533,7 +533,7 @@ public abstract class Mission extends AIObject {
                     throw new IllegalStateException("No tile or carrier: "
                         + unit);
                 } else {
-                    path = unit.findPath(targetTile);
+                    path = unit.findPathHierarchical(targetTile);
                     if (path == null) needTransport = true;
                 }
             }
@@ -63,6 +63,7 @@ import net.sf.freecol.server.ai.AIPlayer;
 import net.sf.freecol.server.ai.AIUnit;
 import net.sf.freecol.server.ai.EuropeanAIPlayer;
 import net.sf.freecol.server.ai.GoodsWish;
+import net.sf.freecol.server.ai.TransitTimes;
 import net.sf.freecol.server.ai.Transportable;
 import net.sf.freecol.server.ai.Wish;
 import net.sf.freecol.server.ai.WorkerWish;
@@ -449,9 +450,39 @@ public class TransportMission extends Mission {
      *         or destination of the given <code>Transportable</code>.
      */
     private int getDistanceTo(Transportable t, Location start, boolean source) {
-        // TODO: This is too expensive - find another method:
-        PathNode path = getTransportPath(t, start, source);
-        return (path == null) ? Map.COST_INFINITY : path.getTotalTurns();
+        Location end = (source) ? t.getTransportLocatable().getLocation()
+            : t.getTransportDestination();
+        int turns = getTransitTimes().getTurns(getUnit(), start, end);
+        if (turns == Map.COST_INFINITY && !isCarrierLeg(t, source)) {
+            PathNode path = getTransportPath(t, start, source);
+            if (path != null) turns = path.getTotalTurns();
+        }
+        return turns;
+    }
+
+    /**
+     * Is a leg of a transport sailed by the carrier alone, so that the
+     * transit times cover it?  A unit delivered inland is dropped on
+     * the coast and walks on, which the transit times do not allow
+     * for, so they can only tell that such a leg is reachable, not
+     * that it is not.
+     *
+     * @param t The <code>Transportable</code> to transport.
+     * @param collect True if the leg collects the transportable.
+     * @return True if the transit times decide the leg.
+     */
+    private boolean isCarrierLeg(Transportable t, boolean collect) {
+        return collect || !(t.getTransportLocatable() instanceof Unit);
+    }
+
+    /**
+     * Gets the transit times of the carriers of the owner of this
+     * mission's unit.
+     *
+     * @return The <code>TransitTimes</code> to use.
+     */
+    private TransitTimes getTransitTimes() {
+        return getAIMain().getAIPlayer(getUnit().getOwner()).getTransitTimes();
     }
 
     private boolean canAttackEnemyShips() {
@@ -709,7 +740,12 @@ public class TransportMission extends Mission {
                         + " (for " + t + ")");
                     return new Destination(); // Already at dst!
                 }
-                if ((path = getTransportPath(t)) != null) {
+                // Skip the path search if the table says the carrier
+                // can not reach the destination on its own.
+                if ((!isCarrierLeg(t, !isCarrying(t))
+                        || getTransitTimes().getTurns(carrier,
+                            carrier.getTile(), dst) != Map.COST_INFINITY)
+                    && (path = getTransportPath(t)) != null) {
                     logger.finest("Next destination for " + carrier
                         + ": " + dst
                         + " (" + ((isCarrying(t)) ? "transport" : "collect") 
@@ -1446,6 +1482,9 @@ public class TransportMission extends Mission {
      * @see Europe
      */
     protected PathNode findPathToEurope(Tile start) {
+        if (getGame().getMap().getHighSeasDistance(start) < 0) {
+            return null;
+        }
         return getUnit().findPathToEurope(start);
     }
 
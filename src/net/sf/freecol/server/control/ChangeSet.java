@@ -19,10 +19,15 @@
 
 package net.sf.freecol.server.control;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.sf.freecol.common.model.FoundingFather;
 import net.sf.freecol.common.model.FreeColGameObject;
@@ -42,12 +47,18 @@ import net.sf.freecol.common.model.Tile;
 import net.sf.freecol.common.model.TradeRoute;
 import net.sf.freecol.common.model.Unit;
 import net.sf.freecol.common.model.WorkLocation;
+import net.sf.freecol.common.networking.Connection;
 import net.sf.freecol.common.networking.DOMMessage;
 import net.sf.freecol.server.model.ServerPlayer;
+import net.sf.freecol.server.networking.DummyConnection;
 
+import org.freecolandroid.xml.stream.XMLStreamException;
+import org.freecolandroid.xml.stream.XMLStreamReader;
+import org.freecolandroid.xml.stream.XMLStreamWriter;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 
 /**
@@ -82,6 +93,15 @@ public class ChangeSet {
 
     private ArrayList<Change> changes;
 
+    /** The changes in sort order, valid while its size matches changes. */
+    private List<Change> sorted = null;
+
+    /** Elements of the changes that are the same for all players. */
+    private Map<Change, Element> sharedElements = null;
+
+    /** The document holding the shared elements. */
+    private Document sharedDocument = null;
+
     private static Comparator<Change> changeComparator
         = new Comparator<Change>() {
         public int compare(final Change c1, final Change c2) {
@@ -212,6 +232,26 @@ public class ChangeSet {
             return true;
         }
 
+        /**
+         * Is the element for this Change the same for all players?
+         * If so it is only built once, however many players are sent it.
+         *
+         * @return False.  This is the default, to be overridden as required.
+         */
+        public boolean isShared() {
+            return false;
+        }
+
+        /**
+         * Gets the tag name of the element for this Change, if it is
+         * known without building the element.
+         *
+         * @return Null.  This is the default, to be overridden as required.
+         */
+        public String getElementName() {
+            return null;
+        }
+
         /**
          * Specialize a Change for a particular player.
          *
@@ -278,6 +318,16 @@ public class ChangeSet {
                     && defender.isVisibleTo(serverPlayer));
         }
 
+        /**
+         * Gets the tag name of the element for this change.
+         *
+         * @return "animateAttack".
+         */
+        @Override
+        public String getElementName() {
+            return "animateAttack";
+        }
+
         /**
          * Specialize a AttackChange into an "animateAttack" element
          * for a particular player.
@@ -363,6 +413,15 @@ public class ChangeSet {
         public void attachToElement(Element element) {
             element.setAttribute(key, value);
         }
+
+        /**
+         * Add the attribute to a map of attributes to be written.
+         *
+         * @param attributes The map of attributes to add to.
+         */
+        public void attachToMap(Map<String, String> attributes) {
+            attributes.put(key, value);
+        }
     }
 
     /**
@@ -394,6 +453,16 @@ public class ChangeSet {
             return priority.getPriority();
         }
 
+        /**
+         * Messages are the same for all players.
+         *
+         * @return True.
+         */
+        @Override
+        public boolean isShared() {
+            return true;
+        }
+
         /**
          * Specialize a MessageChange to a particular player.
          *
@@ -485,6 +554,16 @@ public class ChangeSet {
             return Collections.emptyList();
         }
 
+        /**
+         * Gets the tag name of the element for this change.
+         *
+         * @return "animateMove".
+         */
+        @Override
+        public String getElementName() {
+            return "animateMove";
+        }
+
         /**
          * Specialize a MoveChange into an "animateMove" element for a
          * particular player.
@@ -568,6 +647,16 @@ public class ChangeSet {
                 && serverPlayer.canSee(((Location) fcgo).getTile());
         }
 
+        /**
+         * Gets the tag name of the element for this change.
+         *
+         * @return "update".
+         */
+        @Override
+        public String getElementName() {
+            return "update";
+        }
+
         /**
          * Specialize a ObjectChange to a particular player.
          *
@@ -582,6 +671,28 @@ public class ChangeSet {
                                                   false, false));
             return element;
         }
+
+        /**
+         * Can the updated object be written straight to a stream?
+         *
+         * @return True.
+         */
+        public boolean writesToStream() {
+            return true;
+        }
+
+        /**
+         * Write the updated object, the content of the "update"
+         * element, for a particular player.
+         *
+         * @param serverPlayer The <code>ServerPlayer</code> to update.
+         * @param out The <code>XMLStreamWriter</code> to write to.
+         * @throws XMLStreamException if there is a problem writing.
+         */
+        public void writeObject(ServerPlayer serverPlayer, XMLStreamWriter out)
+            throws XMLStreamException {
+            fcgo.toXML(out, serverPlayer, false, false);
+        }
     }
 
     /**
@@ -623,6 +734,16 @@ public class ChangeSet {
             return false;
         }
 
+        /**
+         * Partial updates go through an element.
+         *
+         * @return False.
+         */
+        @Override
+        public boolean writesToStream() {
+            return false;
+        }
+
         /**
          * Specialize a PartialObjectChange to a particular player.
          *
@@ -683,6 +804,16 @@ public class ChangeSet {
                     || (ServerPlayer) tile.getSettlement().getOwner() == serverPlayer);
         }
 
+        /**
+         * Gets the tag name of the element for this change.
+         *
+         * @return "remove".
+         */
+        @Override
+        public String getElementName() {
+            return "remove";
+        }
+
         /**
          * Specialize a RemoveChange to a particular player.
          *
@@ -733,6 +864,16 @@ public class ChangeSet {
             return ChangePriority.CHANGE_OWNED.getPriority();
         }
 
+        /**
+         * Gets the tag name of the element for this change.
+         *
+         * @return "addObject".
+         */
+        @Override
+        public String getElementName() {
+            return "addObject";
+        }
+
         /**
          * Specialize a OwnedChange into an "addObject" element for a
          * particular player.
@@ -773,6 +914,16 @@ public class ChangeSet {
             return ChangePriority.CHANGE_NORMAL.getPriority();
         }
 
+        /**
+         * Gets the tag name of the element for this change.
+         *
+         * @return "spyResult".
+         */
+        @Override
+        public String getElementName() {
+            return "spyResult";
+        }
+
         /**
          * Specialize a SpyChange into an element with the supplied name.
          *
@@ -825,6 +976,26 @@ public class ChangeSet {
             return ChangePriority.CHANGE_STANCE.getPriority();
         }
 
+        /**
+         * Stance changes are the same for all players.
+         *
+         * @return True.
+         */
+        @Override
+        public boolean isShared() {
+            return true;
+        }
+
+        /**
+         * Gets the tag name of the element for this change.
+         *
+         * @return "setStance".
+         */
+        @Override
+        public String getElementName() {
+            return "setStance";
+        }
+
         /**
          * Specialize a StanceChange to a particular player.
          *
@@ -877,6 +1048,26 @@ public class ChangeSet {
             return priority;
         }
 
+        /**
+         * Trivial changes are the same for all players.
+         *
+         * @return True.
+         */
+        @Override
+        public boolean isShared() {
+            return true;
+        }
+
+        /**
+         * Gets the tag name of the element for this change.
+         *
+         * @return The name of the element.
+         */
+        @Override
+        public String getElementName() {
+            return name;
+        }
+
         /**
          * Specialize a TrivialChange into an element with the supplied name.
          *
@@ -1255,18 +1446,82 @@ public class ChangeSet {
      */
     private static List<Element> collapseElementList(List<Element> elements) {
         List<Element> results = new ArrayList<Element>();
-        if (!elements.isEmpty()) {
-            Element head = elements.remove(0);
-            while (!elements.isEmpty()) {
-                Element e = elements.remove(0);
-                if (collapseOK(head, e)) {
-                    collapseElements(head, e);
+        Element head = null;
+        for (Element e : elements) {
+            if (head != null && collapseOK(head, e)) {
+                collapseElements(head, e);
+            } else {
+                if (head != null) results.add(head);
+                head = e;
+            }
+        }
+        if (head != null) results.add(head);
+        return results;
+    }
+
+    /**
+     * Gets the changes in sort order.  The sort is done once, and
+     * redone only if changes have been added since.
+     *
+     * @return The sorted list of <code>Change</code>s.
+     */
+    private synchronized List<Change> getSortedChanges() {
+        if (sorted == null || sorted.size() != changes.size()) {
+            sorted = new ArrayList<Change>(changes);
+            Collections.sort(sorted, changeComparator);
+        }
+        return sorted;
+    }
+
+    /**
+     * Gets the element for a change that is the same for all players,
+     * building it on first use.
+     *
+     * @param change The shared <code>Change</code>.
+     * @return The <code>Element</code> for the change.  It must not be
+     *     modified or moved.
+     */
+    private synchronized Element getSharedElement(Change change) {
+        if (sharedElements == null) {
+            sharedElements = new IdentityHashMap<Change, Element>();
+            sharedDocument = DOMMessage.createNewDocument();
+        }
+        Element element = sharedElements.get(change);
+        if (element == null) {
+            element = change.toElement(null, sharedDocument);
+            sharedElements.put(change, element);
+        }
+        return element;
+    }
+
+    /**
+     * Gets the changes a player should be notified of, including
+     * consequent changes.
+     *
+     * @param serverPlayer The <code>ServerPlayer</code> to notify.
+     * @param diverted A list to add the changes that do not convert
+     *     to elements to.
+     * @return A list of the notifiable changes that convert to
+     *     elements, in the order they should be sent.
+     */
+    private List<Change> getNotifiableChanges(ServerPlayer serverPlayer,
+                                              List<Change> diverted) {
+        ArrayDeque<Change> c = new ArrayDeque<Change>(getSortedChanges());
+        List<Change> results = new ArrayList<Change>(c.size());
+
+        // For all sorted changes, if it is notifiable to the target
+        // player then keep it, or divert it for later attachment.
+        // Then queue all consequence changes behind the sorted ones.
+        while (!c.isEmpty()) {
+            Change change = c.removeFirst();
+            if (change.isNotifiable(serverPlayer)) {
+                if (change.convertsToElement()) {
+                    results.add(change);
                 } else {
-                    results.add(head);
-                    head = e;
+                    diverted.add(change);
                 }
+                c.addAll(change.consequences(serverPlayer));
             }
-            results.add(head);
         }
         return results;
     }
@@ -1283,27 +1538,38 @@ public class ChangeSet {
      *         consider, or null if there is nothing to report.
      */
     public Element build(ServerPlayer serverPlayer) {
-        List<Change> c = new ArrayList<Change>(changes);
-        List<Element> elements = new ArrayList<Element>();
+        return build(serverPlayer, null);
+    }
+
+    /**
+     * Build a generalized update for a player on an in-process
+     * connection.  The changes the other end of the connection
+     * ignores are left out before they are converted to elements,
+     * so for an AI player the object updates are never serialized.
+     *
+     * @param serverPlayer The <code>ServerPlayer</code> to send the
+     *            update to.
+     * @param connection The <code>DummyConnection</code> to the player,
+     *            or null to include all changes.
+     * @return An element encapsulating an update of the objects to
+     *         consider, or null if there is nothing to report.
+     */
+    public Element build(ServerPlayer serverPlayer,
+                         DummyConnection connection) {
         List<Change> diverted = new ArrayList<Change>();
+        List<Element> elements = new ArrayList<Element>();
         Document doc = DOMMessage.createNewDocument();
 
-        // For all sorted changes, if it is notifiable to the target
-        // player then convert it to an Element, or divert for later
-        // attachment.  Then add all consequence changes to the list.
-        Collections.sort(c, changeComparator);
-        while (!c.isEmpty()) {
-            Change change = c.remove(0);
-            if (change.isNotifiable(serverPlayer)) {
-                if (change.convertsToElement()) {
-                    elements.add(change.toElement(serverPlayer, doc));
-                } else {
-                    diverted.add(change);
-                }
-                c.addAll(change.consequences(serverPlayer));
+        for (Change change : getNotifiableChanges(serverPlayer, diverted)) {
+            if (connection != null) {
+                String name = change.getElementName();
+                if (name != null && connection.ignores(name)) continue;
             }
+            elements.add(change.toElement(serverPlayer, doc));
         }
         elements = collapseElementList(elements);
+        if (elements.isEmpty() && connection != null
+            && connection.ignores("update")) return null;
 
         // Decide what to return.  If there are several parts with
         // children then return multiple, if there is one viable part,
@@ -1328,4 +1594,187 @@ public class ChangeSet {
         return result;
     }
 
+    /**
+     * A group of adjacent changes sent as one element, the streaming
+     * equivalent of the elements collapsed by collapseElementList.
+     */
+    private static class Run {
+
+        /**
+         * The first element of the group, giving its name and
+         * attributes, or null for a plain "update".
+         */
+        public final Element head;
+
+        /**
+         * The contents, either <code>Element</code>s whose children
+         * are to be written, or <code>ObjectChange</code>s to write.
+         */
+        public final List<Object> contents = new ArrayList<Object>();
+
+        public Run(Element head) {
+            this.head = head;
+        }
+
+        /**
+         * Can an element be added to this run?
+         *
+         * @param element The <code>Element</code> to test.
+         * @return True if the element collapses into this run.
+         */
+        public boolean accepts(Element element) {
+            return (head == null) ? isPlainUpdate(element)
+                : collapseOK(head, element);
+        }
+
+        /**
+         * Can a directly written update be added to this run?
+         *
+         * @return True if this run is a plain "update".
+         */
+        public boolean acceptsUpdate() {
+            return head == null || isPlainUpdate(head);
+        }
+
+        private static boolean isPlainUpdate(Element element) {
+            return "update".equals(element.getTagName())
+                && element.getAttributes().getLength() == 0;
+        }
+    }
+
+    /**
+     * Sends the update for a player directly to a connection.  This
+     * is the streaming equivalent of sending the result of
+     * {@link #build}: object updates are written straight to the
+     * connection rather than being collected in a document, and
+     * elements that are the same for all players are only built once.
+     *
+     * @param serverPlayer The <code>ServerPlayer</code> to update.
+     * @param connection The <code>Connection</code> to send with.
+     * @return True if there was anything to send.
+     * @throws IOException if the update can not be sent.
+     */
+    public boolean send(ServerPlayer serverPlayer, Connection connection)
+        throws IOException {
+        final List<Change> diverted = new ArrayList<Change>();
+        final List<Run> runs = new ArrayList<Run>();
+        Document doc = null;
+        Run run = null;
+        for (Change change : getNotifiableChanges(serverPlayer, diverted)) {
+            if (change instanceof ObjectChange
+                && ((ObjectChange) change).writesToStream()) {
+                if (run == null || !run.acceptsUpdate()) {
+                    runs.add(run = new Run(null));
+                }
+                run.contents.add(change);
+                continue;
+            }
+            Element element;
+            if (change.isShared()) {
+                element = getSharedElement(change);
+            } else {
+                if (doc == null) doc = DOMMessage.createNewDocument();
+                element = change.toElement(serverPlayer, doc);
+            }
+            if (run == null || !run.accepts(element)) {
+                runs.add(run = new Run(element));
+            }
+            run.contents.add(element);
+        }
+        if (runs.isEmpty() && diverted.isEmpty()) return false;
+
+        // Attributes are attached to the outermost element.
+        Map<String, String> attributes = new LinkedHashMap<String, String>();
+        for (Change change : diverted) {
+            if (change instanceof AttributeChange) {
+                ((AttributeChange) change).attachToMap(attributes);
+            }
+        }
+
+        XMLStreamWriter out = connection.ask();
+        XMLStreamReader in = null;
+        try {
+            switch (runs.size()) {
+            case 0:
+                out.writeStartElement("update");
+                writeAttributes(out, null, attributes);
+                out.writeEndElement();
+                break;
+            case 1:
+                writeRun(out, serverPlayer, runs.get(0), attributes);
+                break;
+            default:
+                out.writeStartElement("multiple");
+                writeAttributes(out, null, attributes);
+                for (Run r : runs) {
+                    writeRun(out, serverPlayer, r,
+                             Collections.<String, String>emptyMap());
+                }
+                out.writeEndElement();
+                break;
+            }
+            in = connection.getReply();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.toString());
+        } finally {
+            connection.endTransmission(in);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a run of collapsed changes as one element.
+     *
+     * @param out The <code>XMLStreamWriter</code> to write to.
+     * @param serverPlayer The <code>ServerPlayer</code> to update.
+     * @param run The <code>Run</code> to write.
+     * @param attributes Extra attributes to add to the element.
+     * @throws XMLStreamException if there is a problem writing.
+     */
+    private static void writeRun(XMLStreamWriter out,
+                                 ServerPlayer serverPlayer, Run run,
+                                 Map<String, String> attributes)
+        throws XMLStreamException {
+        out.writeStartElement((run.head == null) ? "update"
+                              : run.head.getTagName());
+        writeAttributes(out, run.head, attributes);
+        for (Object o : run.contents) {
+            if (o instanceof ObjectChange) {
+                ((ObjectChange) o).writeObject(serverPlayer, out);
+            } else {
+                Node n = ((Element) o).getFirstChild();
+                for (; n != null; n = n.getNextSibling()) {
+                    DOMMessage.writeNode(out, n);
+                }
+            }
+        }
+        out.writeEndElement();
+    }
+
+    /**
+     * Writes the attributes of an element, with extra attributes
+     * overriding those of the element.
+     *
+     * @param out The <code>XMLStreamWriter</code> to write to.
+     * @param element The <code>Element</code> to copy the attributes
+     *     of, or null if none.
+     * @param attributes The extra attributes.
+     * @throws XMLStreamException if there is a problem writing.
+     */
+    private static void writeAttributes(XMLStreamWriter out, Element element,
+                                        Map<String, String> attributes)
+        throws XMLStreamException {
+        if (element != null) {
+            NamedNodeMap nnm = element.getAttributes();
+            for (int i = 0; i < nnm.getLength(); i++) {
+                Node a = nnm.item(i);
+                if (attributes.containsKey(a.getNodeName())) continue;
+                out.writeAttribute(a.getNodeName(), a.getNodeValue());
+            }
+        }
+        for (Map.Entry<String, String> e : attributes.entrySet()) {
+            out.writeAttribute(e.getKey(), e.getValue());
+        }
+    }
+
 }
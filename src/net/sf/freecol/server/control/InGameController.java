@@ -110,6 +110,7 @@ import net.sf.freecol.common.util.Introspector;
 import net.sf.freecol.common.util.RandomChoice;
 import net.sf.freecol.common.util.Utils;
 import net.sf.freecol.server.FreeColServer;
+import net.sf.freecol.server.GameGate;
 import net.sf.freecol.server.ai.AIPlayer;
 import net.sf.freecol.server.ai.REFAIPlayer;
 import net.sf.freecol.server.control.ChangeSet.ChangePriority;
@@ -124,6 +125,7 @@ import net.sf.freecol.server.model.ServerPlayer;
 import net.sf.freecol.server.model.ServerUnit;
 import net.sf.freecol.server.model.TradeSession;
 import net.sf.freecol.server.model.TransactionSession;
+import net.sf.freecol.server.networking.DummyConnection;
 
 import org.w3c.dom.Element;
 
@@ -416,7 +418,14 @@ public final class InGameController extends Controller {
                 logger.log(Level.WARNING, "Instantiation fail", e);
                 message = null;
             }
-            return (message == null) ? null : handler.handle(message);
+            if (message == null) return null;
+            final GameGate gate = getFreeColServer().getGameGate();
+            gate.enter();
+            try {
+                return handler.handle(message);
+            } finally {
+                gate.exit();
+            }
         }
     };
 
@@ -602,7 +611,25 @@ public final class InGameController extends Controller {
      * @param cs A <code>ChangeSet</code> to build an <code>Element</code> with.
      */
     private void sendElement(ServerPlayer serverPlayer, ChangeSet cs) {
-        askElement(serverPlayer, cs.build(serverPlayer));
+        Connection connection = serverPlayer.getConnection();
+        if (connection == null) return;
+        // In-process connections get only the changes they act on.
+        // Stream the update over real connections, unless the
+        // communications are being dumped.
+        if (connection instanceof DummyConnection) {
+            askElement(serverPlayer,
+                cs.build(serverPlayer, (DummyConnection) connection));
+            return;
+        } else if (FreeCol.getDebugLevel() >= FreeCol.DEBUG_FULL_COMMS) {
+            askElement(serverPlayer, cs.build(serverPlayer));
+            return;
+        }
+        try {
+            cs.send(serverPlayer, connection);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not send update to "
+                + serverPlayer.getName(), e);
+        }
     }
 
     /**
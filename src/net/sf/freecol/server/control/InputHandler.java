@@ -34,6 +34,7 @@ import net.sf.freecol.common.networking.DOMMessage;
 import net.sf.freecol.common.networking.ChatMessage;
 import net.sf.freecol.common.networking.MessageHandler;
 import net.sf.freecol.server.FreeColServer;
+import net.sf.freecol.server.GameGate;
 import net.sf.freecol.server.model.ServerPlayer;
 import net.sf.freecol.server.networking.Server;
 
@@ -101,12 +102,17 @@ public abstract class InputHandler extends FreeColServerHolder implements Messag
         String tagName = element.getTagName();
         NetworkRequestHandler handler = _handlerMap.get(tagName);
         if (handler != null) {
+            // Keep the game from being saved while it is changed.
+            final GameGate gate = getFreeColServer().getGameGate();
+            gate.enter();
             try {
                 return handler.handle(connection, element);
             } catch (Exception e) {
                 // TODO: should we really catch Exception? The old code did.
                 logException(e);
                 sendReconnectSafely(connection);
+            } finally {
+                gate.exit();
             }
         } else {
             // Should we return an error here? The old handler returned null.
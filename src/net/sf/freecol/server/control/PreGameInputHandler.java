@@ -118,7 +118,7 @@ public final class PreGameInputHandler extends InputHandler {
         Element updateGameOptionsElement = DOMMessage.createNewRootElement("updateGameOptions");
         updateGameOptionsElement.appendChild(gameOptions.toXMLElement(
                 updateGameOptionsElement.getOwnerDocument()));
-        getFreeColServer().getServer().sendToAll(updateGameOptionsElement, connection);
+        getFreeColServer().getServer().postToAll(updateGameOptionsElement, connection);
         return null;
     }
 
@@ -139,7 +139,7 @@ public final class PreGameInputHandler extends InputHandler {
         Element umge = DOMMessage.createNewRootElement("updateMapGeneratorOptions");
         umge.appendChild(getFreeColServer().getMapGenerator().getMapGeneratorOptions().toXMLElement(
                 umge.getOwnerDocument()));
-        getFreeColServer().getServer().sendToAll(umge, connection);
+        getFreeColServer().getServer().postToAll(umge, connection);
         return null;
     }
 
@@ -157,7 +157,7 @@ public final class PreGameInputHandler extends InputHandler {
             Element playerReady = DOMMessage.createNewRootElement("playerReady");
             playerReady.setAttribute("player", player.getId());
             playerReady.setAttribute("value", Boolean.toString(ready));
-            getFreeColServer().getServer().sendToAll(playerReady, player.getConnection());
+            getFreeColServer().getServer().postToAll(playerReady, player.getConnection());
         } else {
             logger.warning("Ready from unknown connection.");
         }
@@ -181,7 +181,7 @@ public final class PreGameInputHandler extends InputHandler {
                 updateNation.setAttribute("player", player.getId());
                 updateNation.setAttribute("value", nation.getId());
                 FCLog.log("Set nation, player= " + player.getId() + ", value=" + nation.getId());
-                getFreeColServer().getServer().sendToAll(updateNation, player.getConnection());
+                getFreeColServer().getServer().postToAll(updateNation, player.getConnection());
             } else {
                 logger.warning("Selected non-selectable nation.");
             }
@@ -210,7 +210,7 @@ public final class PreGameInputHandler extends InputHandler {
                 updateNationType.setAttribute("player", player.getId());
                 updateNationType.setAttribute("value", nationType.getId());
                 FCLog.log("Set nation type, player= " + player.getId() + ", value=" + nationType.getId());
-                getFreeColServer().getServer().sendToAll(updateNationType, player.getConnection());
+                getFreeColServer().getServer().postToAll(updateNationType, player.getConnection());
             } else {
                 logger.warning("NationType is not selectable");
             }
@@ -232,7 +232,7 @@ public final class PreGameInputHandler extends InputHandler {
             Nation nation = getGame().getSpecification().getNation(element.getAttribute("nation"));
             NationState state = Enum.valueOf(NationState.class, element.getAttribute("state"));
             getFreeColServer().getGame().getNationOptions().setNationState(nation, state);
-            getFreeColServer().getServer().sendToAll(element, player.getConnection());
+            getFreeColServer().getServer().postToAll(element, player.getConnection());
         } else {
             logger.warning("Available from unknown connection.");
         }
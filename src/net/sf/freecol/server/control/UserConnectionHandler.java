@@ -161,6 +161,10 @@ public final class UserConnectionHandler
             throw new IllegalArgumentException("The attribute 'username' is missing.");
         }
 
+        // Use the binary encoding if the client offers it.
+        final boolean binary = FreeCol.getBinaryProtocol()
+            && "binary".equals(in.getAttributeValue(null, "protocol"));
+
         final String freeColVersion = in.getAttributeValue(null, "freeColVersion");
         if (freeColVersion == null) {
             throw new IllegalArgumentException("The attribute 'freeColVersion' is missing.");
@@ -213,6 +217,7 @@ public final class UserConnectionHandler
                 out.writeAttribute("singleplayer", Boolean.toString(freeColServer.isSingleplayer()));
                 out.writeAttribute("startGame", "true");
                 out.writeAttribute("isCurrentPlayer", Boolean.toString(isCurrentPlayer));
+                if (binary) out.writeAttribute("protocol", "binary");
                 if (isCurrentPlayer && freeColServer.getActiveUnit() != null) {
                     out.writeAttribute("activeUnit",
                                        freeColServer.getActiveUnit().getId());
@@ -225,6 +230,7 @@ public final class UserConnectionHandler
             }
 
             // Successful login:
+            connection.setBinaryProtocol(binary);
             server.addConnection(connection);
             return;
         }
@@ -281,6 +287,7 @@ public final class UserConnectionHandler
             out.writeStartElement("loginConfirmed");
             out.writeAttribute("admin", (admin ? "true" : "false"));
             out.writeAttribute("singleplayer", Boolean.toString(freeColServer.isSingleplayer()));
+            if (binary) out.writeAttribute("protocol", "binary");
             freeColServer.getGame().toXML(out, newPlayer, false, false);
             freeColServer.getMapGenerator().getMapGeneratorOptions().toXML(out);
             out.writeEndElement();
@@ -289,6 +296,7 @@ public final class UserConnectionHandler
         }
 
         // Successful login:
+        connection.setBinaryProtocol(binary);
         server.addConnection(connection);
     }
 
@@ -19,9 +19,9 @@
 
 package net.sf.freecol.server.model;
 
-import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.Level;
@@ -130,6 +130,25 @@ public class ServerGame extends Game implements ServerModelObject {
         }
     }
 
+    /**
+     * Creates trivial instantiations of server objects that are not
+     * yet in this game, so that they are read as server objects.
+     *
+     * @param serverStrings A list of server object type,ID pairs to create.
+     */
+    public void createServerObjects(List<String> serverStrings) {
+        for (int i = 0; i + 1 < serverStrings.size(); i += 2) {
+            String type = serverStrings.get(i);
+            String id = serverStrings.get(i + 1);
+            if (getFreeColGameObject(id) != null) continue;
+            try {
+                makeServerObject(type, id);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Build " + type + " failed", e);
+            }
+        }
+    }
+
     /**
      * Makes a trivial server object in this game given a server object tag
      * and an id.
@@ -337,9 +356,11 @@ public class ServerGame extends Game implements ServerModelObject {
      */
     public List<ServerModelObject> getServerModelObjects() {
         List<ServerModelObject> objs = new ArrayList<ServerModelObject>();
-        for (WeakReference<FreeColGameObject> wr :freeColGameObjects.values()) {
-            if (wr.get() instanceof ServerModelObject) {
-                objs.add((ServerModelObject) wr.get());
+        Iterator<FreeColGameObject> it = getFreeColGameObjectIterator();
+        while (it.hasNext()) {
+            FreeColGameObject fcgo = it.next();
+            if (fcgo instanceof ServerModelObject) {
+                objs.add((ServerModelObject) fcgo);
             }
         }
         return objs;
@@ -306,8 +306,12 @@ public class ServerUnit extends Unit implements ServerModelObject {
                 // Used to setDestination(null) due to bugs with uncleared
                 // destinations.  In this case though the unit is not yet
                 // at the destination, and perhaps the bugs are now sorted.
-                PathNode path = map.findPathToEurope(this,
-                    settlement.getTile(), CostDeciders.serverAvoidIllegal());
+                // Skip the search if the settlement has no water route
+                // to the high seas at all.
+                Tile tile = settlement.getTile();
+                PathNode path = (map.getHighSeasDistance(tile) < 0) ? null
+                    : map.findPathToEurope(this, tile,
+                        CostDeciders.serverAvoidIllegal());
                 Tile entry;
                 if (path == null) {
                     entry = getFullEntryLocation();
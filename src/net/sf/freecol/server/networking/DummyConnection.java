@@ -24,6 +24,7 @@ import java.io.IOException;
 import net.sf.freecol.common.FreeColException;
 import net.sf.freecol.common.networking.Connection;
 import net.sf.freecol.common.networking.MessageHandler;
+import net.sf.freecol.common.networking.SelectiveMessageHandler;
 
 import org.w3c.dom.Element;
 
@@ -111,6 +112,20 @@ public final class DummyConnection extends Connection {
         ask(element);
     }
 
+    /**
+     * Checks if the other end of this connection ignores a message.
+     * As both ends are in the same process, such messages need not
+     * be built at all.
+     *
+     * @param tagName The tag name of the message to check.
+     * @return True if the message would be ignored.
+     */
+    public boolean ignores(String tagName) {
+        return outgoingMessageHandler instanceof SelectiveMessageHandler
+            && ((SelectiveMessageHandler) outgoingMessageHandler)
+                .ignores(tagName);
+    }
+
     /**
      * Sets the outgoing MessageHandler for this Connection.
      *
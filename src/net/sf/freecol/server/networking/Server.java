@@ -21,11 +21,17 @@
 package net.sf.freecol.server.networking;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.logging.Logger;
@@ -51,14 +57,30 @@ import android.util.Log;
  * is made, with {@link net.sf.freecol.server.control.UserConnectionHandler}
  * as the control object.
  *
+ * <br><br>
+ *
+ * All the client sockets are read by this thread with a selector.
+ * Incoming data is split into messages at the end of message token
+ * and each complete message is passed to its connection, which
+ * handles it on the shared message handler pool.
+ *
  * @see net.sf.freecol.common.networking
  */
 public final class Server extends Thread {
 
     private static Logger logger = Logger.getLogger(Server.class.getName());
 
+    /** The end of message token. */
+    private static final byte END_OF_MESSAGE = '\n';
+
     /** The public "well-known" socket to which clients may connect. */
-    private ServerSocket serverSocket;
+    private ServerSocketChannel serverChannel;
+
+    /** The selector for the public socket and the client sockets. */
+    private Selector selector;
+
+    /** The buffer the client sockets are read into. */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(16384);
 
     /** A hash of Connection objects, keyed by the Socket they relate to. */
     private HashMap<Socket, Connection> connections = new HashMap<Socket, Connection>();
@@ -90,8 +112,26 @@ public final class Server extends Thread {
         super(FreeCol.SERVER_THREAD+"Server");
         this.freeColServer = freeColServer;
         this.port = port;
-        //serverSocket = new ServerSocket(port, freeColServer.getMaximumPlayers());
-        serverSocket = new ServerSocket(port);
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * A client socket, with the part of the next message received so far.
+     */
+    private static class Client {
+
+        public final Connection connection;
+
+        public final ByteArrayOutputStream partial
+            = new ByteArrayOutputStream();
+
+        public Client(Connection connection) {
+            this.connection = connection;
+        }
     }
 
     /**
@@ -117,49 +157,134 @@ public final class Server extends Thread {
         // ServerSocket is REALLY closed after execution of shutdown.
         synchronized (shutdownLock) {
             while (running) {
-                Socket clientSocket = null;
                 try {
-                    clientSocket = serverSocket.accept();
-
-                    logger.info("Got client connection from "
-                                + clientSocket.getInetAddress().toString());
-					Log.d("Server", "Client connected: "
-							+ clientSocket.getInetAddress().toString());
-                    //Connection connection =
-                        new Connection(clientSocket, freeColServer.getUserConnectionHandler(),
-                                       FreeCol.SERVER_THREAD);
-                    //connections.put(clientSocket, connection);
+                    selector.select();
                 } catch (IOException e) {
                     if (running) {
                         StringWriter sw = new StringWriter();
                         e.printStackTrace(new PrintWriter(sw));
                         logger.warning(sw.toString());
                     }
+                    continue;
+                }
+                if (!running) break;
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
                 }
             }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.warning("Could not close the selector.");
+            }
+        }
+    }
+
+    /**
+     * Accepts a new client connection.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) return;
+            Socket clientSocket = channel.socket();
+            logger.info("Got client connection from "
+                        + clientSocket.getInetAddress().toString());
+            Log.d("Server", "Client connected: "
+                  + clientSocket.getInetAddress().toString());
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel,
+                freeColServer.getUserConnectionHandler(),
+                FreeCol.SERVER_THREAD);
+            channel.register(selector, SelectionKey.OP_READ,
+                             new Client(connection));
+        } catch (IOException e) {
+            if (running) {
+                StringWriter sw = new StringWriter();
+                e.printStackTrace(new PrintWriter(sw));
+                logger.warning(sw.toString());
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {}
+            }
+        }
+    }
+
+    /**
+     * Reads the available data from a client socket, and passes on
+     * any complete messages.
+     *
+     * @param key The <code>SelectionKey</code> of the client socket.
+     */
+    private void read(SelectionKey key) {
+        final SocketChannel channel = (SocketChannel) key.channel();
+        final Client client = (Client) key.attachment();
+        int n;
+        try {
+            readBuffer.clear();
+            n = channel.read(readBuffer);
+        } catch (IOException e) {
+            logger.fine("Read failed on " + client.connection
+                        + ": " + e.getMessage());
+            n = -1;
+        }
+        if (n < 0) {
+            key.cancel();
+            client.connection.receiveEnd();
+            return;
+        }
+        final byte[] data = readBuffer.array();
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            if (data[i] != END_OF_MESSAGE) continue;
+            client.partial.write(data, start, i - start);
+            start = i + 1;
+            if (client.partial.size() > 0) {
+                client.connection.receive(client.partial.toByteArray());
+                client.partial.reset();
+            }
         }
+        client.partial.write(data, start, n - start);
     }
 
     /**
      * Sends a network message to all connections except
-     * <code>exceptConnection</code> (if the argument is non-null).
+     * <code>exceptConnection</code> (if the argument is non-null),
+     * waiting for each to acknowledge it.
+     *
+     * The login and pre-game flows rely on the other clients having
+     * handled the message before they go on (for example, a new
+     * player must be known before the game starts), so this is the
+     * send to use unless the caller is known not to care.
      *
      * @param element The root element of the message to send.
      * @param exceptConnection If non-null, the
      *        <code>Connection</code> not to send to.
+     * @see #postToAll(Element, Connection)
      */
     public void sendToAll(Element element, Connection exceptConnection) {
         Iterator<Connection> connectionIterator = getConnectionIterator();
 
         while (connectionIterator.hasNext()) {
             Connection connection = connectionIterator.next();
-            if (connection != exceptConnection) {
-                try {
-                    connection.sendAndWait(element);
-                } catch (IOException e) {
-                    logger.warning("Exception while attempting to send to "
-                                   + connection);
-                }
+            if (connection == exceptConnection) continue;
+            try {
+                connection.sendAndWait(element);
+            } catch (IOException e) {
+                logger.warning("Exception while attempting to send to "
+                               + connection);
             }
         }
     }
@@ -168,11 +293,48 @@ public final class Server extends Thread {
      * Sends a network message to all connections.
      *
      * @param element The root element of the message to send.
+     * @see #sendToAll(Element, Connection)
      */
     public void sendToAll(Element element) {
         sendToAll(element, null);
     }
 
+    /**
+     * Posts a network message to all connections except
+     * <code>exceptConnection</code> (if the argument is non-null),
+     * without waiting for it to be sent or acknowledged.
+     *
+     * The message is serialized once and posted to the outbound
+     * queue of each socket connection, so a slow client does not hold
+     * up the others.  Messages sent directly to a connection later
+     * still follow it, but the caller may run ahead of the clients, so
+     * this is only for notices that nothing later depends on.
+     *
+     * @param element The root element of the message to send.
+     * @param exceptConnection If non-null, the
+     *        <code>Connection</code> not to send to.
+     */
+    public void postToAll(Element element, Connection exceptConnection) {
+        Iterator<Connection> connectionIterator = getConnectionIterator();
+        byte[] message = null;
+
+        while (connectionIterator.hasNext()) {
+            Connection connection = connectionIterator.next();
+            if (connection == exceptConnection) continue;
+            try {
+                if (connection instanceof DummyConnection) {
+                    connection.sendAndWait(element);
+                } else {
+                    if (message == null) message = Connection.serialize(element);
+                    connection.getOutboundQueue().post(message);
+                }
+            } catch (IOException e) {
+                logger.warning("Exception while attempting to send to "
+                               + connection);
+            }
+        }
+    }
+
     /**
      * Gets the TCP port that is beeing used for the public socket.
      *
@@ -213,11 +375,12 @@ public final class Server extends Thread {
         running = false;
 
         try {
-            serverSocket.close();
+            serverChannel.close();
             logger.fine("Closed server socket.");
         } catch (IOException e) {
             logger.warning("Could not close the server socket!");
         }
+        selector.wakeup();
 
         synchronized (shutdownLock) {
             // Nothing to do here... just waiting for the server
@@ -20,11 +20,14 @@
 package org.freecolandroid.ui.game;
 
 import static org.freecolandroid.Constants.LOG_TAG;
+import net.sf.freecol.FreeCol;
 import net.sf.freecol.client.FreeColClient;
+import org.freecolandroid.repackaged.java.awt.Component;
 import org.freecolandroid.repackaged.java.awt.Graphics2D;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -78,6 +81,7 @@ public class GameCanvas extends SurfaceView implements Callback {
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        mPaintThread.repaintAll();
     }
 
     @Override
@@ -98,42 +102,200 @@ public class GameCanvas extends SurfaceView implements Callback {
         }
     }
 
-    private class PaintThread extends Thread {
+    /**
+     * Gets the number of frames drawn so far.
+     *
+     * @return The number of frames.
+     */
+    public long getFrameCount() {
+        return mPaintThread.getFrameCount();
+    }
+
+    /**
+     * Gets the average time taken to draw a frame.
+     *
+     * @return The average frame time in ms.
+     */
+    public double getAverageFrameTime() {
+        return mPaintThread.getAverageFrameTime();
+    }
+
+    /**
+     * Gets the longest time taken to draw a frame.
+     *
+     * @return The longest frame time in ms.
+     */
+    public double getMaxFrameTime() {
+        return mPaintThread.getMaxFrameTime();
+    }
+
+    /**
+     * Draws the map on demand.
+     *
+     * The thread sleeps until the GUI canvas asks for a repaint, as it
+     * does when tiles are refreshed, the cursor blinks, a unit is
+     * animated or the map is scrolled, and then redraws only the union
+     * of the requested regions.  Frames are drawn at most
+     * {@link #MAX_FRAME_RATE} times a second, requests arriving in
+     * between being merged into the next frame.  In case a change to
+     * the game is not followed by a repaint request, the whole map is
+     * also redrawn after {@link FreeCol#getIdleRefreshInterval} ms
+     * without one, unless that is zero.
+     */
+    private class PaintThread extends Thread
+        implements Component.RepaintListener {
+
+        /** The most frames drawn a second. */
+        private static final int MAX_FRAME_RATE = 30;
+
+        /** The least time between the starts of two frames, in ms. */
+        private static final long MIN_FRAME_INTERVAL = 1000 / MAX_FRAME_RATE;
+
+        /** The number of frames between two statistics reports. */
+        private static final int STATS_INTERVAL = 300;
 
         private boolean mRunning = true;
 
         private boolean mPaused = false;
 
-        public void stopPainting() {
+        /** The region to redraw in the next frame, empty if none. */
+        private final Rect mDirty = new Rect();
+
+        /** Frame statistics. */
+        private long mFrames = 0, mPartialFrames = 0;
+
+        private long mTotalFrameNanos = 0, mMaxFrameNanos = 0;
+
+        public synchronized void stopPainting() {
             mRunning = false;
+            notifyAll();
         }
 
-        public void setPaused(boolean paused) {
+        public synchronized void setPaused(boolean paused) {
             mPaused = paused;
+            // The surface may have been covered while paused.
+            if (!paused) repaintAll();
+            notifyAll();
+        }
+
+        /**
+         * Adds the whole surface to the next frame.
+         */
+        public synchronized void repaintAll() {
+            mDirty.set(0, 0, getWidth(), getHeight());
+            notifyAll();
+        }
+
+        /**
+         * Adds a region of the GUI canvas to the next frame.  Requests
+         * from other components are ignored, as only the GUI canvas is
+         * drawn on the surface.
+         */
+        public void repaintRequested(Component component, int x, int y,
+                                     int width, int height) {
+            if (mClient == null || mClient.getGUI() == null
+                || component != mClient.getGUI().getCanvas()) {
+                return;
+            }
+            synchronized (this) {
+                if (width <= 0 || height <= 0) {
+                    // Not laid out yet, redraw everything.
+                    repaintAll();
+                } else {
+                    mDirty.union(x, y, x + width, y + height);
+                    notifyAll();
+                }
+            }
+        }
+
+        public synchronized long getFrameCount() {
+            return mFrames;
+        }
+
+        public synchronized double getAverageFrameTime() {
+            return (mFrames == 0) ? 0.0
+                : mTotalFrameNanos / (mFrames * 1000000.0);
+        }
+
+        public synchronized double getMaxFrameTime() {
+            return mMaxFrameNanos / 1000000.0;
+        }
+
+        /**
+         * Waits until there is something to draw.
+         *
+         * @return The region to draw, or null if the thread should stop.
+         */
+        private synchronized Rect waitForDirty() {
+            final long interval = FreeCol.getIdleRefreshInterval();
+            final long deadline = SystemClock.uptimeMillis() + interval;
+            while (mRunning && (mPaused || mDirty.isEmpty())) {
+                long left = deadline - SystemClock.uptimeMillis();
+                if (!mPaused && interval > 0 && left <= 0) {
+                    repaintAll();
+                    break;
+                }
+                try {
+                    wait((mPaused || interval <= 0) ? 0 : left);
+                } catch (InterruptedException e) {
+                    // Check again
+                }
+            }
+            if (!mRunning) return null;
+            Rect dirty = new Rect(mDirty);
+            mDirty.setEmpty();
+            return dirty;
+        }
+
+        /**
+         * Records the time taken by a frame, and reports the statistics
+         * every {@link #STATS_INTERVAL} frames.
+         *
+         * @param nanos The frame time in ns.
+         * @param partial True if only part of the surface was drawn.
+         */
+        private synchronized void recordFrame(long nanos, boolean partial) {
+            mFrames++;
+            if (partial) mPartialFrames++;
+            mTotalFrameNanos += nanos;
+            if (nanos > mMaxFrameNanos) mMaxFrameNanos = nanos;
+            if (mFrames % STATS_INTERVAL == 0) {
+                Log.d(LOG_TAG, String.format("GameCanvas: %d frames"
+                        + " (%d partial), %.1f ms average, %.1f ms max",
+                        mFrames, mPartialFrames, getAverageFrameTime(),
+                        getMaxFrameTime()));
+            }
         }
 
         @SuppressLint("WrongCall")
 		@Override
         public void run() {
             Log.d(LOG_TAG, "GameCanvas.PaintThread.run() - start");
-            System.out.println();
-            Canvas canvas = null;
-            while (mRunning) {
-                if (!mPaused) {
-                    try {
-                        canvas = mHolder.lockCanvas();
-                        onDraw(canvas);
-                    } catch (Exception e) {
-                        // mRunning = false;
-                        Log.w(LOG_TAG, "Exception while drawing", e);
-                    } finally {
-                        if (canvas != null) {
-                            mHolder.unlockCanvasAndPost(canvas);
-                        }
+            Component.setRepaintListener(this);
+            Rect dirty;
+            while ((dirty = waitForDirty()) != null) {
+                final long start = SystemClock.uptimeMillis();
+                final long startNanos = System.nanoTime();
+                Canvas canvas = null;
+                try {
+                    // The surface may widen the dirty region, and clips
+                    // the canvas to the region it settles on.
+                    canvas = mHolder.lockCanvas(dirty);
+                    onDraw(canvas);
+                } catch (Exception e) {
+                    Log.w(LOG_TAG, "Exception while drawing", e);
+                } finally {
+                    if (canvas != null) {
+                        mHolder.unlockCanvasAndPost(canvas);
                     }
                 }
+                recordFrame(System.nanoTime() - startNanos,
+                            dirty.width() < getWidth()
+                            || dirty.height() < getHeight());
+                long rest = start + MIN_FRAME_INTERVAL - SystemClock.uptimeMillis();
+                if (rest > 0) SystemClock.sleep(rest);
             }
-            SystemClock.sleep(50);
+            Component.setRepaintListener(null);
             Log.d(LOG_TAG, "GameCanvas.PaintThread.run() - stop");
         }
 
@@ -23,7 +23,9 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 
+import org.freecolandroid.xml.stream.impl.DOMStreamWriterImpl;
 import org.freecolandroid.xml.stream.impl.XMLStreamWriterImpl;
+import org.w3c.dom.Node;
 
 public class XMLOutputFactory {
 
@@ -49,4 +51,16 @@ public class XMLOutputFactory {
 		return new XMLStreamWriterImpl(out);
 	}
 
+	/**
+	 * Creates a writer that builds DOM nodes, appending them to the
+	 * given node.
+	 *
+	 * @param parent The <code>Node</code> to append to.
+	 * @return A new <code>XMLStreamWriter</code>.
+	 */
+	public XMLStreamWriter createXMLStreamWriter(Node parent)
+			throws XMLStreamException {
+		return new DOMStreamWriterImpl(parent);
+	}
+
 }
@@ -0,0 +1,132 @@
+/**
+ *  Copyright (C) 2012   The FreeCol-Android Team
+ *
+ *  This file is part of FreeCol-Android.
+ *
+ *  FreeCol-Android is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol-Android.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.freecolandroid.xml.stream.impl;
+
+import org.freecolandroid.xml.stream.XMLStreamException;
+import org.freecolandroid.xml.stream.XMLStreamWriter;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+/**
+ * An <code>XMLStreamWriter</code> that builds DOM nodes directly,
+ * rather than writing text that has to be parsed again.
+ */
+public class DOMStreamWriterImpl implements XMLStreamWriter {
+
+	private final Document document;
+
+	private Node current;
+
+	/**
+	 * Creates a writer appending to the given node.
+	 *
+	 * @param parent The node to append the written nodes to.
+	 */
+	public DOMStreamWriterImpl(Node parent) {
+		this.document = (parent instanceof Document) ? (Document) parent
+				: parent.getOwnerDocument();
+		this.current = parent;
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		flush();
+	}
+
+	@Override
+	public void flush() throws XMLStreamException {
+		// Nothing is buffered.
+	}
+
+	@Override
+	public void writeAttribute(String name, String value)
+			throws XMLStreamException {
+		if (!(current instanceof Element)) {
+			throw new XMLStreamException("Attribute outside element: " + name);
+		}
+		try {
+			((Element) current).setAttribute(name, value);
+		} catch (DOMException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeCharacters(String chars) throws XMLStreamException {
+		if (chars == null || chars.length() == 0) {
+			return;
+		}
+		try {
+			Node last = current.getLastChild();
+			if (last instanceof Text) {
+				((Text) last).appendData(chars);
+			} else {
+				current.appendChild(document.createTextNode(chars));
+			}
+		} catch (DOMException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeComment(String comment) throws XMLStreamException {
+		try {
+			current.appendChild(document.createComment(comment));
+		} catch (DOMException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	@Override
+	public void writeEndDocument() throws XMLStreamException {
+		while (current instanceof Element) {
+			current = current.getParentNode();
+		}
+	}
+
+	@Override
+	public void writeEndElement() throws XMLStreamException {
+		if (!(current instanceof Element)) {
+			throw new XMLStreamException("No element to end");
+		}
+		current = current.getParentNode();
+	}
+
+	@Override
+	public void writeStartDocument(String encoding, String version)
+			throws XMLStreamException {
+		// The document already exists.
+	}
+
+	@Override
+	public void writeStartElement(String name) throws XMLStreamException {
+		try {
+			Element element = document.createElement(name);
+			current.appendChild(element);
+			current = element;
+		} catch (DOMException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.freecolandroid.xml.stream.XMLStreamException;
+import org.freecolandroid.xml.stream.XMLStreamWriter;
+
+
+/**
+ * Checks the lookups of the object registry, and that objects dropped
+ * without being disposed are not kept alive by it.
+ */
+public class FreeColGameObjectRegistryTest extends TestCase {
+
+    public void testSameNumberDifferentType() {
+        FreeColGameObjectRegistry registry = new FreeColGameObjectRegistry();
+        Dummy unit = new Dummy("unit:5");
+        Dummy tile = new Dummy("tile:5");
+        Dummy other = new Dummy("model.option.other");
+        put(registry, unit);
+        put(registry, tile);
+        put(registry, other);
+        assertEquals(3, registry.size());
+        assertSame(unit, registry.get("unit:5"));
+        assertSame(tile, registry.get("tile:5"));
+        assertSame(other, registry.get("model.option.other"));
+        assertNull(registry.get("colony:5"));
+
+        assertSame(unit, registry.remove("unit:5"));
+        assertNull(registry.get("unit:5"));
+        assertSame(tile, registry.get("tile:5"));
+        assertNull(registry.remove("unit:5"));
+        assertEquals(2, registry.size());
+    }
+
+    public void testReplace() {
+        FreeColGameObjectRegistry registry = new FreeColGameObjectRegistry();
+        Dummy first = new Dummy("unit:7");
+        Dummy second = new Dummy("unit:7");
+        put(registry, first);
+        put(registry, second);
+        assertEquals(1, registry.size());
+        assertSame(second, registry.get("unit:7"));
+    }
+
+    public void testGrowAndRemove() {
+        FreeColGameObjectRegistry registry = new FreeColGameObjectRegistry();
+        List<Dummy> objects = new ArrayList<Dummy>();
+        for (int i = 0; i < 40000; i++) {
+            Dummy d = new Dummy(((i % 2 == 0) ? "unit:" : "tile:") + i);
+            objects.add(d);
+            put(registry, d);
+        }
+        for (int i = 0; i < objects.size(); i += 3) {
+            assertSame(objects.get(i), registry.remove(objects.get(i).getId()));
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            Dummy d = objects.get(i);
+            assertSame(d.getId(), (i % 3 == 0) ? null : d,
+                       registry.get(d.getId()));
+        }
+        assertEquals(objects.size() - (objects.size() + 2) / 3,
+                     registry.getObjects().size());
+    }
+
+    public void testDroppedObjectsAreExpunged() {
+        FreeColGameObjectRegistry registry = new FreeColGameObjectRegistry();
+        Dummy kept = new Dummy("unit:1");
+        put(registry, kept);
+        put(registry, new Dummy("unit:2"));
+        put(registry, new Dummy("dropped"));
+        List<String> expunged = new ArrayList<String>();
+        for (int i = 0; i < 50 && expunged.size() < 2; i++) {
+            System.gc();
+            expunged.addAll(registry.expunge());
+        }
+        assertEquals(2, expunged.size());
+        assertTrue(expunged.contains("unit:2"));
+        assertTrue(expunged.contains("dropped"));
+        assertEquals(1, registry.size());
+        assertSame(kept, registry.get("unit:1"));
+    }
+
+    private static void put(FreeColGameObjectRegistry registry, Dummy d) {
+        registry.put(d.getId(), d);
+    }
+
+    /** An object that belongs to no game. */
+    private static class Dummy extends FreeColGameObject {
+
+        public Dummy(String id) {
+            setId(id);
+        }
+
+        @Override
+        protected void toXMLImpl(XMLStreamWriter out, Player player,
+                                 boolean showAll, boolean toSavedGame)
+            throws XMLStreamException {
+            // Never written.
+        }
+    }
+}
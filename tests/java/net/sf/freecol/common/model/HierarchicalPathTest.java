@@ -0,0 +1,125 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import net.sf.freecol.server.model.ServerUnit;
+import net.sf.freecol.util.test.FreeColTestCase;
+
+
+/**
+ * Checks <code>Map.findPathHierarchical</code> against the full
+ * search of <code>Map.findPath</code>, which is the oracle: both must
+ * agree on whether a path exists and where it ends, and the
+ * hierarchical path may only be slightly longer.
+ */
+public class HierarchicalPathTest extends FreeColTestCase {
+
+    /** The most turns a hierarchical path may add to the best one. */
+    private static final int MAX_EXTRA_TURNS = 1;
+
+    private static final String PLAINS = "model.tile.plains";
+
+    private static final String OCEAN = "model.tile.ocean";
+
+
+    public void testLandPathAroundWall() {
+        Game game = getStandardGame();
+        Map map = getTestMap(game, PLAINS, 80, 40);
+        fillColumn(map, 40, 0, 35, OCEAN);
+        Unit colonist = createUnit(game, map.getTile(5, 5),
+                                   "model.unit.freeColonist");
+
+        compareAll(map, colonist);
+    }
+
+    public void testLandPathBetweenLandMasses() {
+        Game game = getStandardGame();
+        Map map = getTestMap(game, PLAINS, 80, 40);
+        fillColumn(map, 40, 0, 40, OCEAN);
+        Unit colonist = createUnit(game, map.getTile(5, 5),
+                                   "model.unit.freeColonist");
+
+        Tile end = map.getTile(75, 5);
+        assertNull(map.findPath(colonist, colonist.getTile(), end,
+                                null, null));
+        assertNull(map.findPathHierarchical(colonist, colonist.getTile(),
+                                            end, null, null));
+        compareAll(map, colonist);
+    }
+
+    public void testNavalPathAroundIsland() {
+        Game game = getStandardGame();
+        Map map = getTestMap(game, OCEAN, 80, 40);
+        for (int x = 30; x < 50; x++) fillColumn(map, x, 5, 40, PLAINS);
+        Unit caravel = createUnit(game, map.getTile(5, 20),
+                                  "model.unit.caravel");
+
+        compareAll(map, caravel);
+    }
+
+    /**
+     * Compares the hierarchical and the full search from the tile of
+     * a unit to a spread of tiles across the map.
+     *
+     * @param map The <code>Map</code> to search.
+     * @param unit The <code>Unit</code> to find paths for.
+     */
+    private void compareAll(Map map, Unit unit) {
+        final Tile start = unit.getTile();
+        for (int x = 0; x < map.getWidth(); x += 7) {
+            for (int y = 0; y < map.getHeight(); y += 5) {
+                Tile end = map.getTile(x, y);
+                if (end == start) continue;
+                PathNode flat = map.findPath(unit, start, end, null, null);
+                PathNode path = map.findPathHierarchical(unit, start, end,
+                                                         null, null);
+                String where = start + " to " + end;
+                if (flat == null) {
+                    assertNull("Path not in full search: " + where, path);
+                    continue;
+                }
+                assertNotNull("Path missing: " + where, path);
+                assertEquals("Path ends elsewhere: " + where, end,
+                             path.getLastNode().getTile());
+                int turns = path.getLastNode().getTurns();
+                int best = flat.getLastNode().getTurns();
+                assertTrue("Path better than the full search: " + where,
+                           turns >= best);
+                assertTrue("Path too long: " + where + " takes " + turns
+                           + " turns, not " + best,
+                           turns <= best + MAX_EXTRA_TURNS);
+            }
+        }
+    }
+
+    private static void fillColumn(Map map, int x, int fromY, int toY,
+                                   String type) {
+        final TileType tileType = spec().getTileType(type);
+        for (int y = fromY; y < toY; y++) {
+            map.getTile(x, y).setType(tileType);
+        }
+    }
+
+    private static Unit createUnit(Game game, Tile tile, String type) {
+        return new ServerUnit(game, tile,
+                              getPlayer(game, "model.nation.dutch"),
+                              spec().getUnitType(type));
+    }
+}
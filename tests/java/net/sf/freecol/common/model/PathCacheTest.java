@@ -0,0 +1,104 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.model;
+
+import net.sf.freecol.server.model.ServerUnit;
+import net.sf.freecol.util.test.FreeColTestCase;
+
+
+/**
+ * Checks the counts of the path cache, and that only changes to the
+ * tiles of the map drop cached paths.
+ */
+public class PathCacheTest extends FreeColTestCase {
+
+    private static final String PLAINS = "model.tile.plains";
+
+    private static final String OCEAN = "model.tile.ocean";
+
+    private Map map;
+
+    private Unit unit;
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Game game = getStandardGame();
+        map = getTestMap(game, PLAINS, 20, 20);
+        unit = new ServerUnit(game, map.getTile(2, 2),
+                              getPlayer(game, "model.nation.dutch"),
+                              spec().getUnitType("model.unit.freeColonist"));
+        map.setPathCacheEnabled(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        map.setPathCacheEnabled(false);
+        super.tearDown();
+    }
+
+    public void testHitsAndMisses() {
+        final Tile end = map.getTile(12, 2);
+        assertNotNull(findPath(end));
+        assertNotNull(findPath(end));
+        PathCache.Statistics stats = map.getPathCache().getStatistics();
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.misses);
+        assertEquals(0, stats.invalidations);
+    }
+
+    public void testChangeOnRouteInvalidates() {
+        final Tile end = map.getTile(12, 2);
+        PathNode path = findPath(end);
+        path.next.getTile().setType(spec().getTileType(OCEAN));
+        assertEquals(1, map.getPathCache().getStatistics().invalidations);
+        findPath(end);
+        assertEquals(2, map.getPathCache().getStatistics().misses);
+    }
+
+    public void testScratchTileDoesNotInvalidate() {
+        final Tile end = map.getTile(12, 2);
+        PathNode path = findPath(end);
+        map.takeChangedTiles();
+        Tile scratch = path.next.getTile().getScratchTile();
+        scratch.setType(spec().getTileType(OCEAN));
+        assertEquals(0, map.getPathCache().getStatistics().invalidations);
+        assertTrue(map.takeChangedTiles().isEmpty());
+        findPath(end);
+        assertEquals(1, map.getPathCache().getStatistics().hits);
+    }
+
+    public void testTotalsOutliveCache() {
+        final Tile end = map.getTile(12, 2);
+        findPath(end);
+        findPath(end);
+        map.setPathCacheEnabled(false);
+        map.setPathCacheEnabled(true);
+        findPath(end);
+        PathCache.Statistics totals = map.getPathCacheStatistics();
+        assertEquals(1, totals.hits);
+        assertEquals(2, totals.misses);
+    }
+
+    private PathNode findPath(Tile end) {
+        return map.findPath(unit, unit.getTile(), end, null, null);
+    }
+}
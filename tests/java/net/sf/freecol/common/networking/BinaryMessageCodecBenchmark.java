@@ -0,0 +1,119 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.networking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Element;
+
+
+/**
+ * Compares the binary encoding of messages with XML text, in size and
+ * in the time taken to encode and decode them.  Run with
+ * <code>java net.sf.freecol.common.networking.BinaryMessageCodecBenchmark
+ * [iterations]</code>; the messages are those of
+ * {@link BinaryMessageCodecTest}, sent over and over on one
+ * connection, as in play.
+ */
+public class BinaryMessageCodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int iterations = (args.length > 0) ? Integer.parseInt(args[0])
+            : 20000;
+        final List<Element> messages = BinaryMessageCodecTest.createMessages();
+
+        // Warm up, then measure.
+        runBinary(messages, iterations / 10);
+        runXml(messages, iterations / 10);
+        long[] binary = runBinary(messages, iterations);
+        long[] xml = runXml(messages, iterations);
+
+        System.out.println("Messages: " + messages.size() * iterations);
+        System.out.println("Binary: " + binary[0] + " bytes, "
+            + binary[1] / 1000000 + " ms");
+        System.out.println("XML:    " + xml[0] + " bytes, "
+            + xml[1] / 1000000 + " ms");
+        System.out.println("Size ratio: "
+            + Math.round(100.0 * binary[0] / xml[0]) + "%, time ratio: "
+            + Math.round(100.0 * binary[1] / xml[1]) + "%");
+    }
+
+    /**
+     * Encodes and decodes the messages in the binary encoding.
+     *
+     * @return The bytes sent and the nanoseconds taken.
+     */
+    private static long[] runBinary(List<Element> messages, int iterations)
+        throws IOException {
+        final BinaryMessageCodec encoder = new BinaryMessageCodec();
+        final BinaryMessageCodec decoder = new BinaryMessageCodec();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bytes = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (Element message : messages) {
+                out.reset();
+                encoder.write(out, message);
+                encoder.commit();
+                byte[] data = out.toByteArray();
+                bytes += data.length + 1;
+                decoder.read(data);
+            }
+        }
+        return new long[] { bytes, System.nanoTime() - start };
+    }
+
+    /**
+     * Writes and parses the messages as XML text, as the connection
+     * does without the binary encoding.  Like <code>DOMMessage</code>,
+     * each message is parsed with a new document builder.
+     *
+     * @return The bytes sent and the nanoseconds taken.
+     */
+    private static long[] runXml(List<Element> messages, int iterations)
+        throws Exception {
+        final Transformer transformer
+            = TransformerFactory.newInstance().newTransformer();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bytes = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (Element message : messages) {
+                out.reset();
+                transformer.transform(new DOMSource(message),
+                                      new StreamResult(out));
+                byte[] data = out.toByteArray();
+                bytes += data.length + 1;
+                DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                    .parse(new ByteArrayInputStream(data));
+            }
+        }
+        return new long[] { bytes, System.nanoTime() - start };
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.common.networking;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+
+/**
+ * Checks that messages survive a round trip through the binary
+ * encoding, alone and in sequence, and that the string tables of the
+ * two ends stay in step when a message can not be sent.
+ */
+public class BinaryMessageCodecTest extends TestCase {
+
+    public void testEachMessage() throws IOException {
+        for (Element message : createMessages()) {
+            BinaryMessageCodec encoder = new BinaryMessageCodec();
+            BinaryMessageCodec decoder = new BinaryMessageCodec();
+            assertSameElement(message, roundTrip(encoder, decoder, message));
+        }
+    }
+
+    public void testMessagesInSequence() throws IOException {
+        BinaryMessageCodec encoder = new BinaryMessageCodec();
+        BinaryMessageCodec decoder = new BinaryMessageCodec();
+        // Twice, so that the second pass uses the string tables.
+        for (int pass = 0; pass < 2; pass++) {
+            for (Element message : createMessages()) {
+                assertSameElement(message,
+                                  roundTrip(encoder, decoder, message));
+            }
+        }
+    }
+
+    public void testRepeatedStringsShrink() throws IOException {
+        BinaryMessageCodec encoder = new BinaryMessageCodec();
+        Element message = createMove("unit:6789", "NE");
+        int first = encode(encoder, message).length;
+        encoder.commit();
+        int second = encode(encoder, message).length;
+        encoder.commit();
+        assertTrue(second < first);
+    }
+
+    public void testRollbackKeepsTablesInStep() throws IOException {
+        BinaryMessageCodec encoder = new BinaryMessageCodec();
+        BinaryMessageCodec decoder = new BinaryMessageCodec();
+        Element lost = createMove("unit:1234", "N");
+        try {
+            encoder.write(new FailingOutputStream(4), lost);
+            fail("The write should have failed");
+        } catch (IOException e) {
+            encoder.rollback();
+        }
+        // The decoder never saw the lost message, so the entries it
+        // staged must be sent again in full.
+        Element next = createMove("unit:1234", "S");
+        assertSameElement(next, roundTrip(encoder, decoder, next));
+        assertSameElement(lost, roundTrip(encoder, decoder, lost));
+    }
+
+    public void testUncommittedEntriesAreNotUsed() throws IOException {
+        BinaryMessageCodec encoder = new BinaryMessageCodec();
+        BinaryMessageCodec decoder = new BinaryMessageCodec();
+        Element message = createMove("unit:42", "E");
+        encode(encoder, message);
+        encoder.rollback();
+        assertSameElement(message, roundTrip(encoder, decoder, message));
+    }
+
+    public void testEscapedBytes() throws IOException {
+        BinaryMessageCodec encoder = new BinaryMessageCodec();
+        BinaryMessageCodec decoder = new BinaryMessageCodec();
+        Element chat = DOMMessage.createNewRootElement("chat");
+        chat.setAttribute("message", "\n\u0001\u0002\u0000\n\n\u0001");
+        // Enough strings for a string table index to need the escape.
+        for (int i = 0; i < 12; i++) chat.setAttribute("a" + i, "v" + i);
+        assertSameElement(chat, roundTrip(encoder, decoder, chat));
+        assertSameElement(chat, roundTrip(encoder, decoder, chat));
+    }
+
+    public void testReadRejectsBadIndex() {
+        BinaryMessageCodec decoder = new BinaryMessageCodec();
+        // An element whose tag is string table entry 5, never sent.
+        byte[] data = new byte[] { BinaryMessageCodec.MARKER, 1, 7 };
+        try {
+            decoder.read(data);
+            fail("A bad string index should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testXmlIsNotBinary() {
+        assertFalse(BinaryMessageCodec.isBinary("<move/>".getBytes()));
+        assertFalse(BinaryMessageCodec.isBinary(new byte[0]));
+    }
+
+    /**
+     * Creates one message of each shape the protocol uses.
+     *
+     * @return A list of message <code>Element</code>s.
+     */
+    static List<Element> createMessages() {
+        List<Element> result = new ArrayList<Element>();
+
+        // A simple request.
+        result.add(createMove("unit:6789", "NE"));
+
+        // A login, with many attributes.
+        Element login = DOMMessage.createNewRootElement("login");
+        login.setAttribute("username", "Ulrike von Levetzow");
+        login.setAttribute("freeColVersion", "0.10.5");
+        login.setAttribute("binaryProtocol", "true");
+        login.setAttribute("singleplayer", "false");
+        result.add(login);
+
+        // A chat message, with an end of message token to escape.
+        Element chat = DOMMessage.createNewRootElement("chat");
+        chat.setAttribute("sender", "player:1");
+        chat.setAttribute("privateChat", "false");
+        chat.setAttribute("message", "Line one\nline two \u00e9t\u00e9 \u65e5\u672c");
+        result.add(chat);
+
+        // A question wrapping a nested update.
+        Element question = DOMMessage.createNewRootElement("question");
+        question.setAttribute("networkReplyId", "17");
+        Document doc = question.getOwnerDocument();
+        Element update = doc.createElement("update");
+        for (int i = 0; i < 20; i++) {
+            Element tile = doc.createElement("tile");
+            tile.setAttribute("ID", "tile:" + (1000 + i));
+            tile.setAttribute("x", Integer.toString(i));
+            tile.setAttribute("y", "7");
+            tile.setAttribute("type", (i % 3 == 0) ? "model.tile.ocean"
+                              : "model.tile.plains");
+            if (i % 4 == 0) {
+                Element unit = doc.createElement("unit");
+                unit.setAttribute("ID", "unit:" + (2000 + i));
+                unit.setAttribute("unitType", "model.unit.freeColonist");
+                unit.setAttribute("owner", "player:1");
+                tile.appendChild(unit);
+            }
+            update.appendChild(tile);
+        }
+        question.appendChild(update);
+        result.add(question);
+
+        // A reply with a text node and a long attribute value, too
+        // long for the string table.
+        Element reply = DOMMessage.createNewRootElement("reply");
+        reply.setAttribute("networkReplyId", "17");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) sb.append("model.goods.furs,");
+        reply.setAttribute("goods", sb.toString());
+        reply.appendChild(reply.getOwnerDocument()
+            .createTextNode("Some text <with> & markup"));
+        result.add(reply);
+
+        // Several messages in one.
+        Element multiple = DOMMessage.createNewRootElement("multiple");
+        doc = multiple.getOwnerDocument();
+        for (int i = 0; i < 3; i++) {
+            Element remove = doc.createElement("remove");
+            remove.setAttribute("divert", "tile:" + (1000 + i));
+            multiple.appendChild(remove);
+        }
+        result.add(multiple);
+
+        // An element with nothing in it.
+        result.add(DOMMessage.createNewRootElement("endTurn"));
+        return result;
+    }
+
+    static Element createMove(String unit, String direction) {
+        Element move = DOMMessage.createNewRootElement("move");
+        move.setAttribute("unit", unit);
+        move.setAttribute("direction", direction);
+        return move;
+    }
+
+    /**
+     * Encodes a message as it would be framed on a connection,
+     * without committing its string table entries.
+     */
+    private static byte[] encode(BinaryMessageCodec codec, Element message)
+        throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(out, message);
+        byte[] data = out.toByteArray();
+        for (byte b : data) assertTrue("Unescaped end of message", b != '\n');
+        return data;
+    }
+
+    private static Element roundTrip(BinaryMessageCodec encoder,
+                                     BinaryMessageCodec decoder,
+                                     Element message) throws IOException {
+        byte[] data = encode(encoder, message);
+        encoder.commit();
+        assertTrue(BinaryMessageCodec.isBinary(data));
+        return decoder.read(data);
+    }
+
+    /**
+     * Checks that two elements have the same tag, attributes, child
+     * elements and text.
+     */
+    private static void assertSameElement(Element expected, Element actual) {
+        assertEquals(expected.getTagName(), actual.getTagName());
+        NamedNodeMap attributes = expected.getAttributes();
+        assertEquals(expected.getTagName(), attributes.getLength(),
+                     actual.getAttributes().getLength());
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node a = attributes.item(i);
+            assertEquals(a.getNodeName(), a.getNodeValue(),
+                         actual.getAttribute(a.getNodeName()));
+        }
+        Node e = expected.getFirstChild(), a = actual.getFirstChild();
+        for (; e != null && a != null;
+             e = e.getNextSibling(), a = a.getNextSibling()) {
+            assertEquals(e.getNodeType(), a.getNodeType());
+            if (e.getNodeType() == Node.ELEMENT_NODE) {
+                assertSameElement((Element) e, (Element) a);
+            } else {
+                assertEquals(e.getNodeValue(), a.getNodeValue());
+            }
+        }
+        assertNull(e);
+        assertNull(a);
+    }
+
+    /** A stream that fails after a number of bytes. */
+    private static class FailingOutputStream extends OutputStream {
+
+        private int left;
+
+        public FailingOutputStream(int left) {
+            this.left = left;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (--left < 0) throw new IOException("Connection lost");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.server;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Checks that a <code>GameGate</code> is only frozen when no thread
+ * is inside, and keeps threads out while frozen.
+ */
+public class GameGateTest extends TestCase {
+
+    private static final long SHORT = 100L;
+
+    private static final long LONG = 5000L;
+
+
+    public void testFreezeWaitsForEntries() throws Exception {
+        final GameGate gate = new GameGate();
+        gate.enter();
+        gate.enter();
+        gate.exit();
+        assertFalse(freezeElsewhere(gate, SHORT));
+        gate.exit();
+        assertTrue(gate.freeze(SHORT));
+        gate.thaw();
+    }
+
+    public void testEnterWaitsForThaw() throws Exception {
+        final GameGate gate = new GameGate();
+        assertTrue(gate.freeze(SHORT));
+        final boolean[] entered = new boolean[1];
+        Thread t = new Thread() {
+                public void run() {
+                    gate.enter();
+                    entered[0] = true;
+                    gate.exit();
+                }
+            };
+        t.start();
+        t.join(SHORT);
+        assertTrue(t.isAlive());
+        gate.thaw();
+        t.join(LONG);
+        assertTrue(entered[0]);
+    }
+
+    public void testReleaseLetsFreeze() throws Exception {
+        final GameGate gate = new GameGate();
+        gate.enter();
+        gate.enter();
+        int entries = gate.release();
+        assertEquals(2, entries);
+        assertTrue(freezeElsewhere(gate, LONG));
+        gate.reacquire(entries);
+        gate.exit();
+        gate.exit();
+        assertTrue(gate.freeze(SHORT));
+        gate.thaw();
+    }
+
+    /**
+     * Freezes and thaws a gate on another thread.
+     *
+     * @param gate The <code>GameGate</code> to freeze.
+     * @param timeout The longest time to wait to freeze it.
+     * @return True if the gate was frozen.
+     */
+    private static boolean freezeElsewhere(final GameGate gate,
+                                           final long timeout)
+        throws InterruptedException {
+        final boolean[] frozen = new boolean[1];
+        Thread t = new Thread() {
+                public void run() {
+                    frozen[0] = gate.freeze(timeout);
+                    if (frozen[0]) gate.thaw();
+                }
+            };
+        t.start();
+        t.join();
+        return frozen[0];
+    }
+}
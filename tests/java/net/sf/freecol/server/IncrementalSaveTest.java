@@ -0,0 +1,213 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.freecol.FreeCol;
+import net.sf.freecol.common.io.FreeColSavegameFile;
+import net.sf.freecol.common.model.FreeColGameObject;
+import net.sf.freecol.common.model.Game;
+import net.sf.freecol.common.model.Map;
+import net.sf.freecol.common.model.Player;
+import net.sf.freecol.common.model.Tile;
+import net.sf.freecol.common.model.Unit;
+import net.sf.freecol.common.model.UnitType;
+import net.sf.freecol.server.model.ServerGame;
+import net.sf.freecol.server.model.ServerUnit;
+import net.sf.freecol.util.test.FreeColTestCase;
+
+
+/**
+ * Saves games with snapshots and records, reloads them, and checks
+ * that the reloaded game matches the one saved.
+ */
+public class IncrementalSaveTest extends FreeColTestCase {
+
+    private static final String PLAINS = "model.tile.plains";
+
+    private static final String OCEAN = "model.tile.ocean";
+
+    private FreeColServer server;
+
+    private File file;
+
+    /** The first error reported by a save, if any. */
+    private IOException saveError;
+
+    private final SavegameWriter.Listener listener
+        = new SavegameWriter.Listener() {
+            public void saveProgress(File f, long written, long total) {}
+
+            public void saveDone(File f, IOException error) {
+                if (error != null && saveError == null) saveError = error;
+            }
+        };
+
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        server = new FreeColServer(spec(), false, true, port, "test");
+        file = File.createTempFile("incremental", ".fsg");
+        saveError = null;
+        FreeCol.setAutosaveSnapshotTurns(10);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SavegameWriter.awaitIdle();
+        FreeCol.setAutosaveSnapshotTurns(0);
+        server.shutdown();
+        FreeColSavegameFile.getDeltaFile(file).delete();
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testChangedTiles() {
+        Game game = server.getGame();
+        Map map = getTestMap(game, PLAINS, 20, 20);
+        map.takeChangedTiles();
+
+        Tile changed = map.getTile(4, 5);
+        changed.setType(spec().getTileType(OCEAN));
+        BitSet tiles = map.takeChangedTiles();
+        assertEquals(1, tiles.cardinality());
+        assertTrue(tiles.get(map.getIndex(changed)));
+        assertTrue(map.takeChangedTiles().isEmpty());
+    }
+
+    public void testReplayRestoresGame() throws Exception {
+        Game game = server.getGame();
+        Map map = getTestMap(game, PLAINS, 20, 20);
+        Player dutch = getPlayer(game, "model.nation.dutch");
+        UnitType colonist = spec().getUnitType("model.unit.freeColonist");
+        Unit moved = new ServerUnit(game, map.getTile(2, 2), dutch, colonist);
+        Unit removed = new ServerUnit(game, map.getTile(5, 5), dutch,
+                                      colonist);
+        autosave(); // The snapshot
+
+        moved.setLocation(map.getTile(3, 3));
+        removed.dispose();
+        new ServerUnit(game, map.getTile(8, 8), dutch, colonist);
+        map.getTile(10, 10).setType(spec().getTileType(OCEAN));
+        autosave();
+
+        map.getTile(12, 12).changeOwnership(dutch, null);
+        moved.setLocation(map.getTile(4, 4));
+        autosave();
+
+        SavegameWriter.awaitIdle();
+        assertNull(saveError);
+        FreeColSavegameFile fis = new FreeColSavegameFile(file);
+        ServerGame restored = FreeColServer.readGame(fis, null, null);
+        assertEquals(2, IncrementalSave.replay(null, restored, fis));
+        assertSameGame(game, restored);
+    }
+
+    public void testSnapshotStartsNewRecords() throws Exception {
+        Game game = server.getGame();
+        Map map = getTestMap(game, PLAINS, 20, 20);
+        Player dutch = getPlayer(game, "model.nation.dutch");
+        UnitType colonist = spec().getUnitType("model.unit.freeColonist");
+        Unit unit = new ServerUnit(game, map.getTile(2, 2), dutch, colonist);
+        FreeCol.setAutosaveSnapshotTurns(1); // Every save is a snapshot
+        autosave();
+        unit.setLocation(map.getTile(3, 3));
+        autosave();
+        unit.setLocation(map.getTile(4, 4));
+
+        SavegameWriter.awaitIdle();
+        assertNull(saveError);
+        FreeColSavegameFile fis = new FreeColSavegameFile(file);
+        ServerGame restored = FreeColServer.readGame(fis, null, null);
+        assertEquals(0, IncrementalSave.replay(null, restored, fis));
+        Unit copy = (Unit) restored.getFreeColGameObject(unit.getId());
+        assertEquals(map.getTile(3, 3).getId(), copy.getTile().getId());
+    }
+
+    /**
+     * Autosaves the game, incrementally unless a snapshot is due, and
+     * waits for the save, as the test changes the game without
+     * entering the game gate.
+     *
+     * @exception IOException if the game can not be saved.
+     */
+    private void autosave() throws IOException {
+        server.autosaveGame(file, "test", null, listener);
+        SavegameWriter.awaitIdle();
+    }
+
+    /**
+     * Checks that a reloaded game has the objects of the game saved,
+     * and the same tiles and units.
+     *
+     * @param game The <code>Game</code> saved.
+     * @param restored The <code>Game</code> reloaded.
+     */
+    private static void assertSameGame(Game game, Game restored) {
+        assertEquals(getIds(game), getIds(restored));
+        final Map map = game.getMap();
+        final Map copy = restored.getMap();
+        assertEquals(map.getWidth(), copy.getWidth());
+        assertEquals(map.getHeight(), copy.getHeight());
+        for (Tile tile : map.getAllTiles()) {
+            Tile other = copy.getTile(tile.getX(), tile.getY());
+            String where = tile.toString();
+            assertEquals(where, tile.getType().getId(),
+                         other.getType().getId());
+            assertEquals(where, getId(tile.getOwner()),
+                         getId(other.getOwner()));
+            assertEquals(where, getId(tile.getSettlement()),
+                         getId(other.getSettlement()));
+            assertEquals(where, getUnitIds(tile), getUnitIds(other));
+        }
+    }
+
+    private static Set<String> getIds(Game game) {
+        Set<String> result = new HashSet<String>();
+        Iterator<FreeColGameObject> it = game.getFreeColGameObjectIterator();
+        while (it.hasNext()) result.add(it.next().getId());
+        return result;
+    }
+
+    private static List<String> getUnitIds(Tile tile) {
+        List<String> result = new ArrayList<String>();
+        for (Unit unit : tile.getUnitList()) result.add(unit.getId());
+        Collections.sort(result);
+        return result;
+    }
+
+    private static String getId(FreeColGameObject fcgo) {
+        return (fcgo == null) ? null : fcgo.getId();
+    }
+}
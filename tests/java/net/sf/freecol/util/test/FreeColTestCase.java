@@ -0,0 +1,118 @@
+/**
+ *  Copyright (C) 2002-2012   The FreeCol Team
+ *
+ *  This file is part of FreeCol.
+ *
+ *  FreeCol is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  FreeCol is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with FreeCol.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.sf.freecol.util.test;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import net.sf.freecol.common.io.FreeColTcFile;
+import net.sf.freecol.common.model.Game;
+import net.sf.freecol.common.model.Map;
+import net.sf.freecol.common.model.NationOptions;
+import net.sf.freecol.common.model.NationOptions.Advantages;
+import net.sf.freecol.common.model.Player;
+import net.sf.freecol.common.model.Specification;
+import net.sf.freecol.common.model.Tile;
+import net.sf.freecol.common.model.TileType;
+import net.sf.freecol.server.model.ServerGame;
+import net.sf.freecol.server.model.ServerPlayer;
+
+
+/**
+ * The base class for the FreeCol tests.  It loads the classic rules
+ * from the data directory once, and builds small games and maps from
+ * them.
+ */
+public abstract class FreeColTestCase extends TestCase {
+
+    /** The classic rules, loaded on first use. */
+    private static Specification specification = null;
+
+
+    /**
+     * Gets the specification the tests use.
+     *
+     * @return The classic <code>Specification</code>.
+     */
+    public static synchronized Specification spec() {
+        if (specification == null) {
+            try {
+                specification = new FreeColTcFile("classic")
+                    .getSpecification();
+            } catch (IOException e) {
+                throw new RuntimeException("Can not load the rules", e);
+            }
+        }
+        return specification;
+    }
+
+    /**
+     * Creates a new game with no players and no map.
+     *
+     * @return A new <code>Game</code>.
+     */
+    public static Game getStandardGame() {
+        Game game = new ServerGame(spec());
+        game.setNationOptions(new NationOptions(spec(),
+                                                Advantages.SELECTABLE));
+        return game;
+    }
+
+    /**
+     * Gets the player of a nation, adding it to the game if needed.
+     *
+     * @param game The <code>Game</code> to look in.
+     * @param nationId The id of the nation.
+     * @return The <code>Player</code> of the nation.
+     */
+    public static Player getPlayer(Game game, String nationId) {
+        Player player = game.getPlayer(nationId);
+        if (player == null) {
+            player = new ServerPlayer(game, nationId, false,
+                spec().getNation(nationId), null, null);
+            game.addPlayer(player);
+        }
+        return player;
+    }
+
+    /**
+     * Creates a map of one tile type and sets it as the map of a game.
+     *
+     * @param game The <code>Game</code> to use the map in.
+     * @param type The id of the <code>TileType</code> of every tile.
+     * @param width The width of the map.
+     * @param height The height of the map.
+     * @return The new <code>Map</code>.
+     */
+    public static Map getTestMap(Game game, String type, int width,
+                                 int height) {
+        final TileType tileType = spec().getTileType(type);
+        Tile[][] tiles = new Tile[width][height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                tiles[x][y] = new Tile(game, tileType, x, y);
+            }
+        }
+        Map map = new Map(game, tiles);
+        game.setMap(map);
+        return map;
+    }
+}